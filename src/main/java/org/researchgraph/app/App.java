@@ -23,8 +23,17 @@ import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.researchgraph.configuration.Properties;
 import org.researchgraph.crosswalk.CrosswalkRG;
-import org.researchgraph.graph.Graph;
+import org.researchgraph.graph.arena.ArenaGraph;
+import org.researchgraph.neo4j.FanOutGuard;
+import org.researchgraph.neo4j.Neo4jBulkImporter;
+import org.researchgraph.neo4j.Neo4jCsvExporter;
+import org.researchgraph.neo4j.Neo4jCypherWriter;
 import org.researchgraph.neo4j.Neo4jDatabase;
+import org.researchgraph.neo4j.Neo4jGraphSink;
+import org.researchgraph.neo4j.Neo4jPipeline;
+import org.researchgraph.neo4j.RelationshipSpool;
+import org.researchgraph.neo4j.TransactionSizer;
+import org.researchgraph.neo4j.WriteBehindBuffer;
 
 import com.amazonaws.auth.InstanceProfileCredentialsProvider;
 import com.amazonaws.services.s3.AmazonS3;
@@ -41,6 +50,11 @@ public class App {
     private static Neo4jDatabase neo4j;
     private static Boolean verbose;
     private static Boolean profilingEnabled;
+    private static ArenaGraph arenaGraph;
+    private static Neo4jPipeline pipeline;
+    private static Neo4jBulkImporter bulkImporter;
+    private static Neo4jCsvExporter csvExporter;
+    private static int batchSize;
 
 	public static void main(String[] args) {
 		try {
@@ -60,6 +74,14 @@ public class App {
             System.out.println("Verbose: " +  verbose.toString());
             System.out.println("Profiling enabled: " +  profilingEnabled.toString());
 
+            batchSize = properties.getInt(Properties.PROPERTY_BATCH_SIZE);
+            System.out.println("Batch size: " + batchSize);
+
+            if (Boolean.parseBoolean(properties.getString(Properties.PROPERTY_ARENA))) {
+                System.out.println("Off-heap arena: enabled");
+                arenaGraph = new ArenaGraph();
+            }
+
             if (StringUtils.isEmpty(versionFolder))
                 System.out.println("Version folder: " + versionFolder);
 
@@ -69,8 +91,81 @@ public class App {
             if (StringUtils.isEmpty(neo4jFolder))
                 throw new IllegalArgumentException("Neo4j Folder can not be empty");
             System.out.println("Neo4J: " + neo4jFolder);
-            neo4j = new Neo4jDatabase(neo4jFolder);
-            neo4j.setVerbose(verbose);
+            int relationshipSetSize = properties.getInt(Properties.PROPERTY_RELATIONSHIP_SET_SIZE);
+            System.out.println("Relationship set size: " + relationshipSetSize);
+            String csvFolder = properties.getString(Properties.PROPERTY_CSV_FOLDER);
+            if (!StringUtils.isEmpty(csvFolder)) {
+                boolean csvCompress = Boolean.parseBoolean(properties.getString(Properties.PROPERTY_CSV_COMPRESS));
+                System.out.println("CSV export: " + csvFolder + (csvCompress ? " (compressed)" : ""));
+                csvExporter = new Neo4jCsvExporter(new File(csvFolder), csvCompress, relationshipSetSize);
+                csvExporter.setVerbose(verbose);
+            } else if (Boolean.parseBoolean(properties.getString(Properties.PROPERTY_BULK))) {
+                System.out.println("Bulk import: enabled");
+                bulkImporter = new Neo4jBulkImporter(neo4jFolder, relationshipSetSize);
+                bulkImporter.setVerbose(verbose);
+            } else {
+                neo4j = new Neo4jDatabase(neo4jFolder);
+                neo4j.setVerbose(verbose);
+                int nodeCacheSize = properties.getInt(Properties.PROPERTY_NODE_CACHE_SIZE);
+                System.out.println("Node cache size: " + nodeCacheSize);
+                neo4j.setNodeCacheSize(nodeCacheSize);
+                neo4j.setRelationshipSetSize(relationshipSetSize);
+                int txSize = properties.getInt(Properties.PROPERTY_TX_SIZE);
+                if (txSize > 0) {
+                    boolean txAdaptive = properties.getBoolean(Properties.PROPERTY_TX_ADAPTIVE);
+                    System.out.println("Transaction size: " + txSize + (txAdaptive ? " (adaptive)" : ""));
+                    neo4j.setTransactionSizer(txAdaptive
+                            ? new TransactionSizer(txSize, Math.min(txSize, TransactionSizer.DEFAULT_MIN_SIZE), 
+                                    Math.max(txSize, TransactionSizer.DEFAULT_MAX_SIZE), 
+                                    TransactionSizer.DEFAULT_TARGET_LATENCY, TransactionSizer.DEFAULT_HEAP_RESERVE)
+                            : new TransactionSizer(txSize));
+                }
+                int cypherBatchSize = properties.getInt(Properties.PROPERTY_CYPHER_BATCH_SIZE);
+                if (cypherBatchSize > 0) {
+                    System.out.println("Cypher batch size: " + cypherBatchSize);
+                    neo4j.setCypherBatchSize(cypherBatchSize);
+                }
+                int writers = properties.getInt(Properties.PROPERTY_WRITERS);
+                if (writers > 0) {
+                    System.out.println("Parallel writers: " + writers);
+                    neo4j.setParallelWriters(writers, cypherBatchSize > 0 ? cypherBatchSize : Neo4jCypherWriter.DEFAULT_BATCH_SIZE);
+                }
+                if (Boolean.parseBoolean(properties.getString(Properties.PROPERTY_KEY_INDEX))) {
+                    System.out.println("Key index: enabled");
+                    neo4j.openKeyIndex();
+                }
+                if (Boolean.parseBoolean(properties.getString(Properties.PROPERTY_KEY_FILTER))) {
+                    System.out.println("Key filter: enabled");
+                    neo4j.setKeyFilterEnabled(true);
+                }
+                int fanOutMax = properties.getInt(Properties.PROPERTY_FAN_OUT_MAX);
+                FanOutGuard.Policy fanOutPolicy = FanOutGuard.Policy.valueOf(properties.getString(Properties.PROPERTY_FAN_OUT_POLICY));
+                if (fanOutMax > 0)
+                    System.out.println("Maximal fan-out: " + fanOutMax + " (" + fanOutPolicy + ")");
+                neo4j.setFanOutGuard(new FanOutGuard(fanOutMax, fanOutPolicy, FanOutGuard.DEFAULT_REPORT_SIZE));
+                boolean identifierMap = properties.getBoolean(Properties.PROPERTY_IDENTIFIER_MAP);
+                System.out.println("Identifier map: " + (identifierMap ? "enabled" : "disabled"));
+                neo4j.setIdentifierMapEnabled(identifierMap);
+                if (Boolean.parseBoolean(properties.getString(Properties.PROPERTY_PENDING_STORE))) {
+                    System.out.println("Pending relationships store: enabled");
+                    neo4j.openPendingStore();
+                }
+                int writeBufferSize = properties.getInt(Properties.PROPERTY_WRITE_BUFFER_SIZE);
+                if (writeBufferSize > 0) {
+                    long writeBufferAge = properties.getLong(Properties.PROPERTY_WRITE_BUFFER_AGE);
+                    System.out.println("Write-behind buffer: " + writeBufferSize + ", maximal age " + writeBufferAge + " ms");
+                    neo4j.setWriteBuffer(new WriteBehindBuffer(writeBufferSize, writeBufferAge));
+                }
+                String spoolFolder = properties.getString(Properties.PROPERTY_SPOOL_FOLDER);
+                if (!StringUtils.isEmpty(spoolFolder)) {
+                    System.out.println("Relationship spool: " + spoolFolder);
+                    neo4j.setRelationshipSpool(new RelationshipSpool(new File(spoolFolder), RelationshipSpool.DEFAULT_RUN_SIZE));
+                }
+                if (Boolean.parseBoolean(properties.getString(Properties.PROPERTY_PIPELINE))) {
+                    System.out.println("Pipeline: enabled");
+                    pipeline = new Neo4jPipeline(neo4j, arenaGraph);
+                }
+            }
 
 
             //Set Crosswalk settings
@@ -89,10 +184,12 @@ public class App {
 	        }
 
 
+            // version of the S3 harvest, what will be written once the import has been finished
+            String version = null;
             if (!StringUtils.isEmpty(bucket) && !StringUtils.isEmpty(prefix)) {
 	        	System.out.println("S3 Bucket: " + bucket);
 	        	System.out.println("S3 Prefix: " + prefix);
-	        	processS3Objects(bucket, prefix, template, versionFolder,source, verbose);
+	        	version = processS3Objects(bucket, prefix, template, verbose);
 
 	        } else if (!StringUtils.isEmpty(xmlFolder)) {
 	        	System.out.println("XML: " + xmlFolder);
@@ -101,11 +198,32 @@ public class App {
 	        } else
                 throw new IllegalArgumentException("Please provide either S3 Bucket and prefix OR a path to a XML Folder");
 
+            // commit the last import transaction
+            commit();
+            if (null != pipeline)
+                pipeline.close();
+
             if (!StringUtils.isEmpty(crosswalk)) {
                 crosswalkRG.printStatistics(System.out);
             }
 
-            neo4j.printStatistics(System.out);
+            if (null != csvExporter) {
+                // relationships are resolved once all the nodes have been exported
+                csvExporter.close();
+                csvExporter.printStatistics(System.out);
+            } else if (null != bulkImporter) {
+                // constraints and indexes are created once all the data has been written
+                bulkImporter.close();
+                bulkImporter.printStatistics(System.out);
+            } else {
+                neo4j.printStatistics(System.out);
+                // the key index is only kept for the next run, if it has been closed
+                neo4j.shutdown();
+            }
+
+            // the harvest is marked as imported only once all the output has been written and closed
+            if (null != version)
+                Files.write(Paths.get(versionFolder, source), version.getBytes());
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -114,7 +232,11 @@ public class App {
 		}       
 	}
 
-	private static void processS3Objects(String bucket, String prefix, Templates template, String versionFolder, String source, Boolean verboseEnabled) throws Exception {
+	/**
+	 * Function to process the latest harvest in the S3 bucket
+	 * @return version of the processed harvest
+	 */
+	private static String processS3Objects(String bucket, String prefix, Templates template, Boolean verboseEnabled) throws Exception {
 
 	    AmazonS3 s3client = new AmazonS3Client(new InstanceProfileCredentialsProvider());
 
@@ -152,11 +274,11 @@ public class App {
 			}
 			listObjectsRequest.setMarker(objectListing.getNextMarker());
 		} while (objectListing.isTruncated());
-	    
-	    Files.write(Paths.get(versionFolder, source), latest.getBytes());
 
-		System.out.println(bucket + prefix + " is done.");
 
+		System.out.println(bucket + prefix + " is done.");
+		
+		return latest;
 	}
 
 	private static void processFiles(String xmlFolder, Templates template) throws Exception {
@@ -178,7 +300,6 @@ public class App {
 	}
 
     private static void processFile(Templates template, InputStream xml) throws Exception {
-        Graph graph;
         Long markTime = System.currentTimeMillis();
         Long minorMarkTime;
         Long deltaTime;
@@ -195,30 +316,25 @@ public class App {
                 System.out.println("transform in milliseconds:" + deltaTime);
             }
 
-            InputStream stream = new ByteArrayInputStream(writer.toString().getBytes(StandardCharsets.UTF_8));
-
-            minorMarkTime=System.currentTimeMillis(); //Used for performance profiling
-            graph = crosswalkRG.process(stream);
-            if (profilingEnabled) {
-                deltaTime = System.currentTimeMillis() - minorMarkTime;
-                System.out.println("crosswalk.process in milliseconds:" + deltaTime);
-            }
+            xml = new ByteArrayInputStream(writer.toString().getBytes(StandardCharsets.UTF_8));
+        }
 
+        // nodes and relationships are imported in batches while the file is being processed
+        minorMarkTime=System.currentTimeMillis(); //Used for performance profiling
+        if (null != csvExporter) {
+            crosswalkRG.process(xml, csvExporter);
+        } else if (null != bulkImporter) {
+            crosswalkRG.process(xml, bulkImporter);
         } else {
-            minorMarkTime=System.currentTimeMillis(); //Used for performance profiling
-            graph = crosswalkRG.process(xml);
-            if (profilingEnabled) {
-                deltaTime = System.currentTimeMillis() - minorMarkTime;
-                System.out.println("crosswalk.process in milliseconds:" + deltaTime);
+            try (Neo4jGraphSink sink = openSink()) {
+                sink.setProfilingEnabled(profilingEnabled);
+                crosswalkRG.process(xml, sink);
             }
         }
 
-        minorMarkTime=System.currentTimeMillis(); //Used for performance profiling
-        neo4j.importGraph(graph, profilingEnabled);
-
         if (profilingEnabled) {
             deltaTime = System.currentTimeMillis() - minorMarkTime;
-            System.out.println("neo4j.importGraph in milliseconds:" + deltaTime);
+            System.out.println("crosswalk.process and neo4j.importGraph in milliseconds:" + deltaTime);
 
             deltaTime = markTime == 0 ? 0 : (System.currentTimeMillis() - markTime);
             System.out.println("completed in milliseconds:" + deltaTime);
@@ -227,4 +343,27 @@ public class App {
 
     }
 
+    private static Neo4jGraphSink openSink() {
+        if (null != pipeline)
+            return pipeline.openSink(batchSize);
+
+        return null == arenaGraph ? neo4j.openSink(batchSize) : neo4j.openSink(arenaGraph, batchSize);
+    }
+
+    private static void commit() {
+        // the bulk importer and the CSV exporter have no transactions, 
+        // the output is written when they are closed
+        if (null != bulkImporter || null != csvExporter)
+            return;
+
+        // spooled relationships are imported once all the nodes have been imported
+        if (null != pipeline) {
+            pipeline.importSpooledRelationships();
+            pipeline.commit();
+        } else {
+            neo4j.importSpooledRelationships();
+            neo4j.commit();
+        }
+    }
+
 }
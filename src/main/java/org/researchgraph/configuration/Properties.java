@@ -28,6 +28,27 @@ public class Properties {
 	public static final String PROPERTY_VERSIONS_FOLDER = "versions.folder";
 	public static final String PROPERTY_VERBOSE = "verbose";
 	public static final String PROPERTY_PROFILING = "profiling";
+	public static final String PROPERTY_ARENA = "arena";
+	public static final String PROPERTY_BATCH_SIZE = "batch.size";
+	public static final String PROPERTY_NODE_CACHE_SIZE = "node.cache.size";
+	public static final String PROPERTY_KEY_INDEX = "key.index";
+	public static final String PROPERTY_KEY_FILTER = "key.filter";
+	public static final String PROPERTY_RELATIONSHIP_SET_SIZE = "relationship.set.size";
+	public static final String PROPERTY_TX_SIZE = "tx.size";
+	public static final String PROPERTY_TX_ADAPTIVE = "tx.adaptive";
+	public static final String PROPERTY_PIPELINE = "pipeline";
+	public static final String PROPERTY_BULK = "bulk";
+	public static final String PROPERTY_CSV_FOLDER = "csv.folder";
+	public static final String PROPERTY_CSV_COMPRESS = "csv.compress";
+	public static final String PROPERTY_CYPHER_BATCH_SIZE = "cypher.batch.size";
+	public static final String PROPERTY_SPOOL_FOLDER = "spool.folder";
+	public static final String PROPERTY_PENDING_STORE = "pending.store";
+	public static final String PROPERTY_IDENTIFIER_MAP = "identifier.map";
+	public static final String PROPERTY_FAN_OUT_MAX = "fanout.max";
+	public static final String PROPERTY_FAN_OUT_POLICY = "fanout.policy";
+	public static final String PROPERTY_WRITERS = "writers";
+	public static final String PROPERTY_WRITE_BUFFER_SIZE = "write.buffer.size";
+	public static final String PROPERTY_WRITE_BUFFER_AGE = "write.buffer.age";
 	public static final String PROPERTY_CONFIG_FILE = "config-file";
 	
 	public static final String PROPERTY_HELP = "help";
@@ -35,6 +56,18 @@ public class Properties {
 	public static final String DEFAULT_NEO4J_FOLDER = "neo4j";
 	public static final String DEFAULT_VERSIONS_FOLDER = "versions";
 	public static final String DEFAULT_XML_TYPE = "rg";
+	public static final int DEFAULT_BATCH_SIZE = 10000;
+	public static final int DEFAULT_NODE_CACHE_SIZE = 100000;
+	public static final int DEFAULT_RELATIONSHIP_SET_SIZE = 1000000;
+	public static final int DEFAULT_TX_SIZE = 10000;
+	public static final boolean DEFAULT_TX_ADAPTIVE = true;
+	public static final int DEFAULT_CYPHER_BATCH_SIZE = 0;
+	public static final boolean DEFAULT_IDENTIFIER_MAP = true;
+	public static final int DEFAULT_FAN_OUT_MAX = 0;
+	public static final String DEFAULT_FAN_OUT_POLICY = "log";
+	public static final int DEFAULT_WRITERS = 0;
+	public static final int DEFAULT_WRITE_BUFFER_SIZE = 0;
+	public static final long DEFAULT_WRITE_BUFFER_AGE = 60000;
 
 	
 	public static Configuration fromArgs(String[] args) throws Exception {
@@ -53,6 +86,27 @@ public class Properties {
 		options.addOption( "v", PROPERTY_VERSIONS_FOLDER, true, "versions folder" );
 		options.addOption( "V", PROPERTY_VERBOSE, true, "Verbose" );
 		options.addOption( "P", PROPERTY_PROFILING, true, "Performance Profiling" );
+		options.addOption( "a", PROPERTY_ARENA, true, "Store per-file graph in an off-heap arena" );
+		options.addOption( "B", PROPERTY_BATCH_SIZE, true, "Number of nodes and relationships imported in a single batch" );
+		options.addOption( "N", PROPERTY_NODE_CACHE_SIZE, true, "Number of node ids kept in the node cache, 0 to disable" );
+		options.addOption( "k", PROPERTY_KEY_INDEX, true, "Keep node ids in a persistent key index next to the Neo4j store" );
+		options.addOption( "F", PROPERTY_KEY_FILTER, true, "Skip lookups of not existing nodes with a Bloom filter of node keys" );
+		options.addOption( "R", PROPERTY_RELATIONSHIP_SET_SIZE, true, "Number of relationships kept in the relationship set, 0 to disable" );
+		options.addOption( "T", PROPERTY_TX_SIZE, true, "Number of nodes and relationships imported in a single transaction, 0 to commit every batch" );
+		options.addOption( "A", PROPERTY_TX_ADAPTIVE, true, "Adapt transaction size to commit latency and free heap" );
+		options.addOption( "W", PROPERTY_PIPELINE, true, "Import and commit batches in a separate writer thread" );
+		options.addOption( "L", PROPERTY_BULK, true, "Bulk load into an empty Neo4j store with the batch inserter" );
+		options.addOption( "E", PROPERTY_CSV_FOLDER, true, "Export CSV files for neo4j-import into the folder instead of importing" );
+		options.addOption( "z", PROPERTY_CSV_COMPRESS, true, "Compress exported CSV files with gzip" );
+		options.addOption( "U", PROPERTY_CYPHER_BATCH_SIZE, true, "Number of rows in a single UNWIND statement, 0 to use the Core API" );
+		options.addOption( "S", PROPERTY_SPOOL_FOLDER, true, "Folder to spool relationships until all the nodes have been imported" );
+		options.addOption( "D", PROPERTY_PENDING_STORE, true, "Keep relationships with unknown nodes on the disk between the import runs" );
+		options.addOption( "I", PROPERTY_IDENTIFIER_MAP, true, "Resolve ORCID, DOI and PURL relationship ends through an in-memory identifier map" );
+		options.addOption( "O", PROPERTY_FAN_OUT_MAX, true, "Maximal number of node pairs a single relationship can expand into, 0 for no limit" );
+		options.addOption( "Y", PROPERTY_FAN_OUT_POLICY, true, "Policy for relationships over the maximal fan-out: truncate, skip or log" );
+		options.addOption( "G", PROPERTY_WRITERS, true, "Number of parallel writer threads, 0 to import in a single thread" );
+		options.addOption( "H", PROPERTY_WRITE_BUFFER_SIZE, true, "Number of nodes and relationships merged in the write-behind buffer across files, 0 to disable" );
+		options.addOption( "M", PROPERTY_WRITE_BUFFER_AGE, true, "Maximal age of the write-behind buffer in milliseconds, 0 for no limit" );
 		options.addOption( "h", PROPERTY_HELP, false, "print this message" );
 
 		// parse the command line arguments
@@ -72,6 +126,18 @@ public class Properties {
 		defaultConfig.setProperty( PROPERTY_NEO4J_FOLDER, DEFAULT_NEO4J_FOLDER );
 		defaultConfig.setProperty( PROPERTY_VERSIONS_FOLDER, DEFAULT_VERSIONS_FOLDER );
 		defaultConfig.setProperty( PROPERTY_XML_TYPE, DEFAULT_XML_TYPE );
+		defaultConfig.setProperty( PROPERTY_BATCH_SIZE, DEFAULT_BATCH_SIZE );
+		defaultConfig.setProperty( PROPERTY_NODE_CACHE_SIZE, DEFAULT_NODE_CACHE_SIZE );
+		defaultConfig.setProperty( PROPERTY_RELATIONSHIP_SET_SIZE, DEFAULT_RELATIONSHIP_SET_SIZE );
+		defaultConfig.setProperty( PROPERTY_TX_SIZE, DEFAULT_TX_SIZE );
+		defaultConfig.setProperty( PROPERTY_TX_ADAPTIVE, DEFAULT_TX_ADAPTIVE );
+		defaultConfig.setProperty( PROPERTY_CYPHER_BATCH_SIZE, DEFAULT_CYPHER_BATCH_SIZE );
+		defaultConfig.setProperty( PROPERTY_IDENTIFIER_MAP, DEFAULT_IDENTIFIER_MAP );
+		defaultConfig.setProperty( PROPERTY_FAN_OUT_MAX, DEFAULT_FAN_OUT_MAX );
+		defaultConfig.setProperty( PROPERTY_FAN_OUT_POLICY, DEFAULT_FAN_OUT_POLICY );
+		defaultConfig.setProperty( PROPERTY_WRITERS, DEFAULT_WRITERS );
+		defaultConfig.setProperty( PROPERTY_WRITE_BUFFER_SIZE, DEFAULT_WRITE_BUFFER_SIZE );
+		defaultConfig.setProperty( PROPERTY_WRITE_BUFFER_AGE, DEFAULT_WRITE_BUFFER_AGE );
 		
 		BaseConfiguration commandLineConfig = new BaseConfiguration();
 		
@@ -12,12 +12,12 @@ import javax.xml.bind.JAXBElement;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
 import javax.xml.datatype.XMLGregorianCalendar;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
 
 import org.apache.commons.lang.StringUtils;
 
 import org.openarchives.oai._2.HeaderType;
-import org.openarchives.oai._2.ListRecordsType;
-import org.openarchives.oai._2.OAIPMHtype;
 import org.openarchives.oai._2.RecordType;
 import org.openarchives.oai._2.StatusType;
 import org.researchgraph.graph.Graph;
@@ -28,6 +28,7 @@ import org.researchgraph.graph.GraphRelationship;
 import org.researchgraph.graph.GraphSchema;
 import org.researchgraph.graph.GraphUtils;
 import org.researchgraph.graph.interfaces.GraphCrosswalk;
+import org.researchgraph.graph.interfaces.GraphSink;
 import org.researchgraph.schema.v2_0.xml.nodes.Dataset;
 import org.researchgraph.schema.v2_0.xml.nodes.Grant;
 import org.researchgraph.schema.v2_0.xml.nodes.Publication;
@@ -39,6 +40,16 @@ import org.researchgraph.schema.v2_0.xml.nodes.Researcher;
 public class CrosswalkRG implements GraphCrosswalk {
 	
 	private static final SimpleDateFormat formatter;
+	private static final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+	
+	private static final String NAMESPACE_OAI = "http://www.openarchives.org/OAI/2.0/";
+	private static final String NAMESPACE_NODES = "http://researchgraph.org/schema/v2.0/xml/nodes";
+	private static final String ELEMENT_RECORD = "record";
+	private static final String ELEMENT_RESEARCHER = "researcher";
+	private static final String ELEMENT_GRANT = "grant";
+	private static final String ELEMENT_DATASET = "dataset";
+	private static final String ELEMENT_PUBLICATION = "publication";
+	private static final String ELEMENT_RELATION = "relation";
 	
 	static {
 		formatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssX");
@@ -53,6 +64,7 @@ public class CrosswalkRG implements GraphCrosswalk {
 	private long existingRecords = 0;
 	private long deletedRecords = 0;
 	private long brokenRecords = 0;
+	private long identifierRelations = 0;
 	private long filesCounter = 0;
 	private long markTime = 0;
 	
@@ -61,6 +73,7 @@ public class CrosswalkRG implements GraphCrosswalk {
 	private boolean verbose = false;
 	
 	private String source = null;
+	private GraphIndex sourceIndex = null;
 //	private boolean needAndsGroup = true;
 	
 	public CrosswalkRG() throws JAXBException {
@@ -118,6 +131,7 @@ public class CrosswalkRG implements GraphCrosswalk {
 	@Override
 	public void setSource(String source) {
 		this.source = source;
+		this.sourceIndex = GraphIndex.valueOf(source);
 	//	this.needAndsGroup = GraphUtils.SOURCE_ANDS.equals(source);
 	}
 
@@ -128,97 +142,156 @@ public class CrosswalkRG implements GraphCrosswalk {
 
 	@Override
 	public Graph process(InputStream xml) throws Exception {
+		Graph graph = new Graph();
+		process(xml, graph);
+		
+		return graph;
+	}
+	
+	/**
+	 * Function to process XML and push the result into a sink
+	 * 
+	 * The XML is read by StAX and only a single record is unmarshalled at a time,
+	 * so memory used by the crosswalk does not depend on the file size.
+	 * 
+	 * @param xml InputStream containing XML 
+	 * @param sink GraphSink to receive schemas, nodes and relationships
+	 * @throws Exception
+	 */
+	@Override
+	public void process(InputStream xml, GraphSink sink) throws Exception {
 		if (0 == markTime)
 			markTime = System.currentTimeMillis();
 		
 		++filesCounter;		
 		
-		Graph graph = new Graph();
-		graph.addSchema(new GraphSchema(source, GraphUtils.PROPERTY_KEY, true));
-		graph.addSchema(new GraphSchema(source, GraphUtils.PROPERTY_NLA, false));
-	//	graph.addSchema(new GraphSchema(source, GraphUtils.PROPERTY_NHMRC_ID, false));
-	//	graph.addSchema(new GraphSchema(source, GraphUtils.PROPERTY_ARC_ID, false));
-		graph.addSchema(new GraphSchema(source, GraphUtils.PROPERTY_ORCID_ID, false));
-		graph.addSchema(new GraphSchema(source, GraphUtils.PROPERTY_DOI, false));
-		graph.addSchema(new GraphSchema(source, GraphUtils.PROPERTY_PURL, false));
-		
-		if (type == XmlType.oai)
-			processOai((JAXBElement<?>) unmarshaller.unmarshal( xml ), graph);
-		else 
-			processRegistryObjects((RegistryObjects) unmarshaller.unmarshal( xml ), graph, false);
-				
-		return graph;
+		sink.addSchema(new GraphSchema(source, GraphUtils.PROPERTY_KEY, true));
+		sink.addSchema(new GraphSchema(source, GraphUtils.PROPERTY_NLA, false));
+	//	sink.addSchema(new GraphSchema(source, GraphUtils.PROPERTY_NHMRC_ID, false));
+	//	sink.addSchema(new GraphSchema(source, GraphUtils.PROPERTY_ARC_ID, false));
+		sink.addSchema(new GraphSchema(source, GraphUtils.PROPERTY_ORCID_ID, false));
+		sink.addSchema(new GraphSchema(source, GraphUtils.PROPERTY_DOI, false));
+		sink.addSchema(new GraphSchema(source, GraphUtils.PROPERTY_PURL, false));
+		
+		XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(xml);
+		try {
+			if (type == XmlType.oai)
+				processOai(reader, sink);
+			else 
+				processRegistryObjects(reader, sink, false);
+		} finally {
+			reader.close();
+		}
 	}
 		
 	public void printStatistics(PrintStream out) {
 		long spentTime = getSpentTime();
-		out.println( String.format("Processed %d files.\nSpent %d millisecods.\nFound %d records.\nFound %d deleted records.\nFound %d broken records.\nSpent ~ %f milliseconds per record.", 
-				filesCounter, spentTime, existingRecords, deletedRecords, brokenRecords, (float) spentTime / (float) existingRecords));
+		out.println( String.format("Processed %d files.\nSpent %d millisecods.\nFound %d records.\nFound %d deleted records.\nFound %d broken records.\nFound %d relations to an ORCID, DOI or PURL.\nSpent ~ %f milliseconds per record.", 
+				filesCounter, spentTime, existingRecords, deletedRecords, brokenRecords, identifierRelations, (float) spentTime / (float) existingRecords));
 	}
 	
-	private void processOai(JAXBElement<?> element , Graph graph) throws Exception {
-		OAIPMHtype root = (OAIPMHtype) element.getValue();
-		ListRecordsType records = root.getListRecords();
-		if (null != records &&  null != records.getRecord()) {
-			for (RecordType record : records.getRecord()) {
-				HeaderType header = record.getHeader();
-					
-				StatusType status = header.getStatus();
-				boolean deleted = status == StatusType.DELETED;
-							
-				if (null != record.getMetadata()) {
-					Object metadata = record.getMetadata().getAny();
-				//	System.out.println(metadata.getClass().toString());
-					if (metadata instanceof RegistryObjects) 
-						processRegistryObjects((RegistryObjects) metadata, graph, deleted);
-					else
-						throw new Exception("Metadata is not in rif format");
-				} else
-					throw new Exception("Unable to find metadata");
-			}
-		} else
+	private void processOai(XMLStreamReader reader, GraphSink sink) throws Exception {
+		long records = 0;
+		while (reader.hasNext()) {
+			if (reader.isStartElement() 
+					&& NAMESPACE_OAI.equals(reader.getNamespaceURI())
+					&& ELEMENT_RECORD.equals(reader.getLocalName())) {
+				processRecord(unmarshaller.unmarshal(reader, RecordType.class).getValue(), sink);
+				++records;
+			} else
+				reader.next();
+		}
+		
+		if (0 == records)
 			System.out.println("Unable to find records");
 	}
 	
+	private void processRecord(RecordType record, GraphSink sink) throws Exception {
+		HeaderType header = record.getHeader();
+			
+		StatusType status = header.getStatus();
+		boolean deleted = status == StatusType.DELETED;
+					
+		if (null != record.getMetadata()) {
+			Object metadata = record.getMetadata().getAny();
+			if (metadata instanceof JAXBElement<?>)
+				metadata = ((JAXBElement<?>) metadata).getValue();
+		//	System.out.println(metadata.getClass().toString());
+			if (metadata instanceof RegistryObjects) 
+				processRegistryObjects((RegistryObjects) metadata, sink, deleted);
+			else
+				throw new Exception("Metadata is not in rif format");
+		} else
+			throw new Exception("Unable to find metadata");
+	}
 	
+	/**
+	 * Streams content of registryObjects element. Every record is unmarshalled 
+	 * and pushed into the sink separately, in the document order.
+	 */
+	private void processRegistryObjects(XMLStreamReader reader, GraphSink sink, boolean deleted) throws Exception {
+		while (reader.hasNext()) {
+			if (reader.isStartElement() && NAMESPACE_NODES.equals(reader.getNamespaceURI())) {
+				switch (reader.getLocalName()) {
+				case ELEMENT_RESEARCHER:
+					processResearcher(unmarshaller.unmarshal(reader, Researcher.class).getValue(), sink, deleted);
+					continue;
+				case ELEMENT_GRANT:
+					processGrant(unmarshaller.unmarshal(reader, Grant.class).getValue(), sink, deleted);
+					continue;
+				case ELEMENT_DATASET:
+					processDataset(unmarshaller.unmarshal(reader, Dataset.class).getValue(), sink, deleted);
+					continue;
+				case ELEMENT_PUBLICATION:
+					processPublication(unmarshaller.unmarshal(reader, Publication.class).getValue(), sink, deleted);
+					continue;
+				case ELEMENT_RELATION:
+					processRelation(unmarshaller.unmarshal(reader, Relation.class).getValue(), sink);
+					continue;
+				}
+			} 
+			
+			reader.next();
+		}
+	}
 	
 	private void processRegistryObjects(RegistryObjects registryObjects, 
-			Graph graph, boolean deleted) throws Exception
+			GraphSink sink, boolean deleted) throws Exception
 	{
 		if (null != registryObjects) {
 			if (null != registryObjects.getResearchers()) {
 				for (Researcher researcher : registryObjects.getResearchers().getResearcher()) {
-					processResearcher(researcher, graph, deleted);
+					processResearcher(researcher, sink, deleted);
 				}
 			}
 			
 			if (null != registryObjects.getGrants()) {
 				for (Grant grant : registryObjects.getGrants().getGrant()) {
-					processGrant(grant, graph, deleted);
+					processGrant(grant, sink, deleted);
 				}
 			}
 			
 			if (null != registryObjects.getDatasets()) {
 				for (Dataset dataset : registryObjects.getDatasets().getDataset()) {
-					processDataset(dataset, graph, deleted);
+					processDataset(dataset, sink, deleted);
 				}
 			}
 			
 			if (null != registryObjects.getPublications()) {
 				for (Publication publication : registryObjects.getPublications().getPublication()) {
-					processPublication(publication, graph, deleted);
+					processPublication(publication, sink, deleted);
 				}
 			}
 			
 			if (null != registryObjects.getRelations()) {
 				for (Relation relation : registryObjects.getRelations().getRelation()) {
-					processRelation(relation, graph);
+					processRelation(relation, sink);
 				}
 			}
 		}
 	}
 	
-	private boolean processResearcher(final Researcher researcher, final Graph graph, boolean deleted) {
+	private boolean processResearcher(final Researcher researcher, final GraphSink sink, boolean deleted) {
 		++existingRecords;
 		
 		if (verbose) 
@@ -246,7 +319,7 @@ public class CrosswalkRG implements GraphCrosswalk {
 		
 		if (deleted) {
 			node.setDeleted(true);
-			graph.addNode(node);
+			sink.addNode(node);
 			
 			++deletedRecords;
 			
@@ -282,18 +355,18 @@ public class CrosswalkRG implements GraphCrosswalk {
 		
 		String orcid = GraphUtils.extractOrcidId(researcher.getOrcid());
 		if (!StringUtils.isEmpty(orcid)) 
-			node.setProperty(GraphUtils.PROPERTY_ORCID_ID, orcid);
+			node.setIndex(this.source, GraphUtils.PROPERTY_ORCID_ID, orcid);
 		
 		String scopus = GraphUtils.extractScopusAuthorId(researcher.getScopusAuthorId());
 		if (!StringUtils.isEmpty(scopus)) 
 			node.setProperty(GraphUtils.PROPERTY_SCOPUS_ID, scopus);
 		
-		graph.addNode(node);
+		sink.addNode(node);
 		
 		return true;
 	}
 	
-	private boolean processGrant(final Grant grant, final Graph graph, boolean deleted) {
+	private boolean processGrant(final Grant grant, final GraphSink sink, boolean deleted) {
 		++existingRecords;
 		
 		if (verbose) 
@@ -322,7 +395,7 @@ public class CrosswalkRG implements GraphCrosswalk {
 		
 		if (deleted) {
 			node.setDeleted(true);
-			graph.addNode(node);
+			sink.addNode(node);
 			
 			++deletedRecords;
 			
@@ -350,7 +423,7 @@ public class CrosswalkRG implements GraphCrosswalk {
 		
 		String purl = GraphUtils.extractFormalizedUrl(grant.getPurl());
 		if (!StringUtils.isEmpty(purl)) 
-			node.setProperty(GraphUtils.PROPERTY_PURL, purl);
+			node.setIndex(this.source, GraphUtils.PROPERTY_PURL, purl);
 		
 		String participantList = grant.getParticipantList();
 		if (!StringUtils.isEmpty(participantList)) {
@@ -371,12 +444,12 @@ public class CrosswalkRG implements GraphCrosswalk {
 		if (null != endYear && endYear.getYear() > 0)
 			node.setProperty(GraphUtils.PROPERTY_END_YEAR, endYear.getYear());
 		
-		graph.addNode(node);
+		sink.addNode(node);
 		
 		return true;
 	}
 	
-	private boolean processDataset(final Dataset dataset, final Graph graph, boolean deleted) {
+	private boolean processDataset(final Dataset dataset, final GraphSink sink, boolean deleted) {
 		++existingRecords;
 		
 		if (verbose) 
@@ -405,7 +478,7 @@ public class CrosswalkRG implements GraphCrosswalk {
 		
 		if (deleted) {
 			node.setDeleted(true);
-			graph.addNode(node);
+			sink.addNode(node);
 			
 			++deletedRecords;
 			
@@ -433,7 +506,7 @@ public class CrosswalkRG implements GraphCrosswalk {
 		
 		String doi = GraphUtils.extractDoi(dataset.getDoi());
 		if (!StringUtils.isEmpty(doi)) 
-			node.setProperty(GraphUtils.PROPERTY_DOI, doi);
+			node.setIndex(this.source, GraphUtils.PROPERTY_DOI, doi);
 		
 		XMLGregorianCalendar publicationYear = dataset.getPublicationYear();
 		if (null != publicationYear && publicationYear.getYear() > 0)
@@ -447,12 +520,12 @@ public class CrosswalkRG implements GraphCrosswalk {
 		if (null != megabyte)
 			node.setProperty(GraphUtils.PROPERTY_MEGABYTE, megabyte.toString());
 		
-		graph.addNode(node);
+		sink.addNode(node);
 		
 		return true;
 	}
 	
-	private boolean processPublication(final Publication publication, final Graph graph, boolean deleted) {
+	private boolean processPublication(final Publication publication, final GraphSink sink, boolean deleted) {
 		++existingRecords;
 				
 		if (verbose) 
@@ -480,7 +553,7 @@ public class CrosswalkRG implements GraphCrosswalk {
 			
 		if (deleted) {
 			node.setDeleted(true);
-			graph.addNode(node);
+			sink.addNode(node);
 			
 			++deletedRecords;
 			
@@ -512,7 +585,7 @@ public class CrosswalkRG implements GraphCrosswalk {
 		
 		String doi = GraphUtils.extractDoi(publication.getDoi());
 		if (!StringUtils.isEmpty(doi)) 
-			node.setProperty(GraphUtils.PROPERTY_DOI, doi);
+			node.setIndex(this.source, GraphUtils.PROPERTY_DOI, doi);
 		
 		XMLGregorianCalendar publicationYear = publication.getPublicationYear();
 		if (null != publicationYear && publicationYear.getYear() > 0)
@@ -522,12 +595,12 @@ public class CrosswalkRG implements GraphCrosswalk {
 		if (!StringUtils.isEmpty(scopusEid)) 
 			node.setProperty(GraphUtils.PROPERTY_SCOPUS_EID, scopusEid);
 		
-		graph.addNode(node);
+		sink.addNode(node);
 		
 		return true;
 	}
 	
-	private boolean processRelation(final Relation relation, final Graph graph) {
+	private boolean processRelation(final Relation relation, final GraphSink sink) {
 		if (verbose) 
 			System.out.println("Processing new Relation");
 	
@@ -547,12 +620,35 @@ public class CrosswalkRG implements GraphCrosswalk {
 			
 		GraphRelationship relationship = GraphRelationship.builder()
 				.withRelationship(label)
-				.withStart(source, from)
-				.withEnd(source, to)
+				.withStart(new GraphKey(sourceIndex, from))
+				.withEnd(getRelationEnd(to))
 				.build();
 				
-		graph.addRelationship(relationship);
+		sink.addRelationship(relationship);
 		
 		return true;
 	}
+	
+	/**
+	 * Function to build a key of the relation end.
+	 * 
+	 * The to_uri can be a key of a record or an ORCID, DOI or PURL of it.
+	 * An identifier is looked up through the matching secondary index, 
+	 * as it is stored in the node indexes of the records.
+	 * 
+	 * @param to the to_uri of the relation
+	 * @return GraphKey
+	 */
+	private GraphKey getRelationEnd(String to) {
+		String property = GraphUtils.getIdentifierProperty(to);
+		if (null != property) {
+			String identifier = GraphUtils.extractIdentifier(property, to);
+			if (!StringUtils.isEmpty(identifier)) {
+				++identifierRelations;
+				return new GraphKey(source, property, identifier);
+			}
+		}
+		
+		return new GraphKey(sourceIndex, to);
+	}
 }
@@ -6,7 +6,9 @@ import java.util.List;
 import java.util.Set;
 import java.util.HashSet;
 
-public class Graph {
+import org.researchgraph.graph.interfaces.GraphSink;
+
+public class Graph implements GraphSink {
 	private List<GraphNode> nodes;
 	private List<GraphRelationship> relationships;
 	private Set<GraphSchema> schemas;
@@ -47,18 +49,21 @@ public class Graph {
 		this.schemas = new HashSet<GraphSchema>(schemas);
 	}
 
+	@Override
 	public void addNode(GraphNode node) {
 		if (null == nodes) 
 			nodes = new ArrayList<GraphNode>();
 		nodes.add(node);
 	}
 	
+	@Override
 	public void addRelationship(GraphRelationship relationship) {
 		if (null == relationships) 
 			relationships = new ArrayList<GraphRelationship>();
 		relationships.add(relationship);
 	}
 	
+	@Override
 	public void addSchema(GraphSchema schema) {
 		if (null == schemas) 
 			schemas = new HashSet<GraphSchema>();
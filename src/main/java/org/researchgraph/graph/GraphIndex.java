@@ -1,82 +1,124 @@
 package org.researchgraph.graph;
 
-import org.apache.commons.lang3.builder.EqualsBuilder;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Immutable (label, property) pair used to address a node index.
+ *
+ * Instances are canonicalised through an intern table, so the same pair
+ * is always represented by the same object and equals() is usually
+ * resolved by a reference check. The hash code is computed once.
+ */
+
+public final class GraphIndex {
+	private static final ConcurrentMap<String, ConcurrentMap<String, GraphIndex>> interned
+		= new ConcurrentHashMap<String, ConcurrentMap<String, GraphIndex>>();
 
-public class GraphIndex {
 	private final String label;
 	private final String property;
-	
-	public GraphIndex(String label) {
+	private final int hash;
+
+	private GraphIndex(String label, String  property) {
 		this.label = label;
-		this. property = GraphUtils.PROPERTY_KEY;
+		this.property =  property;
+		this.hash = 31 * Objects.hashCode(label) + Objects.hashCode(property);
 	}
 
-	public GraphIndex(String label, String  property) {
-		this.label = label;
-		this. property =  property;
+	/**
+	 * Returns the canonical index for a label and the default key property
+	 * @param label Node label
+	 * @return GraphIndex instance
+	 */
+	public static GraphIndex valueOf(String label) {
+		return valueOf(label, GraphUtils.PROPERTY_KEY);
+	}
+
+	/**
+	 * Returns the canonical index for a label and property. Repeated calls
+	 * with the same arguments return the same instance without allocation.
+	 * @param label Node label
+	 * @param property Property name
+	 * @return GraphIndex instance
+	 */
+	public static GraphIndex valueOf(String label, String property) {
+		// null labels or properties can not be used as map keys, such indexes are never interned
+		if (null == label || null == property)
+			return new GraphIndex(label, property);
+
+		ConcurrentMap<String, GraphIndex> properties = interned.get(label);
+		if (null == properties) {
+			ConcurrentMap<String, GraphIndex> map = new ConcurrentHashMap<String, GraphIndex>();
+			properties = interned.putIfAbsent(label, map);
+			if (null == properties)
+				properties = map;
+		}
+
+		GraphIndex index = properties.get(property);
+		if (null == index) {
+			GraphIndex created = new GraphIndex(label, property);
+			index = properties.putIfAbsent(property, created);
+			if (null == index)
+				index = created;
+		}
+
+		return index;
 	}
-	
+
 	public String getLabel() {
 		return label;
 	}
-	
+
 	public String getProperty() {
 		return  property;
 	}
 
 	@Override
 	public int hashCode() {
-		return new HashCodeBuilder(17, 37)
-				.append(label)
-				.append(property)
-				.toHashCode();
+		return hash;
 	}
 
 	@Override
 	public boolean equals(Object obj) {
-		if (null == obj) {
-			return false;
-		}
 		if (this == obj) {
 			return true;
 		}
-		if (getClass() != obj.getClass()) {
+		if (null == obj || getClass() != obj.getClass()) {
 		     return false;
 		}
-		
+
 		GraphIndex other = (GraphIndex) obj;
-		return new EqualsBuilder()
-                .append(label, other.label)
-                .append(property, other.property)
-                .isEquals();
+		return hash == other.hash
+				&& Objects.equals(label, other.label)
+				&& Objects.equals(property, other.property);
 	}
 
 	@Override
 	public String toString() {
 		return "GraphKey [label=" + label + ", property=" + property + "]";
 	}
-	
+
 	public static Builder builder() {
 		return new Builder();
 	}
-	
+
 	public static class Builder {
 		private String label;
 		private String property = GraphUtils.PROPERTY_KEY;
-		
+
 		public Builder withLabel(String label) {
 			this.label = label;
 			return this;
 		}
-		
+
 		public Builder withProperty(String property) {
 			this.property = property;
 			return this;
 		}
-		
+
 		public GraphIndex build() {
-			return new GraphIndex(label, property); 
+			return GraphIndex.valueOf(label, property);
 		}
 	}
 }
@@ -1,25 +1,31 @@
 package org.researchgraph.graph;
 
-import org.apache.commons.lang3.builder.EqualsBuilder;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
+import java.util.Objects;
 
-public class GraphKey  {
+/**
+ * Immutable node key: a canonical GraphIndex and a value.
+ * 
+ * The hash code is computed once on construction, so keys can be used 
+ * in hash based collections without recomputing it on every lookup.
+ */
+
+public final class GraphKey  {
 	private final GraphIndex index;
 	private final Object value;
+	private final int hash;
 
 	public GraphKey(GraphIndex index, Object value) {
 		this.index = index;
 		this.value = value;
+		this.hash = 31 * Objects.hashCode(index) + Objects.hashCode(value);
 	}
 	 	
 	public GraphKey(String label, Object value) {
-		this.index = new GraphIndex(label);
-		this.value = value;
+		this(GraphIndex.valueOf(label), value);
 	}
 
 	public GraphKey(String label, String property, Object value) {
-		this.index = new GraphIndex(label, property);
-		this.value = value;
+		this(GraphIndex.valueOf(label, property), value);
 	}
 	
 	public GraphIndex getIndex() {
@@ -40,29 +46,23 @@ public class GraphKey  {
 	
 	@Override
 	public int hashCode() {
-		return new HashCodeBuilder(17, 37)
-				.append(index)
-				.append(value)
-				.toHashCode();
+		return hash;
 	}
 
 	@Override
 	public boolean equals(Object obj) {
-		if (null == obj) {
-			return false;
-		}
 		if (this == obj) {
 			return true;
 		}
-		if (getClass() != obj.getClass()) {
+		if (null == obj || getClass() != obj.getClass()) {
 		     return false;
 		}
 		
 		GraphKey other = (GraphKey) obj;
-		return new EqualsBuilder()
-                .append(index, other.index)
-                .append(value, other.value)
-                .isEquals();
+		// indexes are canonical, so reference comparison is enough in the common case
+		return hash == other.hash
+				&& (index == other.index || Objects.equals(index, other.index))
+				&& Objects.equals(value, other.value);
 	}
 	
 	@Override
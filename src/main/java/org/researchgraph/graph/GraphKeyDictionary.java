@@ -0,0 +1,328 @@
+package org.researchgraph.graph;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A compressed dictionary, what maps GraphKey values to dense int ids
+ *
+ * Node keys are long URIs with huge shared prefixes, so the values are stored
+ * front coded: the keys are grouped into buckets of BUCKET_SIZE entries in the
+ * order of insertion and every key is stored as the length of the prefix it
+ * shares with the first key of its bucket plus the remaining suffix.
+ * Any key can be decoded with at most two entry reads.
+ *
+ * Lookups use an open addressing hash table of ids and compare the probe
+ * against the encoded bytes directly, without decoding the stored key.
+ *
+ * Only keys with String values are supported. Ids are assigned from 0 and
+ * are never reused, the dictionary does not support removal.
+ *
+ * Entry layout: index(varint) prefix(varint) suffixLength(varint) suffix(bytes)
+ */
+
+public class GraphKeyDictionary implements Iterable<GraphKey> {
+	private static final int BUCKET_SIZE = 16;
+	private static final int EMPTY = 0;
+
+	private final List<GraphIndex> indexes = new ArrayList<GraphIndex>();
+	private final Map<GraphIndex, Integer> indexIds = new HashMap<GraphIndex, Integer>();
+
+	private byte[] data = new byte[4096];
+	private int dataSize = 0;
+	private int[] offsets = new int[256];
+	private int[] hashes = new int[256];
+	private int size = 0;
+
+	// table stores (id + 1), so 0 means an empty slot
+	private int[] table = new int[512];
+
+	/**
+	 * Function to get number of keys stored in the dictionary
+	 * @return number of keys
+	 */
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return 0 == size;
+	}
+
+	/**
+	 * Function to add a key to the dictionary
+	 * @param key GraphKey with a String value
+	 * @return id of the key, existing or newly assigned
+	 */
+	public int add(GraphKey key) {
+		byte[] value = getBytes(key);
+		int index = getIndexId(key.getIndex(), true);
+		int hash = hash(index, value);
+
+		int slot = findSlot(index, value, hash);
+		if (EMPTY != table[slot])
+			return table[slot] - 1;
+
+		int id = append(index, value, hash);
+		table[slot] = id + 1;
+
+		if (size * 2 > table.length)
+			rehash(table.length * 2);
+
+		return id;
+	}
+
+	/**
+	 * Function to find id of a key
+	 * @param key GraphKey
+	 * @return id of the key or -1 if the key is not in the dictionary
+	 */
+	public int getId(GraphKey key) {
+		if (null == key || !(key.getValue() instanceof String))
+			return -1;
+
+		int index = getIndexId(key.getIndex(), false);
+		if (index < 0)
+			return -1;
+
+		byte[] value = getBytes(key);
+		int slot = findSlot(index, value, hash(index, value));
+
+		return table[slot] - 1;
+	}
+
+	public boolean contains(GraphKey key) {
+		return getId(key) >= 0;
+	}
+
+	/**
+	 * Function to decode a key by it id
+	 * @param id key id
+	 * @return GraphKey
+	 */
+	public GraphKey getKey(int id) {
+		if (id < 0 || id >= size)
+			throw new IndexOutOfBoundsException("Key " + id + " does not exists");
+
+		int position = offsets[id];
+		int index = readVarInt(position);
+		position = skipVarInt(position);
+		int prefix = readVarInt(position);
+		position = skipVarInt(position);
+		int suffix = readVarInt(position);
+		position = skipVarInt(position);
+
+		byte[] value = new byte[prefix + suffix];
+		if (prefix > 0)
+			System.arraycopy(data, getHeadValue(id), value, 0, prefix);
+		System.arraycopy(data, position, value, prefix, suffix);
+
+		return new GraphKey(indexes.get(index), new String(value, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Iterates all keys in the order of their ids
+	 */
+	@Override
+	public Iterator<GraphKey> iterator() {
+		return new Iterator<GraphKey>() {
+			private int id = 0;
+
+			@Override
+			public boolean hasNext() {
+				return id < size;
+			}
+
+			@Override
+			public GraphKey next() {
+				if (id >= size)
+					throw new NoSuchElementException();
+				return getKey(id++);
+			}
+		};
+	}
+
+	/**
+	 * Function to estimate heap used by the dictionary
+	 * @return number of bytes
+	 */
+	public long getMemoryUsage() {
+		return data.length + 4L * (offsets.length + hashes.length + table.length);
+	}
+
+	public void clear() {
+		indexes.clear();
+		indexIds.clear();
+		dataSize = size = 0;
+		Arrays.fill(table, EMPTY);
+	}
+
+	private static byte[] getBytes(GraphKey key) {
+		Object value = key.getValue();
+		if (!(value instanceof String))
+			throw new IllegalArgumentException("Only keys with String values are supported by the dictionary: " + key);
+
+		return ((String) value).getBytes(StandardCharsets.UTF_8);
+	}
+
+	private int getIndexId(GraphIndex index, boolean create) {
+		Integer id = indexIds.get(index);
+		if (null == id) {
+			if (!create)
+				return -1;
+
+			id = indexes.size();
+			indexes.add(index);
+			indexIds.put(index, id);
+		}
+
+		return id;
+	}
+
+	private static int hash(int index, byte[] value) {
+		// FNV-1a
+		int hash = 0x811c9dc5 ^ index;
+		for (byte b : value) {
+			hash ^= b;
+			hash *= 0x01000193;
+		}
+
+		return hash ^ (hash >>> 16);
+	}
+
+	private int findSlot(int index, byte[] value, int hash) {
+		int mask = table.length - 1;
+		int slot = hash & mask;
+
+		while (EMPTY != table[slot]) {
+			int id = table[slot] - 1;
+			if (hashes[id] == hash && matches(id, index, value))
+				return slot;
+
+			slot = (slot + 1) & mask;
+		}
+
+		return slot;
+	}
+
+	private boolean matches(int id, int index, byte[] value) {
+		int position = offsets[id];
+		if (readVarInt(position) != index)
+			return false;
+		position = skipVarInt(position);
+		int prefix = readVarInt(position);
+		position = skipVarInt(position);
+		int suffix = readVarInt(position);
+		position = skipVarInt(position);
+
+		if (prefix + suffix != value.length)
+			return false;
+
+		if (prefix > 0) {
+			int head = getHeadValue(id);
+			for (int i = 0; i < prefix; ++i)
+				if (data[head + i] != value[i])
+					return false;
+		}
+
+		for (int i = 0; i < suffix; ++i)
+			if (data[position + i] != value[prefix + i])
+				return false;
+
+		return true;
+	}
+
+	/**
+	 * Returns an offset of the value of the first entry in a bucket.
+	 * The first entry is never compressed, so it value is stored in full.
+	 */
+	private int getHeadValue(int id) {
+		int position = offsets[id - id % BUCKET_SIZE];
+		position = skipVarInt(position);
+		position = skipVarInt(position);
+		return skipVarInt(position);
+	}
+
+	private int append(int index, byte[] value, int hash) {
+		int id = size;
+
+		int prefix = 0;
+		if (id % BUCKET_SIZE != 0) {
+			int position = offsets[id - id % BUCKET_SIZE];
+			position = skipVarInt(position);
+			position = skipVarInt(position);
+			int length = readVarInt(position);
+			int head = skipVarInt(position);
+
+			int max = Math.min(length, value.length);
+			while (prefix < max && data[head + prefix] == value[prefix])
+				++prefix;
+		}
+
+		int suffix = value.length - prefix;
+		ensureData(15 + suffix);
+
+		if (id == offsets.length) {
+			offsets = Arrays.copyOf(offsets, id * 2);
+			hashes = Arrays.copyOf(hashes, id * 2);
+		}
+		offsets[id] = dataSize;
+		hashes[id] = hash;
+
+		writeVarInt(index);
+		writeVarInt(prefix);
+		writeVarInt(suffix);
+		System.arraycopy(value, prefix, data, dataSize, suffix);
+		dataSize += suffix;
+
+		return size++;
+	}
+
+	private void rehash(int capacity) {
+		table = new int[capacity];
+		int mask = capacity - 1;
+		for (int id = 0; id < size; ++id) {
+			int slot = hashes[id] & mask;
+			while (EMPTY != table[slot])
+				slot = (slot + 1) & mask;
+			table[slot] = id + 1;
+		}
+	}
+
+	private void ensureData(int bytes) {
+		if (dataSize + bytes > data.length)
+			data = Arrays.copyOf(data, Math.max(dataSize + bytes, data.length * 2));
+	}
+
+	private void writeVarInt(int value) {
+		while ((value & ~0x7F) != 0) {
+			data[dataSize++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		data[dataSize++] = (byte) value;
+	}
+
+	private int readVarInt(int position) {
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = data[position++];
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+
+		return value;
+	}
+
+	private int skipVarInt(int position) {
+		while ((data[position++] & 0x80) != 0);
+		return position;
+	}
+}
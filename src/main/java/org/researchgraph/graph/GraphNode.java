@@ -1,7 +1,7 @@
 package org.researchgraph.graph;
 
+import java.util.Collections;
 import java.util.Set;
-import java.util.stream.Collectors;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -47,11 +47,11 @@ public class GraphNode extends GraphProperties {
 	}
 	
 	public void setKey(String index, Object value) {
-		setKey(new GraphIndex(index), value);
+		setKey(GraphIndex.valueOf(index), value);
 	}
 
 	public void setKey(String index, String key, Object value) {
-		setKey(new GraphIndex(index, key), value);
+		setKey(GraphIndex.valueOf(index, key), value);
 	}
 
 	public Map<GraphIndex, Object> getIndexes() {
@@ -59,11 +59,15 @@ public class GraphNode extends GraphProperties {
 	}
 	
 	public Set<GraphKey> getIndexSet() {
-		return null == indexes ? null : indexes
-				.entrySet()
-				.stream()
-				.map(e -> new GraphKey(e.getKey(), e.getValue()))
-				.collect(Collectors.toSet());
+		// most of the nodes do not have any secondary indexes
+		if (indexes.isEmpty())
+			return Collections.emptySet();
+		
+		Set<GraphKey> set = new HashSet<GraphKey>(indexes.size() * 2);
+		for (Map.Entry<GraphIndex, Object> entry : indexes.entrySet())
+			set.add(new GraphKey(entry.getKey(), entry.getValue()));
+		
+		return set;
 	}
 	
 	public void setIndex(GraphIndex index, Object value) {
@@ -71,11 +75,11 @@ public class GraphNode extends GraphProperties {
 	}
 	
 	public void setIndex(String index, Object value) {
-		setIndex(new GraphIndex(index), value);
+		setIndex(GraphIndex.valueOf(index), value);
 	}
 
 	public void setIndex(String index, String key, Object value) {
-		setIndex(new GraphIndex(index, key), value);
+		setIndex(GraphIndex.valueOf(index, key), value);
 	}
 
 	public boolean hasNodeSource() {
@@ -157,11 +161,11 @@ public class GraphNode extends GraphProperties {
 		}
 	
 		public Builder withKey(String index, Object value) {
-			return withKey(new GraphIndex(index), value);
+			return withKey(GraphIndex.valueOf(index), value);
 		}
 
 		public Builder withKey(String index, String property, Object value) {
-			return withKey(new GraphIndex(index, property), value);
+			return withKey(GraphIndex.valueOf(index, property), value);
 		}
 	
 		public Builder withIndex(GraphIndex index, Object value) {
@@ -174,11 +178,11 @@ public class GraphNode extends GraphProperties {
 		}
 	
 		public Builder withIndex(String index, Object value) {
-			return withIndex(new GraphIndex(index), value);
+			return withIndex(GraphIndex.valueOf(index), value);
 		}
 
 		public Builder withIndex(String index, String property, Object value) {
-			return withIndex(new GraphIndex(index, property), value);
+			return withIndex(GraphIndex.valueOf(index, property), value);
 		}
 	
 		public Builder withProperties(Map<String, Object> properties) {
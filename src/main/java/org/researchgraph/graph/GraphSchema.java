@@ -1,7 +1,6 @@
 package org.researchgraph.graph;
 
-import org.apache.commons.lang3.builder.EqualsBuilder;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
+import java.util.Objects;
 
 
 /**
@@ -16,23 +15,23 @@ import org.apache.commons.lang3.builder.HashCodeBuilder;
  * @version 1.0.0
  */
 
-public class GraphSchema {
+public final class GraphSchema {
 	private final GraphIndex index;
 	private final boolean unique;
+	private final int hash;
 	
 	public GraphSchema(GraphIndex index, boolean unique) {
 		this.index = index;
 		this.unique = unique;
+		this.hash = 31 * Objects.hashCode(index) + (unique ? 1231 : 1237);
 	}
 
 	public GraphSchema(String label, boolean unique) {
-		this.index = new GraphIndex(label);
-		this.unique = unique;
+		this(GraphIndex.valueOf(label), unique);
 	}
 
 	public GraphSchema(String label, String property, boolean unique) {
-		this.index = new GraphIndex(label, property);
-		this.unique = unique;
+		this(GraphIndex.valueOf(label, property), unique);
 	}
 	
 	public GraphIndex getIndex() {
@@ -54,29 +53,21 @@ public class GraphSchema {
 	
 	@Override
 	public boolean equals(Object obj) {
-		if (null == obj) {
-			return false;
-		}
 		if (this == obj) {
 			return true;
 		}
-		if (getClass() != obj.getClass()) {
+		if (null == obj || getClass() != obj.getClass()) {
 		     return false;
 		}
 		
 		GraphSchema other = (GraphSchema) obj;
-		return new EqualsBuilder()
-                .append(index, other.index)
-                .append(unique, other.unique)
-                .isEquals();
+		return unique == other.unique 
+				&& (index == other.index || Objects.equals(index, other.index));
 	}
 
 	@Override
 	public int hashCode() {
-		return new HashCodeBuilder(17, 37)
-				.append(index)
-				.append(unique)
-				.toHashCode();
+		return hash;
 	}
 
 	@Override
@@ -110,11 +110,13 @@ public class GraphUtils {
 	
 	private static final String URL_REGEX = "^((https?|ftp)://|(www|ftp)\\.)?[a-z0-9-]+(\\.[a-z0-9-]+)+([/?].*)?$";
 	//private static final String DOI_REGEX = "\\d{2,}(\\.\\d{4,})?/.+$";
-	private static final String DOI_REGEX = "\\d+(\\.\\d+)*/.+$";
-	private static final String ORCID_REGEX = "\\d{4}-\\d{4}-\\d{4}-\\d{3}(\\d|X)";
-	private static final String SCOPUS_AUTHOR_REGEX = "author[iI][dD]=\\d+";
-	private static final String SCOPUS_PARTNER_REGEX = "partner[iI][dD]=[A-Z0-9]+";
-	private static final String SCOPUS_EID_REGEX = "eid=[a-z0-9\\-\\.]+";
+	// DOI, ORCID and Scopus identifiers are located by hand written scanners, 
+	// what produce exactly the same result as the following regular expressions:
+	// DOI: "\\d+(\\.\\d+)*/.+$"
+	// ORCID: "\\d{4}-\\d{4}-\\d{4}-\\d{3}(\\d|X)"
+	// Scopus Author ID: "author[iI][dD]=\\d+"
+	// Scopus Partner ID: "partner[iI][dD]=[A-Z0-9]+"
+	// Scopus EID: "eid=[a-z0-9\\-\\.]+"
 	//private static final String SCOPUS_RECORD_REGEX = "scopus\\.com/inward/record\\.url?.*eid=[a-z0-9\\-\\.]+";
 	
     private static final String PART_PROTOCOL = "://";
@@ -127,6 +129,9 @@ public class GraphUtils {
     private static final String PART_ORCID_URI = "orcid.org/";
     private static final String PART_DOI_PERFIX = "doi:";
     private static final String PART_DOI_URI = "dx.doi.org/";
+    private static final String PART_DOI_HOST = "doi.org/";
+    private static final String PART_DOI_NUMBER = "10.";
+    private static final String PART_PURL = "purl.org/";
     private static final String PART_SCOPUS_URL = "www.scopus.com/inward/authorDetails.url?authorID=%s&partnerID=%s";
     private static final String PART_SCOPUS_EID_URL = "www.scopus.com/inward/record.url?eid=%s&partnerID=%s";
     private static final String PART_ARC_PURL = "purl.org/au-research/grants/arc/";
@@ -134,12 +139,13 @@ public class GraphUtils {
     private static final String PART_INSPIRE_URL = "inspirehep.net/record/";
     private static final String PART_ANDS_URL = "https://researchdata.ands.org.au/view/?key=";
     
+    private static final String PART_SCOPUS_AUTHOR = "author";
+    private static final String PART_SCOPUS_PARTNER = "partner";
+    private static final String PART_SCOPUS_EID = "eid=";
+    
+    private static final int ORCID_LENGTH = 19;
+    
     private static final Pattern patternUrl = Pattern.compile(URL_REGEX);
-    private static final Pattern patternDoi = Pattern.compile(DOI_REGEX);
-    private static final Pattern patternOrcid = Pattern.compile(ORCID_REGEX);
-    private static final Pattern patternScopusAuthor = Pattern.compile(SCOPUS_AUTHOR_REGEX);
-    private static final Pattern patternScopusPartner = Pattern.compile(SCOPUS_PARTNER_REGEX);
-    private static final Pattern patternScopusEID = Pattern.compile(SCOPUS_EID_REGEX);
    // private static final Pattern patternRecord = Pattern.compile(SCOPUS_RECORD_REGEX);
     
     /**
@@ -274,9 +280,9 @@ public class GraphUtils {
 	 */
 	public static String extractOrcidId(String str) {
     	if (StringUtils.isNotEmpty(str)) {
-    		Matcher matcher = patternOrcid.matcher(str);
-			if (matcher.find())
-				return matcher.group();
+    		int pos = findOrcid(str);
+    		if (pos >= 0)
+    			return str.substring(pos, pos + ORCID_LENGTH);
     	}
     	
     	return null;
@@ -297,14 +303,50 @@ public class GraphUtils {
 			if (pos >= 0) 
 				str = str.substring(pos + PART_DOI_URI.length());
 			
-    		Matcher matcher = patternDoi.matcher(str);
-    		if (matcher.find()) 
-    			return matcher.group();
+			return findDoi(str);
     	}
     	
 		return null;
 	}
 		
+	/**
+	 * Function to find out what kind of identifier a given URI is.
+	 * Only explicit ORCID, DOI and PURL forms are recognised, as the extractors 
+	 * would find an identifier within almost any URL.
+	 * @param str String containing URI
+	 * @return PROPERTY_ORCID_ID, PROPERTY_DOI, PROPERTY_PURL or null if the URI is not an identifier
+	 */
+	public static String getIdentifierProperty(String str) {
+		if (StringUtils.isEmpty(str))
+			return null;
+		
+		if (str.contains(PART_ORCID_URI) || (str.length() == ORCID_LENGTH && isOrcidAt(str, 0)))
+			return PROPERTY_ORCID_ID;
+		if (str.contains(PART_DOI_HOST) || str.startsWith(PART_DOI_PERFIX) || str.startsWith(PART_DOI_NUMBER))
+			return PROPERTY_DOI;
+		if (str.contains(PART_PURL))
+			return PROPERTY_PURL;
+		
+		return null;
+	}
+	
+	/**
+	 * Function to extract an identifier in the same form as it is stored in the node property
+	 * @param property PROPERTY_ORCID_ID, PROPERTY_DOI or PROPERTY_PURL
+	 * @param str String containing URI
+	 * @return String containing the identifier or null if it can not be extracted
+	 */
+	public static String extractIdentifier(String property, String str) {
+		if (PROPERTY_ORCID_ID.equals(property))
+			return extractOrcidId(str);
+		if (PROPERTY_DOI.equals(property))
+			return extractDoi(str);
+		if (PROPERTY_PURL.equals(property))
+			return extractFormalizedUrl(str);
+		
+		return null;
+	}
+		
 	/**
 	 * Function to extract Scopus Author ID fom Scopus URL
 	 * @param str String 
@@ -312,15 +354,9 @@ public class GraphUtils {
 	 */
 	public static String extractScopusAuthorId(String str) {
     	if (StringUtils.isNotEmpty(str)) {
-			Matcher matcher = patternScopusAuthor.matcher(str);
-			if (matcher.find()) {
-				String scopus = matcher.group();
-				int pos = scopus.indexOf(PART_EQUALS);
-				if (pos >= 0) {
-					scopus = scopus.substring(pos + PART_EQUALS.length());
-					if (!scopus.isEmpty())
-						return scopus;
-				}
+			String scopus = findScopusId(str, PART_SCOPUS_AUTHOR, CHARS_DIGITS);
+			if (null != scopus) {
+				return scopus;
 			} else {
 				//System.out.println("Warning: this ScopusAuthorId (" + str+ ") does not match the regular expression (" + patternScopusAuthor + " Hence, the exact value has been used.");
 				return str;
@@ -339,15 +375,9 @@ public class GraphUtils {
 	 */
 	public static String extractScopusPartnerId(String str) {
     	if (StringUtils.isNotEmpty(str)) {
-    		Matcher matcher = patternScopusPartner.matcher(str);
-    		if (matcher.find()) {
-    			String scopus =  matcher.group();
-    			int pos = scopus.indexOf(PART_EQUALS);
-    			if (pos >= 0) {
-    				scopus = scopus.substring(pos + PART_EQUALS.length());
-    				if (!scopus.isEmpty())
-    					return scopus;
-    			}
+    		String scopus = findScopusId(str, PART_SCOPUS_PARTNER, CHARS_PARTNER);
+    		if (null != scopus) {
+    			return scopus;
     		}else{
     			//System.out.println("Warning: this ScopusPartnerId (" + str+ ") does not match the regular expression (" + patternScopusPartner + "). Hence, the exact value has been used.");
     			return str;
@@ -365,15 +395,9 @@ public class GraphUtils {
 	 */
 	public static String extractScopusEID(String str) {
     	if (StringUtils.isNotEmpty(str)) {
-			Matcher matcher = patternScopusEID.matcher(str);
-			if (matcher.find()) {
-				String scopus = matcher.group();
-				int pos = scopus.indexOf(PART_EQUALS);
-				if (pos >= 0) {
-					scopus = scopus.substring(pos + PART_EQUALS.length());
-					if (!scopus.isEmpty())
-						return scopus;
-				}
+			String scopus = findScopusEid(str);
+			if (null != scopus) {
+				return scopus;
 			} else{
 
 				//System.out.println("Warning: this ScopusEID (" + str+ ") does not match the regular expression (" + patternScopusEID + "). Hence, the exact value has been used.");
@@ -478,6 +502,172 @@ public class GraphUtils {
     }
     
     
+    private static final int CHARS_DIGITS = 1;
+    private static final int CHARS_PARTNER = 2;
+    private static final int CHARS_EID = 3;
+    
+    private static boolean isDigit(char ch) {
+    	return ch >= '0' && ch <= '9';
+    }
+    
+    private static boolean isCharOf(char ch, int chars) {
+    	switch (chars) {
+    	case CHARS_DIGITS:
+    		return isDigit(ch);
+    	case CHARS_PARTNER:
+    		return isDigit(ch) || (ch >= 'A' && ch <= 'Z');
+    	case CHARS_EID:
+    		return isDigit(ch) || (ch >= 'a' && ch <= 'z') || ch == '-' || ch == '.';
+    	default:
+    		return false;
+    	}
+    }
+    
+    private static boolean isLineTerminator(char ch) {
+    	return ch == '\n' || ch == '\r' || ch == '\u0085' || ch == '\u2028' || ch == '\u2029';
+    }
+    
+    /**
+     * Finds the first ORCID ID (\\d{4}-\\d{4}-\\d{4}-\\d{3}(\\d|X)) in a string
+     * @param str String
+     * @return position of the ORCID ID or -1 if the string does not contains ORCID ID
+     */
+    private static int findOrcid(String str) {
+    	int last = str.length() - ORCID_LENGTH;
+    	
+    	// use dashes as anchors, every ORCID has one at position 4
+    	for (int dash = str.indexOf('-', 4); dash >= 0 && dash - 4 <= last; dash = str.indexOf('-', dash + 1)) {
+    		int pos = dash - 4;
+    		if (isOrcidAt(str, pos))
+    			return pos;
+    	}
+    	
+    	return -1;
+    }
+    
+    private static boolean isOrcidAt(String str, int pos) {
+    	for (int i = 0; i < ORCID_LENGTH - 1; ++i) {
+    		char ch = str.charAt(pos + i);
+    		if (i == 4 || i == 9 || i == 14) {
+    			if (ch != '-')
+    				return false;
+    		} else if (!isDigit(ch))
+    			return false;
+    	}
+    	
+    	char ch = str.charAt(pos + ORCID_LENGTH - 1);
+    	return isDigit(ch) || ch == 'X'; 
+    }
+    
+    /**
+     * Finds the first DOI (\\d+(\\.\\d+)*&#47;.+$) in a string.
+     * 
+     * The DOI must continue up to the end of the string, only a single 
+     * line terminator is allowed at the very end and is not included into the DOI.
+     * 
+     * @param str String
+     * @return DOI or null if the string does not contains DOI
+     */
+    private static String findDoi(String str) {
+    	int length = str.length();
+    	
+    	// a single terminating line terminator is allowed by the $ anchor
+    	int end = length;
+    	if (end >= 2 && str.charAt(end - 2) == '\r' && str.charAt(end - 1) == '\n')
+    		end -= 2;
+    	else if (end >= 1 && isLineTerminator(str.charAt(end - 1)))
+    		end -= 1;
+    	
+    	// the DOI can not contain line terminators, so it must start after the last one 
+    	int start = 0;
+    	for (int i = end - 1; i >= 0; --i)
+    		if (isLineTerminator(str.charAt(i))) {
+    			start = i + 1;
+    			break;
+    		}
+    	
+    	int pos = start;
+    	while (pos < end) {
+    		char ch = str.charAt(pos);
+    		if (!isDigit(ch) && ch != '.') {
+    			++pos;
+    			continue;
+    		}
+    		
+    		// a run of digits and dots, what must be terminated by slash
+    		int run = pos;
+    		int doubleDot = -1;
+    		while (pos < end) {
+    			ch = str.charAt(pos);
+    			if (ch == '.') {
+    				if (pos > run && str.charAt(pos - 1) == '.')
+    					doubleDot = pos;
+    			} else if (!isDigit(ch))
+    				break;
+    			++pos;
+    		}
+    		
+    		if (pos < end && ch == '/' && pos + 1 < end && isDigit(str.charAt(pos - 1))) {
+    			// the DOI prefix starts from the first digit after the last double dot
+    			int first = Math.max(run, doubleDot + 1);
+    			while (!isDigit(str.charAt(first)))
+    				++first;
+    			
+    			return str.substring(first, end);
+    		}
+    	}
+    	
+    	return null;
+    }
+    
+    /**
+     * Finds the first Scopus ID (prefix[iI][dD]=[chars]+) in a string
+     * @param str String
+     * @param prefix prefix of the ID
+     * @param chars character class of the ID
+     * @return Scopus ID or null if the string does not contains Scopus ID 
+     */
+    private static String findScopusId(String str, String prefix, int chars) {
+    	int length = str.length();
+    	for (int pos = str.indexOf(prefix); pos >= 0; pos = str.indexOf(prefix, pos + 1)) {
+    		int id = pos + prefix.length();
+    		if (id + 3 < length 
+    				&& (str.charAt(id) == 'i' || str.charAt(id) == 'I')
+    				&& (str.charAt(id + 1) == 'd' || str.charAt(id + 1) == 'D')
+    				&& str.charAt(id + 2) == '=' 
+    				&& isCharOf(str.charAt(id + 3), chars)) {
+    			int end = id + 4;
+    			while (end < length && isCharOf(str.charAt(end), chars))
+    				++end;
+    			
+    			return str.substring(id + 3, end);
+    		}
+    	}
+    	
+    	return null;
+    }
+    
+    /**
+     * Finds the first Scopus EID (eid=[a-z0-9\\-\\.]+) in a string
+     * @param str String
+     * @return Scopus EID or null if the string does not contains Scopus EID 
+     */
+    private static String findScopusEid(String str) {
+    	int length = str.length();
+    	for (int pos = str.indexOf(PART_SCOPUS_EID); pos >= 0; pos = str.indexOf(PART_SCOPUS_EID, pos + 1)) {
+    		int id = pos + PART_SCOPUS_EID.length();
+    		if (id < length && isCharOf(str.charAt(id), CHARS_EID)) {
+    			int end = id + 1;
+    			while (end < length && isCharOf(str.charAt(end), CHARS_EID))
+    				++end;
+    			
+    			return str.substring(id, end);
+    		}
+    	}
+    	
+    	return null;
+    }
+    
     /*public static boolean isScopusRecordURL(String str) {
     	if (StringUtils.isNotEmpty(str)) {
     		Matcher matcher = patternRecord.matcher(str);
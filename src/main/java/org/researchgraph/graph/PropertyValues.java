@@ -0,0 +1,40 @@
+package org.researchgraph.graph;
+
+import java.lang.reflect.Array;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Helper functions for property values
+ */
+
+public class PropertyValues {
+
+	/**
+	 * Function to compare the stored property value with the imported one.
+	 * Neo4j returns arrays as primitive arrays and multi valued properties are sets,
+	 * so arrays are compared by their elements regardless of the type and order.
+	 * @param existing stored value or null
+	 * @param value imported value
+	 * @return true if the value does not need to be written
+	 */
+	public static boolean isSameValue(Object existing, Object value) {
+		if (null == existing || null == value)
+			return false;
+		if (!existing.getClass().isArray() || !value.getClass().isArray())
+			return existing.equals(value);
+
+		int length = Array.getLength(existing);
+		if (length != Array.getLength(value))
+			return false;
+
+		Set<Object> elements = new HashSet<Object>();
+		for (int i = 0; i < length; ++i)
+			elements.add(Array.get(existing, i));
+		for (int i = 0; i < length; ++i)
+			if (!elements.contains(Array.get(value, i)))
+				return false;
+
+		return true;
+	}
+}
@@ -0,0 +1,83 @@
+package org.researchgraph.graph;
+
+import java.util.Collection;
+
+import org.researchgraph.graph.interfaces.GraphImportSession;
+import org.researchgraph.graph.interfaces.GraphImporter;
+
+/**
+ * Import session of a single threaded importer
+ *
+ * The calls of all the sessions are passed to the importer one at a time,
+ * synchronized on the importer, so an importer what can not write concurrently
+ * can still be shared by several threads.
+ */
+
+public class SerialImportSession implements GraphImportSession {
+	private final GraphImporter importer;
+
+	public SerialImportSession(GraphImporter importer) {
+		this.importer = importer;
+	}
+
+	@Override
+	public void importGraph(Graph graph) {
+		synchronized (importer) {
+			importer.importGraph(graph);
+		}
+	}
+
+	@Override
+	public void importNode(GraphNode node) {
+		synchronized (importer) {
+			importer.importNode(node);
+		}
+	}
+
+	@Override
+	public void importNodes(Collection<GraphNode> nodes) {
+		synchronized (importer) {
+			importer.importNodes(nodes);
+		}
+	}
+
+	@Override
+	public void importSchema(GraphSchema schema) {
+		synchronized (importer) {
+			importer.importSchema(schema);
+		}
+	}
+
+	@Override
+	public void importSchemas(Collection<GraphSchema> schemas) {
+		synchronized (importer) {
+			importer.importSchemas(schemas);
+		}
+	}
+
+	@Override
+	public void importRelationship(GraphRelationship relationship) {
+		synchronized (importer) {
+			importer.importRelationship(relationship);
+		}
+	}
+
+	@Override
+	public void importRelationships(Collection<GraphRelationship> relationships) {
+		synchronized (importer) {
+			importer.importRelationships(relationships);
+		}
+	}
+
+	/**
+	 * Every call has been passed to the importer already, so there is nothing to commit
+	 */
+	@Override
+	public void commit() {
+	}
+
+	@Override
+	public void close() {
+		commit();
+	}
+}
@@ -0,0 +1,43 @@
+package org.researchgraph.graph.arena;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dictionary used to encode repeating strings (labels, property names,
+ * relationship types) as dense int ids inside the arena.
+ *
+ * The dictionary survives ArenaGraph.clear(), so the same names are not
+ * encoded again for every file.
+ */
+
+class ArenaDictionary {
+	private final Map<String, Integer> ids = new HashMap<String, Integer>();
+	private final List<String> strings = new ArrayList<String>();
+
+	public int encode(String str) {
+		Integer id = ids.get(str);
+		if (null == id) {
+			id = strings.size();
+			strings.add(str);
+			ids.put(str, id);
+		}
+
+		return id;
+	}
+
+	public String decode(int id) {
+		return strings.get(id);
+	}
+
+	public int size() {
+		return strings.size();
+	}
+
+	public void clear() {
+		ids.clear();
+		strings.clear();
+	}
+}
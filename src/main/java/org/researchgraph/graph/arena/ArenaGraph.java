@@ -0,0 +1,739 @@
+package org.researchgraph.graph.arena;
+
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.researchgraph.graph.Graph;
+import org.researchgraph.graph.GraphIndex;
+import org.researchgraph.graph.GraphKey;
+import org.researchgraph.graph.GraphNode;
+import org.researchgraph.graph.GraphRelationship;
+import org.researchgraph.graph.GraphSchema;
+
+/**
+ * A Graph what keeps nodes and relationships encoded inside a direct ByteBuffer arena
+ *
+ * Nodes and relationships added to this graph are serialized into the arena
+ * as soon as they are added, so a large file does not keep hundreds of thousands
+ * of GraphNode objects (and their maps and sets) alive until the import is finished.
+ * Labels, property names and relationship types are dictionary encoded, property
+ * values are stored inline. Record offsets are kept in a primitive array.
+ *
+ * The importer should read the content through NodeCursor and RelationshipCursor
+ * flyweights. getNodes() and getRelationships() are still supported, but the first
+ * call will materialize every record into a read only list, what is kept until the
+ * graph has been changed, so they should only be used for small graphs.
+ * setNodes() and setRelationships() replace the records by appending the new ones,
+ * the replaced records stay in the arena until clear() has been called.
+ *
+ * The whole content can be released in one step by clear(), what keeps the
+ * allocated arena for the next batch, or by close(), what drops it.
+ *
+ * Record layout:
+ *   node:         flags(byte) keyLabel(int) keyProperty(int) keyValue(value)
+ *                 labelsCount(int) label(int)*
+ *                 indexesCount(int) [label(int) property(int) value]*
+ *                 propertiesCount(int) [name(int) value]*
+ *   relationship: type(int) startLabel(int) startProperty(int) startValue(value)
+ *                 endLabel(int) endProperty(int) endValue(value)
+ *                 propertiesCount(int) [name(int) value]*
+ *   value:        tag(byte) payload, arrays are tag(byte) elementTag(byte) count(int) payload*
+ *
+ * Null strings are encoded as -1.
+ */
+
+public class ArenaGraph extends Graph implements AutoCloseable {
+	public static final int DEFAULT_CAPACITY = 4 * 1024 * 1024;
+
+	private static final byte FLAG_DELETED = 1;
+	private static final byte FLAG_BROKEN = 2;
+
+	private static final byte TAG_NULL = 0;
+	private static final byte TAG_STRING = 1;
+	private static final byte TAG_BOOLEAN = 2;
+	private static final byte TAG_BYTE = 3;
+	private static final byte TAG_SHORT = 4;
+	private static final byte TAG_INTEGER = 5;
+	private static final byte TAG_LONG = 6;
+	private static final byte TAG_FLOAT = 7;
+	private static final byte TAG_DOUBLE = 8;
+	private static final byte TAG_ARRAY = 9;
+
+	private static final int NULL_STRING = -1;
+
+	private final ArenaDictionary dictionary = new ArenaDictionary();
+	private ByteBuffer arena;
+
+	private int[] nodes = new int[1024];
+	private int nodesCount = 0;
+	private int[] relationships = new int[1024];
+	private int relationshipsCount = 0;
+
+	// materialized records, dropped once the graph has been changed
+	private List<GraphNode> nodesView;
+	private List<GraphRelationship> relationshipsView;
+
+	public ArenaGraph() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public ArenaGraph(int capacity) {
+		arena = ByteBuffer.allocateDirect(capacity);
+	}
+
+	@Override
+	public int getNodesCount() {
+		return nodesCount;
+	}
+
+	@Override
+	public int getRelationshipsCount() {
+		return relationshipsCount;
+	}
+
+	/**
+	 * Function to get number of bytes used by encoded records
+	 * @return used arena size in bytes
+	 */
+	public int getArenaSize() {
+		return null == arena ? 0 : arena.position();
+	}
+
+	/**
+	 * Function to get number of bytes allocated for the arena
+	 * @return arena capacity in bytes
+	 */
+	public int getArenaCapacity() {
+		return null == arena ? 0 : arena.capacity();
+	}
+
+	/**
+	 * Materializes all the nodes on the first call. Use nodeCursor() instead.
+	 * @return read only list of the nodes
+	 */
+	@Override
+	public Collection<GraphNode> getNodes() {
+		if (null == nodesView) {
+			List<GraphNode> list = new ArrayList<GraphNode>(nodesCount);
+			NodeCursor cursor = nodeCursor();
+			while (cursor.next())
+				list.add(cursor.toGraphNode());
+
+			nodesView = Collections.unmodifiableList(list);
+		}
+
+		return nodesView;
+	}
+
+	/**
+	 * Replaces all the nodes. Records of the replaced nodes stay in the arena until clear().
+	 */
+	@Override
+	public void setNodes(Collection<GraphNode> nodes) {
+		checkOpen();
+
+		nodesCount = 0;
+		nodesView = null;
+		for (GraphNode node : nodes)
+			addNode(node);
+	}
+
+	/**
+	 * Materializes all the relationships on the first call. Use relationshipCursor() instead.
+	 * @return read only list of the relationships
+	 */
+	@Override
+	public Collection<GraphRelationship> getRelationships() {
+		if (null == relationshipsView) {
+			List<GraphRelationship> list = new ArrayList<GraphRelationship>(relationshipsCount);
+			RelationshipCursor cursor = relationshipCursor();
+			while (cursor.next())
+				list.add(cursor.toGraphRelationship());
+
+			relationshipsView = Collections.unmodifiableList(list);
+		}
+
+		return relationshipsView;
+	}
+
+	/**
+	 * Replaces all the relationships. Records of the replaced relationships stay in the arena until clear().
+	 */
+	@Override
+	public void setRelationships(Collection<GraphRelationship> relationships) {
+		checkOpen();
+
+		relationshipsCount = 0;
+		relationshipsView = null;
+		for (GraphRelationship relationship : relationships)
+			addRelationship(relationship);
+	}
+
+	/**
+	 * Encodes the node into the arena. If the node can not be encoded, the record is rewound
+	 * and the node is not added.
+	 */
+	@Override
+	public void addNode(GraphNode node) {
+		checkOpen();
+
+		int position = arena.position();
+		try {
+			putNode(node);
+		} catch (RuntimeException e) {
+			arena.position(position);
+			throw e;
+		}
+
+		if (nodesCount == nodes.length)
+			nodes = Arrays.copyOf(nodes, nodesCount * 2);
+		nodes[nodesCount++] = position;
+		nodesView = null;
+	}
+
+	/**
+	 * Encodes the relationship into the arena. If the relationship can not be encoded, the record is rewound
+	 * and the relationship is not added.
+	 */
+	@Override
+	public void addRelationship(GraphRelationship relationship) {
+		checkOpen();
+
+		int position = arena.position();
+		try {
+			putString(relationship.getRelationship());
+			putKey(relationship.getStart());
+			putKey(relationship.getEnd());
+			putProperties(relationship.getProperties());
+		} catch (RuntimeException e) {
+			arena.position(position);
+			throw e;
+		}
+
+		if (relationshipsCount == relationships.length)
+			relationships = Arrays.copyOf(relationships, relationshipsCount * 2);
+		relationships[relationshipsCount++] = position;
+		relationshipsView = null;
+	}
+
+	private void putNode(GraphNode node) {
+		byte flags = 0;
+		if (node.isDeleted())
+			flags |= FLAG_DELETED;
+		if (node.isBroken())
+			flags |= FLAG_BROKEN;
+
+		ensure(1);
+		arena.put(flags);
+
+		putKey(node.getKey());
+
+		Set<String> labels = node.getLabels();
+		putInt(labels.size());
+		for (String label : labels)
+			putString(label);
+
+		Map<GraphIndex, Object> indexes = node.getIndexes();
+		putInt(indexes.size());
+		for (Map.Entry<GraphIndex, Object> entry : indexes.entrySet()) {
+			putIndex(entry.getKey());
+			putValue(entry.getValue());
+		}
+
+		putProperties(node.getProperties());
+	}
+
+	public NodeCursor nodeCursor() {
+		return new NodeCursor();
+	}
+
+	public RelationshipCursor relationshipCursor() {
+		return new RelationshipCursor();
+	}
+
+	/**
+	 * Releases all the records in one step. The allocated arena and
+	 * the string dictionary are kept and will be reused by the next batch.
+	 */
+	public void clear() {
+		if (null != arena)
+			arena.clear();
+		nodesCount = relationshipsCount = 0;
+		nodesView = null;
+		relationshipsView = null;
+		setSchemas(Collections.<GraphSchema>emptySet());
+	}
+
+	/**
+	 * Releases all the records and drops the arena. The direct memory
+	 * will be returned once the buffer has been garbage collected.
+	 */
+	@Override
+	public void close() {
+		clear();
+		dictionary.clear();
+		arena = null;
+	}
+
+	private void checkOpen() {
+		if (null == arena)
+			throw new IllegalStateException("ArenaGraph has been closed");
+	}
+
+	private void ensure(int bytes) {
+		if (arena.remaining() < bytes) {
+			long required = (long) arena.position() + bytes;
+			long capacity = Math.max(arena.capacity(), 1024);
+			while (capacity < required)
+				capacity *= 2;
+			if (capacity > Integer.MAX_VALUE)
+				throw new IllegalStateException("ArenaGraph can not grow beyond 2GB");
+
+			ByteBuffer buffer = ByteBuffer.allocateDirect((int) capacity);
+			arena.flip();
+			buffer.put(arena);
+			arena = buffer;
+		}
+	}
+
+	private void putInt(int value) {
+		ensure(4);
+		arena.putInt(value);
+	}
+
+	private void putString(String str) {
+		putInt(null == str ? NULL_STRING : dictionary.encode(str));
+	}
+
+	private void putIndex(GraphIndex index) {
+		putString(null == index ? null : index.getLabel());
+		putString(null == index ? null : index.getProperty());
+	}
+
+	private void putKey(GraphKey key) {
+		putIndex(null == key ? null : key.getIndex());
+		putValue(null == key ? null : key.getValue());
+	}
+
+	private void putProperties(Map<String, Object> properties) {
+		putInt(properties.size());
+		for (Map.Entry<String, Object> entry : properties.entrySet()) {
+			putString(entry.getKey());
+			putValue(entry.getValue());
+		}
+	}
+
+	private void putValue(Object value) {
+		if (null == value) {
+			ensure(1);
+			arena.put(TAG_NULL);
+		} else if (value.getClass().isArray()) {
+			int count = Array.getLength(value);
+			byte tag = getTag(value.getClass().getComponentType());
+			ensure(6);
+			arena.put(TAG_ARRAY);
+			arena.put(tag);
+			arena.putInt(count);
+			for (int i = 0; i < count; ++i)
+				putPayload(tag, Array.get(value, i));
+		} else {
+			byte tag = getTag(value.getClass());
+			ensure(1);
+			arena.put(tag);
+			putPayload(tag, value);
+		}
+	}
+
+	private void putPayload(byte tag, Object value) {
+		switch (tag) {
+		case TAG_STRING:
+			byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+			ensure(4 + bytes.length);
+			arena.putInt(bytes.length);
+			arena.put(bytes);
+			break;
+		case TAG_BOOLEAN:
+			ensure(1);
+			arena.put((byte) ((Boolean) value ? 1 : 0));
+			break;
+		case TAG_BYTE:
+			ensure(1);
+			arena.put((Byte) value);
+			break;
+		case TAG_SHORT:
+			ensure(2);
+			arena.putShort((Short) value);
+			break;
+		case TAG_INTEGER:
+			ensure(4);
+			arena.putInt((Integer) value);
+			break;
+		case TAG_LONG:
+			ensure(8);
+			arena.putLong((Long) value);
+			break;
+		case TAG_FLOAT:
+			ensure(4);
+			arena.putFloat((Float) value);
+			break;
+		case TAG_DOUBLE:
+			ensure(8);
+			arena.putDouble((Double) value);
+			break;
+		}
+	}
+
+	private static byte getTag(Class<?> type) {
+		if (type == String.class)
+			return TAG_STRING;
+		if (type == Boolean.class)
+			return TAG_BOOLEAN;
+		if (type == Byte.class)
+			return TAG_BYTE;
+		if (type == Short.class)
+			return TAG_SHORT;
+		if (type == Integer.class)
+			return TAG_INTEGER;
+		if (type == Long.class)
+			return TAG_LONG;
+		if (type == Float.class)
+			return TAG_FLOAT;
+		if (type == Double.class)
+			return TAG_DOUBLE;
+
+		throw new IllegalArgumentException("Unable to store property in the arena, the property type: " + type + " is not supported");
+	}
+
+	private static Class<?> getType(byte tag) {
+		switch (tag) {
+		case TAG_STRING:
+			return String.class;
+		case TAG_BOOLEAN:
+			return Boolean.class;
+		case TAG_BYTE:
+			return Byte.class;
+		case TAG_SHORT:
+			return Short.class;
+		case TAG_INTEGER:
+			return Integer.class;
+		case TAG_LONG:
+			return Long.class;
+		case TAG_FLOAT:
+			return Float.class;
+		case TAG_DOUBLE:
+			return Double.class;
+		default:
+			throw new IllegalStateException("Invalid arena value tag: " + tag);
+		}
+	}
+
+	private String getString(int offset) {
+		int id = arena.getInt(offset);
+		return NULL_STRING == id ? null : dictionary.decode(id);
+	}
+
+	private GraphIndex getIndex(int offset) {
+		String label = getString(offset);
+		String property = getString(offset + 4);
+		return null == label && null == property ? null : GraphIndex.valueOf(label, property);
+	}
+
+	private GraphKey getKey(int offset) {
+		GraphIndex index = getIndex(offset);
+		Object value = getValue(offset + 8);
+		return null == index && null == value ? null : new GraphKey(index, value);
+	}
+
+	private Object getValue(int offset) {
+		byte tag = arena.get(offset);
+		if (TAG_NULL == tag)
+			return null;
+		if (TAG_ARRAY == tag) {
+			byte elementTag = arena.get(offset + 1);
+			int count = arena.getInt(offset + 2);
+			Object array = Array.newInstance(getType(elementTag), count);
+			int position = offset + 6;
+			for (int i = 0; i < count; ++i) {
+				Array.set(array, i, getPayload(elementTag, position));
+				position = skipPayload(elementTag, position);
+			}
+			return array;
+		}
+
+		return getPayload(tag, offset + 1);
+	}
+
+	private Object getPayload(byte tag, int offset) {
+		switch (tag) {
+		case TAG_STRING:
+			int length = arena.getInt(offset);
+			byte[] bytes = new byte[length];
+			ByteBuffer slice = arena.duplicate();
+			slice.position(offset + 4);
+			slice.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		case TAG_BOOLEAN:
+			return arena.get(offset) != 0;
+		case TAG_BYTE:
+			return arena.get(offset);
+		case TAG_SHORT:
+			return arena.getShort(offset);
+		case TAG_INTEGER:
+			return arena.getInt(offset);
+		case TAG_LONG:
+			return arena.getLong(offset);
+		case TAG_FLOAT:
+			return arena.getFloat(offset);
+		case TAG_DOUBLE:
+			return arena.getDouble(offset);
+		default:
+			throw new IllegalStateException("Invalid arena value tag: " + tag);
+		}
+	}
+
+	private int skipPayload(byte tag, int offset) {
+		switch (tag) {
+		case TAG_STRING:
+			return offset + 4 + arena.getInt(offset);
+		case TAG_BOOLEAN:
+		case TAG_BYTE:
+			return offset + 1;
+		case TAG_SHORT:
+			return offset + 2;
+		case TAG_INTEGER:
+		case TAG_FLOAT:
+			return offset + 4;
+		case TAG_LONG:
+		case TAG_DOUBLE:
+			return offset + 8;
+		default:
+			throw new IllegalStateException("Invalid arena value tag: " + tag);
+		}
+	}
+
+	private int skipValue(int offset) {
+		byte tag = arena.get(offset);
+		if (TAG_NULL == tag)
+			return offset + 1;
+		if (TAG_ARRAY == tag) {
+			byte elementTag = arena.get(offset + 1);
+			int count = arena.getInt(offset + 2);
+			int position = offset + 6;
+			for (int i = 0; i < count; ++i)
+				position = skipPayload(elementTag, position);
+			return position;
+		}
+
+		return skipPayload(tag, offset + 1);
+	}
+
+	private static int[] grow(int[] array, int size) {
+		return size <= array.length ? array : Arrays.copyOf(array, Math.max(size, array.length * 2));
+	}
+
+	/**
+	 * Offsets of the property entries of a record. Shared by both cursors.
+	 */
+	private abstract class PropertiesCursor {
+		protected int[] properties = new int[16];
+		protected int propertiesCount;
+
+		protected int readProperties(int offset) {
+			propertiesCount = arena.getInt(offset);
+			properties = grow(properties, propertiesCount);
+			offset += 4;
+			for (int i = 0; i < propertiesCount; ++i) {
+				properties[i] = offset;
+				offset = skipValue(offset + 4);
+			}
+
+			return offset;
+		}
+
+		public int getPropertiesCount() {
+			return propertiesCount;
+		}
+
+		public String getPropertyName(int n) {
+			return getString(properties[n]);
+		}
+
+		public Object getPropertyValue(int n) {
+			return getValue(properties[n] + 4);
+		}
+
+		public Map<String, Object> getProperties() {
+			Map<String, Object> map = new HashMap<String, Object>(propertiesCount * 2);
+			for (int i = 0; i < propertiesCount; ++i)
+				map.put(getPropertyName(i), getPropertyValue(i));
+
+			return map;
+		}
+	}
+
+	/**
+	 * Flyweight accessor to the encoded nodes. The cursor does not create any
+	 * objects, except property values, what are decoded on request.
+	 */
+	public final class NodeCursor extends PropertiesCursor {
+		private int position = -1;
+		private int offset;
+		private int labels;
+		private int labelsCount;
+		private int[] indexes = new int[4];
+		private int indexesCount;
+
+		private NodeCursor() {
+		}
+
+		public boolean next() {
+			if (position + 1 >= nodesCount)
+				return false;
+
+			moveTo(position + 1);
+			return true;
+		}
+
+		public void moveTo(int n) {
+			if (n < 0 || n >= nodesCount)
+				throw new IndexOutOfBoundsException("Node " + n + " does not exists");
+
+			position = n;
+			offset = nodes[n];
+
+			int next = skipValue(offset + 9);
+			labelsCount = arena.getInt(next);
+			labels = next + 4;
+
+			next = labels + labelsCount * 4;
+			indexesCount = arena.getInt(next);
+			indexes = grow(indexes, indexesCount);
+			next += 4;
+			for (int i = 0; i < indexesCount; ++i) {
+				indexes[i] = next;
+				next = skipValue(next + 8);
+			}
+
+			readProperties(next);
+		}
+
+		public boolean isDeleted() {
+			return (arena.get(offset) & FLAG_DELETED) != 0;
+		}
+
+		public boolean isBroken() {
+			return (arena.get(offset) & FLAG_BROKEN) != 0;
+		}
+
+		public String getKeyLabel() {
+			return getString(offset + 1);
+		}
+
+		public String getKeyProperty() {
+			return getString(offset + 5);
+		}
+
+		public Object getKeyValue() {
+			return getValue(offset + 9);
+		}
+
+		public GraphKey getKey() {
+			return ArenaGraph.this.getKey(offset + 1);
+		}
+
+		public int getLabelsCount() {
+			return labelsCount;
+		}
+
+		public String getLabel(int n) {
+			return getString(labels + n * 4);
+		}
+
+		public int getIndexesCount() {
+			return indexesCount;
+		}
+
+		public GraphIndex getIndex(int n) {
+			return ArenaGraph.this.getIndex(indexes[n]);
+		}
+
+		public Object getIndexValue(int n) {
+			return getValue(indexes[n] + 8);
+		}
+
+		public GraphNode toGraphNode() {
+			Set<String> set = new HashSet<String>(labelsCount * 2);
+			for (int i = 0; i < labelsCount; ++i)
+				set.add(getLabel(i));
+
+			Map<GraphIndex, Object> map = new HashMap<GraphIndex, Object>(indexesCount * 2);
+			for (int i = 0; i < indexesCount; ++i)
+				map.put(getIndex(i), getIndexValue(i));
+
+			return new GraphNode(getKey(), set, map, getProperties());
+		}
+	}
+
+	/**
+	 * Flyweight accessor to the encoded relationships.
+	 */
+	public final class RelationshipCursor extends PropertiesCursor {
+		private int position = -1;
+		private int offset;
+		private int end;
+
+		private RelationshipCursor() {
+		}
+
+		public boolean next() {
+			if (position + 1 >= relationshipsCount)
+				return false;
+
+			moveTo(position + 1);
+			return true;
+		}
+
+		public void moveTo(int n) {
+			if (n < 0 || n >= relationshipsCount)
+				throw new IndexOutOfBoundsException("Relationship " + n + " does not exists");
+
+			position = n;
+			offset = relationships[n];
+			end = skipValue(offset + 12);
+
+			readProperties(skipValue(end + 8));
+		}
+
+		public String getRelationship() {
+			return getString(offset);
+		}
+
+		public GraphKey getStart() {
+			return getKey(offset + 4);
+		}
+
+		public GraphKey getEnd() {
+			return getKey(end);
+		}
+
+		public GraphRelationship toGraphRelationship() {
+			return new GraphRelationship(getRelationship(), getStart(), getEnd(), getProperties());
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ArenaGraph [nodes=" + nodesCount + ", relationships=" + relationshipsCount
+				+ ", arena=" + getArenaSize() + "/" + getArenaCapacity() + ", schemas=" + getSchemas() + "]";
+	}
+}
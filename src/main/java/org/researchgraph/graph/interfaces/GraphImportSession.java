@@ -0,0 +1,35 @@
+package org.researchgraph.graph.interfaces;
+
+import java.util.Collection;
+
+import org.researchgraph.graph.Graph;
+import org.researchgraph.graph.GraphNode;
+import org.researchgraph.graph.GraphRelationship;
+import org.researchgraph.graph.GraphSchema;
+
+/**
+ * Import session of a GraphImporter
+ *
+ * Every session keeps its own state, so several threads can import into the
+ * same importer at the same time, each of them through its own session.
+ * A session must only be used by one thread at a time and must be closed
+ * to import the last batch.
+ */
+
+public interface GraphImportSession extends AutoCloseable {
+	void importGraph(Graph graph);
+
+	void importNode(GraphNode node);
+	void importNodes(Collection<GraphNode> nodes);
+
+	void importSchema(GraphSchema schema);
+	void importSchemas(Collection<GraphSchema> schemas);
+
+	void importRelationship(GraphRelationship relationship);
+	void importRelationships(Collection<GraphRelationship> relationships);
+
+	void commit();
+
+	@Override
+	void close();
+}
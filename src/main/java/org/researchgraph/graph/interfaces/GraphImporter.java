@@ -21,4 +21,6 @@ public interface GraphImporter {
 	
 	boolean isVerbose();
 	void setVerbose(boolean verbose);
+	
+	GraphImportSession openSession();
 }
@@ -0,0 +1,19 @@
+package org.researchgraph.graph.interfaces;
+
+import org.researchgraph.graph.GraphNode;
+import org.researchgraph.graph.GraphRelationship;
+import org.researchgraph.graph.GraphSchema;
+
+/**
+ * Receiver of the crosswalk output
+ * 
+ * Schemas, nodes and relationships are pushed to the sink as soon as they
+ * have been produced, so the whole file does not need to be kept in memory.
+ * Relationships can refer to nodes, what have not been pushed yet.  
+ */
+
+public interface GraphSink {
+	void addSchema(GraphSchema schema);
+	void addNode(GraphNode node);
+	void addRelationship(GraphRelationship relationship);
+}
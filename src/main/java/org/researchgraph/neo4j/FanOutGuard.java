@@ -0,0 +1,207 @@
+package org.researchgraph.neo4j;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.researchgraph.graph.GraphKey;
+import org.researchgraph.graph.GraphRelationship;
+
+/**
+ * Accounting and limit of relationship fan-out
+ *
+ * A relationship is created between every start and every end node, what
+ * matched its keys. If a key of not unique index matches many nodes, a single
+ * relationship expands into a cartesian product of merges. The guard counts
+ * the fan-out (number of node pairs) of every relationship, keeps a report of
+ * the worst relationships and applies the policy to the relationships, what
+ * exceed the maximal fan-out:
+ *
+ * truncate - only the first pairs, up to the maximal fan-out, are merged
+ * skip     - the relationship is not imported at all
+ * log      - the relationship is imported and only reported
+ *
+ * The guard is shared by the writer threads and the import sessions, so the
+ * accounting is synchronized.
+ */
+
+public class FanOutGuard {
+	public static final int DEFAULT_MAX_FAN_OUT = 0;
+	public static final int DEFAULT_REPORT_SIZE = 10;
+
+	public enum Policy {
+		truncate, skip, log
+	}
+
+	private final int maxFanOut;
+	private final Policy policy;
+	private final int reportSize;
+
+	// the worst relationships, the head of the queue has the lowest fan-out
+	private final PriorityQueue<Offender> offenders = new PriorityQueue<Offender>(
+			(a, b) -> Long.compare(a.fanOut, b.fanOut));
+
+	private long relationships = 0;
+	private long pairs = 0;
+	private long expanded = 0;
+	private long exceeded = 0;
+	private long truncatedPairs = 0;
+	private long skipped = 0;
+	private long maxSeen = 0;
+
+	/**
+	 * Relationship with a fan-out over 1
+	 */
+	private static class Offender {
+		private final GraphRelationship relationship;
+		private final int starts;
+		private final int ends;
+		private final long fanOut;
+
+		Offender(GraphRelationship relationship, int starts, int ends) {
+			this.relationship = relationship;
+			this.starts = starts;
+			this.ends = ends;
+			this.fanOut = (long) starts * ends;
+		}
+	}
+
+	/**
+	 * Creates a guard
+	 * @param maxFanOut maximal number of node pairs of a single relationship, 0 for no limit
+	 * @param policy Policy for relationships over the limit
+	 * @param reportSize number of the worst relationships to report
+	 */
+	public FanOutGuard(int maxFanOut, Policy policy, int reportSize) {
+		if (maxFanOut < 0)
+			throw new IllegalArgumentException("Maximal fan-out must not be negative");
+		if (null == policy)
+			throw new IllegalArgumentException("Fan-out policy must be provided");
+
+		this.maxFanOut = maxFanOut;
+		this.policy = policy;
+		this.reportSize = reportSize;
+	}
+
+	public int getMaxFanOut() {
+		return maxFanOut;
+	}
+
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Function to account a relationship and to find out how many node pairs should be merged
+	 * @param relationship GraphRelationship
+	 * @param starts number of start nodes
+	 * @param ends number of end nodes
+	 * @return number of pairs to merge
+	 */
+	public synchronized long check(GraphRelationship relationship, int starts, int ends) {
+		long fanOut = (long) starts * ends;
+
+		++relationships;
+		pairs += fanOut;
+		if (fanOut > maxSeen)
+			maxSeen = fanOut;
+
+		if (fanOut <= 1)
+			return fanOut;
+
+		++expanded;
+		if (reportSize > 0 && (offenders.size() < reportSize || offenders.peek().fanOut < fanOut)) {
+			offenders.add(new Offender(relationship, starts, ends));
+			if (offenders.size() > reportSize)
+				offenders.poll();
+		}
+
+		if (0 == maxFanOut || fanOut <= maxFanOut)
+			return fanOut;
+
+		++exceeded;
+		switch (policy) {
+		case truncate:
+			truncatedPairs += fanOut - maxFanOut;
+			return maxFanOut;
+		case skip:
+			++skipped;
+			return 0;
+		default:
+			return fanOut;
+		}
+	}
+
+	/**
+	 * Function to check if a fan-out is over the limit
+	 * @param fanOut number of node pairs
+	 * @return true if the fan-out exceeds the maximal fan-out
+	 */
+	public boolean isExceeded(long fanOut) {
+		return maxFanOut > 0 && fanOut > maxFanOut;
+	}
+
+	public synchronized long getRelationships() {
+		return relationships;
+	}
+
+	public synchronized long getPairs() {
+		return pairs;
+	}
+
+	/**
+	 * Function to get number of relationships with more than one node pair
+	 * @return number of relationships
+	 */
+	public synchronized long getExpanded() {
+		return expanded;
+	}
+
+	/**
+	 * Function to get number of relationships over the maximal fan-out
+	 * @return number of relationships
+	 */
+	public synchronized long getExceeded() {
+		return exceeded;
+	}
+
+	public synchronized long getTruncatedPairs() {
+		return truncatedPairs;
+	}
+
+	public synchronized long getSkipped() {
+		return skipped;
+	}
+
+	public synchronized long getMaxSeen() {
+		return maxSeen;
+	}
+
+	/**
+	 * Function to print the statistics and the worst relationships, starting from the worst one
+	 * @param out PrintStream
+	 */
+	public synchronized void printReport(PrintStream out) {
+		out.println(String.format("%d relationships expanded into %d node pairs, %d relationships with more than one pair, maximal fan-out %d.",
+				relationships, pairs, expanded, maxSeen));
+		if (maxFanOut > 0)
+			out.println(String.format("%d relationships over the maximal fan-out %d (%s): %d pairs truncated, %d relationships skipped.",
+					exceeded, maxFanOut, policy, truncatedPairs, skipped));
+
+		if (!offenders.isEmpty()) {
+			List<Offender> list = new ArrayList<Offender>(offenders);
+			list.sort((a, b) -> Long.compare(b.fanOut, a.fanOut));
+
+			out.println("The worst relationship fan-outs:");
+			for (Offender offender : list)
+				out.println(String.format("  (%s)-[%s]->(%s): %d x %d = %d pairs",
+						_format(offender.relationship.getStart()), offender.relationship.getRelationship(),
+						_format(offender.relationship.getEnd()), offender.starts, offender.ends, offender.fanOut));
+		}
+	}
+
+	private static String _format(GraphKey key) {
+		return key.getLabel() + "." + key.getProperty() + "." + key.getValue();
+	}
+}
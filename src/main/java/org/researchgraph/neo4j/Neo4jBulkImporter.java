@@ -0,0 +1,473 @@
+package org.researchgraph.neo4j;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.kernel.impl.store.id.IdType;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+import org.neo4j.unsafe.batchinsert.BatchInserters;
+import org.neo4j.unsafe.batchinsert.BatchRelationship;
+import org.neo4j.unsafe.batchinsert.internal.BatchInserterImpl;
+import org.researchgraph.graph.Graph;
+import org.researchgraph.graph.GraphIndex;
+import org.researchgraph.graph.GraphKey;
+import org.researchgraph.graph.GraphKeyDictionary;
+import org.researchgraph.graph.GraphNode;
+import org.researchgraph.graph.GraphRelationship;
+import org.researchgraph.graph.GraphSchema;
+import org.researchgraph.graph.SerialImportSession;
+import org.researchgraph.graph.interfaces.GraphImportSession;
+import org.researchgraph.graph.interfaces.GraphImporter;
+import org.researchgraph.graph.interfaces.GraphSink;
+
+/**
+ * Offline bulk importer, what writes crosswalk output with the Neo4j BatchInserter
+ *
+ * The importer is intended for initial loads into an empty store. Nodes and
+ * relationships are written without transactions and without index lookups:
+ * node ids are assigned through an in-memory map of every node key and index
+ * key to the node id. Keys are stored in a GraphKeyDictionary and node ids in
+ * a primitive array indexed by the key id.
+ *
+ * Nodes and relationships are merged exactly as by Neo4jDatabase: a node with
+ * a known key will be updated and a relationship between the same nodes with
+ * the same type will be created only once. Relationships with an unknown node
+ * will be imported as soon as that node has been created.
+ *
+ * Constraints and indexes of all imported schemas are created once all the data
+ * has been written, when the importer is closed. The store must not be opened by
+ * any other process during the import and it will be consistent only after the
+ * importer has been closed.
+ */
+
+public class Neo4jBulkImporter implements GraphImporter, GraphSink, AutoCloseable {
+	private static final long[] NO_NODES = new long[0];
+
+	private final BatchInserter inserter;
+
+	private boolean verbose = false;
+	private long nodesCreated = 0;
+	private long nodesUpdated = 0;
+	private long relationshipsCreated = 0;
+	private long relationshipsUpdated = 0;
+
+	private final Map<GraphIndex, Boolean> schemas = new LinkedHashMap<GraphIndex, Boolean>();
+	private final PendingRelationships unknownRelationships = new PendingRelationships();
+	private final RelationshipSet relationshipSet;
+
+	private final GraphKeyDictionary keys = new GraphKeyDictionary();
+	// node id + 1 by key id, so 0 means no node
+	private long[] nodeIds = new long[1024];
+	// keys what match more than one node
+	private final Map<Integer, long[]> sharedNodeIds = new HashMap<Integer, long[]>();
+	// keys with not String values can not be stored in the dictionary
+	private final Map<GraphKey, long[]> otherNodeIds = new HashMap<GraphKey, long[]>();
+
+	/**
+	 * Opens the store of the Neo4j instance for bulk import
+	 * @param neo4jFolder path to an existing Neo4j instance
+	 * @param relationshipSetSize number of relationships kept in memory to skip duplicates.
+	 * Once the set is full, duplicates will be looked for in the store.
+	 * @throws Neo4jException if the store can not be opened or it is not empty
+	 */
+	public Neo4jBulkImporter(final String neo4jFolder, int relationshipSetSize) throws Neo4jException {
+		File db = new File(neo4jFolder, Neo4jDatabase.NEO4J_DB);
+		File conf = new File(neo4jFolder, Neo4jDatabase.NEO4J_CONF);
+
+		try {
+			db.mkdirs();
+			inserter = conf.isFile()
+					? BatchInserters.inserter(db, MapUtil.load(conf))
+					: BatchInserters.inserter(db);
+		} catch (Exception e) {
+			throw new Neo4jException("Unable to open Neo4j store located at: " + db + ". Error: " + e.getMessage());
+		}
+
+		// node 0 could have been deleted, so the node ids in use are counted instead
+		if (_getNodeIdsInUse() > 0) {
+			inserter.shutdown();
+			throw new Neo4jException("The Neo4j store located at: " + db + " is not empty. Bulk import requires an empty store");
+		}
+
+		relationshipSet = new RelationshipSet(relationshipSetSize);
+	}
+
+	/**
+	 * Function to get number of node ids in use by the store
+	 */
+	private long _getNodeIdsInUse() {
+		return ((BatchInserterImpl) inserter).getIdGeneratorFactory().get(IdType.NODE).getNumberOfIdsInUse();
+	}
+
+	@Override
+	public boolean isVerbose() {
+		return verbose;
+	}
+
+	@Override
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/**
+	 * Function to open a session, what passes all its calls to this importer one at a time
+	 * @return SerialImportSession
+	 */
+	@Override
+	public GraphImportSession openSession() {
+		return new SerialImportSession(this);
+	}
+
+	public long getNodesCreated() {
+		return nodesCreated;
+	}
+
+	public long getNodesUpdated() {
+		return nodesUpdated;
+	}
+
+	public long getRelationshipsCreated() {
+		return relationshipsCreated;
+	}
+
+	public long getRelationshipsUpdated() {
+		return relationshipsUpdated;
+	}
+
+	public void printStatistics(PrintStream out) {
+		out.println(String.format("%d nodes have been created." +
+				"\n%d nodes have been updated." +
+				"\n%d relationships have been created." +
+				"\n%d relationships have been updated." +
+				"\n%d relation keys are unknown in this graph." +
+				"\n%d node keys in the key map (%d bytes).",
+				nodesCreated, nodesUpdated, relationshipsCreated, relationshipsUpdated, unknownRelationships.size(),
+				keys.size() + otherNodeIds.size(), keys.getMemoryUsage() + 8L * nodeIds.length));
+	}
+
+	@Override
+	public void addSchema(GraphSchema schema) {
+		importSchema(schema);
+	}
+
+	@Override
+	public void addNode(GraphNode node) {
+		importNode(node);
+	}
+
+	@Override
+	public void addRelationship(GraphRelationship relationship) {
+		importRelationship(relationship);
+	}
+
+	@Override
+	public void importGraph(Graph graph) {
+		importSchemas(graph.getSchemas());
+		importNodes(graph.getNodes());
+		importRelationships(graph.getRelationships());
+	}
+
+	@Override
+	public void importSchemas(Collection<GraphSchema> schemas) {
+		if (null != schemas)
+			for (GraphSchema schema : schemas)
+				importSchema(schema);
+	}
+
+	/**
+	 * Function to register a schema. The schema will be created when the importer is closed.
+	 * @param schema GraphSchema
+	 */
+	@Override
+	public void importSchema(GraphSchema schema) {
+		// unique constraint also provides an index
+		schemas.merge(schema.getIndex(), schema.isUnique(), Boolean::logicalOr);
+	}
+
+	@Override
+	public void importNodes(Collection<GraphNode> nodes) {
+		if (null != nodes)
+			for (GraphNode node : nodes)
+				importNode(node);
+	}
+
+	@Override
+	public void importNode(GraphNode graphNode) {
+		if (graphNode.isBroken() || graphNode.isDeleted())
+			return;
+
+		GraphKey key = graphNode.getKey();
+		Neo4jDatabase._checkNodeKey(key);
+
+		if (verbose) {
+			System.out.println("Importing Node (" + key + ")");
+		}
+
+		long[] existing = _findNodes(key);
+		if (existing.length > 0) {
+			++nodesUpdated;
+			_updateNode(existing[0], graphNode);
+			return;
+		}
+
+		Set<Label> labels = new LinkedHashSet<Label>();
+		Map<String, Object> properties = new HashMap<String, Object>();
+
+		labels.add(Label.label(key.getLabel()));
+		properties.put(key.getProperty(), key.getValue());
+		if (null != graphNode.getIndexSet())
+			for (GraphKey index : graphNode.getIndexSet()) {
+				labels.add(Label.label(index.getLabel()));
+				properties.put(index.getProperty(), index.getValue());
+			}
+		if (null != graphNode.getLabels())
+			for (String label : graphNode.getLabels())
+				labels.add(Label.label(label));
+		if (null != graphNode.getProperties())
+			properties.putAll(graphNode.getProperties());
+
+		long nodeId = inserter.createNode(properties, labels.toArray(new Label[labels.size()]));
+		++nodesCreated;
+
+		_mapNode(key, nodeId);
+		if (null != graphNode.getIndexSet())
+			for (GraphKey index : graphNode.getIndexSet())
+				_mapNode(index, nodeId);
+
+		_importRelationships(unknownRelationships.remove(key), false);
+		if (null != graphNode.getIndexSet())
+			for (GraphKey index : graphNode.getIndexSet())
+				_importRelationships(unknownRelationships.remove(index), false);
+	}
+
+	@Override
+	public void importRelationships(Collection<GraphRelationship> relationships) {
+		_importRelationships(relationships, true);
+	}
+
+	@Override
+	public void importRelationship(GraphRelationship relationship) {
+		_importRelationship(relationship, true);
+	}
+
+	/**
+	 * Creates the schemas and flushes the store
+	 */
+	@Override
+	public void close() {
+		try {
+			for (Map.Entry<GraphIndex, Boolean> schema : schemas.entrySet()) {
+				GraphIndex index = schema.getKey();
+				Label label = Label.label(index.getLabel());
+				if (schema.getValue()) {
+					if (verbose) {
+						System.out.println("Creating Constraint {index=" + index + "}");
+					}
+					inserter.createDeferredConstraint(label).assertPropertyIsUnique(index.getProperty()).create();
+				} else {
+					if (verbose) {
+						System.out.println("Creating Index {index=" + index + "}");
+					}
+					inserter.createDeferredSchemaIndex(label).on(index.getProperty()).create();
+				}
+			}
+		} finally {
+			inserter.shutdown();
+		}
+	}
+
+	private void _updateNode(long nodeId, GraphNode graphNode) {
+		Set<GraphKey> indexes = graphNode.getIndexSet();
+		boolean hasIndexes = null != indexes && !indexes.isEmpty();
+		if (hasIndexes || (null != graphNode.getLabels() && !graphNode.getLabels().isEmpty())) {
+			Set<Label> labels = new LinkedHashSet<Label>();
+			for (Label label : inserter.getNodeLabels(nodeId))
+				labels.add(label);
+
+			int count = labels.size();
+			if (hasIndexes)
+				for (GraphKey index : indexes)
+					labels.add(Label.label(index.getLabel()));
+			if (null != graphNode.getLabels())
+				for (String label : graphNode.getLabels())
+					labels.add(Label.label(label));
+
+			if (labels.size() > count)
+				inserter.setNodeLabels(nodeId, labels.toArray(new Label[labels.size()]));
+		}
+
+		// a changed index value is written and the node is mapped by the new value only
+		if (hasIndexes) {
+			Map<String, Object> properties = inserter.getNodeProperties(nodeId);
+			for (GraphKey index : indexes) {
+				Object previous = properties.get(index.getProperty());
+				if (index.getValue().equals(previous))
+					continue;
+
+				inserter.setNodeProperty(nodeId, index.getProperty(), index.getValue());
+				if (null != previous)
+					_unmapNode(new GraphKey(index.getIndex(), previous), nodeId);
+				_mapNode(index, nodeId);
+
+				_importRelationships(unknownRelationships.remove(index), false);
+			}
+		}
+
+		if (null != graphNode.getProperties())
+			graphNode.getProperties().entrySet().stream()
+				.forEach(e -> inserter.setNodeProperty(nodeId, e.getKey(), e.getValue()));
+	}
+
+	private void _importRelationships(Collection<GraphRelationship> relationships, boolean storeUnknown) {
+		if (null != relationships) {
+			relationships.stream().forEach(r -> _importRelationship(r, storeUnknown));
+		}
+	}
+
+	private void _importRelationship(GraphRelationship graphRelationship, boolean storeUnknown) {
+		String relationshipName = graphRelationship.getRelationship();
+		GraphKey start = graphRelationship.getStart();
+		GraphKey end = graphRelationship.getEnd();
+
+		long[] nodesStart = _findNodes(start);
+		if (nodesStart.length == 0 && storeUnknown) {
+			unknownRelationships.add(start, graphRelationship);
+
+			if (verbose)
+				System.out.println("Relationship Start Key (" + start + ") does not exists");
+		}
+
+		long[] nodesEnd = _findNodes(end);
+		if (nodesEnd.length == 0 && storeUnknown) {
+			unknownRelationships.add(end, graphRelationship);
+
+			if (verbose)
+				System.out.println("Relationship End Key (" + end + ") does not exists");
+		}
+
+		if (nodesStart.length == 0 || nodesEnd.length == 0)
+			return;
+
+		if (verbose)
+			System.out.println("Importing Relationship (" + start + ")-[" + relationshipName + "]->(" + end + ")");
+
+		RelationshipType relationshipType = RelationshipType.withName(relationshipName);
+		for (long nodeStart : nodesStart)
+			for (long nodeEnd : nodesEnd)
+				_mergeRelationship(nodeStart, nodeEnd, relationshipType, graphRelationship.getProperties());
+	}
+
+	private void _mergeRelationship(long nodeStart, long nodeEnd, RelationshipType type, Map<String, Object> properties) {
+		boolean hasProperties = null != properties && !properties.isEmpty();
+
+		// once the set is full, relationships what are not in it must be looked for in the store
+		boolean exists = relationshipSet.contains(nodeStart, nodeEnd, type.name());
+		if (exists && !hasProperties) {
+			++relationshipsUpdated;
+			return;
+		}
+
+		long relationshipId = exists || relationshipSet.isFull() ? _findRelationship(nodeStart, nodeEnd, type) : -1;
+		if (relationshipId < 0) {
+			inserter.createRelationship(nodeStart, nodeEnd, type, hasProperties ? properties : null);
+			relationshipSet.add(nodeStart, nodeEnd, type.name());
+			++relationshipsCreated;
+		} else {
+			if (hasProperties)
+				properties.entrySet().stream()
+					.forEach(e -> inserter.setRelationshipProperty(relationshipId, e.getKey(), e.getValue()));
+			++relationshipsUpdated;
+		}
+	}
+
+	private long _findRelationship(long nodeStart, long nodeEnd, RelationshipType type) {
+		for (BatchRelationship relationship : inserter.getRelationships(nodeStart))
+			if (relationship.getStartNode() == nodeStart && relationship.getEndNode() == nodeEnd
+					&& relationship.getType().name().equals(type.name()))
+				return relationship.getId();
+
+		return -1;
+	}
+
+	private long[] _findNodes(GraphKey key) {
+		if (!(key.getValue() instanceof String))
+			return otherNodeIds.getOrDefault(key, NO_NODES);
+
+		int id = keys.getId(key);
+		if (id < 0 || 0 == nodeIds[id])
+			return NO_NODES;
+
+		long[] shared = sharedNodeIds.get(id);
+		return null == shared ? new long[] { nodeIds[id] - 1 } : shared;
+	}
+
+	private void _mapNode(GraphKey key, long nodeId) {
+		if (!(key.getValue() instanceof String)) {
+			otherNodeIds.put(key, _addNodeId(otherNodeIds.getOrDefault(key, NO_NODES), nodeId));
+			return;
+		}
+
+		int id = keys.add(key);
+		if (id >= nodeIds.length)
+			nodeIds = Arrays.copyOf(nodeIds, Math.max(id + 1, nodeIds.length * 2));
+
+		if (0 == nodeIds[id])
+			nodeIds[id] = nodeId + 1;
+		else if (nodeIds[id] != nodeId + 1) {
+			long[] shared = sharedNodeIds.get(id);
+			sharedNodeIds.put(id, _addNodeId(null == shared ? new long[] { nodeIds[id] - 1 } : shared, nodeId));
+		}
+	}
+
+	private void _unmapNode(GraphKey key, long nodeId) {
+		if (!(key.getValue() instanceof String)) {
+			long[] ids = _removeNodeId(otherNodeIds.getOrDefault(key, NO_NODES), nodeId);
+			if (ids.length > 0)
+				otherNodeIds.put(key, ids);
+			else
+				otherNodeIds.remove(key);
+			return;
+		}
+
+		int id = keys.getId(key);
+		if (id < 0 || 0 == nodeIds[id])
+			return;
+
+		long[] shared = sharedNodeIds.remove(id);
+		long[] ids = _removeNodeId(null == shared ? new long[] { nodeIds[id] - 1 } : shared, nodeId);
+		nodeIds[id] = ids.length > 0 ? ids[0] + 1 : 0;
+		if (ids.length > 1)
+			sharedNodeIds.put(id, ids);
+	}
+
+	private static long[] _addNodeId(long[] ids, long nodeId) {
+		for (long id : ids)
+			if (id == nodeId)
+				return ids;
+
+		long[] result = Arrays.copyOf(ids, ids.length + 1);
+		result[ids.length] = nodeId;
+		return result;
+	}
+
+	private static long[] _removeNodeId(long[] ids, long nodeId) {
+		for (int i = 0; i < ids.length; ++i)
+			if (ids[i] == nodeId) {
+				long[] result = Arrays.copyOf(ids, ids.length - 1);
+				System.arraycopy(ids, i + 1, result, i, ids.length - i - 1);
+				return result;
+			}
+
+		return ids;
+	}
+}
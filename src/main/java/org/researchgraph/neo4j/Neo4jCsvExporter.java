@@ -0,0 +1,597 @@
+package org.researchgraph.neo4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.zip.GZIPOutputStream;
+
+import org.researchgraph.graph.Graph;
+import org.researchgraph.graph.GraphIndex;
+import org.researchgraph.graph.GraphKey;
+import org.researchgraph.graph.GraphKeyDictionary;
+import org.researchgraph.graph.GraphNode;
+import org.researchgraph.graph.GraphRelationship;
+import org.researchgraph.graph.GraphSchema;
+import org.researchgraph.graph.SerialImportSession;
+import org.researchgraph.graph.interfaces.GraphImportSession;
+import org.researchgraph.graph.interfaces.GraphImporter;
+import org.researchgraph.graph.interfaces.GraphSink;
+
+/**
+ * Exporter of crosswalk output into CSV files for the offline neo4j-import tool
+ *
+ * Nodes are kept in memory until the exporter is closed and then written into
+ * one data file per label set, every label set has a separate header file.
+ * Every node key and index key is mapped to a dense integer node id, what is
+ * used as the :ID of the node. A node with an already exported key is merged
+ * into the exported node the same way as Neo4jDatabase does: labels and indexes
+ * are added, properties are replaced by the later occurrence.
+ *
+ * Relationships are spooled into a binary temporary file by key ids, as their
+ * nodes may be exported later. Endpoints are resolved in a final pass when the
+ * exporter is closed, duplicates are skipped through a RelationshipSet.
+ *
+ * Array elements are joined by the array delimiter, what neo4j-import does not
+ * allow to escape, so the unit separator control character is used, as it is
+ * not expected in the text. Other values are quoted.
+ *
+ * Once closed, the folder contains the CSV files, the neo4j-import arguments
+ * in import.args, what can be passed to neo4j-import with --f, and the constraints
+ * and indexes of all the schemas in schema.cypher, what must be executed after the import.
+ */
+
+public class Neo4jCsvExporter implements GraphImporter, GraphSink, AutoCloseable {
+	private static final int BUFFER_SIZE = 1 << 20;
+	private static final int NONE = 0;
+	private static final String ARRAY_DELIMITER = "\u001F";
+	private static final String FILE_ARGS = "import.args";
+	private static final String FILE_SCHEMA = "schema.cypher";
+	private static final String FILE_SPOOL = "relationships.spool";
+
+	private final File folder;
+	private final boolean compress;
+
+	private boolean verbose = false;
+	private int nodesCount = 0;
+	private long nodesMerged = 0;
+	private long relationshipsSpooled = 0;
+	private long relationshipsExported = 0;
+	private long relationshipsDuplicated = 0;
+	private long relationshipsUnknown = 0;
+
+	private final Map<GraphIndex, Boolean> schemas = new LinkedHashMap<GraphIndex, Boolean>();
+	private final Map<String, NodeFile> nodeFiles = new LinkedHashMap<String, NodeFile>();
+	// exported nodes by node id
+	private final List<NodeRow> nodes = new ArrayList<NodeRow>();
+
+	private final GraphKeyDictionary keys = new GraphKeyDictionary();
+	// node id + 1 by key id, so 0 means no node
+	private int[] nodeIds = new int[1024];
+	// keys what match more than one node
+	private final Map<Integer, int[]> sharedNodeIds = new HashMap<Integer, int[]>();
+
+	private final File spoolFile;
+	private final DataOutputStream spool;
+	private final Map<String, Integer> typeIds = new HashMap<String, Integer>();
+	private final List<String> types = new ArrayList<String>();
+	// relationship properties are rare, they are kept by the relationship number
+	private final Map<Long, Map<String, Object>> relationshipProperties = new HashMap<Long, Map<String, Object>>();
+	private final int relationshipSetSize;
+
+	private final List<String> arguments = new ArrayList<String>();
+
+	/**
+	 * Nodes with the same label set
+	 */
+	private class NodeFile {
+		private final String labels;
+		private final File header;
+		private final File data;
+		private final Columns columns = new Columns();
+		private final Writer writer;
+
+		NodeFile(String labels, int number) throws IOException {
+			this.labels = labels;
+			this.header = new File(folder, "nodes-" + number + "-header.csv");
+			this.data = new File(folder, "nodes-" + number + ".csv" + (compress ? ".gz" : ""));
+			this.writer = _openWriter(data);
+		}
+	}
+
+	/**
+	 * Labels and properties of an exported node
+	 */
+	private static class NodeRow {
+		private final TreeSet<String> labels = new TreeSet<String>();
+		private final Map<String, Object> properties = new LinkedHashMap<String, Object>();
+	}
+
+	/**
+	 * Property columns of a CSV file.
+	 * The type of every column is widened to fit all values written into it.
+	 */
+	private static class Columns {
+		private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+		private final List<String> names = new ArrayList<String>();
+		private final List<String> types = new ArrayList<String>();
+
+		int getColumn(String name, Object value) {
+			Integer column = indexes.get(name);
+			if (null == column) {
+				indexes.put(name, column = names.size());
+				names.add(name);
+				types.add(getType(value));
+			} else
+				types.set(column, widenType(types.get(column), getType(value)));
+
+			return column;
+		}
+
+		int size() {
+			return names.size();
+		}
+
+		String getHeader(String prefix) {
+			StringBuilder header = new StringBuilder(prefix);
+			for (int i = 0; i < names.size(); ++i)
+				header.append(',').append(names.get(i)).append(':').append(types.get(i));
+
+			return header.toString();
+		}
+	}
+
+	/**
+	 * Creates an exporter
+	 * @param folder folder for the CSV files, will be created if it does not exists
+	 * @param compress compress data files with gzip
+	 * @param relationshipSetSize number of relationships kept in memory to skip duplicates.
+	 * Once the set is full, duplicated relationships will be exported.
+	 * @throws IOException if the folder can not be created
+	 */
+	public Neo4jCsvExporter(File folder, boolean compress, int relationshipSetSize) throws IOException {
+		if (!folder.isDirectory() && !folder.mkdirs())
+			throw new IOException("Unable to create CSV folder: " + folder);
+
+		this.folder = folder;
+		this.compress = compress;
+		this.relationshipSetSize = relationshipSetSize;
+		this.spoolFile = new File(folder, FILE_SPOOL);
+		this.spool = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spoolFile), BUFFER_SIZE));
+	}
+
+	@Override
+	public boolean isVerbose() {
+		return verbose;
+	}
+
+	@Override
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/**
+	 * Function to open a session, what passes all its calls to this importer one at a time
+	 * @return SerialImportSession
+	 */
+	@Override
+	public GraphImportSession openSession() {
+		return new SerialImportSession(this);
+	}
+
+	/**
+	 * Function to get neo4j-import arguments. Available once the exporter has been closed.
+	 * @return list of arguments
+	 */
+	public List<String> getArguments() {
+		return arguments;
+	}
+
+	public void printStatistics(PrintStream out) {
+		out.println(String.format("%d nodes have been exported into %d files." +
+				"\n%d duplicated nodes have been merged." +
+				"\n%d relationships have been exported." +
+				"\n%d duplicated relationships have been skipped." +
+				"\n%d relationships with unknown keys have been skipped.",
+				nodesCount, nodeFiles.size(), nodesMerged, relationshipsExported,
+				relationshipsDuplicated, relationshipsUnknown));
+		out.println("Please import the CSV files with: neo4j-import --into <graph.db> --f " + new File(folder, FILE_ARGS).getAbsolutePath());
+		out.println("and create the schema from: " + new File(folder, FILE_SCHEMA).getAbsolutePath());
+	}
+
+	@Override
+	public void addSchema(GraphSchema schema) {
+		importSchema(schema);
+	}
+
+	@Override
+	public void addNode(GraphNode node) {
+		importNode(node);
+	}
+
+	@Override
+	public void addRelationship(GraphRelationship relationship) {
+		importRelationship(relationship);
+	}
+
+	@Override
+	public void importGraph(Graph graph) {
+		importSchemas(graph.getSchemas());
+		importNodes(graph.getNodes());
+		importRelationships(graph.getRelationships());
+	}
+
+	@Override
+	public void importSchemas(Collection<GraphSchema> schemas) {
+		if (null != schemas)
+			for (GraphSchema schema : schemas)
+				importSchema(schema);
+	}
+
+	@Override
+	public void importSchema(GraphSchema schema) {
+		// unique constraint also provides an index
+		schemas.merge(schema.getIndex(), schema.isUnique(), Boolean::logicalOr);
+	}
+
+	@Override
+	public void importNodes(Collection<GraphNode> nodes) {
+		if (null != nodes)
+			for (GraphNode node : nodes)
+				importNode(node);
+	}
+
+	@Override
+	public void importNode(GraphNode graphNode) {
+		if (graphNode.isBroken() || graphNode.isDeleted())
+			return;
+
+		GraphKey key = graphNode.getKey();
+		Neo4jDatabase._checkNodeKey(key);
+
+		int keyId = keys.add(_toStringKey(key));
+		int nodeId;
+		if (keyId < nodeIds.length && NONE != nodeIds[keyId]) {
+			++nodesMerged;
+			nodeId = nodeIds[keyId] - 1;
+
+			if (verbose) {
+				System.out.println("Merging Node (" + key + ")");
+			}
+		} else {
+			nodeId = nodesCount++;
+			nodes.add(new NodeRow());
+
+			if (verbose) {
+				System.out.println("Exporting Node (" + key + ")");
+			}
+		}
+
+		NodeRow node = nodes.get(nodeId);
+		node.labels.add(key.getLabel());
+		node.properties.put(key.getProperty(), key.getValue());
+		if (null != graphNode.getIndexSet())
+			for (GraphKey index : graphNode.getIndexSet()) {
+				node.labels.add(index.getLabel());
+				node.properties.put(index.getProperty(), index.getValue());
+			}
+		if (null != graphNode.getLabels())
+			node.labels.addAll(graphNode.getLabels());
+		if (null != graphNode.getProperties())
+			node.properties.putAll(graphNode.getProperties());
+
+		_mapNode(keyId, nodeId);
+		if (null != graphNode.getIndexSet())
+			for (GraphKey index : graphNode.getIndexSet())
+				_mapNode(keys.add(_toStringKey(index)), nodeId);
+	}
+
+	@Override
+	public void importRelationships(Collection<GraphRelationship> relationships) {
+		if (null != relationships)
+			for (GraphRelationship relationship : relationships)
+				importRelationship(relationship);
+	}
+
+	/**
+	 * Function to spool a relationship. The relationship will be exported when the exporter is closed.
+	 * @param relationship GraphRelationship
+	 */
+	@Override
+	public void importRelationship(GraphRelationship relationship) {
+		Integer typeId = typeIds.get(relationship.getRelationship());
+		if (null == typeId) {
+			typeIds.put(relationship.getRelationship(), typeId = types.size());
+			types.add(relationship.getRelationship());
+		}
+
+		if (null != relationship.getProperties() && !relationship.getProperties().isEmpty())
+			relationshipProperties.put(relationshipsSpooled, relationship.getProperties());
+
+		try {
+			spool.writeInt(keys.add(_toStringKey(relationship.getStart())));
+			spool.writeInt(keys.add(_toStringKey(relationship.getEnd())));
+			spool.writeInt(typeId);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		++relationshipsSpooled;
+	}
+
+	/**
+	 * Exports all nodes, resolves and exports all relationships, writes header files, import arguments and the schema
+	 */
+	@Override
+	public void close() throws IOException {
+		for (int nodeId = 0; nodeId < nodesCount; ++nodeId) {
+			NodeRow node = nodes.get(nodeId);
+			_writeNode(_getNodeFile(String.join(":", node.labels)), nodeId, node.properties);
+		}
+		nodes.clear();
+
+		for (NodeFile nodeFile : nodeFiles.values()) {
+			nodeFile.writer.close();
+			_writeFile(nodeFile.header, nodeFile.columns.getHeader(":ID"));
+
+			arguments.add("--nodes:" + nodeFile.labels + " " + nodeFile.header.getName() + "," + nodeFile.data.getName());
+		}
+
+		spool.close();
+		_exportRelationships();
+		spoolFile.delete();
+
+		arguments.add("--id-type INTEGER");
+		arguments.add("--array-delimiter \"" + ARRAY_DELIMITER + "\"");
+		arguments.add("--multiline-fields true");
+		_writeFile(new File(folder, FILE_ARGS), String.join("\n", arguments));
+
+		StringBuilder cypher = new StringBuilder();
+		for (Map.Entry<GraphIndex, Boolean> schema : schemas.entrySet()) {
+			GraphIndex index = schema.getKey();
+			if (schema.getValue())
+				cypher.append("CREATE CONSTRAINT ON (n:`").append(index.getLabel())
+					.append("`) ASSERT n.`").append(index.getProperty()).append("` IS UNIQUE;\n");
+			else
+				cypher.append("CREATE INDEX ON :`").append(index.getLabel())
+					.append("`(`").append(index.getProperty()).append("`);\n");
+		}
+		_writeFile(new File(folder, FILE_SCHEMA), cypher.toString());
+	}
+
+	private void _exportRelationships() throws IOException {
+		File header = new File(folder, "relationships-header.csv");
+		File data = new File(folder, "relationships.csv" + (compress ? ".gz" : ""));
+		Columns columns = new Columns();
+		RelationshipSet relationshipSet = new RelationshipSet(Math.max(1, relationshipSetSize));
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(spoolFile), BUFFER_SIZE));
+				Writer writer = _openWriter(data)) {
+			for (long number = 0; number < relationshipsSpooled; ++number) {
+				int start = in.readInt();
+				int end = in.readInt();
+				String type = types.get(in.readInt());
+				Map<String, Object> properties = relationshipProperties.get(number);
+
+				int[] nodesStart = _findNodes(start);
+				int[] nodesEnd = _findNodes(end);
+				if (nodesStart.length == 0 || nodesEnd.length == 0) {
+					++relationshipsUnknown;
+
+					if (verbose)
+						System.out.println("Relationship Key (" + keys.getKey(nodesStart.length == 0 ? start : end) + ") does not exists");
+					continue;
+				}
+
+				for (int nodeStart : nodesStart)
+					for (int nodeEnd : nodesEnd) {
+						if (relationshipSet.contains(nodeStart, nodeEnd, type)) {
+							++relationshipsDuplicated;
+							continue;
+						}
+						relationshipSet.add(nodeStart, nodeEnd, type);
+
+						writer.write(Integer.toString(nodeStart));
+						writer.write(',');
+						writer.write(Integer.toString(nodeEnd));
+						writer.write(',');
+						writer.write(_formatValue(type));
+						_writeProperties(writer, columns, properties);
+						++relationshipsExported;
+					}
+			}
+		} catch (EOFException e) {
+			throw new IOException("Relationship spool is truncated: " + spoolFile, e);
+		}
+
+		_writeFile(header, columns.getHeader(":START_ID,:END_ID,:TYPE"));
+		arguments.add("--relationships " + header.getName() + "," + data.getName());
+	}
+
+	private NodeFile _getNodeFile(String labels) {
+		NodeFile nodeFile = nodeFiles.get(labels);
+		if (null == nodeFile) {
+			try {
+				nodeFile = new NodeFile(labels, nodeFiles.size());
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			nodeFiles.put(labels, nodeFile);
+		}
+
+		return nodeFile;
+	}
+
+	private void _writeNode(NodeFile nodeFile, int nodeId, Map<String, Object> properties) {
+		try {
+			nodeFile.writer.write(Integer.toString(nodeId));
+			_writeProperties(nodeFile.writer, nodeFile.columns, properties);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Writes property values in the column order and ends the row.
+	 * Columns, what have been added after the row, will be missing at the end of it.
+	 */
+	private static void _writeProperties(Writer writer, Columns columns, Map<String, Object> properties) throws IOException {
+		if (null != properties && !properties.isEmpty()) {
+			String[] values = new String[columns.size() + properties.size()];
+			int count = 0;
+			for (Map.Entry<String, Object> property : properties.entrySet())
+				if (null != property.getValue()) {
+					int column = columns.getColumn(property.getKey(), property.getValue());
+					values[column] = _formatValue(property.getValue());
+					count = Math.max(count, column + 1);
+				}
+
+			for (int i = 0; i < count; ++i) {
+				writer.write(',');
+				if (null != values[i])
+					writer.write(values[i]);
+			}
+		}
+		writer.write('\n');
+	}
+
+	private int[] _findNodes(int keyId) {
+		if (keyId >= nodeIds.length || NONE == nodeIds[keyId])
+			return new int[0];
+
+		int[] shared = sharedNodeIds.get(keyId);
+		return null == shared ? new int[] { nodeIds[keyId] - 1 } : shared;
+	}
+
+	private void _mapNode(int keyId, int nodeId) {
+		if (keyId >= nodeIds.length)
+			nodeIds = Arrays.copyOf(nodeIds, Math.max(keyId + 1, nodeIds.length * 2));
+
+		if (NONE == nodeIds[keyId])
+			nodeIds[keyId] = nodeId + 1;
+		else if (nodeIds[keyId] != nodeId + 1) {
+			int[] shared = sharedNodeIds.get(keyId);
+			if (null == shared)
+				shared = new int[] { nodeIds[keyId] - 1 };
+			shared = Arrays.copyOf(shared, shared.length + 1);
+			shared[shared.length - 1] = nodeId;
+			sharedNodeIds.put(keyId, shared);
+		}
+	}
+
+	/**
+	 * The dictionary only stores String values, so other values will be converted to String
+	 */
+	private static GraphKey _toStringKey(GraphKey key) {
+		return key.getValue() instanceof String ? key : new GraphKey(key.getIndex(), String.valueOf(key.getValue()));
+	}
+
+	private Writer _openWriter(File file) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		if (compress)
+			out = new GZIPOutputStream(out, BUFFER_SIZE);
+
+		return new OutputStreamWriter(new BufferedOutputStream(out, BUFFER_SIZE), StandardCharsets.UTF_8);
+	}
+
+	private static void _writeFile(File file, String text) throws IOException {
+		try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+			writer.write(text);
+			writer.write('\n');
+		}
+	}
+
+	private static String _formatValue(Object value) {
+		if (value instanceof Number || value instanceof Boolean)
+			return value.toString();
+
+		if (value.getClass().isArray()) {
+			StringBuilder array = new StringBuilder();
+			for (int i = 0; i < Array.getLength(value); ++i) {
+				if (i > 0)
+					array.append(ARRAY_DELIMITER);
+				array.append(Array.get(value, i));
+			}
+
+			return _quote(array.toString());
+		}
+
+		return _quote(value.toString());
+	}
+
+	private static String _quote(String value) {
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+
+	private static String getType(Object value) {
+		if (value.getClass().isArray()) {
+			String type = getType(value.getClass().getComponentType());
+			return type + "[]";
+		}
+
+		return getType(value.getClass());
+	}
+
+	private static String getType(Class<?> type) {
+		if (type == Integer.class || type == int.class || type == Short.class || type == short.class
+				|| type == Byte.class || type == byte.class)
+			return "int";
+		if (type == Long.class || type == long.class)
+			return "long";
+		if (type == Float.class || type == float.class || type == Double.class || type == double.class)
+			return "double";
+		if (type == Boolean.class || type == boolean.class)
+			return "boolean";
+
+		return "string";
+	}
+
+	private static String widenType(String type1, String type2) {
+		if (type1.equals(type2))
+			return type1;
+
+		boolean array = type1.endsWith("[]") || type2.endsWith("[]");
+		String base1 = type1.replace("[]", "");
+		String base2 = type2.replace("[]", "");
+
+		String base;
+		if (base1.equals(base2))
+			base = base1;
+		else if (isInteger(base1) && isInteger(base2))
+			base = "long";
+		else if (isNumber(base1) && isNumber(base2))
+			base = "double";
+		else
+			base = "string";
+
+		return array ? base + "[]" : base;
+	}
+
+	private static boolean isInteger(String type) {
+		return "int".equals(type) || "long".equals(type);
+	}
+
+	private static boolean isNumber(String type) {
+		return isInteger(type) || "double".equals(type);
+	}
+}
@@ -0,0 +1,456 @@
+package org.researchgraph.neo4j;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.QueryStatistics;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+import org.researchgraph.graph.GraphIndex;
+import org.researchgraph.graph.GraphKey;
+import org.researchgraph.graph.GraphNode;
+import org.researchgraph.graph.GraphRelationship;
+
+/**
+ * Batched Cypher writer of nodes and relationships
+ *
+ * Instead of a lookup and a number of Core API calls per node, nodes are
+ * grouped by shape (node key index and label set) and relationships by shape
+ * (type and indexes of both keys), and every group is written with a single
+ * parameterised UNWIND ... MERGE statement per batch of rows. The statement
+ * text only depends on the shape, so the query plan is compiled once per shape
+ * and then taken from the Cypher plan cache.
+ *
+ * Nodes and relationships are merged with the same result as by the Core API
+ * path of Neo4jDatabase: labels are added, and index values and properties of
+ * an existing node or relationship are replaced by the imported ones.
+ *
+ * If a fan-out guard has been set, the start and end nodes of every row are
+ * counted first and the guard decides, how many node pairs of the row will be
+ * merged, the same way as on the Core API path. Rows skipped by the guard are
+ * neither merged nor returned.
+ *
+ * The writer must be called within a transaction. Relationships, what could
+ * not be matched with both nodes, are returned to the caller.
+ */
+
+public class Neo4jCypherWriter {
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+
+	private static final String PARAMETER_ROWS = "rows";
+	private static final String COLUMN_ROW = "i";
+	private static final String COLUMN_PAIRS = "n";
+	private static final String COLUMN_STARTS = "s";
+	private static final String COLUMN_ENDS = "e";
+	private static final String FIELD_LIMIT = "limit";
+
+	private final GraphDatabaseService graphDb;
+	private final int batchSize;
+	private FanOutGuard fanOutGuard;
+
+	// statements by shape
+	private final Map<String, String> statements = new HashMap<String, String>();
+	// statements counting the nodes of relationship rows by shape
+	private final Map<String, String> counters = new HashMap<String, String>();
+
+	private long nodesCreated = 0;
+	private long nodesMerged = 0;
+	private long relationshipsCreated = 0;
+	private long relationshipsUpdated = 0;
+	private long statementsExecuted = 0;
+
+	/**
+	 * Rows of the same shape
+	 */
+	private static class Group {
+		private final String statement;
+		private final String counter;
+		private final List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+		private final List<GraphRelationship> relationships = new ArrayList<GraphRelationship>();
+
+		Group(String statement) {
+			this(statement, null);
+		}
+
+		Group(String statement, String counter) {
+			this.statement = statement;
+			this.counter = counter;
+		}
+	}
+
+	/**
+	 * Creates a writer
+	 * @param graphDb GraphDatabaseService
+	 * @param batchSize maximum number of rows in a single statement
+	 */
+	public Neo4jCypherWriter(GraphDatabaseService graphDb, int batchSize) {
+		if (batchSize <= 0)
+			throw new IllegalArgumentException("Batch size must be positive");
+
+		this.graphDb = graphDb;
+		this.batchSize = batchSize;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Function to set the fan-out guard, what will limit the node pairs of every relationship
+	 * @param fanOutGuard FanOutGuard or null to merge all the node pairs
+	 */
+	public void setFanOutGuard(FanOutGuard fanOutGuard) {
+		this.fanOutGuard = fanOutGuard;
+	}
+
+	public FanOutGuard getFanOutGuard() {
+		return fanOutGuard;
+	}
+
+	public long getNodesCreated() {
+		return nodesCreated;
+	}
+
+	/**
+	 * Function to get number of node rows, what matched an existing node
+	 * @return number of nodes
+	 */
+	public long getNodesUpdated() {
+		return nodesMerged - nodesCreated;
+	}
+
+	public long getRelationshipsCreated() {
+		return relationshipsCreated;
+	}
+
+	/**
+	 * Function to get number of relationships, what already existed.
+	 * A row can be merged between several node pairs, every existing relationship is counted.
+	 * @return number of relationships
+	 */
+	public long getRelationshipsUpdated() {
+		return relationshipsUpdated;
+	}
+
+	public long getStatementsExecuted() {
+		return statementsExecuted;
+	}
+
+	/**
+	 * Function to get number of different statements, what have been used
+	 * @return number of shapes
+	 */
+	public int getShapesCount() {
+		return statements.size();
+	}
+
+	/**
+	 * Function to merge nodes.
+	 * Deleted and broken nodes will be skipped.
+	 * @param nodes Collection of GraphNode
+	 * @return number of merged nodes
+	 */
+	public int writeNodes(Collection<GraphNode> nodes) {
+		Map<String, Group> groups = new LinkedHashMap<String, Group>();
+		int count = 0;
+
+		for (GraphNode node : nodes) {
+			if (node.isBroken() || node.isDeleted())
+				continue;
+
+			GraphKey key = node.getKey();
+			Neo4jDatabase._checkNodeKey(key);
+
+			Set<String> labels = new TreeSet<String>();
+			Map<String, Object> properties = new HashMap<String, Object>();
+			if (null != node.getIndexSet())
+				for (GraphKey index : node.getIndexSet()) {
+					labels.add(index.getLabel());
+					properties.put(index.getProperty(), index.getValue());
+				}
+			if (null != node.getLabels())
+				labels.addAll(node.getLabels());
+			if (null != node.getProperties())
+				node.getProperties().entrySet().stream()
+					.filter(e -> null != e.getValue())
+					.forEach(e -> properties.put(e.getKey(), e.getValue()));
+			labels.remove(key.getLabel());
+
+			String shape = "N:" + key.getIndex() + ":" + labels;
+			Group group = groups.get(shape);
+			if (null == group)
+				groups.put(shape, group = new Group(_getNodeStatement(shape, key.getIndex(), labels)));
+
+			Map<String, Object> row = new HashMap<String, Object>();
+			row.put("key", key.getValue());
+			row.put("properties", properties);
+			group.rows.add(row);
+			++count;
+
+			if (group.rows.size() >= batchSize)
+				_writeNodes(group);
+		}
+
+		for (Group group : groups.values())
+			_writeNodes(group);
+
+		return count;
+	}
+
+	/**
+	 * Function to merge relationships between existing nodes
+	 * @param relationships Collection of GraphRelationship
+	 * @return List of relationships, what have not been merged, as one of their nodes does not exists
+	 */
+	public List<GraphRelationship> writeRelationships(Collection<GraphRelationship> relationships) {
+		Map<String, Group> groups = new LinkedHashMap<String, Group>();
+		List<GraphRelationship> unmatched = new ArrayList<GraphRelationship>();
+
+		for (GraphRelationship relationship : relationships) {
+			GraphKey start = relationship.getStart();
+			GraphKey end = relationship.getEnd();
+
+			String shape = "R:" + relationship.getRelationship() + ":" + start.getIndex() + ":" + end.getIndex();
+			Group group = groups.get(shape);
+			if (null == group)
+				groups.put(shape, group = new Group(_getRelationshipStatement(shape,
+						relationship.getRelationship(), start.getIndex(), end.getIndex()),
+						null == fanOutGuard ? null : _getCounterStatement(shape, start.getIndex(), end.getIndex())));
+
+			Map<String, Object> row = new HashMap<String, Object>();
+			row.put(COLUMN_ROW, group.rows.size());
+			row.put("start", start.getValue());
+			row.put("end", end.getValue());
+			row.put("properties", null == relationship.getProperties()
+					? new HashMap<String, Object>() : relationship.getProperties());
+			group.rows.add(row);
+			group.relationships.add(relationship);
+
+			if (group.rows.size() >= batchSize)
+				_writeRelationships(group, unmatched);
+		}
+
+		for (Group group : groups.values())
+			_writeRelationships(group, unmatched);
+
+		return unmatched;
+	}
+
+	/**
+	 * Function to lock all the nodes of the relationships, ordered by the node id.
+	 * Statements lock the nodes row by row, so a batch would lock a hub node early 
+	 * and wait for a node, what is locked by an other writer waiting for the hub.
+	 * Once the transaction holds all its locks, the statements will not wait anymore.
+	 * @param tx Transaction, what will hold the locks until it has been closed
+	 * @param relationships Collection of GraphRelationship, what will be written in the transaction
+	 */
+	public void lockNodes(Transaction tx, Collection<GraphRelationship> relationships) {
+		Set<GraphKey> keys = new HashSet<GraphKey>();
+		for (GraphRelationship relationship : relationships) {
+			keys.add(relationship.getStart());
+			keys.add(relationship.getEnd());
+		}
+
+		List<Long> ids = new ArrayList<Long>();
+		for (GraphKey key : keys)
+			try (ResourceIterator<Node> nodes = graphDb.findNodes(Label.label(key.getLabel()), key.getProperty(), key.getValue())) {
+				while (nodes.hasNext())
+					ids.add(nodes.next().getId());
+			}
+
+		Collections.sort(ids);
+		for (Long id : ids)
+			tx.acquireWriteLock(graphDb.getNodeById(id));
+	}
+
+	private void _writeNodes(Group group) {
+		if (group.rows.isEmpty())
+			return;
+
+		try (Result result = _execute(group)) {
+			QueryStatistics statistics = result.getQueryStatistics();
+			nodesCreated += statistics.getNodesCreated();
+			nodesMerged += group.rows.size();
+		}
+
+		group.rows.clear();
+	}
+
+	private void _writeRelationships(Group group, List<GraphRelationship> unmatched) {
+		if (group.rows.isEmpty())
+			return;
+
+		Set<Integer> matched = new HashSet<Integer>();
+		if (null != group.counter)
+			_checkFanOut(group, matched, unmatched);
+
+		long pairs = 0;
+		if (!group.rows.isEmpty())
+			try (Result result = _execute(group)) {
+				while (result.hasNext()) {
+					Map<String, Object> row = result.next();
+					matched.add(((Number) row.get(COLUMN_ROW)).intValue());
+					pairs += ((Number) row.get(COLUMN_PAIRS)).longValue();
+				}
+
+				// every merged node pair has either created a relationship or matched an existing one
+				QueryStatistics statistics = result.getQueryStatistics();
+				relationshipsCreated += statistics.getRelationshipsCreated();
+				relationshipsUpdated += pairs - statistics.getRelationshipsCreated();
+			}
+
+		if (null == group.counter)
+			for (int i = 0; i < group.relationships.size(); ++i)
+				if (!matched.contains(i))
+					unmatched.add(group.relationships.get(i));
+
+		group.rows.clear();
+		group.relationships.clear();
+	}
+
+	/**
+	 * Function to count the nodes of every row and to pass the counts through the fan-out guard.
+	 * Rows with an unknown node are returned as unmatched, rows skipped by the guard are dropped
+	 * and the other rows get the number of node pairs, what will be merged.
+	 */
+	private void _checkFanOut(Group group, Set<Integer> matched, List<GraphRelationship> unmatched) {
+		Map<String, Object> parameters = new HashMap<String, Object>();
+		parameters.put(PARAMETER_ROWS, group.rows);
+
+		Map<Integer, long[]> counts = new HashMap<Integer, long[]>();
+		++statementsExecuted;
+		try (Result result = graphDb.execute(group.counter, parameters)) {
+			while (result.hasNext()) {
+				Map<String, Object> row = result.next();
+				counts.put(((Number) row.get(COLUMN_ROW)).intValue(), new long[] {
+						((Number) row.get(COLUMN_STARTS)).longValue(), ((Number) row.get(COLUMN_ENDS)).longValue() });
+			}
+		}
+
+		List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+		for (Map<String, Object> row : group.rows) {
+			int i = (Integer) row.get(COLUMN_ROW);
+			GraphRelationship relationship = group.relationships.get(i);
+			long[] count = counts.get(i);
+			if (null == count || 0 == count[0] || 0 == count[1]) {
+				unmatched.add(relationship);
+				continue;
+			}
+
+			matched.add(i);
+			long fanOut = count[0] * count[1];
+			long limit = fanOutGuard.check(relationship, (int) count[0], (int) count[1]);
+			if (fanOutGuard.isExceeded(fanOut) && FanOutGuard.Policy.log == fanOutGuard.getPolicy())
+				System.out.println("Relationship (" + relationship.getStart() + ")-[" + relationship.getRelationship() 
+						+ "]->(" + relationship.getEnd() + ") expands into " + fanOut + " node pairs, " + limit + " will be merged");
+			if (limit > 0) {
+				row.put(FIELD_LIMIT, limit);
+				rows.add(row);
+			}
+		}
+
+		group.rows.clear();
+		group.rows.addAll(rows);
+	}
+
+	private Result _execute(Group group) {
+		Map<String, Object> parameters = new HashMap<String, Object>();
+		parameters.put(PARAMETER_ROWS, group.rows);
+
+		++statementsExecuted;
+		return graphDb.execute(group.statement, parameters);
+	}
+
+	private String _getNodeStatement(String shape, GraphIndex index, Set<String> labels) {
+		String statement = statements.get(shape);
+		if (null == statement) {
+			StringBuilder cypher = new StringBuilder()
+				.append("UNWIND {").append(PARAMETER_ROWS).append("} AS row")
+				.append(" MERGE (n:").append(_escape(index.getLabel()))
+				.append(" {").append(_escape(index.getProperty())).append(": row.key})")
+				.append(" SET n += row.properties");
+			if (!labels.isEmpty()) {
+				cypher.append(", n");
+				for (String label : labels)
+					cypher.append(':').append(_escape(label));
+			}
+
+			statements.put(shape, statement = cypher.toString());
+		}
+
+		return statement;
+	}
+
+	private String _getRelationshipStatement(String shape, String type, GraphIndex start, GraphIndex end) {
+		// the guarded statement merges only the first node pairs of every row, up to its limit
+		if (null != fanOutGuard)
+			shape += ":limit";
+		String statement = statements.get(shape);
+		if (null == statement) {
+			StringBuilder cypher = new StringBuilder()
+				.append("UNWIND {").append(PARAMETER_ROWS).append("} AS row")
+				.append(" MATCH (s:").append(_escape(start.getLabel()))
+				.append(" {").append(_escape(start.getProperty())).append(": row.start})")
+				.append(" MATCH (e:").append(_escape(end.getLabel()))
+				.append(" {").append(_escape(end.getProperty())).append(": row.end})");
+			// rows can not be grouped by a map, so they are grouped by the row number
+			if (null != fanOutGuard)
+				cypher.append(" WITH row.").append(COLUMN_ROW).append(" AS ").append(COLUMN_ROW)
+					.append(", row.").append(FIELD_LIMIT).append(" AS ").append(FIELD_LIMIT)
+					.append(", head(collect(row.properties)) AS properties, collect([s, e]) AS pairs")
+					.append(" UNWIND pairs[..").append(FIELD_LIMIT).append("] AS pair")
+					.append(" WITH ").append(COLUMN_ROW).append(", properties, pair[0] AS s, pair[1] AS e");
+			else
+				cypher.append(" WITH row.").append(COLUMN_ROW).append(" AS ").append(COLUMN_ROW)
+					.append(", row.properties AS properties, s, e");
+			statement = cypher
+				.append(" MERGE (s)-[r:").append(_escape(type)).append("]->(e)")
+				.append(" SET r += properties")
+				.append(" RETURN ").append(COLUMN_ROW)
+				.append(", count(*) AS ").append(COLUMN_PAIRS)
+				.toString();
+
+			statements.put(shape, statement);
+		}
+
+		return statement;
+	}
+
+	private String _getCounterStatement(String shape, GraphIndex start, GraphIndex end) {
+		String statement = counters.get(shape);
+		if (null == statement) {
+			statement = new StringBuilder()
+				.append("UNWIND {").append(PARAMETER_ROWS).append("} AS row")
+				.append(" WITH row.").append(COLUMN_ROW).append(" AS ").append(COLUMN_ROW)
+				.append(", row.start AS start, row.end AS end")
+				.append(" OPTIONAL MATCH (s:").append(_escape(start.getLabel()))
+				.append(" {").append(_escape(start.getProperty())).append(": start})")
+				.append(" WITH ").append(COLUMN_ROW).append(", end, count(s) AS ").append(COLUMN_STARTS)
+				.append(" OPTIONAL MATCH (e:").append(_escape(end.getLabel()))
+				.append(" {").append(_escape(end.getProperty())).append(": end})")
+				.append(" RETURN ").append(COLUMN_ROW)
+				.append(", ").append(COLUMN_STARTS).append(", count(e) AS ").append(COLUMN_ENDS)
+				.toString();
+
+			counters.put(shape, statement);
+		}
+
+		return statement;
+	}
+
+	private static String _escape(String name) {
+		return "`" + name.replace("`", "``") + "`";
+	}
+}
@@ -2,18 +2,25 @@ package org.researchgraph.neo4j;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang.StringUtils;
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Label;
 import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.PropertyContainer;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.graphdb.ResourceIterable;
@@ -25,32 +32,91 @@ import org.neo4j.graphdb.factory.GraphDatabaseSettings;
 import org.neo4j.graphdb.schema.ConstraintDefinition;
 import org.neo4j.graphdb.schema.IndexDefinition;
 import org.neo4j.graphdb.schema.Schema;
+import org.neo4j.kernel.impl.store.StoreId;
+import org.neo4j.kernel.impl.transaction.log.TransactionIdStore;
+import org.neo4j.kernel.internal.GraphDatabaseAPI;
 import org.researchgraph.graph.Graph;
 import org.researchgraph.graph.GraphIndex;
 import org.researchgraph.graph.GraphKey;
 import org.researchgraph.graph.GraphNode;
 import org.researchgraph.graph.GraphRelationship;
 import org.researchgraph.graph.GraphSchema;
+import org.researchgraph.graph.PropertyValues;
+import org.researchgraph.graph.arena.ArenaGraph;
 import org.researchgraph.graph.interfaces.GraphImporter;
+import org.researchgraph.neo4j.interfaces.PendingRelationshipStore;
 import org.researchgraph.neo4j.interfaces.ProcessNode;
 
 public class Neo4jDatabase implements GraphImporter {
 	private static final String COLUMN_N = "n";
-	private static final String NEO4J_CONF = "/conf/neo4j.conf";
-	private static final String NEO4J_DB = "/data/databases/graph.db";
+	static final String NEO4J_CONF = "/conf/neo4j.conf";
+	static final String NEO4J_DB = "/data/databases/graph.db";
+	private static final String NEO4J_KEY_INDEX = "/data/import-xml/keys.idx";
+	private static final String NEO4J_PENDING_INDEX = "/data/import-xml/pending.idx";
+	private static final String NEO4J_PENDING_LOG = "/data/import-xml/pending.log";
+	
+	public static final int DEFAULT_NODE_CACHE_SIZE = 100000;
+	public static final int DEFAULT_KEY_FILTER_CAPACITY = 1000000;
+	// nodes with more relationships will have an adjacency hash
+	public static final int SUPERNODE_DEGREE = 1000;
+	public static final long MAX_ADJACENCY_SIZE = 10000000;
+	// nodes with more relationships in a single graph are dense and will be grouped as end nodes too
+	public static final int DENSE_NODE_BATCH_DEGREE = 100;
+	public static final int DEFAULT_RELATIONSHIP_SET_SIZE = 1000000;
+	public static final double DEFAULT_KEY_FILTER_PROBABILITY = 0.005;
+	// number of spooled relationships imported as a single graph
+	public static final int SPOOL_CHUNK_SIZE = 10000;
 		
 	private GraphDatabaseService graphDb;
+	private final String neo4jFolder;
 	
 	//private Map<String, Index<Node>> indexes = new HashMap<String, Index<Node>>();
 	
 	private boolean verbose = false;
-	private long nodesCreated = 0;
-	private long nodesUpdated = 0;
-	private long relationshipsCreated = 0;
-	private long relationshipsUpdated = 0;
+	// the counters are shared with the parallel writer threads
+	private final AtomicLong nodesCreated = new AtomicLong();
+	private final AtomicLong nodesUpdated = new AtomicLong();
+	private final AtomicLong relationshipsCreated = new AtomicLong();
+	private final AtomicLong relationshipsUpdated = new AtomicLong();
+	
+	private PendingRelationshipStore unknownRelationships = new PendingRelationships();
+	// schemas and indexes are shared with the import sessions
+	private final Set<GraphSchema> importedSchemas = ConcurrentHashMap.newKeySet();	
+	private final Set<GraphIndex> uniqueIndexes = ConcurrentHashMap.newKeySet();
+	private NodeIdCache nodeCache = new NodeIdCache(DEFAULT_NODE_CACHE_SIZE);
+	private NodeKeyIndex keyIndex;
+	private NodeIdentifierMap identifierMap = new NodeIdentifierMap();
+	private final Set<GraphIndex> identifierIndexes = ConcurrentHashMap.newKeySet();
+	private NodeKeyFilter keyFilter;
+	private final Set<GraphIndex> filteredIndexes = ConcurrentHashMap.newKeySet();
+	private final RelationshipAdjacency adjacency = new RelationshipAdjacency(MAX_ADJACENCY_SIZE);
+	private RelationshipSet relationshipSet = new RelationshipSet(DEFAULT_RELATIONSHIP_SET_SIZE);
 	
-	private final Map<String, List<GraphRelationship>> unknownRelationships = new HashMap<String, List<GraphRelationship>>();
-	private final Set<GraphSchema> importedSchemas = new HashSet<GraphSchema>();	
+	private TransactionSizer transactionSizer;
+	private Neo4jCypherWriter cypherWriter;
+	private Neo4jParallelWriter parallelWriter;
+	private RelationshipSpool relationshipSpool;
+	private WriteBehindBuffer writeBuffer;
+	private FanOutGuard fanOutGuard = new FanOutGuard(FanOutGuard.DEFAULT_MAX_FAN_OUT, 
+			FanOutGuard.Policy.log, FanOutGuard.DEFAULT_REPORT_SIZE);
+	private Transaction importTransaction;
+	private long importOperations = 0;
+	private boolean profilingEnabled = false;
+	private long keyFilterNegatives = 0;
+	private long keyFilterFalsePositives = 0;
+	private long keysResolved = 0;
+	private long relationshipsResolved = 0;
+	private long relationshipGroups = 0;
+	private long denseNodes = 0;
+	private long labelsWritten = 0;
+	private long labelsSkipped = 0;
+	private long propertiesWritten = 0;
+	private long propertiesSkipped = 0;
+	private final AtomicLong sessionsOpened = new AtomicLong();
+	private final AtomicLong sessionBatches = new AtomicLong();
+	private final AtomicLong sessionStatements = new AtomicLong();
+	private final AtomicLong sessionRetries = new AtomicLong();
+	private TransactionIdStore transactionIdStore;
 		
 	private static File GetDbPath(final String folder) throws Neo4jException, IOException
 	{
@@ -128,46 +194,443 @@ public class Neo4jDatabase implements GraphImporter {
 	
 
 	public Neo4jDatabase(final String neo4jFolder) throws Exception {		
+		this.neo4jFolder = neo4jFolder;
 		graphDb = getGraphDb( neo4jFolder );
 	}
 
 	
 	public Neo4jDatabase(final String neo4jFolder, boolean readOnly) throws Exception {
+		this.neo4jFolder = neo4jFolder;
 		graphDb = readOnly 
 				? getReadOnlyGraphDb(neo4jFolder) 
 				: getGraphDb( neo4jFolder );
 	}
 	
+	/**
+	 * Function to open the persistent key index, stored next to the Neo4j store.
+	 * 
+	 * The index will be discarded, if it does not match the store or if the store
+	 * has been modified since the index was closed. 
+	 * The index must be closed by shutdown(), otherwise it will be discarded by the next run.
+	 * 
+	 * @return NodeKeyIndex
+	 * @throws Neo4jException
+	 */
+	public NodeKeyIndex openKeyIndex() throws Neo4jException {
+		if (null == keyIndex) {
+			GraphDatabaseAPI api = (GraphDatabaseAPI) graphDb;
+			StoreId storeId = api.storeId();
+			transactionIdStore = api.getDependencyResolver().resolveDependency(TransactionIdStore.class);
+			
+			File file = new File(neo4jFolder, NEO4J_KEY_INDEX);
+			try {
+				NodeKeyIndex index = new NodeKeyIndex(file, storeId.getRandomId(), storeId.getCreationTime(), 
+						transactionIdStore.getLastCommittedTransactionId());
+				
+				if (verbose) {
+					System.out.println("Key index: " + file + ", " + index.size() + " keys" 
+							+ (index.isReset() ? " (the index did not match the store and has been reset)" : ""));
+				}
+				
+				keyIndex = index;
+			} catch (IOException e) {
+				throw new Neo4jException("Unable to open key index located at: " + file + ". Error: " + e.getMessage());
+			}
+		}
+		
+		return keyIndex;
+	}
+	
+	public NodeKeyIndex getKeyIndex() {
+		return keyIndex;
+	}
+	
+	/**
+	 * Function to enable the in-memory map of node ids by identifier.
+	 * 
+	 * Keys of not unique indexes (ORCID, DOI, PURL) are loaded from the store 
+	 * on the first lookup and are resolved from the map afterwards.
+	 * The map is enabled by default.
+	 * 
+	 * @param enabled true to enable the map
+	 */
+	public void setIdentifierMapEnabled(boolean enabled) {
+		if (!enabled) 
+			identifierMap = null;
+		else if (null == identifierMap)
+			identifierMap = new NodeIdentifierMap();
+	}
+	
+	public NodeIdentifierMap getIdentifierMap() {
+		return identifierMap;
+	}
+	
+	/**
+	 * Function to store pending relationships on the disk.
+	 * 
+	 * Relationships with a node, what is not known yet, will be stored in a log
+	 * next to the Neo4j store instead of the heap. The log is kept between the 
+	 * import runs, so a relationship to a node from a different source will be 
+	 * created once that source has been imported. Relationships already pending 
+	 * in the memory will be moved to the disk.
+	 * The store should be closed by shutdown(), otherwise its index will be rebuilt from the log by the next run.
+	 * 
+	 * @return PersistentPendingRelationships
+	 * @throws Neo4jException
+	 */
+	public PersistentPendingRelationships openPendingStore() throws Neo4jException {
+		if (!(unknownRelationships instanceof PersistentPendingRelationships)) {
+			StoreId storeId = ((GraphDatabaseAPI) graphDb).storeId();
+			
+			File indexFile = new File(neo4jFolder, NEO4J_PENDING_INDEX);
+			File logFile = new File(neo4jFolder, NEO4J_PENDING_LOG);
+			try {
+				PersistentPendingRelationships store = new PersistentPendingRelationships(indexFile, logFile,
+						storeId.getRandomId(), storeId.getCreationTime());
+				
+				if (verbose) {
+					System.out.println("Pending relationships: " + logFile + ", " + store.getRelationshipsCount() 
+							+ " relationships waiting for " + store.size() + " keys" 
+							+ (store.isReset() ? " (the store did not match the Neo4j store and has been reset)" : "")
+							+ (store.isRecovered() ? " (the store has not been closed and has been recovered from the log)" : ""));
+				}
+				
+				for (GraphKey key : unknownRelationships.keys())
+					for (GraphRelationship relationship : unknownRelationships.remove(key))
+						store.add(key, relationship);
+				
+				unknownRelationships = store;
+			} catch (IOException e) {
+				throw new Neo4jException("Unable to open pending relationships located at: " + logFile + ". Error: " + e.getMessage());
+			}
+		}
+		
+		return (PersistentPendingRelationships) unknownRelationships;
+	}
+	
+	/**
+	 * Function to enable the Bloom filter of node keys. 
+	 * 
+	 * The filter is used to skip the database lookup for keys of nodes 
+	 * what do not exist yet. For every unique index the filter is filled with 
+	 * all existing keys from the store on the first lookup.
+	 * 
+	 * @param enabled true to enable the filter
+	 */
+	public void setKeyFilterEnabled(boolean enabled) {
+		keyFilter = enabled ? new NodeKeyFilter(DEFAULT_KEY_FILTER_CAPACITY, DEFAULT_KEY_FILTER_PROBABILITY) : null;
+		filteredIndexes.clear();
+	}
+	
+	public NodeKeyFilter getKeyFilter() {
+		return keyFilter;
+	}
+	
+	/**
+	 * Function to get observed false positive rate of the key filter
+	 * @return number of false positives divided by number of lookups of not existing keys
+	 */
+	public double getKeyFilterFalsePositiveRate() {
+		long lookups = keyFilterNegatives + keyFilterFalsePositives;
+		return lookups == 0 ? 0 : (double) keyFilterFalsePositives / lookups;
+	}
+	
 	public GraphDatabaseService getGraphDatabaseService() {
 		return graphDb;
 	}
+	
+	/**
+	 * Function to commit the last import transaction, close the key index and 
+	 * the pending relationships store and shut down the Neo4j instance.
+	 * 
+	 * The key index and the pending relationships are written and marked as clean 
+	 * only here, so it must be called once the import has been finished.
+	 */
+	public void shutdown() {
+		try {
+			commit();
+			
+			if (null != parallelWriter) {
+				parallelWriter.close();
+				parallelWriter = null;
+			}
+		} finally {
+			try {
+				if (null != keyIndex) {
+					keyIndex.close();
+					keyIndex = null;
+				}
+			} finally {
+				try {
+					if (unknownRelationships instanceof PersistentPendingRelationships) {
+						((PersistentPendingRelationships) unknownRelationships).close();
+						unknownRelationships = new PendingRelationships();
+					}
+				} finally {
+					graphDb.shutdown();
+				}
+			}
+		}
+	}
 		
 	public boolean isVerbose() {
 		return verbose;
 	}
 
 	public long getNodesCreated() {
-		return nodesCreated;
+		return nodesCreated.get();
 	}
 
 	public long getNodesUpdated() {
-		return nodesUpdated;
+		return nodesUpdated.get();
 	}
 
 	public long getRelationshipsCreated() {
-		return relationshipsCreated;
+		return relationshipsCreated.get();
 	}
 
 	public long getRelationshipsUpdated() {
-		return relationshipsUpdated;
+		return relationshipsUpdated.get();
+	}
+
+	public long getPropertiesWritten() {
+		return propertiesWritten;
+	}
+
+	/**
+	 * Function to get number of properties, what have not been written as they already had the same value
+	 * @return number of properties
+	 */
+	public long getPropertiesSkipped() {
+		return propertiesSkipped;
 	}
 
 	public void setVerbose(boolean verbose) {
 		this.verbose = verbose;
 	}
 	
+	/**
+	 * Function to set maximum number of node ids kept in the node cache
+	 * @param size number of node ids, 0 to disable the cache
+	 */
+	public void setNodeCacheSize(int size) {
+		nodeCache = size > 0 ? new NodeIdCache(size) : null;
+	}
+	
+	public NodeIdCache getNodeCache() {
+		return nodeCache;
+	}
+	
+	/**
+	 * Function to set maximum number of relationships kept in the run-scoped relationship set
+	 * @param size number of relationships, 0 to disable the set
+	 */
+	public void setRelationshipSetSize(int size) {
+		relationshipSet = size > 0 ? new RelationshipSet(size) : null;
+	}
+	
+	public RelationshipSet getRelationshipSet() {
+		return relationshipSet;
+	}
+	
+	/**
+	 * Function to decouple transactions from imported graphs. 
+	 * 
+	 * Small graphs will be imported into the same transaction and large graphs 
+	 * will be split into several transactions, the transaction will be committed 
+	 * once the number of imported nodes and relationships has reached the sizer size.
+	 * commit() must be called after the last graph has been imported.
+	 * 
+	 * @param transactionSizer TransactionSizer or null to commit every graph in a separate transaction
+	 */
+	public void setTransactionSizer(TransactionSizer transactionSizer) {
+		commit();
+		
+		this.transactionSizer = transactionSizer;
+	}
+	
+	public TransactionSizer getTransactionSizer() {
+		return transactionSizer;
+	}
+	
+	/**
+	 * Function to import graphs with batched Cypher statements instead of the Core API.
+	 * 
+	 * Nodes and relationships will be merged by UNWIND statements, grouped by shape. 
+	 * Relationships with an unknown node will be passed to the Core API, 
+	 * so they will be stored and imported later.
+	 * 
+	 * @param batchSize maximum number of rows in a single statement, 0 to use the Core API
+	 */
+	public void setCypherBatchSize(int batchSize) {
+		cypherWriter = batchSize > 0 ? new Neo4jCypherWriter(graphDb, batchSize) : null;
+		if (null != cypherWriter)
+			cypherWriter.setFanOutGuard(fanOutGuard);
+	}
+	
+	public Neo4jCypherWriter getCypherWriter() {
+		return cypherWriter;
+	}
+	
+	/**
+	 * Function to import graphs with several writer threads.
+	 * 
+	 * Nodes are partitioned by the key hash between the writers, relationships are 
+	 * imported once all the nodes have been committed, in the same lock order by 
+	 * all the writers. Every writer commits its own transactions of batched Cypher 
+	 * statements, so the transaction sizer is not used by the parallel import.
+	 * 
+	 * @param writers number of writer threads, 0 to import graphs in the calling thread
+	 * @param batchSize maximum number of rows in a single statement and in a single transaction
+	 */
+	public void setParallelWriters(int writers, int batchSize) {
+		if (null != parallelWriter)
+			parallelWriter.close();
+		
+		parallelWriter = writers > 0 ? new Neo4jParallelWriter(this, writers, batchSize) : null;
+	}
+	
+	public Neo4jParallelWriter getParallelWriter() {
+		return parallelWriter;
+	}
+	
+	/**
+	 * Function to open an import session.
+	 * 
+	 * Every session owns its transaction, batch buffers and counters, so several threads 
+	 * can import into this database at the same time, each of them through its own session.
+	 * Sessions write with batched Cypher statements of the Cypher batch size, if it has been set.
+	 * 
+	 * @return Neo4jSession, what must be closed to import the last batch
+	 */
+	@Override
+	public Neo4jSession openSession() {
+		return openSession(null != cypherWriter ? cypherWriter.getBatchSize() : Neo4jCypherWriter.DEFAULT_BATCH_SIZE);
+	}
+	
+	/**
+	 * Function to open an import session
+	 * @param batchSize maximum number of nodes and relationships in a single session transaction
+	 * @return Neo4jSession, what must be closed to import the last batch
+	 */
+	public Neo4jSession openSession(int batchSize) {
+		Neo4jSession session = new Neo4jSession(this, batchSize);
+		sessionsOpened.incrementAndGet();
+		return session;
+	}
+	
+	/**
+	 * Function to set the fan-out guard.
+	 * 
+	 * A relationship is merged between every pair of start and end nodes, so a key
+	 * of not unique index, what matches many nodes, can expand a single relationship 
+	 * into thousands of merges. The guard accounts the fan-out of every relationship 
+	 * and limits it according to its policy. By default the fan-out is only accounted.
+	 * The guard is shared by the Cypher writer, the parallel writers and the import sessions.
+	 * 
+	 * @param fanOutGuard FanOutGuard or null to disable the accounting
+	 */
+	public void setFanOutGuard(FanOutGuard fanOutGuard) {
+		this.fanOutGuard = fanOutGuard;
+		if (null != cypherWriter)
+			cypherWriter.setFanOutGuard(fanOutGuard);
+	}
+	
+	public FanOutGuard getFanOutGuard() {
+		return fanOutGuard;
+	}
+	
+	/**
+	 * Function to enable two-phase import.
+	 * 
+	 * Relationships of imported graphs will be spooled, so only nodes are imported
+	 * until importSpooledRelationships() is called. Once all the nodes exist, 
+	 * the relationships are imported in one pass, sorted by the start key.
+	 * 
+	 * @param relationshipSpool RelationshipSpool or null to import relationships with their graphs
+	 */
+	public void setRelationshipSpool(RelationshipSpool relationshipSpool) {
+		this.relationshipSpool = relationshipSpool;
+	}
+	
+	public RelationshipSpool getRelationshipSpool() {
+		return relationshipSpool;
+	}
+	
+	/**
+	 * Function to enable the write-behind buffer.
+	 * 
+	 * Imported graphs will be collected in the buffer, so a node key, what appears 
+	 * in many files, is merged into a single node and written only once. The buffer 
+	 * is imported in key order, once it has reached its size or age, and by commit().
+	 * 
+	 * @param writeBuffer WriteBehindBuffer or null to import every graph immediately
+	 */
+	public void setWriteBuffer(WriteBehindBuffer writeBuffer) {
+		commit();
+		
+		this.writeBuffer = writeBuffer;
+	}
+	
+	public WriteBehindBuffer getWriteBuffer() {
+		return writeBuffer;
+	}
+	
+	/**
+	 * Function to import all spooled relationships and commit them.
+	 * 
+	 * Relationships are read sorted by the start key and imported in chunks, 
+	 * relationships with the same start node are therefore resolved only once.
+	 * Relationships with an unknown node will be stored as unknown.
+	 */
+	public void importSpooledRelationships() {
+		// buffered nodes must exist and buffered relationships must be spooled
+		_flushWriteBuffer();
+		
+		if (null == relationshipSpool || relationshipSpool.isEmpty())
+			return;
+		
+		long markTime = System.currentTimeMillis();
+		long count = relationshipSpool.size();
+		int runs = relationshipSpool.getRunsCount();
+		
+		RelationshipSpool spool = relationshipSpool;
+		relationshipSpool = null;
+		try {
+			// spooled relationships are sorted already, so they are not written behind
+			Graph chunk = new Graph();
+			for (Iterator<GraphRelationship> it = spool.sorted(); it.hasNext(); ) {
+				chunk.addRelationship(it.next());
+				if (chunk.getRelationshipsCount() >= SPOOL_CHUNK_SIZE) {
+					_importBatch(chunk, profilingEnabled);
+					chunk = new Graph();
+				}
+			}
+			
+			if (chunk.getRelationshipsCount() > 0)
+				_importBatch(chunk, profilingEnabled);
+			
+			commit();
+		} finally {
+			spool.clear();
+			relationshipSpool = spool;
+		}
+		
+		if (verbose || profilingEnabled) {
+			System.out.println("importSpooledRelationships of " + count + " relationships from " + runs 
+					+ " runs in milliseconds:" + (System.currentTimeMillis() - markTime));
+		}
+	}
+	
 	public void resetCounters() {
-		nodesCreated = nodesUpdated = relationshipsCreated = relationshipsUpdated = 0;
+		nodesCreated.set(0);
+		nodesUpdated.set(0);
+		relationshipsCreated.set(0);
+		relationshipsUpdated.set(0);
+		labelsWritten = 0;
+		labelsSkipped = 0;
+		propertiesWritten = 0;
+		propertiesSkipped = 0;
 	}
 	
 	public void printStatistics(PrintStream out) {
@@ -176,7 +639,64 @@ public class Neo4jDatabase implements GraphImporter {
                         "\n%d relationships have been created." +
                         "\n%d relationships have been updated." +
                         "\n%d relation keys are unknown in this graph.",
-				nodesCreated, nodesUpdated, relationshipsCreated, relationshipsUpdated, unknownRelationships.size()));
+				nodesCreated.get(), nodesUpdated.get(), relationshipsCreated.get(), relationshipsUpdated.get(), unknownRelationships.size()));
+        if (propertiesWritten + propertiesSkipped > 0)
+            out.println(String.format("%d properties written, %d unchanged properties skipped, %d labels written, %d existing labels skipped.", 
+            		propertiesWritten, propertiesSkipped, labelsWritten, labelsSkipped));
+        if (null != nodeCache)
+            out.println(String.format("%d node cache hits, %d node cache misses.", nodeCache.getHits(), nodeCache.getMisses()));
+        if (null != identifierMap && identifierMap.size() > 0)
+            out.println(String.format("%d identifier map hits, %d identifier map misses, %d identifiers in the map (%d bytes).", 
+            		identifierMap.getHits(), identifierMap.getMisses(), identifierMap.size(), identifierMap.getMemoryUsage()));
+        if (null != keyIndex)
+            out.println(String.format("%d key index hits, %d key index misses, %d keys in the index%s.", 
+            		keyIndex.getHits(), keyIndex.getMisses(), keyIndex.size(), 
+            		keyIndex.isFull() ? String.format(" (full, %d keys dropped)", keyIndex.getDropped()) : ""));
+        if (null != transactionSizer && transactionSizer.getCommits() > 0)
+            out.println(String.format("%d import transactions committed, average commit %d ms, maximum commit %d ms, last transaction size %d.", 
+            		transactionSizer.getCommits(), transactionSizer.getAverageLatency(), transactionSizer.getMaxLatency(), 
+            		transactionSizer.getSize()));
+        if (null != relationshipSet)
+            out.println(String.format("%d relationship merges skipped by relationship set, %d relationships in the set (%d bytes%s).", 
+            		relationshipSet.getHits(), relationshipSet.size(), relationshipSet.getMemoryUsage(),
+            		relationshipSet.isFull() ? ", full" : ""));
+        if (adjacency.getNodesCount() > 0)
+            out.println(String.format("%d high degree nodes with %d relationships in the adjacency hash (%d bytes).", 
+            		adjacency.getNodesCount(), adjacency.size(), adjacency.getMemoryUsage()));
+        if (null != fanOutGuard && fanOutGuard.getExpanded() > 0)
+        	fanOutGuard.printReport(out);
+        if (relationshipsResolved > 0)
+            out.println(String.format("%d relationship endpoints resolved with %d key lookups.", 
+            		2 * relationshipsResolved, keysResolved));
+        if (relationshipGroups > 0)
+            out.println(String.format("%d relationship groups applied, %d dense nodes detected in advance.", 
+            		relationshipGroups, denseNodes));
+        if (unknownRelationships instanceof PersistentPendingRelationships) {
+        	PersistentPendingRelationships store = (PersistentPendingRelationships) unknownRelationships;
+            out.println(String.format("%d pending relationships on the disk, %d keys with pending relationships found, %d keys checked.", 
+            		store.getRelationshipsCount(), store.getHits(), store.getHits() + store.getMisses()));
+        }
+        if (null != writeBuffer && writeBuffer.getFlushes() > 0)
+            out.println(String.format("%d nodes and %d relationships written behind in %d flushes, %d nodes and %d relationships coalesced.", 
+            		writeBuffer.getNodesAdded(), writeBuffer.getRelationshipsAdded(), writeBuffer.getFlushes(), 
+            		writeBuffer.getNodesCoalesced(), writeBuffer.getRelationshipsCoalesced()));
+        if (null != relationshipSpool)
+            out.println(String.format("%d relationships in the spool, %d runs.", 
+            		relationshipSpool.size(), relationshipSpool.getRunsCount()));
+        if (null != cypherWriter)
+            out.println(String.format("%d Cypher statements executed for %d shapes.", 
+            		cypherWriter.getStatementsExecuted(), cypherWriter.getShapesCount()));
+        if (sessionsOpened.get() > 0)
+            out.println(String.format("%d import sessions opened, %d session transactions committed, %d Cypher statements executed, %d retries.", 
+            		sessionsOpened.get(), sessionBatches.get(), sessionStatements.get(), sessionRetries.get()));
+        if (null != parallelWriter)
+            out.println(String.format("%d graphs imported by %d writers in %d transactions, %d Cypher statements executed, %d deadlocks, %d retries.", 
+            		parallelWriter.getGraphs(), parallelWriter.getWriters(), parallelWriter.getBatches(), 
+            		parallelWriter.getStatementsExecuted(), parallelWriter.getDeadlocks(), parallelWriter.getRetries()));
+        if (null != keyFilter)
+            out.println(String.format("%d lookups skipped by key filter, %d false positives (%.4f%%, expected %.4f%%), %d keys in the filter.", 
+            		keyFilterNegatives, keyFilterFalsePositives, 100 * getKeyFilterFalsePositiveRate(), 
+            		100 * keyFilter.getExpectedFalsePositiveProbability(), keyFilter.size()));
         if (unknownRelationships.size()>0) {
             String logFileAddress ="log_unknown_relations.txt";
             File file= new File(logFileAddress);
@@ -188,8 +708,8 @@ public class Neo4jDatabase implements GraphImporter {
     private void logUnknownRelationships(String logFileAddress) {
             try {
                 FileWriter writer = new FileWriter(logFileAddress);
-                for (Map.Entry<String, List<GraphRelationship>> entry : unknownRelationships.entrySet()) {
-                    writer.write(entry.getKey().toString() + "\n");
+                for (GraphKey key : unknownRelationships.keys()) {
+                    writer.write(getRelationshipKey(key) + "\n");
                 }
                 writer.flush();
                 writer.close();
@@ -296,6 +816,7 @@ public class Neo4jDatabase implements GraphImporter {
 			
 			tx.success();
 		}
+		_committedTransaction();
 		
 		return def;
 	}	
@@ -313,6 +834,7 @@ public class Neo4jDatabase implements GraphImporter {
 			
 			tx.success();
 		}
+		_committedTransaction();
 		
 		return def;
 	}
@@ -321,95 +843,225 @@ public class Neo4jDatabase implements GraphImporter {
 		return createIndex(Label.label(label), key);
 	}
 
+	/**
+	 * Function to open a sink, what will import crosswalk output in batches
+	 * @param batchSize maximum number of nodes and relationships in a single batch
+	 * @return Neo4jGraphSink, what must be closed to import the last batch
+	 */
+	public Neo4jGraphSink openSink(int batchSize) {
+		return new Neo4jGraphSink(this, batchSize);
+	}
+	
+	/**
+	 * Function to open a sink, what will keep every batch in the off-heap arena
+	 * @param arena ArenaGraph to be reused by all batches
+	 * @param batchSize maximum number of nodes and relationships in a single batch
+	 * @return Neo4jGraphSink, what must be closed to import the last batch
+	 */
+	public Neo4jGraphSink openSink(ArenaGraph arena, int batchSize) {
+		return new Neo4jGraphSink(this, arena, batchSize);
+	}
+
     public void importGraph(Graph graph) {
         importGraph(graph,false);
     }
 
 	public void importGraph(Graph graph, Boolean profilingEnabled) {
-
+		this.profilingEnabled = profilingEnabled;
 
 		// schema can not be imported in the same transaction as nodes and relationships
-		try ( Transaction tx = graphDb.beginTx() ) 
-		{
-			_importSchemas(graph.getSchemas());
+		if (_hasNewSchemas(graph.getSchemas())) {
+			commit();
 			
-			tx.success();
+			boolean committed = false;
+			try ( Transaction tx = graphDb.beginTx() ) 
+			{
+				_importSchemas(graph.getSchemas());
+				
+				tx.success();
+				committed = true;
+			} finally {
+				_completeTransaction(committed);
+			}
+		}
+		
+		if (null != writeBuffer) {
+			// nodes and relationships will be imported by the next flush
+			writeBuffer.add(graph);
+			if (writeBuffer.isFlushRequired())
+				_flushWriteBuffer();
+			
+			return;
+		}
+		
+		_importBatch(graph, profilingEnabled);
+	}
+	
+	/**
+	 * Function to import a graph, what schemas have been imported already
+	 */
+	private void _importBatch(Graph graph, boolean profilingEnabled) {
+		if (null != parallelWriter) {
+			// the writer threads commit their own transactions
+			commit();
+			
+			parallelWriter.importGraph(graph, profilingEnabled);
+			return;
 		}
 		
+		if (null != transactionSizer) {
+			// the graph will be imported into the current import transaction
+			boolean imported = false;
+			try {
+				if (null == importTransaction)
+					_beginImport();
+				
+				_importGraph(graph, profilingEnabled);
+				imported = true;
+			} finally {
+				if (!imported)
+					_rollbackImport();
+			}
+			
+			return;
+		}
+		
+		boolean committed = false;
 		try ( Transaction tx = graphDb.beginTx() ) 
 		{
-
-            Long minorMarkTime=System.currentTimeMillis(); //for performance profiling
-            Long deltaTime =new Long(0);
-			_importNodes(graph.getNodes());
-            if (profilingEnabled) {
-                deltaTime = System.currentTimeMillis() - minorMarkTime;
-                System.out.println("_importNodes in milliseconds:" + deltaTime);
-            }
-            minorMarkTime=System.currentTimeMillis(); //for performance profiling
-			_importRelationships(graph.getRelationships(), true);
-            if (profilingEnabled) {
-                deltaTime = System.currentTimeMillis() - minorMarkTime;
-                System.out.println("_importRelationships in milliseconds:" + deltaTime);
-            }
+			_importGraph(graph, profilingEnabled);
 			
 			tx.success();
+			committed = true;
+		} finally {
+			_completeTransaction(committed);
+		}
+	}
+	
+	/**
+	 * Function to commit the current import transaction.
+	 * 
+	 * If transaction sizing is enabled, importGraph() does not commit every graph,
+	 * so this function must be called once all the graphs have been imported.
+	 * The write-behind buffer will be flushed first.
+	 */
+	public void commit() {
+		_flushWriteBuffer();
+		
+		if (null != importTransaction) {
+			long markTime = System.currentTimeMillis();
+			long operations = importOperations;
+			
+			boolean committed = false;
+			try {
+				importTransaction.success();
+				importTransaction.close();
+				committed = true;
+			} finally {
+				importTransaction = null;
+				importOperations = 0;
+				_completeTransaction(committed);
+			}
+			
+			long latency = System.currentTimeMillis() - markTime;
+			transactionSizer.committed(latency);
+			
+			if (profilingEnabled) {
+				System.out.println("commit of " + operations + " operations in milliseconds:" + latency 
+						+ ", next transaction size: " + transactionSizer.getSize());
+			}
 		}
 	}
 	
 	public void importSchemas(Collection<GraphSchema> schemas) {
+		commit();
+		
+		boolean committed = false;
 		try ( Transaction tx = graphDb.beginTx() ) 
 		{
 			_importSchemas(schemas);
 		
 			tx.success();
+			committed = true;
+		} finally {
+			_completeTransaction(committed);
 		}
 	}
 
 	public void importSchema(GraphSchema schema) {
+		commit();
+		
+		boolean committed = false;
 		try ( Transaction tx = graphDb.beginTx() ) 
 		{
 			_importSchema(schema);
 		
 			tx.success();
+			committed = true;
+		} finally {
+			_completeTransaction(committed);
 		}
 	}
 	
 	public void importNodes(Collection<GraphNode> nodes) {
 		// Import nodes
+		commit();
+		
+		boolean committed = false;
 		try ( Transaction tx = graphDb.beginTx() ) 
 		{
 			_importNodes(nodes);		
 				
 			tx.success();
+			committed = true;
+		} finally {
+			_completeTransaction(committed);
 		}
 	}
 
 	public void importNode(GraphNode node) {
 		// Import nodes
+		commit();
+		
+		boolean committed = false;
 		try ( Transaction tx = graphDb.beginTx() ) 
 		{
 			_importNode(node);		
 				
 			tx.success();
+			committed = true;
+		} finally {
+			_completeTransaction(committed);
 		}
 	}
 	
 	public void importRelationships(Collection<GraphRelationship> relationships) {
+		commit();
+		
+		boolean committed = false;
 		try ( Transaction tx = graphDb.beginTx() ) 
 		{		
 			_importRelationships(relationships, true);
 			
 			tx.success();
+			committed = true;
+		} finally {
+			_completeTransaction(committed);
 		}
 	}
 	
 	public void importRelationship(GraphRelationship relationship) {
+		commit();
+		
+		boolean committed = false;
 		try ( Transaction tx = graphDb.beginTx() ) 
 		{		
 			_importRelationship(relationship, true);
 			
 			tx.success();
+			committed = true;
+		} finally {
+			_completeTransaction(committed);
 		}
 	}
 	
@@ -471,7 +1123,23 @@ public class Neo4jDatabase implements GraphImporter {
 	}
 	
 	public Node _findAnyNode(GraphKey key) {
-		return _findAnyNode(key.getLabel(), key.getProperty(), key.getValue()); 		
+		if (!_isCachable(key))
+			return _findAnyNode(key.getLabel(), key.getProperty(), key.getValue());
+		
+		Node node = _findCachedNode(key);
+		if (null != node)
+			return node;
+		
+		if (!_mightExist(key))
+			return null;
+		
+		node = _findAnyNode(key.getLabel(), key.getProperty(), key.getValue());
+		if (null != node)
+			_cacheNode(key, node);
+		else
+			_countFalsePositive();
+		
+		return node;
 	}	
 	
 	public List<Node> _findAllNodes(Label label, String key, Object value) {
@@ -491,7 +1159,233 @@ public class Neo4jDatabase implements GraphImporter {
 	}
 	
 	private List<Node> _findAllNodes(GraphKey key) {
-		return _findAllNodes(key.getLabel(), key.getProperty(), key.getValue());
+		if (_isIdentifier(key))
+			return _findIdentifierNodes(key);
+		
+		if (!_isCachable(key))
+			return _findAllNodes(key.getLabel(), key.getProperty(), key.getValue());
+		
+		Node node = _findCachedNode(key);
+		if (null != node)
+			return Collections.singletonList(node);
+		
+		if (!_mightExist(key))
+			return Collections.emptyList();
+		
+		List<Node> nodes = _findAllNodes(key.getLabel(), key.getProperty(), key.getValue());
+		if (nodes.size() == 1)
+			_cacheNode(key, nodes.get(0));
+		else if (nodes.isEmpty())
+			_countFalsePositive();
+		
+		return nodes;
+	}
+	
+	/**
+	 * Function to resolve many keys at once.
+	 * 
+	 * Keys are grouped by index and sorted by value within the group, so
+	 * consecutive lookups hit the same index and neighbouring index pages.
+	 * Every key is checked against the caches and looked up in the store only once.
+	 * 
+	 * @param keys distinct keys
+	 * @return Map of the key to the list of nodes, empty if the node does not exists
+	 */
+	private Map<GraphKey, List<Node>> _resolveKeys(Collection<GraphKey> keys) {
+		Map<GraphIndex, List<GraphKey>> groups = new HashMap<GraphIndex, List<GraphKey>>();
+		for (GraphKey key : keys)
+			groups.computeIfAbsent(key.getIndex(), i -> new ArrayList<GraphKey>()).add(key);
+		
+		Map<GraphKey, List<Node>> resolved = new HashMap<GraphKey, List<Node>>(keys.size() * 2);
+		for (List<GraphKey> group : groups.values()) {
+			group.sort((k1, k2) -> String.valueOf(k1.getValue()).compareTo(String.valueOf(k2.getValue())));
+			for (GraphKey key : group)
+				resolved.put(key, _findAllNodes(key));
+		}
+		
+		keysResolved += keys.size();
+		
+		return resolved;
+	}
+	
+	/**
+	 * Function to find all the nodes with an identifier through the identifier map.
+	 * An identifier is loaded from the store only once.
+	 */
+	private List<Node> _findIdentifierNodes(GraphKey key) {
+		long[] nodeIds = identifierMap.get(key);
+		if (null != nodeIds) {
+			try {
+				List<Node> nodes = new ArrayList<Node>(nodeIds.length);
+				for (long nodeId : nodeIds) {
+					Node node = graphDb.getNodeById(nodeId);
+					// the identifier of the node has been changed, the identifier will be loaded again
+					if (!key.getValue().equals(node.getProperty(key.getProperty(), null)))
+						break;
+					
+					nodes.add(node);
+				}
+				
+				if (nodes.size() == nodeIds.length)
+					return nodes;
+			} catch (NotFoundException e) {
+				// the node has been deleted, the identifier will be loaded again
+			}
+		}
+		
+		List<Node> nodes = _findAllNodes(key.getLabel(), key.getProperty(), key.getValue());
+		nodeIds = new long[nodes.size()];
+		for (int i = 0; i < nodeIds.length; ++i)
+			nodeIds[i] = nodes.get(i).getId();
+		identifierMap.load(key, nodeIds);
+		
+		return nodes;
+	}
+	
+	/**
+	 * Keys of not unique indexes are identifiers, what can belong to more than one node 
+	 */
+	private boolean _isIdentifier(GraphKey key) {
+		return null != identifierMap && identifierIndexes.contains(key.getIndex()) 
+				&& NodeIdentifierMap.isSupported(key);
+	}
+	
+	/**
+	 * Only a key of unique index identifies a single node and can be cached
+	 */
+	private boolean _isCachable(GraphKey key) {
+		return (null != nodeCache || null != keyIndex || null != keyFilter) && uniqueIndexes.contains(key.getIndex());
+	}
+	
+	/**
+	 * Function to check the key filter. 
+	 * The filter is filled with existing keys of the index on the first check.
+	 * @return false if the node does not exist for sure
+	 */
+	private boolean _mightExist(GraphKey key) {
+		if (null == keyFilter)
+			return true;
+		
+		GraphIndex index = key.getIndex();
+		if (!filteredIndexes.contains(index)) 
+			_buildKeyFilter(index);
+		
+		if (keyFilter.mightContain(key))
+			return true;
+		
+		++keyFilterNegatives;
+		return false;
+	}
+	
+	private void _countFalsePositive() {
+		if (null != keyFilter)
+			++keyFilterFalsePositives;
+	}
+	
+	private void _buildKeyFilter(GraphIndex index) {
+		long count = 0;
+		try (ResourceIterator<Node> nodes = graphDb.findNodes(Label.label(index.getLabel()))) {
+			while (nodes.hasNext()) {
+				Object value = nodes.next().getProperty(index.getProperty(), null);
+				if (null != value) {
+					keyFilter.add(new GraphKey(index, value));
+					++count;
+				}
+			}
+		}
+		
+		filteredIndexes.add(index);
+		
+		if (verbose)
+			System.out.println("Key filter has been filled with " + count + " keys of " + index);
+	}
+	
+	/**
+	 * Function to find a node in the node cache or in the key index.
+	 * A node found by the key index is verified, as the index only stores hashes of the keys.
+	 */
+	private Node _findCachedNode(GraphKey key) {
+		if (null != nodeCache) {
+			long nodeId = nodeCache.get(key);
+			if (nodeId >= 0) {
+				try {
+					return graphDb.getNodeById(nodeId);
+				} catch (NotFoundException e) {
+					// the node has been deleted, it will be found by the key index or the store
+					nodeCache.remove(key);
+				}
+			}
+		}
+		
+		if (null != keyIndex) {
+			long nodeId = keyIndex.get(key);
+			if (nodeId >= 0) {
+				try {
+					Node node = graphDb.getNodeById(nodeId);
+					if (node.hasLabel(Label.label(key.getLabel())) 
+							&& key.getValue().equals(node.getProperty(key.getProperty(), null))) {
+						if (null != nodeCache)
+							nodeCache.put(key, nodeId);
+						
+						return node;
+					}
+				} catch (NotFoundException e) {
+					// the node has been deleted
+				}
+			}
+		}
+		
+		return null;
+	}
+	
+	private void _cacheNode(GraphKey key, Node node) {
+		if (null != nodeCache)
+			nodeCache.put(key, node.getId());
+		
+		// existing nodes are stored in the key index too, so the next run can find them 
+		if (null != keyIndex)
+			keyIndex.put(key, node.getId());
+	}
+	
+	private void _completeTransaction(boolean committed) {
+		// released relationships, what have not been imported, are pending again
+		if (committed)
+			unknownRelationships.commit();
+		else
+			unknownRelationships.rollback();
+		
+		// created relationships do not exist anymore
+		if (!committed) {
+			adjacency.clear();
+			if (null != identifierMap)
+				identifierMap.clear();
+			if (null != relationshipSet)
+				relationshipSet.clear();
+		}
+		
+		if (null != nodeCache) {
+			if (committed)
+				nodeCache.commit();
+			else
+				nodeCache.rollback();
+		}
+		
+		if (null != keyIndex) {
+			if (committed) {
+				boolean full = keyIndex.isFull();
+				try {
+					keyIndex.commit(transactionIdStore.getLastCommittedTransactionId());
+				} catch (IOException e) {
+					// the index will be discarded on the next run, as it has not been closed
+					keyIndex = null;
+					throw new UncheckedIOException("Unable to write key index: " + e.getMessage(), e);
+				}
+				
+				if (!full && keyIndex.isFull())
+					System.out.println("Key index is full, keys of new nodes will not be stored in the index");
+			} else
+				keyIndex.rollback();
+		}
 	}
 	
 	private Relationship _findRelationship(Iterable<Relationship> rels, long nodeId, Direction direction) {
@@ -504,6 +1398,7 @@ public class Neo4jDatabase implements GraphImporter {
 			case OUTGOING:
 				if (rel.getEndNode().getId() == nodeId)
 					return rel;
+				break;
 				
 			case BOTH:
 				if (rel.getStartNode().getId() == nodeId || 
@@ -522,19 +1417,49 @@ public class Neo4jDatabase implements GraphImporter {
 	
 	private Relationship _findRelationship(Node nodeStart, Node endNode, 
 			RelationshipType type, Direction direction) {
-		return _findRelationship(nodeStart, endNode.getId(), type, direction);
+		if (Direction.OUTGOING != direction)
+			return _findRelationship(nodeStart, endNode.getId(), type, direction);
+		
+		// relationship can only exist if both nodes have relationships of that type
+		int degreeStart = nodeStart.getDegree(type, Direction.OUTGOING);
+		if (0 == degreeStart)
+			return null;
+		int degreeEnd = endNode.getDegree(type, Direction.INCOMING);
+		if (0 == degreeEnd)
+			return null;
+		
+		// walk relationships of the node with the lower degree
+		Node node = nodeStart;
+		Node otherNode = endNode;
+		if (degreeEnd < degreeStart) {
+			node = endNode;
+			otherNode = nodeStart;
+			direction = Direction.INCOMING;
+		}
+		
+		if (Math.min(degreeStart, degreeEnd) >= SUPERNODE_DEGREE) {
+			if (adjacency.isIndexed(node.getId(), type, direction) || adjacency.index(node, type, direction)) {
+				long relationshipId = adjacency.find(node.getId(), type, direction, otherNode.getId());
+				return relationshipId < 0 ? null : graphDb.getRelationshipById(relationshipId);
+			}
+		}
+		
+		return _findRelationship(node, otherNode.getId(), type, direction);
 	}
 	
 	private Node _createNode() {
-		++nodesCreated;
+		nodesCreated.incrementAndGet();
 		
 		return graphDb.createNode();
 	}
 
 	private Relationship _createRelationship(Node nodeStart, Node nodeEnd, RelationshipType type) {
-		++relationshipsCreated;
+		relationshipsCreated.incrementAndGet();
+		
+		Relationship relationship = nodeStart.createRelationshipTo(nodeEnd, type);
+		adjacency.add(relationship);
 		
-		return nodeStart.createRelationshipTo(nodeEnd, type);		
+		return relationship;
 	}
 
 	private void _importSchemas(Collection<GraphSchema> schemas) {
@@ -562,6 +1487,10 @@ public class Neo4jDatabase implements GraphImporter {
 			}
 			
 			importedSchemas.add(schema);
+			if (schema.isUnique())
+				uniqueIndexes.add(index);
+			else
+				identifierIndexes.add(index);
 		}
 	}
 
@@ -572,11 +1501,437 @@ public class Neo4jDatabase implements GraphImporter {
 				_importNode(graphNode);		
 	}
 	
+	private void _importGraph(Graph graph, boolean profilingEnabled) {
+		if (null != cypherWriter) {
+			_importGraphCypher(graph, profilingEnabled);
+			return;
+		}
+		
+        long minorMarkTime = System.currentTimeMillis(); //for performance profiling
+        long deltaTime;
+        if (graph instanceof ArenaGraph) {
+        	ArenaGraph.NodeCursor cursor = ((ArenaGraph) graph).nodeCursor();
+        	while (cursor.next()) { 
+        		_importNode(cursor);
+        		_countOperation();
+        	}
+        } else if (null != graph.getNodes()) {
+        	for (GraphNode graphNode : graph.getNodes()) {
+        		_importNode(graphNode);
+        		_countOperation();
+        	}
+        }
+        if (profilingEnabled) {
+            deltaTime = System.currentTimeMillis() - minorMarkTime;
+            System.out.println("_importNodes in milliseconds:" + deltaTime);
+        }
+        
+        if (null != relationshipSpool) {
+        	_spoolRelationships(graph);
+        	return;
+        }
+        
+        minorMarkTime = System.currentTimeMillis(); //for performance profiling
+        // endpoint keys of all relationships are resolved at once, so every key is looked up only once
+        Set<GraphKey> endpoints = new HashSet<GraphKey>();
+        if (graph instanceof ArenaGraph) {
+        	ArenaGraph.RelationshipCursor cursor = ((ArenaGraph) graph).relationshipCursor();
+        	while (cursor.next()) {
+        		endpoints.add(cursor.getStart());
+        		endpoints.add(cursor.getEnd());
+        	}
+        } else if (null != graph.getRelationships()) {
+        	for (GraphRelationship graphRelationship : graph.getRelationships()) {
+        		endpoints.add(graphRelationship.getStart());
+        		endpoints.add(graphRelationship.getEnd());
+        	}
+        }
+        Map<GraphKey, List<Node>> resolved = _resolveKeys(endpoints);
+        if (profilingEnabled) {
+            deltaTime = System.currentTimeMillis() - minorMarkTime;
+            System.out.println("_resolveKeys of " + endpoints.size() + " keys in milliseconds:" + deltaTime);
+        }
+        
+        // relationships of the arena are materialized, as they have to be reordered
+        Collection<GraphRelationship> relationships = graph.getRelationships();
+        if (null != relationships && !relationships.isEmpty()) {
+        	for (GraphRelationship graphRelationship : _groupRelationships(relationships, resolved)) {
+        		_importRelationship(graphRelationship, true, resolved);
+        		_countOperation();
+        	}
+        }
+        if (profilingEnabled) {
+            deltaTime = System.currentTimeMillis() - minorMarkTime;
+            System.out.println("_importRelationships in milliseconds:" + deltaTime);
+        }
+	}
+	
+	/**
+	 * Function to order relationships, so all the relationships of a node are applied together.
+	 * 
+	 * Relationships are grouped by the start node. Dense nodes are detected in advance, 
+	 * by the number of their relationships in the graph or in the store, and relationships 
+	 * into a dense node, such as a funder or an institution, are grouped by the end node, 
+	 * so the node and its relationship chain are only visited in one pass. 
+	 * The order of relationships within a group is kept.
+	 * 
+	 * @param relationships relationships in the file order
+	 * @param resolved nodes of the relationship keys, resolved by _resolveKeys()
+	 * @return grouped relationships
+	 */
+	private List<GraphRelationship> _groupRelationships(Collection<GraphRelationship> relationships, 
+			Map<GraphKey, List<Node>> resolved) {
+		Map<Node, Integer> degrees = new HashMap<Node, Integer>();
+		for (GraphRelationship graphRelationship : relationships) {
+			for (Node node : resolved.get(graphRelationship.getStart()))
+				degrees.merge(node, 1, Integer::sum);
+			for (Node node : resolved.get(graphRelationship.getEnd()))
+				degrees.merge(node, 1, Integer::sum);
+		}
+		
+		// the store degree is only checked for nodes what will have more than one relationship
+		Set<Node> dense = new HashSet<Node>();
+		for (Map.Entry<Node, Integer> degree : degrees.entrySet())
+			if (degree.getValue() >= DENSE_NODE_BATCH_DEGREE 
+					|| (degree.getValue() > 1 && degree.getKey().getDegree() >= SUPERNODE_DEGREE))
+				dense.add(degree.getKey());
+		denseNodes += dense.size();
+		
+		List<GraphRelationship> list = new ArrayList<GraphRelationship>(relationships);
+		long[] groups = new long[list.size()];
+		Integer[] order = new Integer[list.size()];
+		for (int i = 0; i < groups.length; ++i) {
+			List<Node> nodesStart = resolved.get(list.get(i).getStart());
+			List<Node> nodesEnd = resolved.get(list.get(i).getEnd());
+			Node start = nodesStart.isEmpty() ? null : nodesStart.get(0);
+			Node end = nodesEnd.isEmpty() ? null : nodesEnd.get(0);
+			
+			if (null != end && dense.contains(end) && (null == start || !dense.contains(start)))
+				groups[i] = end.getId();
+			else
+				groups[i] = null == start ? -1 : start.getId();
+			order[i] = i;
+		}
+		
+		// the sort is stable, so the order within a group is kept
+		Arrays.sort(order, (i1, i2) -> Long.compare(groups[i1], groups[i2]));
+		
+		List<GraphRelationship> grouped = new ArrayList<GraphRelationship>(list.size());
+		for (int i = 0; i < order.length; ++i) {
+			if (0 == i || groups[order[i]] != groups[order[i - 1]])
+				++relationshipGroups;
+			grouped.add(list.get(order[i]));
+		}
+		
+		return grouped;
+	}
+	
+	/**
+	 * Function to import all the nodes and relationships of the write-behind buffer
+	 */
+	private void _flushWriteBuffer() {
+		if (null == writeBuffer || writeBuffer.isEmpty())
+			return;
+		
+		long markTime = System.currentTimeMillis();
+		int size = writeBuffer.size();
+		
+		_importBatch(writeBuffer.drain(), profilingEnabled);
+		
+		if (profilingEnabled) {
+			System.out.println("flush of write buffer with " + size + " nodes and relationships in milliseconds:" 
+					+ (System.currentTimeMillis() - markTime));
+		}
+	}
+	
+	/**
+	 * First phase of two-phase import: relationships are spooled instead of being imported
+	 */
+	private void _spoolRelationships(Graph graph) {
+		if (graph instanceof ArenaGraph) {
+        	ArenaGraph.RelationshipCursor cursor = ((ArenaGraph) graph).relationshipCursor();
+        	while (cursor.next()) 
+        		relationshipSpool.add(cursor.toGraphRelationship());
+		} else if (null != graph.getRelationships()) {
+			for (GraphRelationship graphRelationship : graph.getRelationships()) 
+				relationshipSpool.add(graphRelationship);
+		}
+	}
+	
+	private void _importGraphCypher(Graph graph, boolean profilingEnabled) {
+        long minorMarkTime = System.currentTimeMillis(); //for performance profiling
+        long deltaTime;
+        List<GraphRelationship> resolved = new ArrayList<GraphRelationship>();
+        int count = 0;
+        // nodes of an ArenaGraph are decoded into a list, so they are taken once
+        Collection<GraphNode> nodes = graph.getNodes();
+        if (null != nodes && !nodes.isEmpty()) {
+        	long created = cypherWriter.getNodesCreated();
+        	long updated = cypherWriter.getNodesUpdated();
+        	count = cypherWriter.writeNodes(nodes);
+        	nodesCreated.addAndGet(cypherWriter.getNodesCreated() - created);
+        	nodesUpdated.addAndGet(cypherWriter.getNodesUpdated() - updated);
+        	
+        	// relationships waiting for the new nodes can be imported now
+        	for (GraphNode graphNode : nodes) 
+        		if (!graphNode.isBroken() && !graphNode.isDeleted()) {
+        			_importedKey(graphNode.getKey(), resolved);
+        			if (null != graphNode.getIndexSet())
+        				for (GraphKey index : graphNode.getIndexSet())
+        					_importedKey(index, resolved);
+        		}
+        }
+        if (profilingEnabled) {
+            deltaTime = System.currentTimeMillis() - minorMarkTime;
+            System.out.println("_importNodes in milliseconds:" + deltaTime);
+        }
+        
+        minorMarkTime = System.currentTimeMillis(); //for performance profiling
+        if (null != relationshipSpool) 
+        	_spoolRelationships(graph);
+        else {
+        	Collection<GraphRelationship> relationships = graph.getRelationships();
+        	if (null != relationships && !relationships.isEmpty()) {
+        		_importRelationshipsCypher(relationships, true);
+        		count += relationships.size();
+        	}
+        }
+        // the operations are counted once the released relationships have been imported, 
+        // so the transaction is not committed before them
+        if (!resolved.isEmpty()) {
+        	_importRelationshipsCypher(resolved, false);
+        	count += resolved.size();
+        }
+        _countOperations(count);
+        if (profilingEnabled) {
+            deltaTime = System.currentTimeMillis() - minorMarkTime;
+            System.out.println("_importRelationships in milliseconds:" + deltaTime);
+        }
+	}
+	
+	private void _importRelationshipsCypher(Collection<GraphRelationship> relationships, boolean storeUnknown) {
+		long created = cypherWriter.getRelationshipsCreated();
+		long updated = cypherWriter.getRelationshipsUpdated();
+		List<GraphRelationship> unmatched = cypherWriter.writeRelationships(relationships);
+		relationshipsCreated.addAndGet(cypherWriter.getRelationshipsCreated() - created);
+		relationshipsUpdated.addAndGet(cypherWriter.getRelationshipsUpdated() - updated);
+		
+		// relationships created by the writer are not in the adjacency hash 
+		adjacency.clear();
+		
+		// the Core API will store the unknown keys
+		_importRelationships(unmatched, storeUnknown);
+	}
+	
+	private void _importedKey(GraphKey key, List<GraphRelationship> resolved) {
+		if (null != keyFilter && filteredIndexes.contains(key.getIndex()))
+			keyFilter.add(key);
+		
+		// the writer does not return node ids
+		if (_isIdentifier(key))
+			identifierMap.forget(key);
+		
+		List<GraphRelationship> relationships = unknownRelationships.remove(key);
+		if (null != relationships)
+			resolved.addAll(relationships);
+	}
+	
+	/**
+	 * Function to release relationships waiting for nodes, what have been committed by 
+	 * the parallel writer or by an import session
+	 */
+	synchronized List<GraphRelationship> _importedNodes(Collection<GraphNode> nodes) {
+		List<GraphRelationship> resolved = new ArrayList<GraphRelationship>();
+		for (GraphNode graphNode : nodes) 
+			if (!graphNode.isBroken() && !graphNode.isDeleted()) {
+				_importedKey(graphNode.getKey(), resolved);
+				if (null != graphNode.getIndexSet())
+					for (GraphKey index : graphNode.getIndexSet())
+						_importedKey(index, resolved);
+			}
+		
+		return resolved;
+	}
+	
+	synchronized void _importedRelationships() {
+		// relationships created by the parallel writer or the sessions are not in the adjacency hash 
+		adjacency.clear();
+		
+		// the released relationships have been committed
+		unknownRelationships.commit();
+	}
+	
+	/**
+	 * Function to store relationships, what have not been matched by an import session.
+	 * Relationships are stored by the keys of the missing nodes, the check and the store 
+	 * are done under the database lock, so the session what creates the node will find them.
+	 * @return List of relationships, what nodes have been created in the meantime
+	 */
+	synchronized List<GraphRelationship> _storeUnknownRelationships(Collection<GraphRelationship> relationships) {
+		List<GraphRelationship> matched = new ArrayList<GraphRelationship>();
+		try ( Transaction tx = graphDb.beginTx() ) 
+		{
+			for (GraphRelationship relationship : relationships) {
+				GraphKey start = relationship.getStart();
+				GraphKey end = relationship.getEnd();
+				boolean startExists = null != _findAnyNode(start.getLabel(), start.getProperty(), start.getValue());
+				boolean endExists = null != _findAnyNode(end.getLabel(), end.getProperty(), end.getValue());
+				
+				if (startExists && endExists) {
+					matched.add(relationship);
+					continue;
+				}
+				
+				if (!startExists) {
+					storeUnknownRelationship(start, relationship);
+					
+					if (verbose)
+						System.out.println("Relationship Start Key (" + start + ") does not exists");
+				}
+				if (!endExists) {
+					storeUnknownRelationship(end, relationship);
+					
+					if (verbose)
+						System.out.println("Relationship End Key (" + end + ") does not exists");
+				}
+			}
+			
+			tx.success();
+		}
+		_committedTransaction();
+		
+		return matched;
+	}
+	
+	/**
+	 * Function to import schemas of an import session in the calling thread
+	 */
+	synchronized void _importSessionSchemas(Collection<GraphSchema> schemas) {
+		try ( Transaction tx = graphDb.beginTx() ) 
+		{
+			_importSchemas(schemas);
+			
+			tx.success();
+		}
+		_committedTransaction();
+	}
+	
+	/**
+	 * Function to report a transaction, what has been committed outside of the import 
+	 * transactions, so the key index will still match the store
+	 */
+	void _committedTransaction() {
+		NodeKeyIndex index = keyIndex;
+		if (null != index)
+			index.committed(transactionIdStore.getLastCommittedTransactionId());
+	}
+	
+	void _committedSession(long statements, int retries) {
+		sessionBatches.incrementAndGet();
+		sessionStatements.addAndGet(statements);
+		sessionRetries.addAndGet(retries);
+	}
+	
+	void _addCounters(long nodesCreated, long nodesUpdated, long relationshipsCreated, long relationshipsUpdated) {
+		this.nodesCreated.addAndGet(nodesCreated);
+		this.nodesUpdated.addAndGet(nodesUpdated);
+		this.relationshipsCreated.addAndGet(relationshipsCreated);
+		this.relationshipsUpdated.addAndGet(relationshipsUpdated);
+	}
+	
+	boolean _hasNewSchemas(Collection<GraphSchema> schemas) {
+		if (null != schemas)
+			for (GraphSchema schema : schemas)
+				if (!importedSchemas.contains(schema))
+					return true;
+		
+		return false;
+	}
+	
+	private void _beginImport() {
+		importTransaction = graphDb.beginTx();
+		importOperations = 0;
+	}
+	
+	private void _rollbackImport() {
+		if (null != importTransaction) {
+			try {
+				importTransaction.failure();
+				importTransaction.close();
+			} finally {
+				importTransaction = null;
+				importOperations = 0;
+				_completeTransaction(false);
+			}
+		}
+	}
+	
+	/**
+	 * Function to count an imported node or relationship. 
+	 * Once the import transaction has reached it size, it will be committed and a new one will be started.
+	 */
+	private void _countOperation() {
+		_countOperations(1);
+	}
+	
+	private void _countOperations(int count) {
+		if (null != importTransaction && (importOperations += count) >= transactionSizer.getSize()) {
+			commit();
+			_beginImport();
+		}
+	}
+	
 	private void _importIndex(Node node, GraphKey key) {
 		node.addLabel(Label.label(key.getIndex().getLabel()));
 		node.setProperty(key.getIndex().getProperty(), key.getValue());
 		
-		_importRelationships(unknownRelationships.remove(getRelationshipKey(key)), false); 
+		_indexImported(node, key);
+	}
+	
+	/**
+	 * Function to update a secondary index of an existing node.
+	 * Only a missing or changed value is written. The node will be found by the new value,
+	 * relationships waiting for it will be imported.
+	 */
+	private void _updateIndex(Node node, Set<String> labels, Map<String, Object> properties, GraphKey key) {
+		_updateLabel(node, labels, key.getLabel());
+		
+		Object previous = properties.get(key.getProperty());
+		if (PropertyValues.isSameValue(previous, key.getValue())) {
+			++propertiesSkipped;
+			return;
+		}
+		
+		node.setProperty(key.getProperty(), key.getValue());
+		++propertiesWritten;
+		
+		// the node can not be found by the previous value anymore
+		if (null != previous) {
+			GraphKey previousKey = new GraphKey(key.getIndex(), previous);
+			if (null != nodeCache && _isCachable(previousKey))
+				nodeCache.remove(previousKey);
+			if (_isIdentifier(previousKey))
+				identifierMap.forget(previousKey);
+		}
+		
+		_indexImported(node, key);
+	}
+	
+	private void _updateIndexes(Node node, Set<String> labels, Map<String, Object> properties, Collection<GraphKey> indexes) {
+		if (null != indexes)
+			for (GraphKey index : indexes)
+				_updateIndex(node, labels, properties, index);
+	}
+	
+	private void _indexImported(Node node, GraphKey key) {
+		// keys of not yet filtered index will be loaded from the store
+		if (null != keyFilter && filteredIndexes.contains(key.getIndex()))
+			keyFilter.add(key);
+		
+		if (_isIdentifier(key))
+			identifierMap.put(key, node.getId());
+		
+		_importRelationships(unknownRelationships.remove(key), false); 
 	}
 	
 	private void _importIndexes(Node node, Collection<GraphKey> indexes) {
@@ -588,18 +1943,64 @@ public class Neo4jDatabase implements GraphImporter {
 	private void _importLabels(Node node, Collection<String> labels) {
 		if (null != labels) {
 			labels.stream().map(l -> Label.label(l)).forEach(l -> node.addLabel(l));
+			labelsWritten += labels.size();
 		}
 	}
 
-	private void _importProperties(Node node, Map<String, Object> properties) {
+	private void _importProperties(PropertyContainer container, Map<String, Object> properties) {
 		if (null != properties) {
-			properties.entrySet().stream().forEach(e -> node.setProperty(e.getKey(), e.getValue()));
+			properties.entrySet().stream().forEach(e -> container.setProperty(e.getKey(), e.getValue()));
+			propertiesWritten += properties.size();
 		}
 	}
 	
-	private void _importProperties(Relationship relationship, Map<String, Object> properties) {
-		if (null != properties) {
-			properties.entrySet().stream().forEach(e -> relationship.setProperty(e.getKey(), e.getValue()));
+	/**
+	 * Function to add labels to an existing node.
+	 * The node labels are read once and only the missing labels are added.
+	 * @return Set of the node labels
+	 */
+	private Set<String> _updateLabels(Node node, Collection<String> labels) {
+		Set<String> existing = new HashSet<String>();
+		for (Label label : node.getLabels())
+			existing.add(label.name());
+		
+		if (null != labels)
+			for (String label : labels)
+				_updateLabel(node, existing, label);
+		
+		return existing;
+	}
+	
+	private void _updateLabel(Node node, Set<String> existing, String label) {
+		if (existing.add(label)) {
+			node.addLabel(Label.label(label));
+			++labelsWritten;
+		} else
+			++labelsSkipped;
+	}
+	
+	/**
+	 * Function to update properties of an existing node or relationship.
+	 * The properties are read once and only the properties with a different value are written,
+	 * so an import of unchanged data does not write anything.
+	 */
+	private void _updateProperties(PropertyContainer container, Map<String, Object> properties) {
+		if (null != properties && !properties.isEmpty())
+			_updateProperties(container, container.getAllProperties(), properties);
+	}
+	
+	private void _updateProperties(PropertyContainer container, Map<String, Object> existing, Map<String, Object> properties) {
+		if (null != properties)
+			for (Map.Entry<String, Object> property : properties.entrySet())
+				_updateProperty(container, existing, property.getKey(), property.getValue());
+	}
+	
+	private void _updateProperty(PropertyContainer container, Map<String, Object> existing, String key, Object value) {
+		if (PropertyValues.isSameValue(existing.get(key), value))
+			++propertiesSkipped;
+		else {
+			container.setProperty(key, value);
+			++propertiesWritten;
 		}
 	}
 	
@@ -609,18 +2010,21 @@ public class Neo4jDatabase implements GraphImporter {
 		}
 	}
 	
-	private Node _importNode(GraphNode graphNode) {
-        if (graphNode.isBroken() || graphNode.isDeleted())
-            return null;
-
-        GraphKey key = graphNode.getKey();
-
+	static void _checkNodeKey(GraphKey key) {
         if (StringUtils.isEmpty(key.getLabel()))
             throw new IllegalArgumentException("Node Key Label can not be empty");
         if (StringUtils.isEmpty(key.getProperty()))
             throw new IllegalArgumentException("Node Key Property can not be null");
         if (null == key.getValue())
             throw new IllegalArgumentException("Node Key Value can not be null");
+	}
+	
+	private Node _importNode(GraphNode graphNode) {
+        if (graphNode.isBroken() || graphNode.isDeleted())
+            return null;
+
+        GraphKey key = graphNode.getKey();
+        _checkNodeKey(key);
 
         if (verbose) {
             System.out.println("Importing Node (" + key + ")");
@@ -629,35 +2033,102 @@ public class Neo4jDatabase implements GraphImporter {
         Node node = _findAnyNode(key);
         if (null == node) {
             node = _createNode();
+            if (_isCachable(key))
+            	_cacheNode(key, node);
 
             _importIndex(node, key);
             _importIndexes(node, graphNode.getIndexSet());
+
+            _importLabels(node, graphNode.getLabels());
+            _importProperties(node, graphNode.getProperties());
         } else  {
-            ++nodesUpdated;
+            nodesUpdated.incrementAndGet();
+
+            Set<String> labels = _updateLabels(node, graphNode.getLabels());
+            Map<String, Object> properties = node.getAllProperties();
+            _updateIndexes(node, labels, properties, graphNode.getIndexSet());
+            _updateProperties(node, properties, graphNode.getProperties());
         }
 
-        _importLabels(node, graphNode.getLabels());
-        _importProperties(node, graphNode.getProperties());
+        return node;
+	}
+	
+	private Node _importNode(ArenaGraph.NodeCursor cursor) {
+        if (cursor.isBroken() || cursor.isDeleted())
+            return null;
+
+        GraphKey key = cursor.getKey();
+        _checkNodeKey(key);
+
+        if (verbose) {
+            System.out.println("Importing Node (" + key + ")");
+        }
+
+        Node node = _findAnyNode(key);
+        if (null == node) {
+            node = _createNode();
+            if (_isCachable(key))
+            	_cacheNode(key, node);
+
+            _importIndex(node, key);
+            for (int i = 0; i < cursor.getIndexesCount(); ++i)
+            	_importIndex(node, new GraphKey(cursor.getIndex(i), cursor.getIndexValue(i)));
+
+            for (int i = 0; i < cursor.getLabelsCount(); ++i)
+            	node.addLabel(Label.label(cursor.getLabel(i)));
+            for (int i = 0; i < cursor.getPropertiesCount(); ++i)
+            	node.setProperty(cursor.getPropertyName(i), cursor.getPropertyValue(i));
+            labelsWritten += cursor.getLabelsCount();
+            propertiesWritten += cursor.getPropertiesCount();
+        } else  {
+            nodesUpdated.incrementAndGet();
+
+            Set<String> labels = _updateLabels(node, null);
+            for (int i = 0; i < cursor.getLabelsCount(); ++i)
+            	_updateLabel(node, labels, cursor.getLabel(i));
+            if (cursor.getIndexesCount() > 0 || cursor.getPropertiesCount() > 0) {
+            	Map<String, Object> properties = node.getAllProperties();
+            	for (int i = 0; i < cursor.getIndexesCount(); ++i)
+            		_updateIndex(node, labels, properties, new GraphKey(cursor.getIndex(i), cursor.getIndexValue(i)));
+            	for (int i = 0; i < cursor.getPropertiesCount(); ++i)
+            		_updateProperty(node, properties, cursor.getPropertyName(i), cursor.getPropertyValue(i));
+            }
+        }
 
         return node;
 	}
 		
 	private void _importRelationship(GraphRelationship graphRelationship, boolean storeUnknown) {
+		_importRelationship(graphRelationship, storeUnknown, null);
+	}
+	
+	/**
+	 * Function to import a relationship
+	 * @param graphRelationship GraphRelationship
+	 * @param storeUnknown store the relationship if one of the nodes does not exists
+	 * @param resolved nodes of the relationship keys, resolved by _resolveKeys(). 
+	 * If null, the keys will be looked up.
+	 */
+	private void _importRelationship(GraphRelationship graphRelationship, boolean storeUnknown, 
+			Map<GraphKey, List<Node>> resolved) {
 		String relationshipName = graphRelationship.getRelationship();
 		GraphKey start = graphRelationship.getStart();
 		GraphKey end = graphRelationship.getEnd();
 		
-		List<Node> nodesStart = _findAllNodes(start);
+		if (null != resolved)
+			++relationshipsResolved;
+		
+		List<Node> nodesStart = null == resolved ? _findAllNodes(start) : resolved.get(start);
 		if (nodesStart.isEmpty() && storeUnknown) { 
-			storeUnknownRelationship(getRelationshipKey(start), graphRelationship);
+			storeUnknownRelationship(start, graphRelationship);
 			
 			if (verbose)
 				System.out.println("Relationship Start Key (" + start + ") does not exists");
 		}
 		
-		List<Node> nodesEnd = _findAllNodes(end);
+		List<Node> nodesEnd = null == resolved ? _findAllNodes(end) : resolved.get(end);
 		if (nodesEnd.isEmpty() && storeUnknown) {
-			storeUnknownRelationship(getRelationshipKey(end), graphRelationship);
+			storeUnknownRelationship(end, graphRelationship);
 			
 			if (verbose)
 				System.out.println("Relationship End Key (" + end + ") does not exists");
@@ -669,23 +2140,49 @@ public class Neo4jDatabase implements GraphImporter {
 		if (verbose) 
 			System.out.println("Importing Relationship (" + start + ")-[" + relationshipName + "]->(" + end + ")");
 		
+		long fanOut = (long) nodesStart.size() * nodesEnd.size();
+		long pairs = fanOut;
+		if (null != fanOutGuard) {
+			pairs = fanOutGuard.check(graphRelationship, nodesStart.size(), nodesEnd.size());
+			if (fanOutGuard.isExceeded(fanOut) && (verbose || FanOutGuard.Policy.log == fanOutGuard.getPolicy()))
+				System.out.println("Relationship (" + start + ")-[" + relationshipName + "]->(" + end + ") expands into " 
+						+ fanOut + " node pairs, " + pairs + " will be merged");
+		}
+		
 		RelationshipType relationshipType = RelationshipType.withName(relationshipName);
-		nodesStart.stream().forEach(nodeStart -> {
-			nodesEnd.stream().forEach(nodeEnd -> _mergeRelationship(nodeStart, nodeEnd, relationshipType, 
-					Direction.OUTGOING, graphRelationship.getProperties()));
-		});
+		long merged = 0;
+		for (Node nodeStart : nodesStart)
+			for (Node nodeEnd : nodesEnd) {
+				if (merged++ >= pairs)
+					return;
+				
+				_mergeRelationship(nodeStart, nodeEnd, relationshipType, 
+						Direction.OUTGOING, graphRelationship.getProperties());
+			}
 	}
 	
 	private Relationship _mergeRelationship(Node nodeStart, Node nodeEnd, RelationshipType type, 
 			Direction direction, Map<String, Object> properties) {
+		
+		// relationship without properties, what already been merged in this run, has nothing to update
+		boolean tracked = null != relationshipSet && Direction.OUTGOING == direction;
+		if (tracked && (null == properties || properties.isEmpty()) 
+				&& relationshipSet.contains(nodeStart.getId(), nodeEnd.getId(), type.name())) {
+			relationshipsUpdated.incrementAndGet();
+			return null;
+		}
 
 		Relationship relationship = _findRelationship(nodeStart, nodeEnd, type, direction);
-		if (null == relationship) 
+		if (null == relationship) {
 			relationship = _createRelationship(nodeStart, nodeEnd, type);
-		else 
-			++relationshipsUpdated;
+			_importProperties(relationship, properties);
+		} else {
+			relationshipsUpdated.incrementAndGet();
+			_updateProperties(relationship, properties);
+		}
 		
-		_importProperties(relationship, properties);
+		if (tracked)
+			relationshipSet.add(nodeStart.getId(), nodeEnd.getId(), type.name());
 		
 		return relationship;
 	}
@@ -694,11 +2191,7 @@ public class Neo4jDatabase implements GraphImporter {
 		return key.getLabel() + "." + key.getProperty() + "." + key.getValue();
 	}
 	
-	private void storeUnknownRelationship(String key, GraphRelationship relationship) {
-		List<GraphRelationship> list = unknownRelationships.get(key);
-		if (null == list) 
-			unknownRelationships.put(key, list = new ArrayList<GraphRelationship>());
-		
-		list.add(relationship);
+	private void storeUnknownRelationship(GraphKey key, GraphRelationship relationship) {
+		unknownRelationships.add(key, relationship);
 	}
 }
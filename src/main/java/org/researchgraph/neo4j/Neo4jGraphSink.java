@@ -0,0 +1,139 @@
+package org.researchgraph.neo4j;
+
+import org.researchgraph.graph.Graph;
+import org.researchgraph.graph.GraphNode;
+import org.researchgraph.graph.GraphRelationship;
+import org.researchgraph.graph.GraphSchema;
+import org.researchgraph.graph.arena.ArenaGraph;
+import org.researchgraph.graph.interfaces.GraphSink;
+
+/**
+ * GraphSink what imports crosswalk output into Neo4j incrementally
+ * 
+ * Schemas, nodes and relationships are collected into a batch. Once the batch
+ * has reached the batch size, it will be passed to Neo4jDatabase.importGraph()
+ * and released. The batch will be committed in a single transaction, unless 
+ * the database has a TransactionSizer. Relationships with a node from the later
+ * batch will be stored as unknown and imported as soon as that node has been created.
+ * 
+ * If the sink has been opened by Neo4jPipeline, the batch will be imported by
+ * the writer thread, while the next batch is being collected.
+ * 
+ * The sink must be closed to import the last batch.
+ */
+
+public class Neo4jGraphSink implements GraphSink, AutoCloseable {
+	private final Neo4jDatabase neo4j;
+	private final Neo4jPipeline pipeline;
+	private final ArenaGraph arena;
+	private final int batchSize;
+	private boolean profilingEnabled = false;
+	
+	private Graph batch;
+	private int batchCount = 0;
+	private long batchesImported = 0;
+	
+	public Neo4jGraphSink(Neo4jDatabase neo4j, int batchSize) {
+		this(neo4j, null, batchSize);
+	}
+	
+	/**
+	 * Creates a sink what will keep every batch in the arena graph
+	 * @param neo4j Neo4jDatabase
+	 * @param arena ArenaGraph, what will be cleared after every batch. Can be null.
+	 * @param batchSize maximum number of nodes and relationships in the batch
+	 */
+	public Neo4jGraphSink(Neo4jDatabase neo4j, ArenaGraph arena, int batchSize) {
+		if (batchSize <= 0)
+			throw new IllegalArgumentException("Batch size must be positive");
+		
+		this.neo4j = neo4j;
+		this.pipeline = null;
+		this.arena = arena;
+		this.batchSize = batchSize;
+		this.batch = null == arena ? new Graph() : arena;
+	}
+	
+	/**
+	 * Creates a sink what will pass every batch to the pipeline writer thread
+	 * @param pipeline Neo4jPipeline
+	 * @param batchSize maximum number of nodes and relationships in the batch
+	 */
+	public Neo4jGraphSink(Neo4jPipeline pipeline, int batchSize) {
+		if (batchSize <= 0)
+			throw new IllegalArgumentException("Batch size must be positive");
+		
+		this.neo4j = pipeline.getDatabase();
+		this.pipeline = pipeline;
+		this.arena = null;
+		this.batchSize = batchSize;
+		this.batch = pipeline.nextBatch();
+	}
+	
+	public boolean isProfilingEnabled() {
+		return profilingEnabled;
+	}
+
+	public void setProfilingEnabled(boolean profilingEnabled) {
+		this.profilingEnabled = profilingEnabled;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public long getBatchesImported() {
+		return batchesImported;
+	}
+
+	@Override
+	public void addSchema(GraphSchema schema) {
+		batch.addSchema(schema);
+	}
+
+	@Override
+	public void addNode(GraphNode node) {
+		batch.addNode(node);
+		
+		if (++batchCount >= batchSize)
+			flush();
+	}
+
+	@Override
+	public void addRelationship(GraphRelationship relationship) {
+		batch.addRelationship(relationship);
+		
+		if (++batchCount >= batchSize)
+			flush();
+	}
+	
+	/**
+	 * Imports the current batch and starts a new one.
+	 * The batch is released even if the import has failed, so it will not be imported again on close.
+	 */
+	public void flush() {
+		if (batchCount > 0 || batch.getSchemasCount() > 0) {
+			try {
+				if (null != pipeline)
+					pipeline.importGraph(batch, profilingEnabled);
+				else
+					neo4j.importGraph(batch, profilingEnabled);
+				++batchesImported;
+			} finally {
+				if (null != pipeline)
+					batch = pipeline.nextBatch();
+				else if (null == arena)
+					batch = new Graph();
+				else
+					arena.clear();
+
+				batchCount = 0;
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		flush();
+	}
+}
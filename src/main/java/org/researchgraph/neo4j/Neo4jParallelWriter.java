@@ -0,0 +1,342 @@
+package org.researchgraph.neo4j;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.TransientTransactionFailureException;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.DeadlockDetectedException;
+import org.researchgraph.graph.Graph;
+import org.researchgraph.graph.GraphNode;
+import org.researchgraph.graph.GraphRelationship;
+
+/**
+ * Parallel writer of the Neo4j database
+ *
+ * A graph is imported by several writer threads, every thread merges its own
+ * partition in batched Cypher statements, one transaction per batch.
+ *
+ * Nodes are partitioned by the hash of their key, so a node key is always
+ * merged by the same thread and two threads never compete for the same
+ * unique constraint. Relationships are imported once all the nodes have been
+ * committed. They are partitioned by the hash of the lower endpoint key and
+ * every partition is sorted by both endpoint hashes, so a batch touches as few
+ * nodes as possible. Before a batch is written, all its nodes are locked in the
+ * order of their ids, so all the threads lock the nodes in the same global order
+ * and never wait for each other in a cycle. A batch, what has been chosen as a
+ * deadlock victim anyway, is rolled back and retried.
+ *
+ * Relationships with an unknown node are passed back to the database, so they
+ * will be stored and imported later, as with the single writer.
+ */
+
+public class Neo4jParallelWriter implements AutoCloseable {
+	public static final int DEFAULT_WRITERS = 4;
+	public static final int MAX_RETRIES = 10;
+	// the first back off, doubled with every retry
+	static final long RETRY_DELAY = 10;
+
+	/**
+	 * Order of the relationships in a partition: the lower endpoint hash, then the higher one
+	 */
+	private static final Comparator<long[]> ENDPOINT_ORDER = (a, b) -> {
+		int result = Long.compare(a[0], b[0]);
+		return 0 == result ? Long.compare(a[1], b[1]) : result;
+	};
+
+	private final Neo4jDatabase neo4j;
+	private final GraphDatabaseService graphDb;
+	private final int writers;
+	private final int batchSize;
+	private final ExecutorService executor;
+
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong statements = new AtomicLong();
+	private final AtomicLong deadlocks = new AtomicLong();
+	private final AtomicLong retries = new AtomicLong();
+	private long graphs = 0;
+
+	/**
+	 * Creates a writer
+	 * @param neo4j Neo4jDatabase
+	 * @param writers number of writer threads
+	 * @param batchSize maximum number of rows in a single statement and in a single transaction
+	 */
+	public Neo4jParallelWriter(Neo4jDatabase neo4j, int writers, int batchSize) {
+		if (writers <= 0)
+			throw new IllegalArgumentException("Number of writers must be positive");
+		if (batchSize <= 0)
+			throw new IllegalArgumentException("Batch size must be positive");
+
+		this.neo4j = neo4j;
+		this.graphDb = neo4j.getGraphDatabaseService();
+		this.writers = writers;
+		this.batchSize = batchSize;
+
+		AtomicInteger threads = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(writers, runnable -> {
+			Thread thread = new Thread(runnable, "neo4j-writer-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public int getWriters() {
+		return writers;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public long getGraphs() {
+		return graphs;
+	}
+
+	/**
+	 * Function to get number of committed transactions
+	 * @return number of batches
+	 */
+	public long getBatches() {
+		return batches.get();
+	}
+
+	public long getStatementsExecuted() {
+		return statements.get();
+	}
+
+	public long getDeadlocks() {
+		return deadlocks.get();
+	}
+
+	public long getRetries() {
+		return retries.get();
+	}
+
+	/**
+	 * Function to import a graph.
+	 * Nodes and relationships are committed by the writer threads, the function
+	 * returns once all of them have been committed. Schemas must be imported before.
+	 * @param graph Graph
+	 * @param profilingEnabled enable profiling output
+	 */
+	public void importGraph(Graph graph, boolean profilingEnabled) {
+		long markTime = System.currentTimeMillis();
+		++graphs;
+
+		List<GraphRelationship> resolved = new ArrayList<GraphRelationship>();
+		Collection<GraphNode> nodes = graph.getNodes();
+		if (null != nodes && !nodes.isEmpty()) {
+			_writeNodes(nodes);
+
+			// relationships waiting for the new nodes can be imported now
+			resolved = neo4j._importedNodes(nodes);
+		}
+		if (profilingEnabled) {
+			System.out.println("parallel _importNodes in milliseconds:" + (System.currentTimeMillis() - markTime));
+		}
+
+		markTime = System.currentTimeMillis();
+		List<GraphRelationship> unmatched = new ArrayList<GraphRelationship>();
+		Collection<GraphRelationship> relationships = graph.getRelationships();
+		if (null != relationships && !relationships.isEmpty()) {
+			if (null != neo4j.getRelationshipSpool()) {
+				for (GraphRelationship relationship : relationships)
+					neo4j.getRelationshipSpool().add(relationship);
+			} else
+				unmatched = _writeRelationships(relationships);
+		}
+
+		// released relationships, what are still not matched, will not be stored again
+		if (!resolved.isEmpty())
+			_writeRelationships(resolved);
+		neo4j._importedRelationships();
+
+		// the Core API will store the unknown keys
+		if (!unmatched.isEmpty())
+			neo4j.importRelationships(unmatched);
+
+		if (profilingEnabled) {
+			System.out.println("parallel _importRelationships in milliseconds:" + (System.currentTimeMillis() - markTime));
+		}
+	}
+
+	/**
+	 * Stops the writer threads
+	 */
+	@Override
+	public void close() {
+		executor.shutdown();
+	}
+
+	private void _writeNodes(Collection<GraphNode> nodes) {
+		List<List<GraphNode>> partitions = _partitions();
+		for (GraphNode node : nodes)
+			if (!node.isBroken() && !node.isDeleted())
+				partitions.get(_partition(NodeKeyIndex.hash(node.getKey()))).add(node);
+
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (List<GraphNode> partition : partitions)
+			if (!partition.isEmpty())
+				futures.add(executor.submit(() -> {
+					for (int from = 0; from < partition.size(); from += batchSize) {
+						List<GraphNode> batch = partition.subList(from, Math.min(from + batchSize, partition.size()));
+						_writeBatch((writer, tx) -> {
+							writer.writeNodes(batch);
+							return null;
+						});
+					}
+				}));
+
+		_await(futures);
+	}
+
+	private List<GraphRelationship> _writeRelationships(Collection<GraphRelationship> relationships) {
+		List<List<long[]>> orders = _partitions();
+
+		// every relationship is kept as lower hash, higher hash and its position
+		List<GraphRelationship> list = new ArrayList<GraphRelationship>(relationships);
+		for (int i = 0; i < list.size(); ++i) {
+			long start = NodeKeyIndex.hash(list.get(i).getStart());
+			long end = NodeKeyIndex.hash(list.get(i).getEnd());
+			long lower = Math.min(start, end);
+			orders.get(_partition(lower)).add(new long[] { lower, Math.max(start, end), i });
+		}
+
+		ConcurrentLinkedQueue<GraphRelationship> unmatched = new ConcurrentLinkedQueue<GraphRelationship>();
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (List<long[]> order : orders)
+			if (!order.isEmpty())
+				futures.add(executor.submit(() -> {
+					order.sort(ENDPOINT_ORDER);
+
+					List<GraphRelationship> partition = new ArrayList<GraphRelationship>(order.size());
+					for (long[] entry : order)
+						partition.add(list.get((int) entry[2]));
+
+					for (int from = 0; from < partition.size(); from += batchSize) {
+						List<GraphRelationship> batch = partition.subList(from, Math.min(from + batchSize, partition.size()));
+						unmatched.addAll(_writeBatch((writer, tx) -> {
+							writer.lockNodes(tx, batch);
+							return writer.writeRelationships(batch);
+						}));
+					}
+				}));
+
+		_await(futures);
+
+		return new ArrayList<GraphRelationship>(unmatched);
+	}
+
+	/**
+	 * Batch of statements executed in a single transaction
+	 */
+	private interface Batch<T> {
+		T write(Neo4jCypherWriter writer, Transaction tx);
+	}
+
+	/**
+	 * Function to write and commit a batch in the current thread.
+	 * The batch will be retried if the transaction has been chosen as a deadlock victim.
+	 * The counters are only added to the database once the transaction has been committed.
+	 */
+	private <T> T _writeBatch(Batch<T> batch) {
+		for (int attempt = 0; ; ++attempt) {
+			Neo4jCypherWriter writer = new Neo4jCypherWriter(graphDb, batchSize);
+			writer.setFanOutGuard(neo4j.getFanOutGuard());
+			try {
+				T result;
+				try ( Transaction tx = graphDb.beginTx() )
+				{
+					result = batch.write(writer, tx);
+
+					tx.success();
+				}
+
+				neo4j._committedTransaction();
+				batches.incrementAndGet();
+				statements.addAndGet(writer.getStatementsExecuted());
+				neo4j._addCounters(writer.getNodesCreated(), writer.getNodesUpdated(),
+						writer.getRelationshipsCreated(), writer.getRelationshipsUpdated());
+
+				return result;
+			} catch (RuntimeException e) {
+				if (!_isTransient(e) || attempt >= MAX_RETRIES)
+					throw e;
+
+				if (_isDeadlock(e))
+					deadlocks.incrementAndGet();
+				retries.incrementAndGet();
+				try {
+					Thread.sleep(RETRY_DELAY << Math.min(attempt, 6));
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted while retrying Neo4j batch");
+				}
+			}
+		}
+	}
+
+	static boolean _isTransient(Throwable e) {
+		for (Throwable cause = e; null != cause; cause = cause.getCause())
+			if (cause instanceof TransientTransactionFailureException)
+				return true;
+
+		return false;
+	}
+
+	static boolean _isDeadlock(Throwable e) {
+		for (Throwable cause = e; null != cause; cause = cause.getCause())
+			if (cause instanceof DeadlockDetectedException)
+				return true;
+
+		return false;
+	}
+
+	private <T> List<List<T>> _partitions() {
+		List<List<T>> partitions = new ArrayList<List<T>>();
+		for (int i = 0; i < writers; ++i)
+			partitions.add(new ArrayList<T>());
+
+		return partitions;
+	}
+
+	private int _partition(long hash) {
+		return (int) ((hash & Long.MAX_VALUE) % writers);
+	}
+
+	/**
+	 * Function to wait for all the writers, any error will be rethrown
+	 */
+	private void _await(List<Future<?>> futures) {
+		RuntimeException error = null;
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for Neo4j writers");
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof Error)
+					throw (Error) cause;
+				if (null == error)
+					error = cause instanceof RuntimeException ? (RuntimeException) cause
+							: new IllegalStateException("Unable to import graph: " + cause.getMessage(), cause);
+			}
+		}
+
+		if (null != error)
+			throw error;
+	}
+}
@@ -0,0 +1,150 @@
+package org.researchgraph.neo4j;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.researchgraph.graph.Graph;
+import org.researchgraph.graph.arena.ArenaGraph;
+
+/**
+ * Pipelined writer of the Neo4j database
+ *
+ * All the imports and commits are executed by a single writer thread, as
+ * Neo4j transactions are bound to the thread what has started them.
+ * The pipeline is double buffered: while the writer thread imports and
+ * commits batch N, the calling thread is free to parse the next file and to
+ * build batch N+1. Submitting batch N+1 waits for batch N, so there are
+ * never more than two batches in memory. If the pipeline has been created
+ * with an arena, batches will be collected in two arenas alternately.
+ *
+ * Any error of the writer thread will be rethrown by the next call.
+ * The pipeline must be closed to commit the last transaction and to stop the writer.
+ */
+
+public class Neo4jPipeline implements AutoCloseable {
+	private final Neo4jDatabase neo4j;
+	private final ExecutorService writer;
+	private final ArenaGraph[] arenas;
+	private int freeArena = 0;
+	private Future<?> pending;
+
+	public Neo4jPipeline(Neo4jDatabase neo4j) {
+		this(neo4j, null);
+	}
+
+	/**
+	 * Creates a pipeline what will collect batches in the off-heap arenas
+	 * @param neo4j Neo4jDatabase
+	 * @param arena ArenaGraph. A second arena will be allocated by the pipeline. Can be null.
+	 */
+	public Neo4jPipeline(Neo4jDatabase neo4j, ArenaGraph arena) {
+		this.neo4j = neo4j;
+		this.arenas = null == arena ? null : new ArenaGraph[] { arena, new ArenaGraph() };
+		this.writer = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "neo4j-writer");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public Neo4jDatabase getDatabase() {
+		return neo4j;
+	}
+
+	/**
+	 * Function to open a sink, what will import crosswalk output through the pipeline
+	 * @param batchSize maximum number of nodes and relationships in a single batch
+	 * @return Neo4jGraphSink, what must be closed to import the last batch
+	 */
+	public Neo4jGraphSink openSink(int batchSize) {
+		return new Neo4jGraphSink(this, batchSize);
+	}
+
+	/**
+	 * Function to get an empty graph for the next batch.
+	 * If the pipeline has arenas, the arena what is not being imported will be
+	 * cleared and returned, so only one batch can be collected at a time.
+	 * @return Graph
+	 */
+	public Graph nextBatch() {
+		if (null == arenas)
+			return new Graph();
+
+		ArenaGraph arena = arenas[freeArena];
+		arena.clear();
+		return arena;
+	}
+
+	/**
+	 * Function to pass a graph to the writer thread.
+	 * The function waits until the previous graph has been imported.
+	 * The graph must not be changed until the next call.
+	 * @param graph Graph
+	 * @param profilingEnabled enable profiling output
+	 */
+	public void importGraph(final Graph graph, final boolean profilingEnabled) {
+		await();
+
+		pending = writer.submit(() -> neo4j.importGraph(graph, profilingEnabled));
+		if (null != arenas && graph == arenas[freeArena])
+			freeArena ^= 1;
+	}
+
+	/**
+	 * Function to wait for the last graph to be imported
+	 */
+	public void await() {
+		if (null != pending) {
+			try {
+				pending.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for Neo4j writer");
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+				if (cause instanceof Error)
+					throw (Error) cause;
+				throw new IllegalStateException("Unable to import graph: " + cause.getMessage(), cause);
+			} finally {
+				pending = null;
+			}
+		}
+	}
+
+	/**
+	 * Function to import spooled relationships in the writer thread, 
+	 * once all the nodes have been imported
+	 */
+	public void importSpooledRelationships() {
+		await();
+
+		pending = writer.submit(() -> neo4j.importSpooledRelationships());
+		await();
+	}
+
+	/**
+	 * Function to commit the current import transaction in the writer thread
+	 */
+	public void commit() {
+		await();
+
+		pending = writer.submit(() -> neo4j.commit());
+		await();
+	}
+
+	/**
+	 * Commits the last transaction and stops the writer thread
+	 */
+	@Override
+	public void close() {
+		try {
+			commit();
+		} finally {
+			writer.shutdown();
+		}
+	}
+}
@@ -0,0 +1,256 @@
+package org.researchgraph.neo4j;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.researchgraph.graph.Graph;
+import org.researchgraph.graph.GraphNode;
+import org.researchgraph.graph.GraphRelationship;
+import org.researchgraph.graph.GraphSchema;
+import org.researchgraph.graph.interfaces.GraphImportSession;
+
+/**
+ * Import session of the Neo4j database
+ *
+ * Every session owns its batch buffers, its transaction and its counters, so
+ * several threads can import into the same embedded database at the same time,
+ * one session per thread. Nodes and relationships are collected in the buffers
+ * and once the batch size has been reached, they are merged by batched Cypher
+ * statements and committed in a single transaction. The relationships of a
+ * batch are written after its nodes, with all their nodes locked in the order
+ * of the node ids. A batch, what has been chosen as a deadlock victim, is
+ * rolled back and retried.
+ *
+ * State shared with the other sessions (schemas, relationships with unknown
+ * nodes, key filter and identifier map) is only accessed under the database
+ * lock. Relationships with an unknown node are stored by the database and will
+ * be imported by the session, what creates the node.
+ *
+ * The database itself should not import graphs while the sessions are open, as
+ * its import transaction and node cache are not shared with the sessions.
+ */
+
+public class Neo4jSession implements GraphImportSession {
+	private final Neo4jDatabase neo4j;
+	private final GraphDatabaseService graphDb;
+	private final int batchSize;
+
+	private final List<GraphNode> nodes = new ArrayList<GraphNode>();
+	private final List<GraphRelationship> relationships = new ArrayList<GraphRelationship>();
+	private boolean closed = false;
+
+	private long nodesCreated = 0;
+	private long nodesUpdated = 0;
+	private long relationshipsCreated = 0;
+	private long relationshipsUpdated = 0;
+	private long batches = 0;
+	private long retries = 0;
+
+	/**
+	 * Creates a session. Sessions are opened by Neo4jDatabase.openSession()
+	 * @param neo4j Neo4jDatabase
+	 * @param batchSize maximum number of nodes and relationships in a single transaction
+	 */
+	Neo4jSession(Neo4jDatabase neo4j, int batchSize) {
+		if (batchSize <= 0)
+			throw new IllegalArgumentException("Batch size must be positive");
+
+		this.neo4j = neo4j;
+		this.graphDb = neo4j.getGraphDatabaseService();
+		this.batchSize = batchSize;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public long getNodesCreated() {
+		return nodesCreated;
+	}
+
+	public long getNodesUpdated() {
+		return nodesUpdated;
+	}
+
+	public long getRelationshipsCreated() {
+		return relationshipsCreated;
+	}
+
+	public long getRelationshipsUpdated() {
+		return relationshipsUpdated;
+	}
+
+	/**
+	 * Function to get number of committed transactions
+	 * @return number of batches
+	 */
+	public long getBatches() {
+		return batches;
+	}
+
+	public long getRetries() {
+		return retries;
+	}
+
+	@Override
+	public void importGraph(Graph graph) {
+		importSchemas(graph.getSchemas());
+		importNodes(graph.getNodes());
+		importRelationships(graph.getRelationships());
+	}
+
+	@Override
+	public void importNode(GraphNode node) {
+		_checkOpen();
+
+		nodes.add(node);
+		if (nodes.size() >= batchSize)
+			commit();
+	}
+
+	@Override
+	public void importNodes(Collection<GraphNode> nodes) {
+		if (null != nodes)
+			for (GraphNode node : nodes)
+				importNode(node);
+	}
+
+	/**
+	 * Function to import a schema.
+	 * Schema can not be imported in the same transaction as nodes and relationships,
+	 * so the buffered nodes and relationships will be committed first.
+	 */
+	@Override
+	public void importSchema(GraphSchema schema) {
+		importSchemas(Collections.singletonList(schema));
+	}
+
+	@Override
+	public void importSchemas(Collection<GraphSchema> schemas) {
+		_checkOpen();
+
+		if (null != schemas && !schemas.isEmpty() && neo4j._hasNewSchemas(schemas)) {
+			commit();
+
+			neo4j._importSessionSchemas(schemas);
+		}
+	}
+
+	@Override
+	public void importRelationship(GraphRelationship relationship) {
+		_checkOpen();
+
+		relationships.add(relationship);
+		if (relationships.size() >= batchSize)
+			commit();
+	}
+
+	@Override
+	public void importRelationships(Collection<GraphRelationship> relationships) {
+		if (null != relationships)
+			for (GraphRelationship relationship : relationships)
+				importRelationship(relationship);
+	}
+
+	/**
+	 * Function to write and commit the buffered nodes and relationships
+	 */
+	@Override
+	public void commit() {
+		if (nodes.isEmpty() && relationships.isEmpty())
+			return;
+
+		List<GraphNode> batchNodes = new ArrayList<GraphNode>(nodes);
+		List<GraphRelationship> batchRelationships = new ArrayList<GraphRelationship>(relationships);
+		nodes.clear();
+		relationships.clear();
+
+		List<GraphRelationship> unmatched = _writeBatch(batchNodes, batchRelationships);
+
+		// relationships waiting for the new nodes can be imported now,
+		// released relationships, what are still not matched, will not be stored again
+		if (!batchNodes.isEmpty())
+			_writeRelationships(neo4j._importedNodes(batchNodes));
+
+		// the nodes could have been created by an other session in the meantime
+		if (!unmatched.isEmpty())
+			_writeRelationships(neo4j._storeUnknownRelationships(unmatched));
+
+		neo4j._importedRelationships();
+	}
+
+	/**
+	 * Function to commit the last batch and to close the session
+	 */
+	@Override
+	public void close() {
+		if (!closed) {
+			commit();
+			closed = true;
+		}
+	}
+
+	private void _writeRelationships(List<GraphRelationship> relationships) {
+		for (int from = 0; from < relationships.size(); from += batchSize)
+			_writeBatch(Collections.<GraphNode>emptyList(),
+					relationships.subList(from, Math.min(from + batchSize, relationships.size())));
+	}
+
+	/**
+	 * Function to write and commit nodes and relationships in a single transaction.
+	 * The transaction will be retried if it has been chosen as a deadlock victim.
+	 * @return List of relationships, what have not been merged, as one of their nodes does not exists
+	 */
+	private List<GraphRelationship> _writeBatch(List<GraphNode> nodes, List<GraphRelationship> relationships) {
+		for (int attempt = 0; ; ++attempt) {
+			Neo4jCypherWriter writer = new Neo4jCypherWriter(graphDb, batchSize);
+			writer.setFanOutGuard(neo4j.getFanOutGuard());
+			try {
+				List<GraphRelationship> unmatched = Collections.emptyList();
+				try ( Transaction tx = graphDb.beginTx() )
+				{
+					if (!nodes.isEmpty())
+						writer.writeNodes(nodes);
+					if (!relationships.isEmpty()) {
+						writer.lockNodes(tx, relationships);
+						unmatched = writer.writeRelationships(relationships);
+					}
+
+					tx.success();
+				}
+
+				++batches;
+				nodesCreated += writer.getNodesCreated();
+				nodesUpdated += writer.getNodesUpdated();
+				relationshipsCreated += writer.getRelationshipsCreated();
+				relationshipsUpdated += writer.getRelationshipsUpdated();
+				neo4j._addCounters(writer.getNodesCreated(), writer.getNodesUpdated(),
+						writer.getRelationshipsCreated(), writer.getRelationshipsUpdated());
+				neo4j._committedTransaction();
+				neo4j._committedSession(writer.getStatementsExecuted(), attempt);
+
+				return unmatched;
+			} catch (RuntimeException e) {
+				if (!Neo4jParallelWriter._isTransient(e) || attempt >= Neo4jParallelWriter.MAX_RETRIES)
+					throw e;
+
+				++retries;
+				try {
+					Thread.sleep(Neo4jParallelWriter.RETRY_DELAY << Math.min(attempt, 6));
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted while retrying Neo4j batch");
+				}
+			}
+		}
+	}
+
+	private void _checkOpen() {
+		if (closed)
+			throw new IllegalStateException("The session has been closed");
+	}
+}
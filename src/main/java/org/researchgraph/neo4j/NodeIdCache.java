@@ -0,0 +1,255 @@
+package org.researchgraph.neo4j;
+
+import java.util.Arrays;
+
+import org.researchgraph.graph.GraphKey;
+
+/**
+ * Bounded cache of Neo4j node ids by node key
+ *
+ * Entries are stored in parallel arrays (keys, node ids and reference bits)
+ * and are found through an open addressing hash table of entry numbers,
+ * so a cached node id costs no objects except the key itself.
+ * When the cache is full, an entry is evicted by the CLOCK algorithm: the hand
+ * sweeps the entries, clearing the reference bits, and evicts the first entry
+ * what has not been used since it was added or since the previous sweep.
+ *
+ * Every key added within a transaction is logged in a journal. If the
+ * transaction has been rolled back, the nodes it created do not exist anymore,
+ * so all the keys from the journal are removed from the cache.
+ *
+ * The cache must only be used for keys from unique indexes, as a key
+ * of not unique index can belong to more than one node.
+ */
+
+public class NodeIdCache {
+	private static final int EMPTY = 0;
+
+	private final int capacity;
+
+	private final GraphKey[] keys;
+	private final long[] nodeIds;
+	private final boolean[] referenced;
+	private int size = 0;
+	private int hand = 0;
+
+	// table stores (entry + 1), so 0 means an empty slot
+	private final int[] table;
+	private final int mask;
+
+	// entries added within the current transaction
+	private GraphKey[] journal = new GraphKey[256];
+	private int journalSize = 0;
+	private boolean journalOverflow = false;
+
+	private long hits = 0;
+	private long misses = 0;
+
+	public NodeIdCache(int capacity) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("Cache capacity must be positive");
+
+		this.capacity = capacity;
+		this.keys = new GraphKey[capacity];
+		this.nodeIds = new long[capacity];
+		this.referenced = new boolean[capacity];
+
+		int tableSize = Integer.highestOneBit(capacity) << 2;
+		this.table = new int[tableSize];
+		this.mask = tableSize - 1;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Function to find a node id by it key
+	 * @param key GraphKey
+	 * @return node id or -1 if the key is not in the cache
+	 */
+	public long get(GraphKey key) {
+		int entry = table[findSlot(key)] - 1;
+		if (entry < 0) {
+			++misses;
+			return -1;
+		}
+
+		++hits;
+		referenced[entry] = true;
+		return nodeIds[entry];
+	}
+
+	/**
+	 * Function to store a node id in the cache.
+	 * Existing key will be updated with the new node id.
+	 * @param key GraphKey
+	 * @param nodeId Neo4j node id
+	 */
+	public void put(GraphKey key, long nodeId) {
+		int slot = findSlot(key);
+		int entry = table[slot] - 1;
+		if (entry < 0) {
+			if (size < capacity) {
+				entry = size++;
+			} else {
+				entry = evict();
+				// slot could be moved by the eviction
+				slot = findSlot(key);
+			}
+
+			// new entry gets a second chance only if it will be used again
+			keys[entry] = key;
+			referenced[entry] = false;
+			table[slot] = entry + 1;
+		} else
+			referenced[entry] = true;
+
+		nodeIds[entry] = nodeId;
+
+		log(key);
+	}
+
+	/**
+	 * Function to remove a key from the cache
+	 * @param key GraphKey
+	 */
+	public void remove(GraphKey key) {
+		int slot = findSlot(key);
+		int entry = table[slot] - 1;
+		if (entry < 0)
+			return;
+
+		removeSlot(slot);
+
+		// move the last entry into the released place to keep entries dense
+		int last = --size;
+		if (entry != last) {
+			keys[entry] = keys[last];
+			nodeIds[entry] = nodeIds[last];
+			referenced[entry] = referenced[last];
+			table[findSlot(keys[entry])] = entry + 1;
+		}
+		keys[last] = null;
+
+		if (hand >= size)
+			hand = 0;
+	}
+
+	/**
+	 * Function to confirm all the entries added within the current transaction
+	 */
+	public void commit() {
+		Arrays.fill(journal, 0, journalSize, null);
+		journalSize = 0;
+		journalOverflow = false;
+	}
+
+	/**
+	 * Function to remove all the entries added within the current transaction
+	 */
+	public void rollback() {
+		if (journalOverflow) {
+			clear();
+		} else {
+			for (int i = 0; i < journalSize; ++i)
+				remove(journal[i]);
+			commit();
+		}
+	}
+
+	public void clear() {
+		Arrays.fill(keys, 0, size, null);
+		Arrays.fill(table, EMPTY);
+		size = hand = 0;
+		commit();
+	}
+
+	private void log(GraphKey key) {
+		if (journalOverflow)
+			return;
+
+		if (journalSize == journal.length) {
+			// it is cheaper to drop the whole cache, than to keep a huge journal
+			if (journalSize >= capacity) {
+				Arrays.fill(journal, null);
+				journalSize = 0;
+				journalOverflow = true;
+				return;
+			}
+
+			journal = Arrays.copyOf(journal, journalSize * 2);
+		}
+
+		journal[journalSize++] = key;
+	}
+
+	private int evict() {
+		while (referenced[hand]) {
+			referenced[hand] = false;
+			hand = (hand + 1) % capacity;
+		}
+
+		int entry = hand;
+		hand = (hand + 1) % capacity;
+
+		removeSlot(findSlot(keys[entry]));
+		keys[entry] = null;
+
+		return entry;
+	}
+
+	private int findSlot(GraphKey key) {
+		int slot = spread(key.hashCode()) & mask;
+
+		while (EMPTY != table[slot]) {
+			GraphKey other = keys[table[slot] - 1];
+			if (key == other || key.equals(other))
+				return slot;
+
+			slot = (slot + 1) & mask;
+		}
+
+		return slot;
+	}
+
+	/**
+	 * Removes a slot from the linear probing table and shifts the following
+	 * slots back, so no tombstones are required
+	 */
+	private void removeSlot(int slot) {
+		table[slot] = EMPTY;
+
+		int next = (slot + 1) & mask;
+		while (EMPTY != table[next]) {
+			int entry = table[next] - 1;
+			int home = spread(keys[entry].hashCode()) & mask;
+
+			// the entry can be moved into the free slot if it home is not between the slots
+			if (((next - home) & mask) >= ((next - slot) & mask)) {
+				table[slot] = table[next];
+				table[next] = EMPTY;
+				slot = next;
+			}
+
+			next = (next + 1) & mask;
+		}
+	}
+
+	private static int spread(int hash) {
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+}
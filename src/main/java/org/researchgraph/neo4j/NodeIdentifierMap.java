@@ -0,0 +1,156 @@
+package org.researchgraph.neo4j;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.researchgraph.graph.GraphKey;
+import org.researchgraph.graph.GraphKeyDictionary;
+
+/**
+ * In-memory map of Neo4j node ids by identifier
+ *
+ * Identifiers (ORCID, DOI, PURL) are keys of not unique indexes, so a single
+ * identifier can belong to more than one node. Identifiers are stored in a
+ * GraphKeyDictionary and every identifier costs a long node id, identifiers
+ * shared by several nodes keep all the node ids in a side map.
+ *
+ * An identifier is only known to the map once all the nodes with it have been
+ * loaded from the store, new nodes are only added to known identifiers. Unknown
+ * identifiers must be looked up in the store.
+ *
+ * Only identifiers with String values are supported.
+ */
+
+public class NodeIdentifierMap {
+	private static final long[] NO_NODES = new long[0];
+	// the identifier has been forgotten and must be loaded again
+	private static final long UNKNOWN = -1;
+
+	private final GraphKeyDictionary identifiers = new GraphKeyDictionary();
+	// node id + 1 indexed by identifier id, 0 for an identifier without nodes
+	// or UNKNOWN for a forgotten identifier
+	private long[] nodeIds = new long[1024];
+	private final Map<Integer, long[]> sharedNodeIds = new HashMap<Integer, long[]>();
+
+	private long hits = 0;
+	private long misses = 0;
+
+	public int size() {
+		return identifiers.size();
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Function to check if the identifier can be stored in the map
+	 * @param key GraphKey
+	 * @return true if the key value is String
+	 */
+	public static boolean isSupported(GraphKey key) {
+		return key.getValue() instanceof String;
+	}
+
+	/**
+	 * Function to find all the nodes with an identifier
+	 * @param key GraphKey of the identifier
+	 * @return array of node ids, empty if there are no nodes with the identifier
+	 * or null if the identifier is not known
+	 */
+	public long[] get(GraphKey key) {
+		int id = identifiers.getId(key);
+		if (id < 0 || UNKNOWN == nodeIds[id]) {
+			++misses;
+			return null;
+		}
+
+		++hits;
+		if (0 == nodeIds[id])
+			return NO_NODES;
+
+		long[] shared = sharedNodeIds.get(id);
+		return null == shared ? new long[] { nodeIds[id] - 1 } : shared;
+	}
+
+	/**
+	 * Function to store all the nodes with an identifier, loaded from the store
+	 * @param key GraphKey of the identifier
+	 * @param ids node ids
+	 */
+	public void load(GraphKey key, long[] ids) {
+		int id = identifiers.add(key);
+		if (id >= nodeIds.length)
+			nodeIds = Arrays.copyOf(nodeIds, Math.max(id + 1, nodeIds.length * 2));
+
+		nodeIds[id] = 0;
+		sharedNodeIds.remove(id);
+		for (long nodeId : ids)
+			add(id, nodeId);
+	}
+
+	/**
+	 * Function to add a node to a known identifier. Unknown identifiers are ignored,
+	 * as other nodes with the same identifier may exist in the store.
+	 * @param key GraphKey of the identifier
+	 * @param nodeId Neo4j node id
+	 */
+	public void put(GraphKey key, long nodeId) {
+		int id = identifiers.getId(key);
+		if (id >= 0 && UNKNOWN != nodeIds[id])
+			add(id, nodeId);
+	}
+
+	/**
+	 * Function to forget the nodes of an identifier, when a node with the identifier
+	 * has been written, but it id is not known
+	 * @param key GraphKey of the identifier
+	 */
+	public void forget(GraphKey key) {
+		int id = identifiers.getId(key);
+		if (id >= 0) {
+			nodeIds[id] = UNKNOWN;
+			sharedNodeIds.remove(id);
+		}
+	}
+
+	/**
+	 * Function to forget all the identifiers.
+	 * Must be called when a transaction has been rolled back, as its nodes do not exist anymore.
+	 */
+	public void clear() {
+		identifiers.clear();
+		Arrays.fill(nodeIds, 0);
+		sharedNodeIds.clear();
+	}
+
+	/**
+	 * Function to estimate heap used by the map, not including shared node ids
+	 * @return number of bytes
+	 */
+	public long getMemoryUsage() {
+		return identifiers.getMemoryUsage() + 8L * nodeIds.length;
+	}
+
+	private void add(int id, long nodeId) {
+		if (0 == nodeIds[id])
+			nodeIds[id] = nodeId + 1;
+		else if (nodeIds[id] != nodeId + 1) {
+			long[] shared = sharedNodeIds.get(id);
+			if (null == shared)
+				shared = new long[] { nodeIds[id] - 1 };
+			for (long existing : shared)
+				if (existing == nodeId)
+					return;
+
+			shared = Arrays.copyOf(shared, shared.length + 1);
+			shared[shared.length - 1] = nodeId;
+			sharedNodeIds.put(id, shared);
+		}
+	}
+}
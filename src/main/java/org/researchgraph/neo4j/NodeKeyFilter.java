@@ -0,0 +1,155 @@
+package org.researchgraph.neo4j;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.researchgraph.graph.GraphKey;
+
+/**
+ * Scalable Bloom filter of node keys
+ *
+ * The filter answers if a node with a key might exist. A negative answer
+ * is always correct, so the database lookup can be skipped, a positive answer
+ * can be false with a small probability.
+ *
+ * The number of keys is not known in advance, so the filter is a sequence
+ * of plain Bloom filters. Once a filter is full, a new one is added with a
+ * double capacity and a half false positive probability, so the total false
+ * positive probability stays below twice the probability of the first filter.
+ * Keys are only added to the last filter, but all filters are checked.
+ *
+ * Bit positions are computed by double hashing of 64 bit key hash.
+ */
+
+public class NodeKeyFilter {
+	private static final double LN2 = Math.log(2);
+
+	private final List<Stage> stages = new ArrayList<Stage>();
+	private long size = 0;
+
+	private static class Stage {
+		private final long[] bits;
+		private final long bitsCount;
+		private final int hashes;
+		private final long capacity;
+		private long size = 0;
+
+		Stage(long capacity, double probability) {
+			this.capacity = capacity;
+			this.hashes = Math.max(1, (int) Math.ceil(-Math.log(probability) / LN2));
+			long bitsCount = (long) Math.ceil(-capacity * Math.log(probability) / (LN2 * LN2));
+			this.bits = new long[(int) ((bitsCount + 63) >>> 6)];
+			this.bitsCount = (long) bits.length << 6;
+		}
+
+		void add(long hash) {
+			int h1 = (int) hash;
+			int h2 = (int) (hash >>> 32) | 1;
+			for (int i = 0; i < hashes; ++i) {
+				long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bitsCount;
+				bits[(int) (bit >>> 6)] |= 1L << bit;
+			}
+			++size;
+		}
+
+		boolean mightContain(long hash) {
+			int h1 = (int) hash;
+			int h2 = (int) (hash >>> 32) | 1;
+			for (int i = 0; i < hashes; ++i) {
+				long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % bitsCount;
+				if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0)
+					return false;
+			}
+			return true;
+		}
+
+		double getFalsePositiveProbability() {
+			return Math.pow(1 - Math.exp(-hashes * (double) size / bitsCount), hashes);
+		}
+	}
+
+	private final long initialCapacity;
+	private final double probability;
+
+	/**
+	 * Creates a filter
+	 * @param initialCapacity number of keys in the first filter
+	 * @param probability false positive probability of the first filter
+	 */
+	public NodeKeyFilter(long initialCapacity, double probability) {
+		if (initialCapacity <= 0)
+			throw new IllegalArgumentException("Filter capacity must be positive");
+		if (probability <= 0 || probability >= 1)
+			throw new IllegalArgumentException("False positive probability must be between 0 and 1");
+
+		this.initialCapacity = initialCapacity;
+		this.probability = probability;
+	}
+
+	/**
+	 * Function to get number of keys added to the filter
+	 * @return number of keys
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Function to add a key
+	 * @param key GraphKey
+	 */
+	public void add(GraphKey key) {
+		Stage stage = stages.isEmpty() ? null : stages.get(stages.size() - 1);
+		if (null == stage || stage.size >= stage.capacity) {
+			int n = stages.size();
+			stage = new Stage(initialCapacity << n, probability / (1L << n));
+			stages.add(stage);
+		}
+
+		stage.add(NodeKeyIndex.hash(key));
+		++size;
+	}
+
+	/**
+	 * Function to check if a key might have been added to the filter
+	 * @param key GraphKey
+	 * @return false if the key has never been added, true if it could have been added
+	 */
+	public boolean mightContain(GraphKey key) {
+		long hash = NodeKeyIndex.hash(key);
+		for (Stage stage : stages)
+			if (stage.mightContain(hash))
+				return true;
+
+		return false;
+	}
+
+	/**
+	 * Function to estimate current false positive probability of the filter
+	 * @return probability
+	 */
+	public double getExpectedFalsePositiveProbability() {
+		double negative = 1;
+		for (Stage stage : stages)
+			negative *= 1 - stage.getFalsePositiveProbability();
+
+		return 1 - negative;
+	}
+
+	/**
+	 * Function to estimate heap used by the filter
+	 * @return number of bytes
+	 */
+	public long getMemoryUsage() {
+		long bytes = 0;
+		for (Stage stage : stages)
+			bytes += 8L * stage.bits.length;
+
+		return bytes;
+	}
+
+	public void clear() {
+		stages.clear();
+		size = 0;
+	}
+}
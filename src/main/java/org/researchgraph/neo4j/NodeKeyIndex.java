@@ -0,0 +1,364 @@
+package org.researchgraph.neo4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.researchgraph.graph.GraphKey;
+
+/**
+ * Persistent hash index of Neo4j node ids by node key
+ *
+ * The index is a memory mapped file stored next to the Neo4j store, so node ids
+ * found by one import run are known to the next run from the very first record.
+ * Every slot stores a 64 bit hash of the key and the node id, keys itself
+ * are not stored. Hash collisions are possible, so every node found by the index
+ * must be verified against the store before it can be used.
+ *
+ * Node ids added within a transaction are kept in memory and written into the
+ * file only after the transaction has been committed. Once the index has reached
+ * its maximal capacity, new node ids are dropped and only counted.
+ *
+ * Transactions committed by the import sessions and the parallel writers do not
+ * add node ids, but they must be reported by committed(), so the index will
+ * still match the store. The index is thread safe.
+ *
+ * The header contains the Neo4j store id and the id of the last transaction
+ * committed by the importer. When the index is opened, it is discarded if it
+ * belongs to a different store, if the store has been changed by other
+ * application or if the index was not closed properly.
+ *
+ * File layout:
+ * header(64 bytes): magic(int) version(int) storeRandomId(long) storeCreationTime(long)
+ *                   lastTransactionId(long) clean(int) capacity(int) size(int)
+ * slots(16 bytes): hash(long) nodeId(long)
+ */
+
+public class NodeKeyIndex implements AutoCloseable {
+	private static final int MAGIC = 0x52474B49;
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 64;
+	private static final int SLOT_SIZE = 16;
+
+	private static final int OFFSET_MAGIC = 0;
+	private static final int OFFSET_VERSION = 4;
+	private static final int OFFSET_STORE_RANDOM_ID = 8;
+	private static final int OFFSET_STORE_CREATION_TIME = 16;
+	private static final int OFFSET_LAST_TRANSACTION_ID = 24;
+	private static final int OFFSET_CLEAN = 32;
+	private static final int OFFSET_CAPACITY = 36;
+	private static final int OFFSET_SIZE = 40;
+
+	private static final int MIN_CAPACITY = 1 << 16;
+	// a single mapping is limited to 2 GB
+	private static final int MAX_CAPACITY = 1 << 26;
+
+	private static final long EMPTY = 0;
+
+	private final File file;
+	private final long storeRandomId;
+	private final long storeCreationTime;
+
+	private RandomAccessFile raf;
+	private MappedByteBuffer buffer;
+	private int capacity;
+	private int size;
+	private long lastTransactionId;
+
+	private long[] pendingHashes = new long[1024];
+	private long[] pendingNodeIds = new long[1024];
+	private int pendingSize = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long dropped = 0;
+	private boolean reset = false;
+
+	/**
+	 * Opens the index or creates a new one
+	 * @param file index file
+	 * @param storeRandomId random id of the Neo4j store
+	 * @param storeCreationTime creation time of the Neo4j store
+	 * @param lastTransactionId id of the last transaction committed into the Neo4j store
+	 * @throws IOException
+	 */
+	public NodeKeyIndex(File file, long storeRandomId, long storeCreationTime, long lastTransactionId) throws IOException {
+		this.file = file;
+		this.storeRandomId = storeRandomId;
+		this.storeCreationTime = storeCreationTime;
+		this.lastTransactionId = lastTransactionId;
+
+		File folder = file.getParentFile();
+		if (null != folder && !folder.exists())
+			folder.mkdirs();
+
+		raf = new RandomAccessFile(file, "rw");
+		if (!isValid()) {
+			reset = raf.length() > 0;
+			create(MIN_CAPACITY);
+		} else {
+			capacity = (int) ((raf.length() - HEADER_SIZE) / SLOT_SIZE);
+			map();
+			size = buffer.getInt(OFFSET_SIZE);
+		}
+
+		// the index will stay dirty until it has been closed
+		buffer.putInt(OFFSET_CLEAN, 0);
+		buffer.force();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Function to get number of node ids, what have not been stored, as the index was full
+	 * @return number of dropped node ids
+	 */
+	public synchronized long getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * Function to check if the index has reached its maximal capacity
+	 * @return true if new node ids will be dropped
+	 */
+	public synchronized boolean isFull() {
+		return capacity >= MAX_CAPACITY && (size + 1) * 2 > capacity;
+	}
+
+	/**
+	 * Function to check if existing index was discarded on opening
+	 * @return true if the index has been discarded
+	 */
+	public boolean isReset() {
+		return reset;
+	}
+
+	/**
+	 * Function to find a node id by it key.
+	 * The node must be verified, as the id can belong to a different key with the same hash.
+	 * @param key GraphKey
+	 * @return node id or -1 if the key is not in the index
+	 */
+	public synchronized long get(GraphKey key) {
+		long hash = hash(key);
+		int mask = capacity - 1;
+		int slot = (int) (hash ^ (hash >>> 32)) & mask;
+
+		long stored;
+		while (EMPTY != (stored = buffer.getLong(HEADER_SIZE + slot * SLOT_SIZE))) {
+			if (stored == hash) {
+				++hits;
+				return buffer.getLong(HEADER_SIZE + slot * SLOT_SIZE + 8);
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		++misses;
+		return -1;
+	}
+
+	/**
+	 * Function to store a node id. The id will be written into the index
+	 * after the transaction has been committed.
+	 * @param key GraphKey
+	 * @param nodeId Neo4j node id
+	 */
+	public synchronized void put(GraphKey key, long nodeId) {
+		if (pendingSize == pendingHashes.length) {
+			pendingHashes = Arrays.copyOf(pendingHashes, pendingSize * 2);
+			pendingNodeIds = Arrays.copyOf(pendingNodeIds, pendingSize * 2);
+		}
+
+		pendingHashes[pendingSize] = hash(key);
+		pendingNodeIds[pendingSize] = nodeId;
+		++pendingSize;
+	}
+
+	/**
+	 * Function to write all the node ids stored within the committed transaction
+	 * @param transactionId id of the last committed transaction
+	 * @throws IOException
+	 */
+	public synchronized void commit(long transactionId) throws IOException {
+		for (int i = 0; i < pendingSize; ++i) {
+			if ((size + 1) * 2 > capacity) {
+				if (capacity >= MAX_CAPACITY) {
+					dropped += pendingSize - i;
+					break;
+				}
+
+				grow();
+			}
+
+			write(pendingHashes[i], pendingNodeIds[i]);
+		}
+
+		buffer.putInt(OFFSET_SIZE, size);
+		committed(transactionId);
+		pendingSize = 0;
+	}
+
+	/**
+	 * Function to report a transaction, what has been committed without the index
+	 * @param transactionId id of the committed transaction
+	 */
+	public synchronized void committed(long transactionId) {
+		// transactions of several threads can be reported out of order
+		lastTransactionId = Math.max(lastTransactionId, transactionId);
+	}
+
+	/**
+	 * Function to forget all the node ids stored within the rolled back transaction
+	 */
+	public synchronized void rollback() {
+		pendingSize = 0;
+	}
+
+	/**
+	 * Function to write the header and release the index.
+	 * The index will be discarded by the next run, if it has not been closed.
+	 */
+	@Override
+	public synchronized void close() {
+		if (null != raf) {
+			try {
+				buffer.putLong(OFFSET_LAST_TRANSACTION_ID, lastTransactionId);
+				buffer.putInt(OFFSET_SIZE, size);
+				buffer.force();
+				buffer.putInt(OFFSET_CLEAN, 1);
+				buffer.force();
+
+				raf.close();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Unable to close key index: " + file, e);
+			} finally {
+				raf = null;
+				buffer = null;
+			}
+		}
+	}
+
+	private boolean isValid() throws IOException {
+		if (raf.length() < HEADER_SIZE)
+			return false;
+
+		raf.seek(0);
+		if (raf.readInt() != MAGIC || raf.readInt() != VERSION
+				|| raf.readLong() != storeRandomId || raf.readLong() != storeCreationTime
+				|| raf.readLong() != lastTransactionId || raf.readInt() != 1)
+			return false;
+
+		int stored = raf.readInt();
+		return Integer.bitCount(stored) == 1 && raf.length() == HEADER_SIZE + (long) stored * SLOT_SIZE;
+	}
+
+	private void create(int capacity) throws IOException {
+		this.capacity = capacity;
+		this.size = 0;
+
+		// truncating the file will zero all the slots
+		raf.setLength(0);
+		raf.setLength(HEADER_SIZE + (long) capacity * SLOT_SIZE);
+		map();
+
+		buffer.putInt(OFFSET_MAGIC, MAGIC);
+		buffer.putInt(OFFSET_VERSION, VERSION);
+		buffer.putLong(OFFSET_STORE_RANDOM_ID, storeRandomId);
+		buffer.putLong(OFFSET_STORE_CREATION_TIME, storeCreationTime);
+		buffer.putLong(OFFSET_LAST_TRANSACTION_ID, lastTransactionId);
+		buffer.putInt(OFFSET_CAPACITY, capacity);
+		buffer.putInt(OFFSET_SIZE, 0);
+	}
+
+	private void map() throws IOException {
+		buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+		buffer.order(ByteOrder.BIG_ENDIAN);
+	}
+
+	private void grow() throws IOException {
+		// copy existing slots, the file will be rebuilt with the new capacity
+		long[] hashes = new long[size];
+		long[] nodeIds = new long[size];
+		int count = 0;
+		for (int slot = 0; slot < capacity; ++slot) {
+			long hash = buffer.getLong(HEADER_SIZE + slot * SLOT_SIZE);
+			if (EMPTY != hash) {
+				hashes[count] = hash;
+				nodeIds[count] = buffer.getLong(HEADER_SIZE + slot * SLOT_SIZE + 8);
+				++count;
+			}
+		}
+
+		create(capacity * 2);
+		buffer.putInt(OFFSET_CLEAN, 0);
+
+		for (int i = 0; i < count; ++i)
+			write(hashes[i], nodeIds[i]);
+	}
+
+	private void write(long hash, long nodeId) {
+		int mask = capacity - 1;
+		int slot = (int) (hash ^ (hash >>> 32)) & mask;
+
+		long stored;
+		while (EMPTY != (stored = buffer.getLong(HEADER_SIZE + slot * SLOT_SIZE))) {
+			if (stored == hash) {
+				buffer.putLong(HEADER_SIZE + slot * SLOT_SIZE + 8, nodeId);
+				return;
+			}
+
+			slot = (slot + 1) & mask;
+		}
+
+		buffer.putLong(HEADER_SIZE + slot * SLOT_SIZE, hash);
+		buffer.putLong(HEADER_SIZE + slot * SLOT_SIZE + 8, nodeId);
+		++size;
+	}
+
+	/**
+	 * 64 bit FNV-1a hash of the key label, property and value
+	 */
+	static long hash(GraphKey key) {
+		long hash = 0xcbf29ce484222325L;
+		hash = hash(hash, key.getLabel());
+		hash = hash(hash, key.getProperty());
+		hash = hash(hash, String.valueOf(key.getValue()));
+
+		return EMPTY == hash ? 1 : hash;
+	}
+
+	private static long hash(long hash, String str) {
+		if (null != str)
+			for (int i = 0; i < str.length(); ++i) {
+				hash ^= str.charAt(i);
+				hash *= 0x100000001b3L;
+			}
+
+		// separator, so "ab"+"c" and "a"+"bc" will have different hashes
+		hash ^= 0xff;
+		hash *= 0x100000001b3L;
+
+		return hash;
+	}
+}
@@ -0,0 +1,237 @@
+package org.researchgraph.neo4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.researchgraph.graph.GraphKey;
+import org.researchgraph.graph.GraphKeyDictionary;
+import org.researchgraph.graph.GraphRelationship;
+import org.researchgraph.neo4j.interfaces.PendingRelationshipStore;
+
+/**
+ * Compact in-memory storage for relationships with a node, what is not known yet
+ *
+ * Keys of both relationship ends are stored in a GraphKeyDictionary, so every
+ * pending relationship costs a few ints instead of a GraphRelationship object
+ * with two GraphKey's and their URI strings. Relationships waiting for the same
+ * key are linked into a list through primitive arrays.
+ *
+ * Relationship properties are rare, they are kept in a side map. The dictionary
+ * only stores keys with String values, so relationships with a key of any other
+ * value are rare too and they are kept in a side map as they are.
+ *
+ * Removed relationships are kept until commit(), so they can be restored if
+ * the transaction importing them has been rolled back.
+ */
+
+public class PendingRelationships implements PendingRelationshipStore {
+	private static final int NONE = -1;
+
+	private final GraphKeyDictionary keys = new GraphKeyDictionary();
+	private final Map<String, Integer> typeIds = new HashMap<String, Integer>();
+	private final List<String> types = new ArrayList<String>();
+	private final Map<Integer, Map<String, Object>> properties = new HashMap<Integer, Map<String, Object>>();
+	// relationships with a key, what is not a String
+	private final Map<GraphKey, List<GraphRelationship>> otherRelationships = new HashMap<GraphKey, List<GraphRelationship>>();
+
+	// head of the list of relationships waiting for the key, indexed by key id
+	private int[] heads = new int[256];
+
+	// relationships records
+	private int[] relationshipTypes = new int[256];
+	private int[] relationshipStarts = new int[256];
+	private int[] relationshipEnds = new int[256];
+	private int[] relationshipNext = new int[256];
+	private int relationshipsCount = 0;
+	// records of resolved relationships are linked into a free list and reused
+	private int free = NONE;
+
+	private int keysCount = 0;
+
+	// relationships removed since the last commit
+	private final List<GraphKey> removedKeys = new ArrayList<GraphKey>();
+	private final List<List<GraphRelationship>> removedRelationships = new ArrayList<List<GraphRelationship>>();
+
+	public PendingRelationships() {
+		Arrays.fill(heads, NONE);
+	}
+
+	/**
+	 * Function to get number of unknown keys with pending relationships
+	 * @return number of keys
+	 */
+	@Override
+	public int size() {
+		return keysCount;
+	}
+
+	/**
+	 * Function to store a relationship under a key of the missing node
+	 * @param key GraphKey of the missing node
+	 * @param relationship GraphRelationship
+	 */
+	@Override
+	public void add(GraphKey key, GraphRelationship relationship) {
+		if (!isString(key) || !isString(relationship.getStart()) || !isString(relationship.getEnd())) {
+			List<GraphRelationship> list = otherRelationships.get(key);
+			if (null == list) {
+				if (!hasRelationships(key))
+					++keysCount;
+				otherRelationships.put(key, list = new ArrayList<GraphRelationship>());
+			}
+			list.add(relationship);
+			return;
+		}
+		
+		int keyId = keys.add(key);
+		int id = allocate();
+
+		relationshipTypes[id] = getTypeId(relationship.getRelationship());
+		relationshipStarts[id] = keys.add(relationship.getStart());
+		relationshipEnds[id] = keys.add(relationship.getEnd());
+		
+		// every key in the dictionary must have a head
+		if (keys.size() > heads.length) {
+			int length = heads.length;
+			heads = Arrays.copyOf(heads, Math.max(keys.size(), length * 2));
+			Arrays.fill(heads, length, heads.length, NONE);
+		}
+
+		Map<String, Object> map = relationship.getProperties();
+		if (!map.isEmpty())
+			properties.put(id, map);
+
+		if (NONE == heads[keyId] && !otherRelationships.containsKey(key))
+			++keysCount;
+		relationshipNext[id] = heads[keyId];
+		heads[keyId] = id;
+	}
+
+	/**
+	 * Function to remove all the relationships waiting for a key
+	 * @param key GraphKey of the node
+	 * @return list of relationships or null if there are no relationships waiting for the key
+	 */
+	@Override
+	public List<GraphRelationship> remove(GraphKey key) {
+		List<GraphRelationship> others = otherRelationships.remove(key);
+		int keyId = keys.getId(key);
+		if (keyId < 0 || NONE == heads[keyId]) {
+			if (null == others)
+				return null;
+
+			--keysCount;
+			removedKeys.add(key);
+			removedRelationships.add(others);
+			return others;
+		}
+
+		List<GraphRelationship> list = new ArrayList<GraphRelationship>();
+		int id = heads[keyId];
+		while (NONE != id) {
+			GraphRelationship relationship = new GraphRelationship(types.get(relationshipTypes[id]),
+					keys.getKey(relationshipStarts[id]), keys.getKey(relationshipEnds[id]), properties.remove(id));
+			list.add(relationship);
+			
+			int next = relationshipNext[id];
+			relationshipNext[id] = free;
+			free = id;
+			id = next;
+		}
+
+		heads[keyId] = NONE;
+		--keysCount;
+
+		if (null != others)
+			list.addAll(others);
+		removedKeys.add(key);
+		removedRelationships.add(list);
+		return list;
+	}
+
+	@Override
+	public void commit() {
+		removedKeys.clear();
+		removedRelationships.clear();
+	}
+
+	/**
+	 * Function to store the removed relationships again, in the order they have been stored
+	 */
+	@Override
+	public void rollback() {
+		for (int i = removedKeys.size() - 1; i >= 0; --i) {
+			List<GraphRelationship> list = removedRelationships.get(i);
+			for (int j = list.size() - 1; j >= 0; --j)
+				add(removedKeys.get(i), list.get(j));
+		}
+
+		commit();
+	}
+
+	/**
+	 * Function to list all the unknown keys with pending relationships
+	 * @return list of keys
+	 */
+	@Override
+	public List<GraphKey> keys() {
+		List<GraphKey> list = new ArrayList<GraphKey>(keysCount);
+		for (int keyId = 0; keyId < keys.size(); ++keyId)
+			if (NONE != heads[keyId])
+				list.add(keys.getKey(keyId));
+		for (GraphKey key : otherRelationships.keySet())
+			if (keys.getId(key) < 0 || NONE == heads[keys.getId(key)])
+				list.add(key);
+
+		return list;
+	}
+
+	/**
+	 * Function to estimate heap used by pending relationships, not including properties 
+	 * and relationships with a key, what is not a String
+	 * @return number of bytes
+	 */
+	public long getMemoryUsage() {
+		return keys.getMemoryUsage() + 4L * (heads.length + 4L * relationshipTypes.length);
+	}
+
+	private static boolean isString(GraphKey key) {
+		return key.getValue() instanceof String;
+	}
+
+	private boolean hasRelationships(GraphKey key) {
+		int keyId = keys.getId(key);
+		return keyId >= 0 && NONE != heads[keyId];
+	}
+
+	private int allocate() {
+		if (NONE != free) {
+			int id = free;
+			free = relationshipNext[id];
+			return id;
+		}
+		
+		int id = relationshipsCount++;
+		if (id == relationshipTypes.length) {
+			relationshipTypes = Arrays.copyOf(relationshipTypes, id * 2);
+			relationshipStarts = Arrays.copyOf(relationshipStarts, id * 2);
+			relationshipEnds = Arrays.copyOf(relationshipEnds, id * 2);
+			relationshipNext = Arrays.copyOf(relationshipNext, id * 2);
+		}
+		
+		return id;
+	}
+	
+	private int getTypeId(String type) {
+		Integer id = typeIds.get(type);
+		if (null == id) {
+			typeIds.put(type, id = types.size());
+			types.add(type);
+		}
+
+		return id;
+	}
+}
@@ -0,0 +1,834 @@
+package org.researchgraph.neo4j;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.researchgraph.graph.GraphKey;
+import org.researchgraph.graph.GraphRelationship;
+import org.researchgraph.neo4j.interfaces.PendingRelationshipStore;
+
+/**
+ * Persistent disk storage for relationships with a node, what is not known yet
+ *
+ * Pending relationships are appended to a log file and are not kept in the heap.
+ * Relationships waiting for the same key are linked into a list through the log,
+ * every record stores the offset of the previous record waiting for the same key.
+ * The head of every list is stored in a memory mapped hash index by a 64 bit hash
+ * of the key, so checking a key of a new node costs a single probe of the index
+ * and the log is only read if there are relationships waiting for the node.
+ *
+ * Every slot also stores a boundary, records of the list below the boundary have
+ * been resolved. Removed keys are only remembered in the heap until commit(),
+ * so the relationships released by a transaction, what has been rolled back, are
+ * still pending. Once the removal has been committed, the boundary of the slot is
+ * moved to the end of the log, records of other keys with the same hash are 
+ * copied above the boundary and the boundary is appended to the log too.
+ *
+ * Both files are stored next to the Neo4j store and are kept between the import
+ * runs, so relationships to a node from a different source will be created once
+ * that source has been imported. The store is discarded if it belongs to a 
+ * different Neo4j store. If it was not closed properly, the index is rebuilt from
+ * the log: the last record of every hash is the head of its list and the last 
+ * boundary of the hash is its boundary, so only the committed removals are lost.
+ * Resolved records stay in the log until it is compacted on closing.
+ *
+ * Slots of resolved keys are reused when the index is rebuilt. Once the index has
+ * reached its maximal capacity and half of it is taken by pending keys, new keys
+ * are rejected with IllegalStateException.
+ *
+ * Index layout:
+ * header(64 bytes): magic(int) version(int) storeRandomId(long) storeCreationTime(long)
+ *                   logSize(long) clean(int) capacity(int) size(int) reserved(int)
+ *                   relationships(long) records(long)
+ * slots(24 bytes): hash(long) head(long) boundary(long)
+ *
+ * Log record: previous(long) type(byte) length(int) relationship(length bytes)
+ * Boundary record: hash(long) type(byte) length(int) boundary(long)
+ */
+
+public class PersistentPendingRelationships implements PendingRelationshipStore, AutoCloseable {
+	private static final int MAGIC = 0x52475052;
+	private static final int VERSION = 2;
+
+	private static final int HEADER_SIZE = 64;
+	private static final int SLOT_SIZE = 24;
+	private static final int RECORD_HEADER_SIZE = 13;
+	private static final int BOUNDARY_RECORD_SIZE = RECORD_HEADER_SIZE + 8;
+
+	private static final int OFFSET_MAGIC = 0;
+	private static final int OFFSET_VERSION = 4;
+	private static final int OFFSET_STORE_RANDOM_ID = 8;
+	private static final int OFFSET_STORE_CREATION_TIME = 16;
+	private static final int OFFSET_LOG_SIZE = 24;
+	private static final int OFFSET_CLEAN = 32;
+	private static final int OFFSET_CAPACITY = 36;
+	private static final int OFFSET_SIZE = 40;
+	private static final int OFFSET_RELATIONSHIPS = 48;
+	private static final int OFFSET_RECORDS = 56;
+
+	private static final int SLOT_HEAD = 8;
+	private static final int SLOT_BOUNDARY = 16;
+
+	private static final byte TYPE_START = 0;
+	private static final byte TYPE_END = 1;
+	private static final byte TYPE_BOUNDARY = 2;
+
+	private static final int MIN_CAPACITY = 1 << 16;
+	// a single mapping is limited to 2 GB
+	private static final int MAX_CAPACITY = 1 << 26;
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private static final long EMPTY = 0;
+	private static final long NONE = -1;
+
+	private final File indexFile;
+	private final File logFile;
+	private final long storeRandomId;
+	private final long storeCreationTime;
+
+	private RandomAccessFile index;
+	private MappedByteBuffer buffer;
+	private RandomAccessFile log;
+	private DataOutputStream logOut;
+	private boolean logDirty = false;
+
+	private int capacity;
+	// number of slots with pending relationships
+	private int size;
+	// number of slots in use, including slots of resolved keys
+	private int used;
+	private long logSize;
+	private long relationships;
+	private long records;
+
+	// keys removed since the last commit, by hash
+	private final Map<Long, Removal> removals = new HashMap<Long, Removal>();
+	private long removedRelationships = 0;
+
+	private long hits = 0;
+	private long misses = 0;
+	private boolean reset = false;
+	private boolean recovered = false;
+
+	/**
+	 * Keys of a single hash, what have been removed since the last commit
+	 */
+	private static class Removal {
+		// records of a removed key below the mark have been removed
+		private final Map<GraphKey, Long> marks = new HashMap<GraphKey, Long>();
+		// all the records of the hash have been removed
+		private boolean empty = false;
+	}
+
+	/**
+	 * Opens the store or creates a new one
+	 * @param indexFile index file
+	 * @param logFile log file
+	 * @param storeRandomId random id of the Neo4j store
+	 * @param storeCreationTime creation time of the Neo4j store
+	 * @throws IOException
+	 */
+	public PersistentPendingRelationships(File indexFile, File logFile, long storeRandomId, long storeCreationTime) throws IOException {
+		this.indexFile = indexFile;
+		this.logFile = logFile;
+		this.storeRandomId = storeRandomId;
+		this.storeCreationTime = storeCreationTime;
+
+		for (File file : new File[] { indexFile, logFile }) {
+			File folder = file.getParentFile();
+			if (null != folder && !folder.exists())
+				folder.mkdirs();
+		}
+
+		index = new RandomAccessFile(indexFile, "rw");
+		log = new RandomAccessFile(logFile, "rw");
+		if (!isSameStore()) {
+			reset = index.length() > 0;
+			create(MIN_CAPACITY);
+			log.setLength(0);
+			logSize = relationships = records = 0;
+		} else if (!isValid()) {
+			recover();
+		} else {
+			capacity = (int) ((index.length() - HEADER_SIZE) / SLOT_SIZE);
+			map();
+			size = buffer.getInt(OFFSET_SIZE);
+			logSize = buffer.getLong(OFFSET_LOG_SIZE);
+			relationships = buffer.getLong(OFFSET_RELATIONSHIPS);
+			records = buffer.getLong(OFFSET_RECORDS);
+			used = countUsed();
+			log.setLength(logSize);
+		}
+
+		openLog();
+
+		// the store will stay dirty until it has been closed
+		buffer.putInt(OFFSET_CLEAN, 0);
+		buffer.force();
+	}
+
+	public File getIndexFile() {
+		return indexFile;
+	}
+
+	public File getLogFile() {
+		return logFile;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Function to get number of pending relationships
+	 * @return number of relationships
+	 */
+	public long getRelationshipsCount() {
+		return relationships;
+	}
+
+	/**
+	 * Function to get number of checked keys, what had pending relationships
+	 * @return number of keys
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Function to check if existing store was discarded on opening
+	 * @return true if the store has been discarded
+	 */
+	public boolean isReset() {
+		return reset;
+	}
+
+	/**
+	 * Function to check if the index has been rebuilt from the log on opening
+	 * @return true if the store has not been closed properly
+	 */
+	public boolean isRecovered() {
+		return recovered;
+	}
+
+	@Override
+	public void add(GraphKey key, GraphRelationship relationship) {
+		long hash = NodeKeyIndex.hash(key);
+		int slot = allocateSlot(hash);
+		if (!isLive(slot))
+			++size;
+		else {
+			// the hash is pending again, if all its relationships have been removed
+			Removal removal = removals.get(hash);
+			if (null != removal && removal.empty) {
+				removal.empty = false;
+				++size;
+			}
+		}
+
+		long head = buffer.getLong(slotOffset(slot) + SLOT_HEAD);
+		buffer.putLong(slotOffset(slot) + SLOT_HEAD, append(head, key.equals(relationship.getEnd()), relationship));
+		++relationships;
+	}
+
+	/**
+	 * Function to remove all the relationships waiting for a key.
+	 * The relationships stay in the store until the removal has been committed.
+	 * @param key GraphKey of the node
+	 * @return list of relationships or null if there are no relationships waiting for the key
+	 */
+	@Override
+	public List<GraphRelationship> remove(GraphKey key) {
+		long hash = NodeKeyIndex.hash(key);
+		int slot = findSlot(hash);
+		if (EMPTY == buffer.getLong(slotOffset(slot)) || !isLive(slot)) {
+			++misses;
+			return null;
+		}
+
+		Removal removal = removals.get(hash);
+		List<GraphRelationship> list = new ArrayList<GraphRelationship>();
+		boolean others = false;
+		long boundary = buffer.getLong(slotOffset(slot) + SLOT_BOUNDARY);
+		for (long offset = buffer.getLong(slotOffset(slot) + SLOT_HEAD); NONE != offset && offset >= boundary; ) {
+			Record record = read(offset);
+			GraphKey waiting = record.getKey();
+			if (!isRemoved(removal, waiting, offset)) {
+				if (key.equals(waiting))
+					list.add(record.relationship);
+				else
+					// a different key with the same hash
+					others = true;
+			}
+
+			offset = record.previous;
+		}
+
+		if (list.isEmpty()) {
+			++misses;
+			return null;
+		}
+
+		if (null == removal)
+			removals.put(hash, removal = new Removal());
+		removal.marks.put(key, logSize);
+		if (!others) {
+			removal.empty = true;
+			--size;
+		}
+
+		relationships -= list.size();
+		removedRelationships += list.size();
+		++hits;
+		return list;
+	}
+
+	@Override
+	public List<GraphKey> keys() {
+		Set<GraphKey> keys = new LinkedHashSet<GraphKey>();
+		for (int slot = 0; slot < capacity; ++slot)
+			if (EMPTY != buffer.getLong(slotOffset(slot)) && isLive(slot)) {
+				Removal removal = removals.get(buffer.getLong(slotOffset(slot)));
+				long boundary = buffer.getLong(slotOffset(slot) + SLOT_BOUNDARY);
+				for (long offset = buffer.getLong(slotOffset(slot) + SLOT_HEAD); NONE != offset && offset >= boundary; ) {
+					Record record = read(offset);
+					if (!isRemoved(removal, record.getKey(), offset))
+						keys.add(record.getKey());
+					offset = record.previous;
+				}
+			}
+
+		return new ArrayList<GraphKey>(keys);
+	}
+
+	/**
+	 * Function to commit the removed keys.
+	 * Boundaries of the removed keys are moved to the end of the log, 
+	 * pending relationships of other keys with the same hash are copied above them.
+	 */
+	@Override
+	public void commit() {
+		if (removals.isEmpty())
+			return;
+
+		for (Map.Entry<Long, Removal> entry : removals.entrySet()) {
+			long hash = entry.getKey();
+			int slot = findSlot(hash);
+
+			// the oldest record must be copied first
+			List<Record> pending = new ArrayList<Record>();
+			long boundary = buffer.getLong(slotOffset(slot) + SLOT_BOUNDARY);
+			for (long offset = buffer.getLong(slotOffset(slot) + SLOT_HEAD); NONE != offset && offset >= boundary; ) {
+				Record record = read(offset);
+				if (!isRemoved(entry.getValue(), record.getKey(), offset))
+					pending.add(0, record);
+				offset = record.previous;
+			}
+
+			long head = buffer.getLong(slotOffset(slot) + SLOT_HEAD);
+			boundary = logSize;
+			for (Record record : pending)
+				head = append(head, record.end, record.relationship);
+
+			buffer.putLong(slotOffset(slot) + SLOT_HEAD, head);
+			buffer.putLong(slotOffset(slot) + SLOT_BOUNDARY, boundary);
+			appendBoundary(hash, boundary);
+		}
+
+		removals.clear();
+		removedRelationships = 0;
+
+		try {
+			logOut.flush();
+			logDirty = false;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Function to restore the keys, what have been removed since the last commit
+	 */
+	@Override
+	public void rollback() {
+		for (Removal removal : removals.values())
+			if (removal.empty)
+				++size;
+
+		relationships += removedRelationships;
+		removals.clear();
+		removedRelationships = 0;
+	}
+
+	/**
+	 * Function to write the header and release the store.
+	 * Keys removed since the last commit are restored.
+	 * The log is compacted if most of its records have been resolved.
+	 */
+	@Override
+	public void close() {
+		if (null != index) {
+			try {
+				rollback();
+
+				logOut.flush();
+				if (0 == size) {
+					log.setLength(0);
+					create(MIN_CAPACITY);
+					logSize = relationships = records = 0;
+				} else if (records > 2 * relationships)
+					compact();
+
+				log.getChannel().force(true);
+				log.close();
+
+				writeHeader();
+				buffer.force();
+				buffer.putInt(OFFSET_CLEAN, 1);
+				buffer.force();
+
+				index.close();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Unable to close pending relationships: " + logFile, e);
+			} finally {
+				index = null;
+				log = null;
+				buffer = null;
+			}
+		}
+	}
+
+	/**
+	 * Log record
+	 */
+	private static class Record {
+		private final long previous;
+		private final boolean end;
+		private final GraphRelationship relationship;
+
+		Record(long previous, boolean end, GraphRelationship relationship) {
+			this.previous = previous;
+			this.end = end;
+			this.relationship = relationship;
+		}
+
+		GraphKey getKey() {
+			return end ? relationship.getEnd() : relationship.getStart();
+		}
+	}
+
+	/**
+	 * Visitor of the log records
+	 */
+	private interface RecordVisitor {
+		void visit(long offset, long previous, byte type, byte[] data) throws IOException;
+	}
+
+	private static boolean isRemoved(Removal removal, GraphKey key, long offset) {
+		if (null == removal)
+			return false;
+
+		Long mark = removal.marks.get(key);
+		return null != mark && offset < mark;
+	}
+
+	/**
+	 * Function to check if the index belongs to the Neo4j store
+	 */
+	private boolean isSameStore() throws IOException {
+		if (index.length() < HEADER_SIZE)
+			return false;
+
+		index.seek(0);
+		return index.readInt() == MAGIC && index.readInt() == VERSION
+				&& index.readLong() == storeRandomId && index.readLong() == storeCreationTime;
+	}
+
+	/**
+	 * Function to check if the index has been closed properly
+	 */
+	private boolean isValid() throws IOException {
+		index.seek(OFFSET_LOG_SIZE);
+		long stored = index.readLong();
+		if (index.readInt() != 1 || log.length() < stored)
+			return false;
+
+		int slots = index.readInt();
+		return Integer.bitCount(slots) == 1 && index.length() == HEADER_SIZE + (long) slots * SLOT_SIZE;
+	}
+
+	/**
+	 * Function to rebuild the index from the log.
+	 * The first pass finds the last boundary of every hash, the second one links 
+	 * the records above the boundaries. Incomplete records at the end of the log,
+	 * what have not been written before the application has been terminated, are dropped.
+	 */
+	private void recover() throws IOException {
+		recovered = true;
+
+		Map<Long, Long> boundaries = new HashMap<Long, Long>();
+		long end = scan((offset, previous, type, data) -> {
+			if (TYPE_BOUNDARY == type) {
+				long boundary = ByteBuffer.wrap(data).getLong();
+				Long last = boundaries.get(previous);
+				if (null == last || last < boundary)
+					boundaries.put(previous, boundary);
+			} else
+				readRelationship(data);
+		});
+		log.setLength(end);
+
+		create(MIN_CAPACITY);
+		logSize = end;
+		records = 0;
+		scan((offset, previous, type, data) -> {
+			++records;
+			if (TYPE_BOUNDARY != type) {
+				GraphRelationship relationship = readRelationship(data);
+				long hash = NodeKeyIndex.hash(TYPE_END == type ? relationship.getEnd() : relationship.getStart());
+				Long boundary = boundaries.get(hash);
+				if (null == boundary || offset >= boundary) {
+					int slot = allocateSlot(hash);
+					buffer.putLong(slotOffset(slot) + SLOT_HEAD, offset);
+					buffer.putLong(slotOffset(slot) + SLOT_BOUNDARY, null == boundary ? 0 : boundary);
+				}
+			}
+		});
+
+		size = 0;
+		relationships = 0;
+		for (int slot = 0; slot < capacity; ++slot)
+			if (EMPTY != buffer.getLong(slotOffset(slot)) && isLive(slot)) {
+				++size;
+				long boundary = buffer.getLong(slotOffset(slot) + SLOT_BOUNDARY);
+				for (long offset = buffer.getLong(slotOffset(slot) + SLOT_HEAD); NONE != offset && offset >= boundary; 
+						offset = read(offset).previous)
+					++relationships;
+			}
+	}
+
+	/**
+	 * Function to read all the complete records of the log
+	 * @return size of the complete records
+	 */
+	private long scan(RecordVisitor visitor) throws IOException {
+		long length = log.length();
+		long offset = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile), BUFFER_SIZE))) {
+			while (offset + RECORD_HEADER_SIZE <= length) {
+				long previous = in.readLong();
+				byte type = in.readByte();
+				int size = in.readInt();
+				if (size < 0 || type < TYPE_START || type > TYPE_BOUNDARY || offset + RECORD_HEADER_SIZE + size > length)
+					break;
+
+				byte[] data = new byte[size];
+				in.readFully(data);
+				try {
+					visitor.visit(offset, previous, type, data);
+				} catch (RuntimeException | IOException e) {
+					// the record has not been written completely
+					break;
+				}
+
+				offset += RECORD_HEADER_SIZE + size;
+			}
+		}
+
+		return offset;
+	}
+
+	private void create(int capacity) throws IOException {
+		this.capacity = capacity;
+		this.size = 0;
+		this.used = 0;
+
+		// truncating the file will zero all the slots
+		index.setLength(0);
+		index.setLength(HEADER_SIZE + (long) capacity * SLOT_SIZE);
+		map();
+
+		buffer.putInt(OFFSET_MAGIC, MAGIC);
+		buffer.putInt(OFFSET_VERSION, VERSION);
+		buffer.putLong(OFFSET_STORE_RANDOM_ID, storeRandomId);
+		buffer.putLong(OFFSET_STORE_CREATION_TIME, storeCreationTime);
+		buffer.putInt(OFFSET_CAPACITY, capacity);
+		writeHeader();
+	}
+
+	private void writeHeader() {
+		buffer.putLong(OFFSET_LOG_SIZE, logSize);
+		buffer.putInt(OFFSET_SIZE, size);
+		buffer.putLong(OFFSET_RELATIONSHIPS, relationships);
+		buffer.putLong(OFFSET_RECORDS, records);
+	}
+
+	private void map() throws IOException {
+		buffer = index.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, index.length());
+		buffer.order(ByteOrder.BIG_ENDIAN);
+	}
+
+	private void openLog() throws IOException {
+		FileChannel channel = log.getChannel();
+		channel.position(logSize);
+		logOut = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+		logDirty = false;
+	}
+
+	private int countUsed() {
+		int count = 0;
+		for (int slot = 0; slot < capacity; ++slot)
+			if (EMPTY != buffer.getLong(slotOffset(slot)))
+				++count;
+
+		return count;
+	}
+
+	private static int slotOffset(int slot) {
+		return HEADER_SIZE + slot * SLOT_SIZE;
+	}
+
+	/**
+	 * Function to check if a slot in use has relationships above its boundary
+	 */
+	private boolean isLive(int slot) {
+		long head = buffer.getLong(slotOffset(slot) + SLOT_HEAD);
+		return NONE != head && head >= buffer.getLong(slotOffset(slot) + SLOT_BOUNDARY);
+	}
+
+	/**
+	 * Function to find the slot of the hash or the empty slot, where it should be stored.
+	 * The index is never full, so the probe is bounded by the capacity only as a safeguard.
+	 */
+	private int findSlot(long hash) {
+		int mask = capacity - 1;
+		int slot = (int) (hash ^ (hash >>> 32)) & mask;
+
+		long stored;
+		for (int probes = 0; EMPTY != (stored = buffer.getLong(slotOffset(slot))) && stored != hash; ++probes) {
+			if (probes >= capacity)
+				throw new IllegalStateException("Pending relationships index has no empty slot: " + indexFile);
+
+			slot = (slot + 1) & mask;
+		}
+
+		return slot;
+	}
+
+	/**
+	 * Function to find the slot of the hash or to take a new one
+	 */
+	private int allocateSlot(long hash) {
+		int slot = findSlot(hash);
+		if (EMPTY == buffer.getLong(slotOffset(slot))) {
+			if ((used + 1) * 2 > capacity) {
+				if (capacity >= MAX_CAPACITY && (size + 1) * 2 > capacity)
+					throw new IllegalStateException("Pending relationships index is full, " + size 
+							+ " keys are waiting for their nodes: " + indexFile);
+
+				// at the maximal capacity the index is rebuilt without the resolved slots
+				grow();
+				slot = findSlot(hash);
+			}
+
+			buffer.putLong(slotOffset(slot), hash);
+			buffer.putLong(slotOffset(slot) + SLOT_HEAD, NONE);
+			buffer.putLong(slotOffset(slot) + SLOT_BOUNDARY, 0);
+			++used;
+		}
+
+		return slot;
+	}
+
+	private void grow() {
+		// copy the slots of pending keys, the index will be rebuilt with the new capacity
+		long[] hashes = new long[used];
+		long[] heads = new long[used];
+		long[] boundaries = new long[used];
+		int count = 0;
+		for (int slot = 0; slot < capacity; ++slot) {
+			long hash = buffer.getLong(slotOffset(slot));
+			if (EMPTY != hash && isLive(slot)) {
+				hashes[count] = hash;
+				heads[count] = buffer.getLong(slotOffset(slot) + SLOT_HEAD);
+				boundaries[count] = buffer.getLong(slotOffset(slot) + SLOT_BOUNDARY);
+				++count;
+			}
+		}
+
+		int pending = size;
+		try {
+			// resolved slots are dropped, so the index will only grow if it is full of pending keys
+			int newCapacity = (count + 1) * 4 > capacity && capacity < MAX_CAPACITY ? capacity * 2 : capacity;
+			create(newCapacity);
+			buffer.putInt(OFFSET_CLEAN, 0);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		for (int i = 0; i < count; ++i) {
+			int slot = findSlot(hashes[i]);
+			buffer.putLong(slotOffset(slot), hashes[i]);
+			buffer.putLong(slotOffset(slot) + SLOT_HEAD, heads[i]);
+			buffer.putLong(slotOffset(slot) + SLOT_BOUNDARY, boundaries[i]);
+		}
+
+		used = count;
+		size = pending;
+	}
+
+	private long append(long previous, boolean end, GraphRelationship relationship) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			RelationshipSpool._writeRelationship(new DataOutputStream(bytes), relationship);
+
+			long offset = logSize;
+			logOut.writeLong(previous);
+			logOut.writeByte(end ? TYPE_END : TYPE_START);
+			logOut.writeInt(bytes.size());
+			bytes.writeTo(logOut);
+			logDirty = true;
+
+			logSize += RECORD_HEADER_SIZE + bytes.size();
+			++records;
+
+			return offset;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void appendBoundary(long hash, long boundary) {
+		try {
+			logOut.writeLong(hash);
+			logOut.writeByte(TYPE_BOUNDARY);
+			logOut.writeInt(8);
+			logOut.writeLong(boundary);
+			logDirty = true;
+
+			logSize += BOUNDARY_RECORD_SIZE;
+			++records;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private Record read(long offset) {
+		try {
+			if (logDirty) {
+				logOut.flush();
+				logDirty = false;
+			}
+
+			FileChannel channel = log.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+			readFully(channel, header, offset);
+			header.flip();
+			long previous = header.getLong();
+			boolean end = TYPE_END == header.get();
+
+			ByteBuffer data = ByteBuffer.allocate(header.getInt());
+			readFully(channel, data, offset + RECORD_HEADER_SIZE);
+
+			return new Record(previous, end, readRelationship(data.array()));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static GraphRelationship readRelationship(byte[] data) throws IOException {
+		return RelationshipSpool._readRelationship(new DataInputStream(new ByteArrayInputStream(data)));
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + buffer.position());
+			if (read < 0)
+				throw new IOException("Unexpected end of the pending relationships log");
+		}
+	}
+
+	/**
+	 * Function to rewrite the log with pending relationships only.
+	 * Boundaries are not needed in the new log, so they are reset.
+	 */
+	private void compact() throws IOException {
+		File compacted = new File(logFile.getPath() + ".tmp");
+		long newSize = 0;
+		try (RandomAccessFile target = new RandomAccessFile(compacted, "rw")) {
+			target.setLength(0);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					Channels.newOutputStream(target.getChannel()), BUFFER_SIZE));
+
+			for (int slot = 0; slot < capacity; ++slot) {
+				if (EMPTY == buffer.getLong(slotOffset(slot)))
+					continue;
+
+				// the oldest record must be written first, so it can be referenced
+				List<Long> offsets = new ArrayList<Long>();
+				if (isLive(slot)) {
+					long boundary = buffer.getLong(slotOffset(slot) + SLOT_BOUNDARY);
+					for (long offset = buffer.getLong(slotOffset(slot) + SLOT_HEAD); NONE != offset && offset >= boundary; 
+							offset = read(offset).previous)
+						offsets.add(offset);
+				}
+
+				long previous = NONE;
+				for (int i = offsets.size() - 1; i >= 0; --i) {
+					long offset = offsets.get(i);
+					ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+					readFully(log.getChannel(), header, offset);
+					ByteBuffer data = ByteBuffer.allocate(header.getInt(9));
+					readFully(log.getChannel(), data, offset + RECORD_HEADER_SIZE);
+
+					out.writeLong(previous);
+					out.writeByte(header.get(8));
+					out.writeInt(data.capacity());
+					out.write(data.array());
+
+					previous = newSize;
+					newSize += RECORD_HEADER_SIZE + data.capacity();
+				}
+
+				buffer.putLong(slotOffset(slot) + SLOT_HEAD, previous);
+				buffer.putLong(slotOffset(slot) + SLOT_BOUNDARY, 0);
+			}
+
+			out.flush();
+			target.getChannel().force(true);
+		}
+
+		log.close();
+		if (!compacted.renameTo(logFile))
+			throw new IOException("Unable to replace pending relationships log: " + logFile);
+
+		log = new RandomAccessFile(logFile, "rw");
+		logSize = newSize;
+		records = relationships;
+	}
+}
@@ -0,0 +1,248 @@
+package org.researchgraph.neo4j;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+
+/**
+ * Run-scoped adjacency hash of high degree nodes
+ *
+ * Checking if a relationship exists requires walking all relationships of
+ * the node with the same type and direction. For nodes with thousands of
+ * relationships, such as popular funders or grants, relationships of the node
+ * are loaded into a hash of the other node id to the relationship id once,
+ * and every following check is a single probe.
+ *
+ * Relationships created later must be added with add(), so the hash stays
+ * complete. The adjacency must be cleared if a transaction has been rolled back.
+ * Total number of stored relationships is limited, nodes what do not fit
+ * will not be indexed.
+ *
+ * Indexed nodes are found by a primitive key of the node id, the relationship
+ * type id and the direction, so a probe does not create any object. Type ids
+ * are assigned by the adjacency itself, as RelationshipType only has a name.
+ */
+
+public class RelationshipAdjacency {
+	private static final int TYPE_BITS = 16;
+	private static final int DIRECTION_BITS = 2;
+	private static final int MAX_NODE_BITS = Long.SIZE - 1 - TYPE_BITS - DIRECTION_BITS;
+
+	private final long maxSize;
+	// position of the node relationships by the node key
+	private LongLongMap keys = new LongLongMap(8);
+	private final List<LongLongMap> nodes = new ArrayList<LongLongMap>();
+	private final Map<String, Integer> typeIds = new HashMap<String, Integer>();
+	private long size = 0;
+
+	/**
+	 * Primitive open addressing map of node id to relationship id
+	 */
+	private static class LongLongMap {
+		// keys store (node id + 1), so 0 means an empty slot
+		private long[] keys;
+		private long[] values;
+		private int size = 0;
+
+		LongLongMap(int expected) {
+			int capacity = Integer.highestOneBit(Math.max(expected, 8)) << 2;
+			keys = new long[capacity];
+			values = new long[capacity];
+		}
+
+		long get(long key) {
+			int mask = keys.length - 1;
+			int slot = spread(key) & mask;
+			while (0 != keys[slot]) {
+				if (keys[slot] == key + 1)
+					return values[slot];
+				slot = (slot + 1) & mask;
+			}
+
+			return -1;
+		}
+
+		boolean put(long key, long value) {
+			if ((size + 1) * 2 > keys.length)
+				rehash(keys.length * 2);
+
+			int mask = keys.length - 1;
+			int slot = spread(key) & mask;
+			while (0 != keys[slot]) {
+				if (keys[slot] == key + 1)
+					return false;
+				slot = (slot + 1) & mask;
+			}
+
+			keys[slot] = key + 1;
+			values[slot] = value;
+			++size;
+
+			return true;
+		}
+
+		long getMemoryUsage() {
+			return 16L * keys.length;
+		}
+
+		private void rehash(int capacity) {
+			long[] oldKeys = keys;
+			long[] oldValues = values;
+			keys = new long[capacity];
+			values = new long[capacity];
+
+			int mask = capacity - 1;
+			for (int i = 0; i < oldKeys.length; ++i)
+				if (0 != oldKeys[i]) {
+					int slot = spread(oldKeys[i] - 1) & mask;
+					while (0 != keys[slot])
+						slot = (slot + 1) & mask;
+					keys[slot] = oldKeys[i];
+					values[slot] = oldValues[i];
+				}
+		}
+
+		private static int spread(long key) {
+			key *= 0x9E3779B97F4A7C15L;
+			return (int) (key ^ (key >>> 32));
+		}
+	}
+
+	/**
+	 * Creates an adjacency hash
+	 * @param maxSize maximum number of relationships in all indexed nodes
+	 */
+	public RelationshipAdjacency(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Function to get number of relationships stored in the adjacency
+	 * @return number of relationships
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Function to get number of indexed nodes
+	 * @return number of nodes
+	 */
+	public int getNodesCount() {
+		return nodes.size();
+	}
+
+	/**
+	 * Function to check if relationships of a node have been indexed
+	 * @param nodeId node id
+	 * @param type RelationshipType
+	 * @param direction Direction of the relationships
+	 * @return true if the node has been indexed
+	 */
+	public boolean isIndexed(long nodeId, RelationshipType type, Direction direction) {
+		return keys.get(getKey(nodeId, type, direction)) >= 0;
+	}
+
+	/**
+	 * Function to index all relationships of a node
+	 * @param node Node
+	 * @param type RelationshipType
+	 * @param direction Direction of the relationships
+	 * @return true if the node has been indexed, false if the limit has been reached
+	 */
+	public boolean index(Node node, RelationshipType type, Direction direction) {
+		int degree = node.getDegree(type, direction);
+		if (size + degree > maxSize)
+			return false;
+
+		LongLongMap map = new LongLongMap(degree);
+		for (Relationship relationship : node.getRelationships(type, direction))
+			if (map.put(relationship.getOtherNode(node).getId(), relationship.getId()))
+				++size;
+
+		keys.put(getKey(node.getId(), type, direction), nodes.size());
+		nodes.add(map);
+
+		return true;
+	}
+
+	/**
+	 * Function to find a relationship of indexed node
+	 * @param nodeId node id
+	 * @param type RelationshipType
+	 * @param direction Direction of the relationship
+	 * @param otherNodeId id of the other node
+	 * @return relationship id or -1 if the relationship does not exists or the node is not indexed
+	 */
+	public long find(long nodeId, RelationshipType type, Direction direction, long otherNodeId) {
+		LongLongMap map = getNode(getKey(nodeId, type, direction));
+		return null == map ? -1 : map.get(otherNodeId);
+	}
+
+	/**
+	 * Function to add a new relationship into both nodes, if they has been indexed
+	 * @param relationship Relationship
+	 */
+	public void add(Relationship relationship) {
+		if (nodes.isEmpty())
+			return;
+
+		long startId = relationship.getStartNode().getId();
+		long endId = relationship.getEndNode().getId();
+		RelationshipType type = relationship.getType();
+
+		LongLongMap map = getNode(getKey(startId, type, Direction.OUTGOING));
+		if (null != map && map.put(endId, relationship.getId()))
+			++size;
+
+		map = getNode(getKey(endId, type, Direction.INCOMING));
+		if (null != map && map.put(startId, relationship.getId()))
+			++size;
+	}
+
+	/**
+	 * Function to estimate heap used by the adjacency
+	 * @return number of bytes
+	 */
+	public long getMemoryUsage() {
+		long bytes = keys.getMemoryUsage();
+		for (LongLongMap map : nodes)
+			bytes += map.getMemoryUsage();
+
+		return bytes;
+	}
+
+	public void clear() {
+		keys = new LongLongMap(8);
+		nodes.clear();
+		size = 0;
+	}
+
+	private LongLongMap getNode(long key) {
+		long position = keys.get(key);
+		return position < 0 ? null : nodes.get((int) position);
+	}
+
+	/**
+	 * Function to pack the node id, the type id and the direction into a single key
+	 */
+	private long getKey(long nodeId, RelationshipType type, Direction direction) {
+		if (nodeId >>> MAX_NODE_BITS != 0)
+			throw new IllegalArgumentException("Node id is too large for the adjacency key: " + nodeId);
+
+		Integer typeId = typeIds.get(type.name());
+		if (null == typeId) {
+			if (typeIds.size() >= 1 << TYPE_BITS)
+				throw new IllegalStateException("Too many relationship types in the adjacency");
+			typeIds.put(type.name(), typeId = typeIds.size());
+		}
+
+		return (nodeId << (TYPE_BITS + DIRECTION_BITS)) | ((long) typeId << DIRECTION_BITS) | direction.ordinal();
+	}
+}
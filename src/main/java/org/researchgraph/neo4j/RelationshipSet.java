@@ -0,0 +1,190 @@
+package org.researchgraph.neo4j;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Run-scoped set of existing relationships
+ *
+ * The set stores (start node id, end node id, relationship type id) triples
+ * of all relationships created or found within the run, so merging the same
+ * relationship again does not require to look for it in the database.
+ *
+ * Triples are packed into two longs: start node id and end node id shifted
+ * by 16 bits with the type id in the lower bits, Neo4j node ids never exceed
+ * 48 bits. The triples are stored in an open addressing hash table.
+ *
+ * The set never grows beyond the maximum size, once it is full new triples
+ * are ignored, but existing triples can still be found. The set must be
+ * cleared if a transaction has been rolled back.
+ */
+
+public class RelationshipSet {
+	private static final int MAX_TYPES = 1 << 16;
+	private static final int MIN_CAPACITY = 1 << 10;
+
+	private final int maxSize;
+	private final Map<String, Integer> typeIds = new HashMap<String, Integer>();
+
+	// starts store (start node id + 1), so 0 means an empty slot
+	private long[] starts = new long[MIN_CAPACITY];
+	private long[] ends = new long[MIN_CAPACITY];
+	private int size = 0;
+
+	private long hits = 0;
+	private long ignored = 0;
+
+	/**
+	 * Creates a set
+	 * @param maxSize maximum number of relationships
+	 */
+	public RelationshipSet(int maxSize) {
+		if (maxSize <= 0)
+			throw new IllegalArgumentException("Relationship set size must be positive");
+
+		this.maxSize = maxSize;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isFull() {
+		return size >= maxSize;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Function to get number of relationships, what has not been added because the set was full
+	 * @return number of relationships
+	 */
+	public long getIgnored() {
+		return ignored;
+	}
+
+	/**
+	 * Function to check if a relationship has been added
+	 * @param startId start node id
+	 * @param endId end node id
+	 * @param type relationship type
+	 * @return true if the relationship has been added to the set
+	 */
+	public boolean contains(long startId, long endId, String type) {
+		Integer typeId = typeIds.get(type);
+		if (null == typeId)
+			return false;
+
+		long end = pack(endId, typeId);
+		int mask = starts.length - 1;
+		int slot = hash(startId, end) & mask;
+		while (0 != starts[slot]) {
+			if (starts[slot] == startId + 1 && ends[slot] == end) {
+				++hits;
+				return true;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Function to add a relationship
+	 * @param startId start node id
+	 * @param endId end node id
+	 * @param type relationship type
+	 * @return true if the relationship has been added
+	 */
+	public boolean add(long startId, long endId, String type) {
+		int typeId = getTypeId(type);
+		if (typeId < 0) {
+			++ignored;
+			return false;
+		}
+
+		long end = pack(endId, typeId);
+		int mask = starts.length - 1;
+		int slot = hash(startId, end) & mask;
+		while (0 != starts[slot]) {
+			if (starts[slot] == startId + 1 && ends[slot] == end)
+				return false;
+			slot = (slot + 1) & mask;
+		}
+
+		if (size >= maxSize) {
+			++ignored;
+			return false;
+		}
+
+		if ((size + 1) * 2 > starts.length) {
+			rehash(starts.length * 2);
+
+			mask = starts.length - 1;
+			slot = hash(startId, end) & mask;
+			while (0 != starts[slot])
+				slot = (slot + 1) & mask;
+		}
+
+		starts[slot] = startId + 1;
+		ends[slot] = end;
+		++size;
+
+		return true;
+	}
+
+	/**
+	 * Function to estimate heap used by the set
+	 * @return number of bytes
+	 */
+	public long getMemoryUsage() {
+		return 16L * starts.length;
+	}
+
+	public void clear() {
+		starts = new long[MIN_CAPACITY];
+		ends = new long[MIN_CAPACITY];
+		size = 0;
+	}
+
+	private int getTypeId(String type) {
+		Integer id = typeIds.get(type);
+		if (null == id) {
+			if (typeIds.size() >= MAX_TYPES)
+				return -1;
+
+			typeIds.put(type, id = typeIds.size());
+		}
+
+		return id;
+	}
+
+	private void rehash(int capacity) {
+		long[] oldStarts = starts;
+		long[] oldEnds = ends;
+		starts = new long[capacity];
+		ends = new long[capacity];
+
+		int mask = capacity - 1;
+		for (int i = 0; i < oldStarts.length; ++i)
+			if (0 != oldStarts[i]) {
+				int slot = hash(oldStarts[i] - 1, oldEnds[i]) & mask;
+				while (0 != starts[slot])
+					slot = (slot + 1) & mask;
+				starts[slot] = oldStarts[i];
+				ends[slot] = oldEnds[i];
+			}
+	}
+
+	private static long pack(long endId, int typeId) {
+		return (endId << 16) | typeId;
+	}
+
+	private static int hash(long start, long end) {
+		long hash = start * 0x9E3779B97F4A7C15L + end;
+		hash *= 0xC2B2AE3D27D4EB4FL;
+		return (int) (hash ^ (hash >>> 32));
+	}
+}
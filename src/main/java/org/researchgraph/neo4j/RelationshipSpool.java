@@ -0,0 +1,474 @@
+package org.researchgraph.neo4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.researchgraph.graph.GraphIndex;
+import org.researchgraph.graph.GraphKey;
+import org.researchgraph.graph.GraphRelationship;
+
+/**
+ * Disk spool of relationships, sorted by the start key
+ *
+ * Relationships are collected in memory until the run size has been reached,
+ * then the run is sorted by the start key and written into a run file.
+ * The sorted relationships are read back by merging all the runs, so the
+ * spool can hold much more relationships than would fit in the heap.
+ *
+ * Key values and relationship properties are stored with their types. Only the
+ * types, what GraphProperties can hold, are supported: String, Boolean, Byte,
+ * Short, Integer, Long, Float, Double and Character, and the arrays of them.
+ * Values of any other type are rejected.
+ */
+
+public class RelationshipSpool implements Closeable {
+	public static final int DEFAULT_RUN_SIZE = 200000;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private static final byte TYPE_NULL = 0;
+	private static final byte TYPE_STRING = 1;
+	private static final byte TYPE_INTEGER = 2;
+	private static final byte TYPE_LONG = 3;
+	private static final byte TYPE_DOUBLE = 4;
+	private static final byte TYPE_BOOLEAN = 5;
+	private static final byte TYPE_STRING_ARRAY = 6;
+	private static final byte TYPE_BYTE = 7;
+	private static final byte TYPE_SHORT = 8;
+	private static final byte TYPE_FLOAT = 9;
+	private static final byte TYPE_CHARACTER = 10;
+	private static final byte TYPE_ARRAY = 11;
+
+	/**
+	 * Order of the keys: index label, index property and the value as String
+	 */
+	public static final Comparator<GraphKey> KEY_ORDER = (k1, k2) -> {
+		int result = k1.getLabel().compareTo(k2.getLabel());
+		if (0 == result)
+			result = k1.getProperty().compareTo(k2.getProperty());
+		if (0 == result)
+			result = String.valueOf(k1.getValue()).compareTo(String.valueOf(k2.getValue()));
+		return result;
+	};
+
+	/**
+	 * Order of the start keys
+	 */
+	public static final Comparator<GraphRelationship> START_KEY_ORDER = (r1, r2) -> 
+		KEY_ORDER.compare(r1.getStart(), r2.getStart());
+
+	private final File folder;
+	private final int runSize;
+	private final List<GraphRelationship> buffer = new ArrayList<GraphRelationship>();
+	private final List<File> runs = new ArrayList<File>();
+	private long size = 0;
+
+	/**
+	 * Creates a spool
+	 * @param folder folder for the run files, will be created if it does not exists
+	 * @param runSize number of relationships sorted in memory
+	 * @throws IOException if the folder can not be created
+	 */
+	public RelationshipSpool(File folder, int runSize) throws IOException {
+		if (runSize <= 0)
+			throw new IllegalArgumentException("Run size must be positive");
+		if (!folder.isDirectory() && !folder.mkdirs())
+			throw new IOException("Unable to create spool folder: " + folder);
+
+		this.folder = folder;
+		this.runSize = runSize;
+	}
+
+	/**
+	 * Function to get number of spooled relationships
+	 * @return number of relationships
+	 */
+	public long size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return 0 == size;
+	}
+
+	/**
+	 * Function to get number of run files written to the disk
+	 * @return number of runs
+	 */
+	public int getRunsCount() {
+		return runs.size();
+	}
+
+	/**
+	 * Function to spool a relationship
+	 * @param relationship GraphRelationship
+	 */
+	public void add(GraphRelationship relationship) {
+		buffer.add(relationship);
+		++size;
+
+		if (buffer.size() >= runSize)
+			_writeRun();
+	}
+
+	/**
+	 * Function to read all spooled relationships, sorted by the start key.
+	 * The spool must not be changed while the relationships are being read.
+	 * @return Iterator of GraphRelationship
+	 */
+	public Iterator<GraphRelationship> sorted() {
+		buffer.sort(START_KEY_ORDER);
+		if (runs.isEmpty())
+			return buffer.iterator();
+
+		return new MergeIterator();
+	}
+
+	/**
+	 * Removes all spooled relationships and the run files
+	 */
+	public void clear() {
+		buffer.clear();
+		for (File run : runs)
+			run.delete();
+		runs.clear();
+		size = 0;
+	}
+
+	@Override
+	public void close() {
+		clear();
+	}
+
+	private void _writeRun() {
+		buffer.sort(START_KEY_ORDER);
+
+		File run = new File(folder, "relationships-" + runs.size() + ".run");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), BUFFER_SIZE))) {
+			for (GraphRelationship relationship : buffer)
+				_writeRelationship(out, relationship);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		runs.add(run);
+		buffer.clear();
+	}
+
+	/**
+	 * Run reader, what keeps the next relationship of the run
+	 */
+	private static class RunReader {
+		private final DataInputStream in;
+		private GraphRelationship next;
+
+		RunReader(File run) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), BUFFER_SIZE));
+			advance();
+		}
+
+		void advance() throws IOException {
+			try {
+				next = _readRelationship(in);
+			} catch (EOFException e) {
+				next = null;
+				in.close();
+			}
+		}
+	}
+
+	/**
+	 * Merges the sorted runs and the sorted memory buffer
+	 */
+	private class MergeIterator implements Iterator<GraphRelationship> {
+		private final PriorityQueue<RunReader> readers = new PriorityQueue<RunReader>(
+				(a, b) -> START_KEY_ORDER.compare(a.next, b.next));
+		private final Iterator<GraphRelationship> memory = buffer.iterator();
+		private GraphRelationship memoryNext;
+
+		MergeIterator() {
+			try {
+				for (File run : runs) {
+					RunReader reader = new RunReader(run);
+					if (null != reader.next)
+						readers.add(reader);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+
+			memoryNext = memory.hasNext() ? memory.next() : null;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return null != memoryNext || !readers.isEmpty();
+		}
+
+		@Override
+		public GraphRelationship next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			RunReader reader = readers.peek();
+			if (null == reader || (null != memoryNext && START_KEY_ORDER.compare(memoryNext, reader.next) <= 0)) {
+				GraphRelationship relationship = memoryNext;
+				memoryNext = memory.hasNext() ? memory.next() : null;
+				return relationship;
+			}
+
+			readers.poll();
+			GraphRelationship relationship = reader.next;
+			try {
+				reader.advance();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			if (null != reader.next)
+				readers.add(reader);
+
+			return relationship;
+		}
+	}
+
+	static void _writeRelationship(DataOutputStream out, GraphRelationship relationship) throws IOException {
+		out.writeUTF(relationship.getRelationship());
+		_writeKey(out, relationship.getStart());
+		_writeKey(out, relationship.getEnd());
+
+		Map<String, Object> properties = relationship.getProperties();
+		int count = null == properties ? 0 : properties.size();
+		out.writeInt(count);
+		if (count > 0)
+			for (Map.Entry<String, Object> property : properties.entrySet()) {
+				out.writeUTF(property.getKey());
+				_writeValue(out, property.getValue());
+			}
+	}
+
+	static GraphRelationship _readRelationship(DataInputStream in) throws IOException {
+		String type = in.readUTF();
+		GraphKey start = _readKey(in);
+		GraphKey end = _readKey(in);
+
+		int count = in.readInt();
+		Map<String, Object> properties = new HashMap<String, Object>();
+		for (int i = 0; i < count; ++i)
+			properties.put(in.readUTF(), _readValue(in));
+
+		return new GraphRelationship(type, start, end, properties);
+	}
+
+	private static void _writeKey(DataOutputStream out, GraphKey key) throws IOException {
+		out.writeUTF(key.getLabel());
+		out.writeUTF(key.getProperty());
+		_writeValue(out, key.getValue());
+	}
+
+	private static GraphKey _readKey(DataInputStream in) throws IOException {
+		String label = in.readUTF();
+		String property = in.readUTF();
+		return new GraphKey(GraphIndex.valueOf(label, property), _readValue(in));
+	}
+
+	private static void _writeValue(DataOutputStream out, Object value) throws IOException {
+		if (null == value) {
+			out.writeByte(TYPE_NULL);
+		} else if (value instanceof String[]) {
+			String[] array = (String[]) value;
+			out.writeByte(TYPE_STRING_ARRAY);
+			out.writeInt(array.length);
+			for (String element : array)
+				_writeString(out, element);
+		} else if (value.getClass().isArray()) {
+			byte type = _getType(value.getClass().getComponentType());
+			if (TYPE_NULL == type)
+				throw new IllegalArgumentException("Unsupported array type in the relationship spool: " 
+						+ value.getClass().getSimpleName());
+
+			int length = Array.getLength(value);
+			out.writeByte(TYPE_ARRAY);
+			out.writeByte(type);
+			out.writeInt(length);
+			for (int i = 0; i < length; ++i) {
+				Object element = Array.get(value, i);
+				if (null == element)
+					throw new IllegalArgumentException("Array with null element can not be stored in the relationship spool");
+				_writeElement(out, type, element);
+			}
+		} else {
+			byte type = _getType(value.getClass());
+			if (TYPE_NULL == type)
+				throw new IllegalArgumentException("Unsupported value type in the relationship spool: " 
+						+ value.getClass().getName());
+
+			out.writeByte(type);
+			_writeElement(out, type, value);
+		}
+	}
+
+	private static Object _readValue(DataInputStream in) throws IOException {
+		byte type = in.readByte();
+		switch (type) {
+		case TYPE_NULL:
+			return null;
+		case TYPE_STRING_ARRAY:
+			String[] strings = new String[in.readInt()];
+			for (int i = 0; i < strings.length; ++i)
+				strings[i] = _readString(in);
+			return strings;
+		case TYPE_ARRAY:
+			byte elementType = in.readByte();
+			Object array = Array.newInstance(_getClass(elementType), in.readInt());
+			for (int i = 0, length = Array.getLength(array); i < length; ++i)
+				Array.set(array, i, _readElement(in, elementType));
+			return array;
+		default:
+			return _readElement(in, type);
+		}
+	}
+
+	/**
+	 * Function to get the type code of a supported class
+	 * @return type code or TYPE_NULL if the class is not supported
+	 */
+	private static byte _getType(Class<?> c) {
+		if (String.class == c)
+			return TYPE_STRING;
+		if (Integer.class == c)
+			return TYPE_INTEGER;
+		if (Long.class == c)
+			return TYPE_LONG;
+		if (Double.class == c)
+			return TYPE_DOUBLE;
+		if (Boolean.class == c)
+			return TYPE_BOOLEAN;
+		if (Byte.class == c)
+			return TYPE_BYTE;
+		if (Short.class == c)
+			return TYPE_SHORT;
+		if (Float.class == c)
+			return TYPE_FLOAT;
+		if (Character.class == c)
+			return TYPE_CHARACTER;
+		return TYPE_NULL;
+	}
+
+	private static Class<?> _getClass(byte type) throws IOException {
+		switch (type) {
+		case TYPE_STRING:
+			return String.class;
+		case TYPE_INTEGER:
+			return Integer.class;
+		case TYPE_LONG:
+			return Long.class;
+		case TYPE_DOUBLE:
+			return Double.class;
+		case TYPE_BOOLEAN:
+			return Boolean.class;
+		case TYPE_BYTE:
+			return Byte.class;
+		case TYPE_SHORT:
+			return Short.class;
+		case TYPE_FLOAT:
+			return Float.class;
+		case TYPE_CHARACTER:
+			return Character.class;
+		default:
+			throw new IOException("Invalid array type in the relationship spool: " + type);
+		}
+	}
+
+	private static void _writeElement(DataOutputStream out, byte type, Object value) throws IOException {
+		switch (type) {
+		case TYPE_STRING:
+			_writeString(out, (String) value);
+			break;
+		case TYPE_INTEGER:
+			out.writeInt((Integer) value);
+			break;
+		case TYPE_LONG:
+			out.writeLong((Long) value);
+			break;
+		case TYPE_DOUBLE:
+			out.writeDouble((Double) value);
+			break;
+		case TYPE_BOOLEAN:
+			out.writeBoolean((Boolean) value);
+			break;
+		case TYPE_BYTE:
+			out.writeByte((Byte) value);
+			break;
+		case TYPE_SHORT:
+			out.writeShort((Short) value);
+			break;
+		case TYPE_FLOAT:
+			out.writeFloat((Float) value);
+			break;
+		case TYPE_CHARACTER:
+			out.writeChar((Character) value);
+			break;
+		default:
+			throw new IllegalArgumentException("Invalid value type: " + type);
+		}
+	}
+
+	private static Object _readElement(DataInputStream in, byte type) throws IOException {
+		switch (type) {
+		case TYPE_STRING:
+			return _readString(in);
+		case TYPE_INTEGER:
+			return in.readInt();
+		case TYPE_LONG:
+			return in.readLong();
+		case TYPE_DOUBLE:
+			return in.readDouble();
+		case TYPE_BOOLEAN:
+			return in.readBoolean();
+		case TYPE_BYTE:
+			return in.readByte();
+		case TYPE_SHORT:
+			return in.readShort();
+		case TYPE_FLOAT:
+			return in.readFloat();
+		case TYPE_CHARACTER:
+			return in.readChar();
+		default:
+			throw new IOException("Invalid value type in the relationship spool: " + type);
+		}
+	}
+
+	/**
+	 * Strings are written with int length, as writeUTF() is limited to 64K bytes
+	 */
+	private static void _writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String _readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
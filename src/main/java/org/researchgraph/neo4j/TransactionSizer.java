@@ -0,0 +1,125 @@
+package org.researchgraph.neo4j;
+
+/**
+ * Adaptive size of import transactions
+ *
+ * The size is a number of imported nodes and relationships after which the
+ * transaction will be committed. Every commit is measured and the size is
+ * adjusted for the next transaction:
+ *
+ * - if free heap has dropped below the heap reserve, the transaction state is
+ *   too big, so the size is halved;
+ * - if the commit was faster than the target latency, the commit overhead is not
+ *   amortized yet, so the size is increased by half;
+ * - if the commit was more than twice slower than the target latency,
+ *   the size is decreased by a quarter.
+ *
+ * The size never leaves the [minSize, maxSize] range.
+ */
+
+public class TransactionSizer {
+	public static final int DEFAULT_MIN_SIZE = 1000;
+	public static final int DEFAULT_MAX_SIZE = 500000;
+	public static final long DEFAULT_TARGET_LATENCY = 500;
+	public static final double DEFAULT_HEAP_RESERVE = 0.2;
+
+	private final int minSize;
+	private final int maxSize;
+	private final long targetLatency;
+	private final double heapReserve;
+	private final boolean adaptive;
+
+	private int size;
+
+	private long commits = 0;
+	private long totalLatency = 0;
+	private long maxLatency = 0;
+
+	/**
+	 * Creates a sizer with a fixed transaction size
+	 * @param size number of operations in a transaction
+	 */
+	public TransactionSizer(int size) {
+		this(size, size, size, DEFAULT_TARGET_LATENCY, DEFAULT_HEAP_RESERVE, false);
+	}
+
+	/**
+	 * Creates an adaptive sizer
+	 * @param size initial number of operations in a transaction
+	 * @param minSize minimal number of operations in a transaction
+	 * @param maxSize maximal number of operations in a transaction
+	 * @param targetLatency desired commit latency in milliseconds
+	 * @param heapReserve part of maximum heap, what should stay free
+	 */
+	public TransactionSizer(int size, int minSize, int maxSize, long targetLatency, double heapReserve) {
+		this(size, minSize, maxSize, targetLatency, heapReserve, true);
+	}
+
+	private TransactionSizer(int size, int minSize, int maxSize, long targetLatency, double heapReserve, boolean adaptive) {
+		if (minSize <= 0 || minSize > maxSize)
+			throw new IllegalArgumentException("Invalid transaction size range: [" + minSize + ", " + maxSize + "]");
+
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.targetLatency = targetLatency;
+		this.heapReserve = heapReserve;
+		this.adaptive = adaptive;
+		this.size = Math.max(minSize, Math.min(maxSize, size));
+	}
+
+	/**
+	 * Function to get current transaction size
+	 * @return number of operations
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	public boolean isAdaptive() {
+		return adaptive;
+	}
+
+	public long getCommits() {
+		return commits;
+	}
+
+	public long getAverageLatency() {
+		return commits == 0 ? 0 : totalLatency / commits;
+	}
+
+	public long getMaxLatency() {
+		return maxLatency;
+	}
+
+	/**
+	 * Function to register a commit
+	 * @param latency commit latency in milliseconds
+	 */
+	public void committed(long latency) {
+		++commits;
+		totalLatency += latency;
+		maxLatency = Math.max(maxLatency, latency);
+
+		if (!adaptive)
+			return;
+
+		if (getHeapHeadroom() < heapReserve)
+			size = size / 2;
+		else if (latency < targetLatency)
+			size = size + size / 2;
+		else if (latency > targetLatency * 2)
+			size = size - size / 4;
+
+		size = Math.max(minSize, Math.min(maxSize, size));
+	}
+
+	/**
+	 * Function to get part of maximum heap, what could still be allocated
+	 * @return value between 0 and 1
+	 */
+	public static double getHeapHeadroom() {
+		Runtime runtime = Runtime.getRuntime();
+		long used = runtime.totalMemory() - runtime.freeMemory();
+		return 1.0 - (double) used / runtime.maxMemory();
+	}
+}
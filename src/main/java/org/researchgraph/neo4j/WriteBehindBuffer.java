@@ -0,0 +1,209 @@
+package org.researchgraph.neo4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.researchgraph.graph.Graph;
+import org.researchgraph.graph.GraphKey;
+import org.researchgraph.graph.GraphNode;
+import org.researchgraph.graph.GraphRelationship;
+
+/**
+ * Write-behind buffer of nodes and relationships across graphs
+ *
+ * The same node key often appears in many files of one harvest, such as a grant
+ * referenced by many datasets. Instead of a lookup and an update for every
+ * occurrence, nodes are kept in the buffer by their key and all the occurrences
+ * are merged into a single node: labels are added, index values and properties
+ * are replaced by the later occurrence, as they would be by the later update.
+ * Relationships of the same type between the same keys are merged the same way.
+ *
+ * The buffer is taken as a single graph, with nodes sorted by the key and
+ * relationships by the start key, once it holds the maximal number of nodes and
+ * relationships or once its oldest entry has reached the maximal age.
+ * Deleted and broken nodes are dropped, as they would not be imported anyway.
+ */
+
+public class WriteBehindBuffer {
+	public static final int DEFAULT_SIZE = 100000;
+	public static final long DEFAULT_MAX_AGE = 60000;
+
+	private final int size;
+	private final long maxAge;
+	private final Map<GraphKey, GraphNode> nodes = new HashMap<GraphKey, GraphNode>();
+	private final Map<List<Object>, GraphRelationship> relationships = new LinkedHashMap<List<Object>, GraphRelationship>();
+	private long firstAdded = 0;
+
+	private long nodesAdded = 0;
+	private long nodesCoalesced = 0;
+	private long nodesDropped = 0;
+	private long relationshipsAdded = 0;
+	private long relationshipsCoalesced = 0;
+	private long flushes = 0;
+
+	/**
+	 * Creates a buffer
+	 * @param size maximal number of buffered nodes and relationships
+	 * @param maxAge maximal age of the oldest entry in milliseconds, 0 for no limit
+	 */
+	public WriteBehindBuffer(int size, long maxAge) {
+		if (size <= 0)
+			throw new IllegalArgumentException("Buffer size must be positive");
+		if (maxAge < 0)
+			throw new IllegalArgumentException("Maximal age must not be negative");
+
+		this.size = size;
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * Function to get number of buffered nodes and relationships
+	 * @return number of entries
+	 */
+	public int size() {
+		return nodes.size() + relationships.size();
+	}
+
+	public boolean isEmpty() {
+		return nodes.isEmpty() && relationships.isEmpty();
+	}
+
+	public int getMaxSize() {
+		return size;
+	}
+
+	public long getMaxAge() {
+		return maxAge;
+	}
+
+	public long getNodesAdded() {
+		return nodesAdded;
+	}
+
+	/**
+	 * Function to get number of nodes, what have been merged into a buffered node
+	 * @return number of nodes
+	 */
+	public long getNodesCoalesced() {
+		return nodesCoalesced;
+	}
+
+	public long getNodesDropped() {
+		return nodesDropped;
+	}
+
+	public long getRelationshipsAdded() {
+		return relationshipsAdded;
+	}
+
+	/**
+	 * Function to get number of relationships, what have been merged into a buffered relationship
+	 * @return number of relationships
+	 */
+	public long getRelationshipsCoalesced() {
+		return relationshipsCoalesced;
+	}
+
+	public long getFlushes() {
+		return flushes;
+	}
+
+	/**
+	 * Function to buffer nodes and relationships of a graph.
+	 * The graph is not kept by the buffer, so it can be cleared and reused.
+	 * @param graph Graph
+	 */
+	public void add(Graph graph) {
+		Collection<GraphNode> graphNodes = graph.getNodes();
+		if (null != graphNodes)
+			for (GraphNode node : graphNodes)
+				addNode(node);
+
+		Collection<GraphRelationship> graphRelationships = graph.getRelationships();
+		if (null != graphRelationships)
+			for (GraphRelationship relationship : graphRelationships)
+				addRelationship(relationship);
+	}
+
+	public void addNode(GraphNode node) {
+		if (node.isBroken() || node.isDeleted()) {
+			++nodesDropped;
+			return;
+		}
+
+		GraphKey key = node.getKey();
+		Neo4jDatabase._checkNodeKey(key);
+
+		_added();
+		++nodesAdded;
+
+		GraphNode buffered = nodes.get(key);
+		if (null == buffered) {
+			nodes.put(key, new GraphNode(key, node.getLabels(), node.getIndexes(), node.getProperties()));
+			return;
+		}
+
+		++nodesCoalesced;
+		buffered.addLabels(node.getLabels());
+		buffered.getIndexes().putAll(node.getIndexes());
+		buffered.setProperties(node.getProperties());
+	}
+
+	public void addRelationship(GraphRelationship relationship) {
+		_added();
+		++relationshipsAdded;
+
+		List<Object> key = Arrays.<Object>asList(relationship.getRelationship(),
+				relationship.getStart(), relationship.getEnd());
+		GraphRelationship buffered = relationships.get(key);
+		if (null == buffered) {
+			relationships.put(key, new GraphRelationship(relationship.getRelationship(),
+					relationship.getStart(), relationship.getEnd(), relationship.getProperties()));
+			return;
+		}
+
+		++relationshipsCoalesced;
+		buffered.setProperties(relationship.getProperties());
+	}
+
+	/**
+	 * Function to check if the buffer has reached its size or age
+	 * @return true if the buffer should be flushed
+	 */
+	public boolean isFlushRequired() {
+		return size() >= size || (maxAge > 0 && !isEmpty() && System.currentTimeMillis() - firstAdded >= maxAge);
+	}
+
+	/**
+	 * Function to take all the buffered nodes and relationships and to empty the buffer
+	 * @return Graph with nodes sorted by the key and relationships sorted by the start key
+	 */
+	public Graph drain() {
+		List<GraphNode> sortedNodes = new ArrayList<GraphNode>(nodes.values());
+		sortedNodes.sort((n1, n2) -> RelationshipSpool.KEY_ORDER.compare(n1.getKey(), n2.getKey()));
+
+		// the sort is stable, so relationships of the same start node keep their order
+		List<GraphRelationship> sortedRelationships = new ArrayList<GraphRelationship>(relationships.values());
+		sortedRelationships.sort(RelationshipSpool.START_KEY_ORDER);
+
+		Graph graph = new Graph();
+		graph.setNodes(sortedNodes);
+		graph.setRelationships(sortedRelationships);
+
+		nodes.clear();
+		relationships.clear();
+		++flushes;
+
+		return graph;
+	}
+
+	private void _added() {
+		if (isEmpty())
+			firstAdded = System.currentTimeMillis();
+	}
+}
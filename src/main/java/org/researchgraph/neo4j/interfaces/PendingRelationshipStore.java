@@ -0,0 +1,50 @@
+package org.researchgraph.neo4j.interfaces;
+
+import java.util.List;
+
+import org.researchgraph.graph.GraphKey;
+import org.researchgraph.graph.GraphRelationship;
+
+/**
+ * Storage for relationships with a node, what is not known yet
+ */
+
+public interface PendingRelationshipStore {
+	/**
+	 * Function to get number of unknown keys with pending relationships
+	 * @return number of keys
+	 */
+	int size();
+	
+	/**
+	 * Function to store a relationship under a key of the missing node
+	 * @param key GraphKey of the missing node
+	 * @param relationship GraphRelationship
+	 */
+	void add(GraphKey key, GraphRelationship relationship);
+	
+	/**
+	 * Function to remove all the relationships waiting for a key.
+	 * The removal can be undone by rollback() until it has been committed.
+	 * @param key GraphKey of the node
+	 * @return list of relationships or null if there are no relationships waiting for the key
+	 */
+	List<GraphRelationship> remove(GraphKey key);
+	
+	/**
+	 * Function to commit the removals, once the released relationships have been imported
+	 */
+	void commit();
+	
+	/**
+	 * Function to restore the relationships removed since the last commit, 
+	 * as the transaction importing them has been rolled back
+	 */
+	void rollback();
+	
+	/**
+	 * Function to list all the unknown keys with pending relationships
+	 * @return list of keys
+	 */
+	List<GraphKey> keys();
+}
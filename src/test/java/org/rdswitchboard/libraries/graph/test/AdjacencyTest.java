@@ -0,0 +1,66 @@
+/**
+ *
+ */
+package org.rdswitchboard.libraries.graph.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.researchgraph.neo4j.Neo4jDatabase;
+import org.researchgraph.neo4j.RelationshipAdjacency;
+
+public class AdjacencyTest {
+	private static final RelationshipType RELATED_TO = RelationshipType.withName("relatedTo");
+	private static final RelationshipType HAS_FUNDER = RelationshipType.withName("hasFunder");
+
+	@Test
+	public void adjacencyTest() throws Exception {
+		Neo4jDatabase neo4j = new Neo4jDatabase(IndexUpdateTest.neo4jFolder().getAbsolutePath());
+		try {
+			GraphDatabaseService graphDb = neo4j.getGraphDatabaseService();
+			try (Transaction tx = graphDb.beginTx()) {
+				Node hub = graphDb.createNode();
+				Node[] nodes = new Node[10];
+				Relationship[] relationships = new Relationship[nodes.length];
+				for (int n = 0; n < nodes.length; ++n) {
+					nodes[n] = graphDb.createNode();
+					relationships[n] = nodes[n].createRelationshipTo(hub, RELATED_TO);
+				}
+
+				RelationshipAdjacency adjacency = new RelationshipAdjacency(100);
+				assertFalse("Should not index the hub yet", adjacency.isIndexed(hub.getId(), RELATED_TO, Direction.INCOMING));
+				assertTrue("Should index the hub", adjacency.index(hub, RELATED_TO, Direction.INCOMING));
+				assertTrue("Should find the indexed hub", adjacency.isIndexed(hub.getId(), RELATED_TO, Direction.INCOMING));
+				assertFalse("Should keep the direction apart", adjacency.isIndexed(hub.getId(), RELATED_TO, Direction.OUTGOING));
+				assertFalse("Should keep the type apart", adjacency.isIndexed(hub.getId(), HAS_FUNDER, Direction.INCOMING));
+				assertEquals("Should store every relationship", nodes.length, adjacency.size());
+
+				assertEquals("Should find the relationship", relationships[3].getId(),
+						adjacency.find(hub.getId(), RELATED_TO, Direction.INCOMING, nodes[3].getId()));
+				assertEquals("Should not find the relationship of other type", -1,
+						adjacency.find(hub.getId(), HAS_FUNDER, Direction.INCOMING, nodes[3].getId()));
+
+				Node node = graphDb.createNode();
+				Relationship relationship = node.createRelationshipTo(hub, RELATED_TO);
+				adjacency.add(relationship);
+				assertEquals("Should find the added relationship", relationship.getId(),
+						adjacency.find(hub.getId(), RELATED_TO, Direction.INCOMING, node.getId()));
+
+				assertTrue("Should index the other type", adjacency.index(hub, HAS_FUNDER, Direction.INCOMING));
+				assertEquals("Should count the indexed nodes", 2, adjacency.getNodesCount());
+
+				adjacency.clear();
+				assertFalse("Should clear the index", adjacency.isIndexed(hub.getId(), RELATED_TO, Direction.INCOMING));
+				assertEquals("Should clear the size", 0, adjacency.size());
+			}
+		} finally {
+			neo4j.shutdown();
+		}
+	}
+}
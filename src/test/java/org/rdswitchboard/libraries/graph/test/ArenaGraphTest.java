@@ -0,0 +1,114 @@
+/**
+ *
+ */
+package org.rdswitchboard.libraries.graph.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+import org.researchgraph.graph.GraphKey;
+import org.researchgraph.graph.GraphNode;
+import org.researchgraph.graph.GraphRelationship;
+import org.researchgraph.graph.arena.ArenaGraph;
+
+public class ArenaGraphTest {
+
+	private static GraphNode node(int n) {
+		return GraphNode.builder()
+				.withKey("ands", "http://researchgraph.org/dataset/" + n)
+				.withLabel("dataset")
+				.withProperty("title", "Dataset " + n)
+				.build();
+	}
+
+	@Test
+	public void setTest() throws Exception {
+		try (ArenaGraph graph = new ArenaGraph(1024)) {
+			graph.addNode(node(1));
+			graph.addRelationship(GraphRelationship.builder()
+					.withRelationship("relatedTo")
+					.withStart(node(1).getKey())
+					.withEnd(node(2).getKey())
+					.build());
+
+			Collection<GraphNode> nodes = graph.getNodes();
+			assertSame("Should keep the materialized nodes", nodes, graph.getNodes());
+
+			graph.setNodes(Arrays.asList(node(2), node(3)));
+			assertEquals("Should replace the nodes", 2, graph.getNodesCount());
+			List<GraphNode> replaced = new ArrayList<GraphNode>(graph.getNodes());
+			assertEquals("Should read the first new node", node(2).getKey(), replaced.get(0).getKey());
+			assertEquals("Should read properties of the new node", "Dataset 3", replaced.get(1).getProperty("title"));
+			assertEquals("Should keep the relationships", 1, graph.getRelationshipsCount());
+
+			graph.addNode(node(4));
+			assertEquals("Should drop the materialized nodes on change", 3, graph.getNodes().size());
+
+			graph.setRelationships(Collections.<GraphRelationship>emptyList());
+			assertEquals("Should replace the relationships", 0, graph.getRelationships().size());
+			assertEquals("Should keep the nodes", 3, graph.getNodesCount());
+
+			graph.clear();
+			assertEquals("Should drop the materialized nodes on clear", 0, graph.getNodes().size());
+		}
+	}
+
+	@Test
+	public void viewTest() throws Exception {
+		try (ArenaGraph graph = new ArenaGraph()) {
+			graph.addNode(node(1));
+			try {
+				graph.getNodes().clear();
+				fail("Should not change the materialized nodes");
+			} catch (UnsupportedOperationException e) {
+				assertEquals("Should keep the node", 1, graph.getNodesCount());
+			}
+			assertEquals("Should keep key of the node", new GraphKey("ands", "http://researchgraph.org/dataset/1"),
+					graph.getNodes().iterator().next().getKey());
+		}
+	}
+
+	@Test
+	public void unsupportedTest() throws Exception {
+		try (ArenaGraph graph = new ArenaGraph(1024)) {
+			graph.addNode(node(1));
+			int size = graph.getArenaSize();
+
+			try {
+				graph.addNode(GraphNode.builder()
+						.withKey("ands", "http://researchgraph.org/dataset/2")
+						.withProperty("created", new Date())
+						.build());
+				fail("Should reject unsupported property type");
+			} catch (IllegalArgumentException e) {
+				assertEquals("Should not count the rejected node", 1, graph.getNodesCount());
+				assertEquals("Should rewind the rejected record", size, graph.getArenaSize());
+			}
+
+			try {
+				graph.addRelationship(GraphRelationship.builder()
+						.withRelationship("relatedTo")
+						.withStart(node(1).getKey())
+						.withEnd(node(2).getKey())
+						.withProperty("created", new Date())
+						.build());
+				fail("Should reject unsupported relationship property type");
+			} catch (IllegalArgumentException e) {
+				assertEquals("Should not count the rejected relationship", 0, graph.getRelationshipsCount());
+				assertEquals("Should rewind the rejected relationship", size, graph.getArenaSize());
+			}
+
+			graph.addNode(node(3));
+			List<GraphNode> nodes = new ArrayList<GraphNode>(graph.getNodes());
+			assertEquals("Should keep the valid nodes", 2, nodes.size());
+			assertEquals("Should read the node after the rejected one", "Dataset 3", nodes.get(1).getProperty("title"));
+		}
+	}
+}
@@ -0,0 +1,129 @@
+/**
+ *
+ */
+package org.rdswitchboard.libraries.graph.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+import org.researchgraph.graph.Graph;
+import org.researchgraph.graph.GraphKey;
+import org.researchgraph.graph.GraphNode;
+import org.researchgraph.graph.GraphRelationship;
+import org.researchgraph.graph.GraphSchema;
+import org.researchgraph.neo4j.Neo4jBulkImporter;
+import org.researchgraph.neo4j.Neo4jDatabase;
+import org.researchgraph.neo4j.Neo4jException;
+
+public class BulkImporterTest {
+
+	private static GraphKey key(int n) {
+		return new GraphKey("ands", "http://researchgraph.org/dataset/" + n);
+	}
+
+	private static long count(GraphDatabaseService graphDb, String cypher) {
+		try (Result result = graphDb.execute(cypher)) {
+			return (Long) result.next().get("n");
+		}
+	}
+
+	@Test
+	public void importTest() throws Exception {
+		File folder = IndexUpdateTest.neo4jFolder();
+
+		Neo4jBulkImporter importer = new Neo4jBulkImporter(folder.getAbsolutePath(), 1000);
+		try {
+			Graph graph = new Graph();
+			graph.addSchema(new GraphSchema("ands", "key", true));
+			graph.addSchema(new GraphSchema("ands", "doi", false));
+			graph.addNode(GraphNode.builder()
+					.withKey(key(1))
+					.withLabel("dataset")
+					.withProperty("title", "Dataset 1")
+					.build());
+			// waits for the DOI of the second dataset
+			graph.addRelationship(GraphRelationship.builder()
+					.withRelationship("relatedTo")
+					.withStart(key(1))
+					.withEnd(new GraphKey("ands", "doi", "10.4225/2"))
+					.build());
+			importer.importGraph(graph);
+			assertEquals("Should create the first node", 1, importer.getNodesCreated());
+			assertEquals("Should wait for the unknown node", 0, importer.getRelationshipsCreated());
+
+			graph = new Graph();
+			graph.addNode(GraphNode.builder()
+					.withKey(key(2))
+					.withLabel("dataset")
+					.withIndex("ands", "doi", "10.4225/2")
+					.build());
+			// the same relationship by the node key is merged with the resolved one
+			graph.addRelationship(GraphRelationship.builder()
+					.withRelationship("relatedTo")
+					.withStart(key(1))
+					.withEnd(key(2))
+					.build());
+			graph.addNode(GraphNode.builder()
+					.withKey(key(1))
+					.withLabel("collection")
+					.withProperty("title", "Dataset 1, updated")
+					.build());
+			importer.importGraph(graph);
+
+			assertEquals("Should create the second node", 2, importer.getNodesCreated());
+			assertEquals("Should update the first node", 1, importer.getNodesUpdated());
+			assertEquals("Should create the resolved relationship", 1, importer.getRelationshipsCreated());
+			assertEquals("Should merge the duplicated relationship", 1, importer.getRelationshipsUpdated());
+		} finally {
+			importer.close();
+		}
+
+		Neo4jDatabase neo4j = new Neo4jDatabase(folder.getAbsolutePath());
+		GraphDatabaseService graphDb = neo4j.getGraphDatabaseService();
+		try (Transaction tx = graphDb.beginTx()) {
+			assertEquals("Should write both nodes", 2, count(graphDb, "MATCH (n:ands) RETURN count(n) AS n"));
+			assertEquals("Should write one relationship", 1,
+					count(graphDb, "MATCH (:ands)-[r:relatedTo]->(:ands) RETURN count(r) AS n"));
+
+			Node node = graphDb.findNode(Label.label("ands"), "key", key(1).getValue());
+			assertEquals("Should update the property", "Dataset 1, updated", node.getProperty("title"));
+			assertTrue("Should add the label", node.hasLabel(Label.label("collection")));
+			assertTrue("Should keep the label", node.hasLabel(Label.label("dataset")));
+
+			assertTrue("Should create the constraint",
+					graphDb.schema().getConstraints(Label.label("ands")).iterator().hasNext());
+		} finally {
+			graphDb.shutdown();
+		}
+	}
+
+	@Test
+	public void emptyStoreTest() throws Exception {
+		File folder = IndexUpdateTest.neo4jFolder();
+
+		Neo4jDatabase neo4j = new Neo4jDatabase(folder.getAbsolutePath());
+		GraphDatabaseService graphDb = neo4j.getGraphDatabaseService();
+		try (Transaction tx = graphDb.beginTx()) {
+			// the first node is deleted, but the store is still not empty
+			graphDb.createNode().delete();
+			graphDb.createNode(Label.label("dataset"));
+			tx.success();
+		} finally {
+			graphDb.shutdown();
+		}
+
+		try {
+			new Neo4jBulkImporter(folder.getAbsolutePath(), 1000).close();
+			fail("Should reject a store with nodes");
+		} catch (Neo4jException e) {
+			assertTrue("Should explain the rejection: " + e.getMessage(), e.getMessage().contains("is not empty"));
+		}
+	}
+}
@@ -0,0 +1,131 @@
+/**
+ *
+ */
+package org.rdswitchboard.libraries.graph.test;
+
+import static org.junit.Assert.*;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+import org.researchgraph.crosswalk.CrosswalkRG;
+import org.researchgraph.graph.Graph;
+import org.researchgraph.graph.GraphIndex;
+import org.researchgraph.graph.GraphKey;
+import org.researchgraph.graph.GraphNode;
+import org.researchgraph.graph.GraphRelationship;
+import org.researchgraph.graph.arena.ArenaGraph;
+import org.researchgraph.neo4j.Neo4jDatabase;
+import org.researchgraph.neo4j.Neo4jGraphSink;
+
+public class CrosswalkRGTest {
+	private static final String DOI = "10.4225/01/5339F1F8E6B36";
+
+	private static CrosswalkRG crosswalk(CrosswalkRG.XmlType type) throws Exception {
+		CrosswalkRG crosswalk = new CrosswalkRG();
+		crosswalk.setSource("ands");
+		crosswalk.setType(type);
+		return crosswalk;
+	}
+
+	private static void process(CrosswalkRG crosswalk, String file, Graph graph) throws Exception {
+		try (InputStream xml = CrosswalkRGTest.class.getResourceAsStream("/crosswalk/" + file)) {
+			assertNotNull("Should find " + file, xml);
+			crosswalk.process(xml, graph);
+		}
+	}
+
+	private static GraphKey key(String key) {
+		return new GraphKey("ands", "researchgraph.org/" + key);
+	}
+
+	@Test
+	public void rgTest() throws Exception {
+		CrosswalkRG crosswalk = crosswalk(CrosswalkRG.XmlType.rg);
+		Graph graph = new Graph();
+		process(crosswalk, "rg.xml", graph);
+
+		List<GraphNode> nodes = new ArrayList<GraphNode>(graph.getNodes());
+		assertEquals("Should find records in the document order, including adjacent ones", 3, nodes.size());
+		assertEquals("Should read first researcher", key("researcher/1"), nodes.get(0).getKey());
+		assertEquals("Should read adjacent researcher", key("researcher/2"), nodes.get(1).getKey());
+		assertEquals("Should read dataset", key("dataset/1"), nodes.get(2).getKey());
+
+		assertEquals("Should index ORCID", "0000-0002-1825-0097",
+				nodes.get(0).getIndexes().get(GraphIndex.valueOf("ands", "orcid")));
+		assertEquals("Should index DOI", DOI, nodes.get(2).getIndexes().get(GraphIndex.valueOf("ands", "doi")));
+		assertEquals("Should keep title", "Dataset; with a semicolon", nodes.get(2).getProperty("title"));
+		assertEquals("Should read publication year", 2014, nodes.get(2).getProperty("publication_year"));
+
+		List<GraphRelationship> relationships = new ArrayList<GraphRelationship>(graph.getRelationships());
+		assertEquals("Should find adjacent relations", 2, relationships.size());
+		assertEquals("Should start at the from key", key("dataset/1"), relationships.get(0).getStart());
+		assertEquals("Should end at the record key", key("researcher/1"), relationships.get(0).getEnd());
+		assertEquals("Should end at the DOI index", new GraphKey("ands", "doi", DOI), relationships.get(1).getEnd());
+
+		assertEquals("Should count records", 3, crosswalk.getExistingRecords());
+		assertEquals("Should not find deleted records", 0, crosswalk.getDeletedRecords());
+		assertEquals("Should add schemas", 5, graph.getSchemasCount());
+	}
+
+	@Test
+	public void oaiTest() throws Exception {
+		CrosswalkRG crosswalk = crosswalk(CrosswalkRG.XmlType.oai);
+		Graph graph = new Graph();
+		process(crosswalk, "oai.xml", graph);
+
+		List<GraphNode> nodes = new ArrayList<GraphNode>(graph.getNodes());
+		assertEquals("Should find records within the metadata", 2, nodes.size());
+		assertEquals("Should read grant", key("grant/1"), nodes.get(0).getKey());
+		assertFalse("Should not delete grant", nodes.get(0).isDeleted());
+		assertEquals("Should index PURL", "purl.org/au-research/grants/arc/DP0987282",
+				nodes.get(0).getIndexes().get(GraphIndex.valueOf("ands", "purl")));
+		assertEquals("Should read deleted publication", key("publication/1"), nodes.get(1).getKey());
+		assertTrue("Should mark deleted publication", nodes.get(1).isDeleted());
+
+		List<GraphRelationship> relationships = new ArrayList<GraphRelationship>(graph.getRelationships());
+		assertEquals("Should find relation within the metadata", 1, relationships.size());
+		assertEquals("Should map relation label", "relatedTo", relationships.get(0).getRelationship());
+		assertEquals("Should end at the record key", key("dataset/1"), relationships.get(0).getEnd());
+
+		assertEquals("Should count records", 2, crosswalk.getExistingRecords());
+		assertEquals("Should count deleted records", 1, crosswalk.getDeletedRecords());
+	}
+
+	@Test
+	public void sinkTest() throws Exception {
+		for (ArenaGraph arena : new ArenaGraph[] { null, new ArenaGraph() }) {
+			Neo4jDatabase neo4j = new Neo4jDatabase(IndexUpdateTest.neo4jFolder().getAbsolutePath());
+			try {
+				// batches of two split the records and relations of both files
+				try (Neo4jGraphSink sink = null == arena ? neo4j.openSink(2) : neo4j.openSink(arena, 2)) {
+					try (InputStream xml = CrosswalkRGTest.class.getResourceAsStream("/crosswalk/rg.xml")) {
+						crosswalk(CrosswalkRG.XmlType.rg).process(xml, sink);
+					}
+					try (InputStream xml = CrosswalkRGTest.class.getResourceAsStream("/crosswalk/oai.xml")) {
+						crosswalk(CrosswalkRG.XmlType.oai).process(xml, sink);
+					}
+				}
+				neo4j.commit();
+
+				String name = null == arena ? "sink" : "arena sink";
+				GraphDatabaseService graphDb = neo4j.getGraphDatabaseService();
+				try (Transaction tx = graphDb.beginTx()) {
+					try (Result result = graphDb.execute("MATCH (n:ands) RETURN count(n) AS n")) {
+						assertEquals(name + " should import all but the deleted record", 4L, result.next().get("n"));
+					}
+					try (Result result = graphDb.execute("MATCH (:ands)-[r]->(:ands) RETURN count(r) AS n")) {
+						assertEquals(name + " should import relations to keys and DOI", 3L, result.next().get("n"));
+					}
+				}
+			} finally {
+				neo4j.getGraphDatabaseService().shutdown();
+			}
+		}
+	}
+}
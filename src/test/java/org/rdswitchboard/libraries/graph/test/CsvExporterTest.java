@@ -0,0 +1,131 @@
+/**
+ *
+ */
+package org.rdswitchboard.libraries.graph.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.researchgraph.graph.GraphNode;
+import org.researchgraph.graph.GraphRelationship;
+import org.researchgraph.graph.GraphSchema;
+import org.researchgraph.neo4j.Neo4jCsvExporter;
+
+public class CsvExporterTest {
+
+	private static List<String> read(File folder, String file) throws Exception {
+		return Files.readAllLines(new File(folder, file).toPath(), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void exportTest() throws Exception {
+		File folder = Files.createTempDirectory("csv").toFile();
+
+		try (Neo4jCsvExporter exporter = new Neo4jCsvExporter(folder, false, 100)) {
+			exporter.importSchema(new GraphSchema("ands", "key", true));
+			exporter.importNode(GraphNode.builder()
+					.withKey("ands", "http://researchgraph.org/dataset/1")
+					.withLabel("dataset")
+					.withProperty("title", "Dataset; with \"quotes\", and a comma")
+					.withProperty("keywords", new String[] { "physics", "chemistry" })
+					.withProperty("year", 2014)
+					.build());
+			exporter.importNode(GraphNode.builder()
+					.withKey("ands", "http://researchgraph.org/dataset/2")
+					.withLabel("dataset")
+					.withProperty("year", 2015L)
+					.build());
+			exporter.importRelationship(GraphRelationship.builder()
+					.withRelationship("relatedTo")
+					.withStart("ands", "http://researchgraph.org/dataset/1")
+					.withEnd("ands", "http://researchgraph.org/dataset/2")
+					.build());
+		}
+
+		// properties of a node have no order, so the columns are checked one by one
+		List<String> header = Arrays.asList(read(folder, "nodes-0-header.csv").get(0).split(","));
+		assertEquals("Should start with the node id", ":ID", header.get(0));
+		assertTrue("Should widen the year column: " + header, header.contains("year:long"));
+		assertTrue("Should write the array column: " + header, header.contains("keywords:string[]"));
+		assertTrue("Should write the string column: " + header, header.contains("title:string"));
+		List<String> nodes = read(folder, "nodes-0.csv");
+		assertEquals("Should export both nodes", 2, nodes.size());
+		assertTrue("Should quote a string with the delimiter: " + nodes.get(0),
+				nodes.get(0).contains(",\"Dataset; with \"\"quotes\"\", and a comma\""));
+		assertTrue("Should write the year: " + nodes.get(1), nodes.get(1).contains(",2015"));
+		assertTrue("Should join the array elements: " + nodes.get(0),
+				nodes.get(0).contains("\"physics\u001Fchemistry\"") || nodes.get(0).contains("\"chemistry\u001Fphysics\""));
+
+		assertEquals("Should export the relationship", "0,1,\"relatedTo\"", read(folder, "relationships.csv").get(0));
+		assertTrue("Should pass the array delimiter", read(folder, "import.args").contains("--array-delimiter \"\u001F\""));
+		assertEquals("Should create the constraint", "CREATE CONSTRAINT ON (n:`ands`) ASSERT n.`key` IS UNIQUE;",
+				read(folder, "schema.cypher").get(0));
+	}
+
+	@Test
+	public void delimiterTest() throws Exception {
+		File folder = Files.createTempDirectory("csv").toFile();
+
+		try (Neo4jCsvExporter exporter = new Neo4jCsvExporter(folder, false, 100)) {
+			exporter.importNode(GraphNode.builder()
+					.withKey("ands", "http://researchgraph.org/dataset/1")
+					.withProperty("keywords", "physics; theoretical")
+					.build());
+			exporter.importNode(GraphNode.builder()
+					.withKey("ands", "http://researchgraph.org/dataset/2")
+					.withProperty("keywords", new String[] { "physics; theoretical", "chemistry" })
+					.build());
+		}
+
+		List<String> nodes = read(folder, "nodes-0.csv");
+		assertTrue("Should keep the string value: " + nodes.get(0), nodes.get(0).contains("\"physics; theoretical\""));
+		assertTrue("Should keep the array element: " + nodes.get(1),
+				nodes.get(1).contains("\"physics; theoretical\u001Fchemistry\"")
+				|| nodes.get(1).contains("\"chemistry\u001Fphysics; theoretical\""));
+	}
+
+	@Test
+	public void mergeTest() throws Exception {
+		File folder = Files.createTempDirectory("csv").toFile();
+
+		try (Neo4jCsvExporter exporter = new Neo4jCsvExporter(folder, false, 100)) {
+			exporter.importNode(GraphNode.builder()
+					.withKey("ands", "http://researchgraph.org/dataset/1")
+					.withLabel("dataset")
+					.withProperty("title", "Dataset 1")
+					.build());
+			exporter.importNode(GraphNode.builder()
+					.withKey("ands", "http://researchgraph.org/dataset/2")
+					.withLabel("dataset")
+					.build());
+			// the later occurrence adds the label and the index and replaces the title
+			exporter.importNode(GraphNode.builder()
+					.withKey("ands", "http://researchgraph.org/dataset/1")
+					.withLabel("publication")
+					.withIndex("ands", "doi", "10.4225/1")
+					.withProperty("title", "Dataset 1 revised")
+					.build());
+			exporter.importRelationship(GraphRelationship.builder()
+					.withRelationship("relatedTo")
+					.withStart("ands", "http://researchgraph.org/dataset/2")
+					.withEnd("ands", "doi", "10.4225/1")
+					.build());
+		}
+
+		List<String> args = read(folder, "import.args");
+		assertTrue("Should export the merged labels: " + args, args.contains("--nodes:ands:dataset:publication nodes-0-header.csv,nodes-0.csv"));
+		assertEquals("Should export the other node alone", 1, read(folder, "nodes-1.csv").size());
+		List<String> nodes = read(folder, "nodes-0.csv");
+		assertEquals("Should export the merged node once", 1, nodes.size());
+		assertTrue("Should keep the node id: " + nodes.get(0), nodes.get(0).startsWith("0,"));
+		assertTrue("Should replace the title: " + nodes.get(0), nodes.get(0).contains("\"Dataset 1 revised\""));
+		assertTrue("Should add the index value: " + nodes.get(0), nodes.get(0).contains("\"10.4225/1\""));
+		assertEquals("Should resolve the merged index", "1,0,\"relatedTo\"", read(folder, "relationships.csv").get(0));
+	}
+}
@@ -0,0 +1,103 @@
+/**
+ *
+ */
+package org.rdswitchboard.libraries.graph.test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.researchgraph.graph.Graph;
+import org.researchgraph.graph.GraphKey;
+import org.researchgraph.graph.GraphNode;
+import org.researchgraph.graph.GraphRelationship;
+import org.researchgraph.graph.GraphSchema;
+import org.researchgraph.neo4j.Neo4jDatabase;
+
+/**
+ * Compares the Core API import path of Neo4jDatabase with the batched
+ * Cypher writer.
+ *
+ * Every path imports the same generated graphs into a new Neo4j instance,
+ * created in a temporary folder. The first graph only creates nodes and
+ * relationships, the second one updates half of them and creates the rest.
+ *
+ * Usage: CypherWriterBenchmark [nodes per graph] [cypher batch size]
+ */
+public class CypherWriterBenchmark {
+	private static final String SOURCE = "ands";
+	private static final String[] TYPES = { "dataset", "grant", "publication", "researcher" };
+	private static final int RELATIONSHIPS_PER_NODE = 2;
+
+	private static Graph generateGraph(int first, int count, long seed) {
+		Random random = new Random(seed);
+		Graph graph = new Graph();
+		graph.addSchema(new GraphSchema(SOURCE, "key", true));
+		graph.addSchema(new GraphSchema("doi", "doi", false));
+
+		for (int i = first; i < first + count; ++i) {
+			String type = TYPES[i % TYPES.length];
+			graph.addNode(GraphNode.builder()
+					.withKey(new GraphKey(SOURCE, "http://researchgraph.org/" + type + "/" + i))
+					.withLabel(SOURCE)
+					.withLabel(type)
+					.withIndex("doi", "doi", "10.4225/" + i)
+					.withProperty("title", "Title of " + type + " " + i)
+					.withProperty("year", 1990 + i % 30)
+					.build());
+
+			for (int j = 0; j < RELATIONSHIPS_PER_NODE; ++j) {
+				int other = random.nextInt(first + count);
+				graph.addRelationship(GraphRelationship.builder()
+						.withRelationship("relatedTo")
+						.withStart(SOURCE, "http://researchgraph.org/" + type + "/" + i)
+						.withEnd(SOURCE, "http://researchgraph.org/" + TYPES[other % TYPES.length] + "/" + other)
+						.build());
+			}
+		}
+
+		return graph;
+	}
+
+	private static long run(String name, int nodes, int cypherBatchSize) throws Exception {
+		File folder = Files.createTempDirectory("neo4j-benchmark").toFile();
+		new File(folder, "conf").mkdirs();
+		new File(folder, "conf/neo4j.conf").createNewFile();
+
+		Neo4jDatabase neo4j = new Neo4jDatabase(folder.getAbsolutePath());
+		neo4j.setCypherBatchSize(cypherBatchSize);
+
+		Graph created = generateGraph(0, nodes, 1);
+		Graph updated = generateGraph(nodes / 2, nodes, 2);
+
+		long markTime = System.currentTimeMillis();
+		neo4j.importGraph(created);
+		long createTime = System.currentTimeMillis() - markTime;
+
+		markTime = System.currentTimeMillis();
+		neo4j.importGraph(updated);
+		long updateTime = System.currentTimeMillis() - markTime;
+
+		System.out.println(name + ": create " + createTime + " ms, update " + updateTime + " ms");
+		neo4j.printStatistics(System.out);
+
+		return createTime + updateTime;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+		// warm up both paths
+		run("Core API (warm up)", nodes / 10, 0);
+		run("Cypher (warm up)", nodes / 10, batchSize);
+
+		long core = run("Core API", nodes, 0);
+		long cypher = run("Cypher UNWIND, batch " + batchSize, nodes, batchSize);
+
+		System.out.println(String.format("Core API: %d ms, Cypher UNWIND: %d ms, ratio %.2f",
+				core, cypher, (double) cypher / core));
+
+		System.exit(0);
+	}
+}
@@ -0,0 +1,118 @@
+/**
+ *
+ */
+package org.rdswitchboard.libraries.graph.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.researchgraph.graph.GraphKey;
+import org.researchgraph.graph.GraphNode;
+import org.researchgraph.graph.GraphRelationship;
+import org.researchgraph.neo4j.FanOutGuard;
+import org.researchgraph.neo4j.Neo4jCypherWriter;
+import org.researchgraph.neo4j.Neo4jDatabase;
+
+public class CypherWriterTest {
+
+	private static GraphNode dataset(int dataset) {
+		return GraphNode.builder()
+				.withKey("ands", "http://researchgraph.org/dataset/" + dataset)
+				.withLabel("dataset")
+				.withIndex("ands", "doi", "10.4225/shared")
+				.build();
+	}
+
+	@Test
+	public void countersTest() throws Exception {
+		Neo4jDatabase neo4j = new Neo4jDatabase(IndexUpdateTest.neo4jFolder().getAbsolutePath());
+		GraphDatabaseService graphDb = neo4j.getGraphDatabaseService();
+		try {
+			List<GraphNode> nodes = Arrays.asList(dataset(1), dataset(2), GraphNode.builder()
+					.withKey("ands", "http://researchgraph.org/publication/1")
+					.withLabel("publication")
+					.build());
+			// the DOI is shared by both datasets, so the relationship fans out to two of them
+			List<GraphRelationship> relationships = Collections.singletonList(GraphRelationship.builder()
+					.withRelationship("relatedTo")
+					.withStart("ands", "http://researchgraph.org/publication/1")
+					.withEnd(new GraphKey("ands", "doi", "10.4225/shared"))
+					.build());
+
+			for (int run = 0; run < 2; ++run) {
+				Neo4jCypherWriter writer = new Neo4jCypherWriter(graphDb, 100);
+				try (Transaction tx = graphDb.beginTx()) {
+					writer.writeNodes(nodes);
+					assertTrue("Should match both ends", writer.writeRelationships(relationships).isEmpty());
+					tx.success();
+				}
+
+				assertEquals("Should count created nodes in run " + run, 0 == run ? 3 : 0, writer.getNodesCreated());
+				assertEquals("Should count updated nodes in run " + run, 0 == run ? 0 : 3, writer.getNodesUpdated());
+				assertEquals("Should count created relationships in run " + run, 0 == run ? 2 : 0,
+						writer.getRelationshipsCreated());
+				assertEquals("Should count updated relationships in run " + run, 0 == run ? 0 : 2,
+						writer.getRelationshipsUpdated());
+			}
+		} finally {
+			graphDb.shutdown();
+		}
+	}
+
+	private static GraphRelationship relatedTo(int publication, GraphKey end) {
+		return GraphRelationship.builder()
+				.withRelationship("relatedTo")
+				.withStart("ands", "http://researchgraph.org/publication/" + publication)
+				.withEnd(end)
+				.build();
+	}
+
+	@Test
+	public void fanOutTest() throws Exception {
+		Neo4jDatabase neo4j = new Neo4jDatabase(IndexUpdateTest.neo4jFolder().getAbsolutePath());
+		GraphDatabaseService graphDb = neo4j.getGraphDatabaseService();
+		try {
+			List<GraphNode> nodes = Arrays.asList(dataset(1), dataset(2), dataset(3), GraphNode.builder()
+					.withKey("ands", "http://researchgraph.org/publication/1")
+					.withLabel("publication")
+					.build());
+			GraphKey doi = new GraphKey("ands", "doi", "10.4225/shared");
+			GraphKey unknown = new GraphKey("ands", "doi", "10.4225/unknown");
+
+			FanOutGuard truncate = new FanOutGuard(2, FanOutGuard.Policy.truncate, 10);
+			Neo4jCypherWriter writer = new Neo4jCypherWriter(graphDb, 100);
+			writer.setFanOutGuard(truncate);
+			try (Transaction tx = graphDb.beginTx()) {
+				writer.writeNodes(nodes);
+				List<GraphRelationship> unmatched = writer.writeRelationships(
+						Arrays.asList(relatedTo(1, doi), relatedTo(1, unknown)));
+				assertEquals("Should return the relationship with unknown node", 1, unmatched.size());
+				assertEquals("Should return the relationship with unknown node", unknown, unmatched.get(0).getEnd());
+				tx.success();
+			}
+			assertEquals("Should merge only the first pairs", 2, writer.getRelationshipsCreated());
+			assertEquals("Should account the matched relationship", 1, truncate.getRelationships());
+			assertEquals("Should account the truncated pairs", 1, truncate.getTruncatedPairs());
+
+			FanOutGuard skip = new FanOutGuard(2, FanOutGuard.Policy.skip, 10);
+			writer = new Neo4jCypherWriter(graphDb, 100);
+			writer.setFanOutGuard(skip);
+			try (Transaction tx = graphDb.beginTx()) {
+				assertTrue("Should not return skipped relationship", 
+						writer.writeRelationships(Collections.singletonList(relatedTo(1, doi))).isEmpty());
+				tx.success();
+			}
+			assertEquals("Should skip the relationship", 1, skip.getSkipped());
+			assertEquals("Should not merge skipped relationship", 0, 
+					writer.getRelationshipsCreated() + writer.getRelationshipsUpdated());
+		} finally {
+			graphDb.shutdown();
+		}
+	}
+}
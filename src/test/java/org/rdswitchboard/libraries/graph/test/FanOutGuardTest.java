@@ -0,0 +1,88 @@
+/**
+ *
+ */
+package org.rdswitchboard.libraries.graph.test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+import org.researchgraph.graph.GraphKey;
+import org.researchgraph.graph.GraphRelationship;
+import org.researchgraph.neo4j.FanOutGuard;
+
+public class FanOutGuardTest {
+
+	private static GraphRelationship relationship(int n) {
+		return GraphRelationship.builder()
+				.withRelationship("relatedTo")
+				.withStart("ands", "http://researchgraph.org/publication/" + n)
+				.withEnd(new GraphKey("ands", "doi", "10.4225/" + n))
+				.build();
+	}
+
+	@Test
+	public void policyTest() {
+		FanOutGuard truncate = new FanOutGuard(10, FanOutGuard.Policy.truncate, 0);
+		assertEquals("Should merge a single pair", 1, truncate.check(relationship(1), 1, 1));
+		assertEquals("Should merge pairs within the limit", 10, truncate.check(relationship(2), 2, 5));
+		assertEquals("Should truncate pairs over the limit", 10, truncate.check(relationship(3), 4, 5));
+		assertEquals("Should count truncated pairs", 10, truncate.getTruncatedPairs());
+		assertEquals("Should count exceeded relationships", 1, truncate.getExceeded());
+		assertEquals("Should count expanded relationships", 2, truncate.getExpanded());
+		assertEquals("Should count all pairs", 31, truncate.getPairs());
+
+		FanOutGuard skip = new FanOutGuard(10, FanOutGuard.Policy.skip, 0);
+		assertEquals("Should skip relationship over the limit", 0, skip.check(relationship(3), 4, 5));
+		assertEquals("Should count skipped relationships", 1, skip.getSkipped());
+
+		FanOutGuard log = new FanOutGuard(10, FanOutGuard.Policy.log, 0);
+		assertEquals("Should merge all pairs of logged relationship", 20, log.check(relationship(3), 4, 5));
+		assertTrue("Should report fan-out over the limit", log.isExceeded(20));
+		assertFalse("Should not report fan-out within the limit", log.isExceeded(10));
+
+		FanOutGuard unlimited = new FanOutGuard(0, FanOutGuard.Policy.skip, 0);
+		assertEquals("Should not limit fan-out without maximum", 1000000, unlimited.check(relationship(4), 1000, 1000));
+		assertFalse("Should never be exceeded without maximum", unlimited.isExceeded(Long.MAX_VALUE));
+		assertEquals("Should keep the maximal fan-out", 1000000, unlimited.getMaxSeen());
+	}
+
+	@Test
+	public void reportTest() {
+		FanOutGuard guard = new FanOutGuard(0, FanOutGuard.Policy.log, 2);
+		for (int n = 1; n <= 5; ++n)
+			guard.check(relationship(n), n, 2);
+		assertEquals("Should count relationships", 5, guard.getRelationships());
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		guard.printReport(new PrintStream(bytes, true));
+		String report = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+
+		int worst = report.indexOf("5 x 2 = 10 pairs");
+		int second = report.indexOf("4 x 2 = 8 pairs");
+		assertTrue("Should report the worst relationship: " + report, worst >= 0);
+		assertTrue("Should report the worst relationship first: " + report, second > worst);
+		assertFalse("Should keep only the worst relationships: " + report, report.contains("3 x 2 = 6 pairs"));
+		assertTrue("Should format the keys: " + report, report.contains("(ands.doi.10.4225/5)"));
+	}
+
+	@Test
+	public void argumentsTest() {
+		try {
+			new FanOutGuard(-1, FanOutGuard.Policy.log, 0);
+			fail("Should reject negative maximal fan-out");
+		} catch (IllegalArgumentException e) {
+			assertTrue("Should explain the rejection", e.getMessage().contains("negative"));
+		}
+
+		try {
+			new FanOutGuard(10, null, 0);
+			fail("Should reject missing policy");
+		} catch (IllegalArgumentException e) {
+			assertTrue("Should explain the rejection", e.getMessage().contains("policy"));
+		}
+	}
+}
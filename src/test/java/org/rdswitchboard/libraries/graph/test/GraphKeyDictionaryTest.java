@@ -0,0 +1,63 @@
+/**
+ *
+ */
+package org.rdswitchboard.libraries.graph.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Iterator;
+
+import org.junit.Test;
+import org.researchgraph.graph.GraphKey;
+import org.researchgraph.graph.GraphKeyDictionary;
+
+public class GraphKeyDictionaryTest {
+
+	@Test
+	public void dictionaryTest() {
+		GraphKeyDictionary dictionary = new GraphKeyDictionary();
+
+		for (int i = 0; i < 1000; ++i) {
+			assertEquals("Should assign dense ids",
+					i,
+					dictionary.add(new GraphKey("ands", "http://purl.org/au-research/grants/arc/DP" + i)));
+		}
+
+		assertEquals("Should return existing id",
+				17,
+				dictionary.add(new GraphKey("ands", "http://purl.org/au-research/grants/arc/DP17")));
+
+		assertEquals("Should keep keys from different indexes apart",
+				1000,
+				dictionary.add(new GraphKey("ands", "doi", "http://purl.org/au-research/grants/arc/DP17")));
+
+		assertEquals("Should find a key",
+				999,
+				dictionary.getId(new GraphKey("ands", "http://purl.org/au-research/grants/arc/DP999")));
+
+		assertEquals("Should not find an unknown key",
+				-1,
+				dictionary.getId(new GraphKey("ands", "http://purl.org/au-research/grants/arc/DP1000")));
+
+		assertEquals("Should not find a key with shorter value",
+				-1,
+				dictionary.getId(new GraphKey("ands", "http://purl.org/au-research/grants/arc/DP")));
+
+		assertEquals("Should decode a compressed key",
+				new GraphKey("ands", "http://purl.org/au-research/grants/arc/DP21"),
+				dictionary.getKey(21));
+
+		assertEquals("Should decode a key with non ASCII characters",
+				new GraphKey("nla", "http://nla.gov.au/nla.party-Müller"),
+				dictionary.getKey(dictionary.add(new GraphKey("nla", "http://nla.gov.au/nla.party-Müller"))));
+
+		Iterator<GraphKey> keys = dictionary.iterator();
+		for (int i = 0; i < 1000; ++i) {
+			assertEquals("Should iterate keys in order of ids",
+					new GraphKey("ands", "http://purl.org/au-research/grants/arc/DP" + i),
+					keys.next());
+		}
+
+		assertEquals("Should count all keys", 1002, dictionary.size());
+	}
+}
@@ -0,0 +1,59 @@
+/**
+ *
+ */
+package org.rdswitchboard.libraries.graph.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+import org.researchgraph.graph.GraphKey;
+import org.researchgraph.graph.GraphNode;
+import org.researchgraph.neo4j.Neo4jDatabase;
+import org.researchgraph.neo4j.Neo4jGraphSink;
+
+public class GraphSinkTest {
+
+	private static GraphNode node(String label, int n) {
+		return GraphNode.builder()
+				.withKey(new GraphKey(label, "http://researchgraph.org/dataset/" + n))
+				.withLabel("dataset")
+				.build();
+	}
+
+	@Test
+	public void failedBatchTest() throws Exception {
+		Neo4jDatabase neo4j = new Neo4jDatabase(IndexUpdateTest.neo4jFolder().getAbsolutePath());
+		try {
+			Neo4jGraphSink sink = neo4j.openSink(10);
+			sink.addNode(node("ands", 1));
+			// the empty label is rejected by the import
+			sink.addNode(node("", 2));
+			try {
+				sink.flush();
+				fail("Should pass the import failure");
+			} catch (IllegalArgumentException e) {
+				assertTrue("Should explain the failure: " + e.getMessage(), e.getMessage().contains("Label"));
+			}
+			assertEquals("Should not count the failed batch", 0, sink.getBatchesImported());
+
+			// the failed batch must not be imported again
+			sink.close();
+			assertEquals("Should not import the released batch", 0, sink.getBatchesImported());
+
+			sink.addNode(node("ands", 3));
+			sink.close();
+			assertEquals("Should import the next batch", 1, sink.getBatchesImported());
+			neo4j.commit();
+
+			GraphDatabaseService graphDb = neo4j.getGraphDatabaseService();
+			try (Transaction tx = graphDb.beginTx(); Result result = graphDb.execute("MATCH (n:ands) RETURN count(n) AS n")) {
+				assertEquals("Should import only the next batch", 1L, result.next().get("n"));
+			}
+		} finally {
+			neo4j.shutdown();
+		}
+	}
+}
@@ -0,0 +1,140 @@
+/**
+ * 
+ */
+package org.rdswitchboard.libraries.graph.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.researchgraph.graph.GraphUtils;
+
+/**
+ * Compares identifier extraction in GraphUtils with the regular expressions 
+ * it used before.
+ * 
+ * The regular expression versions are kept here as a reference, the test 
+ * uses them to verify what GraphUtils returns exactly the same values.
+ * 
+ * Usage: GraphUtilsBenchmark [iterations]
+ */
+public class GraphUtilsBenchmark {
+	private static final Pattern patternDoi = Pattern.compile("\\d+(\\.\\d+)*/.+$");
+	private static final Pattern patternOrcid = Pattern.compile("\\d{4}-\\d{4}-\\d{4}-\\d{3}(\\d|X)");
+	private static final Pattern patternScopusAuthor = Pattern.compile("author[iI][dD]=\\d+");
+	private static final Pattern patternScopusPartner = Pattern.compile("partner[iI][dD]=[A-Z0-9]+");
+	private static final Pattern patternScopusEID = Pattern.compile("eid=[a-z0-9\\-\\.]+");
+	
+	private static final String[] SAMPLES = {
+		"http://orcid.org/0000-0003-0846-3352",
+		"http://orcid.org/0000-0003-0846-335X",
+		"http://dx.doi.org/10.1371/journal.pone.0019001",
+		"doi:10.1371/journal.pone.0019001",
+		"http://journals.aps.org/prb/abstract/10.1103/PhysRevB.90.104106",
+		"http://www.scopus.com/inward/authorDetails.url?authorID=26538571500&partnerID=MN8TOARS",
+		"http://www.scopus.com/inward/record.url?eid=2-s2.0-0036045752&partnerID=MN8TOARS",
+		"http://purl.org/au-research/grants/arc/DP0987282",
+		"http://nla.gov.au/nla.party-1475281"
+	};
+	
+	public static String extractOrcidId(String str) {
+		if (null != str && !str.isEmpty()) {
+			Matcher matcher = patternOrcid.matcher(str);
+			if (matcher.find())
+				return matcher.group();
+		}
+		
+		return null;
+	}
+	
+	public static String extractDoi(String str) {
+		if (null != str && !str.isEmpty()) {
+			int pos = str.indexOf("doi:");
+			if (pos >= 0) 
+				str = str.substring(pos + 4);
+			
+			pos = str.indexOf("dx.doi.org/");
+			if (pos >= 0) 
+				str = str.substring(pos + 11);
+			
+			Matcher matcher = patternDoi.matcher(str);
+			if (matcher.find()) 
+				return matcher.group();
+		}
+		
+		return null;
+	}
+	
+	public static String extractScopusAuthorId(String str) {
+		return extractScopus(str, patternScopusAuthor);
+	}
+
+	public static String extractScopusPartnerId(String str) {
+		return extractScopus(str, patternScopusPartner);
+	}
+
+	public static String extractScopusEID(String str) {
+		return extractScopus(str, patternScopusEID);
+	}
+	
+	private static String extractScopus(String str, Pattern pattern) {
+		if (null != str && !str.isEmpty()) {
+			Matcher matcher = pattern.matcher(str);
+			if (matcher.find()) {
+				String scopus = matcher.group();
+				return scopus.substring(scopus.indexOf('=') + 1);
+			}
+			
+			return str;
+		}
+		
+		return null;
+	}
+	
+	public static void main(String[] args) {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		
+		List<String> samples = new ArrayList<String>();
+		Random random = new Random(42);
+		for (int i = 0; i < 1000; ++i) 
+			samples.add(SAMPLES[random.nextInt(SAMPLES.length)] + "?q=" + random.nextInt());
+		
+		// warm up both implementations
+		run(samples, iterations / 10, true);
+		run(samples, iterations / 10, false);
+		
+		long regex = run(samples, iterations, true);
+		long scanner = run(samples, iterations, false);
+		
+		System.out.println("Regex: " + regex / 1000000 + " ms");
+		System.out.println("Scanner: " + scanner / 1000000 + " ms");
+		System.out.println("Speedup: " + String.format("%.2f", (double) regex / scanner));
+	}
+	
+	private static long run(List<String> samples, int iterations, boolean regex) {
+		long hash = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; ++i) {
+			String str = samples.get(i % samples.size());
+			if (regex) 
+				hash += hash(extractOrcidId(str)) + hash(extractDoi(str)) + hash(extractScopusAuthorId(str)) 
+					+ hash(extractScopusPartnerId(str)) + hash(extractScopusEID(str));
+			else
+				hash += hash(GraphUtils.extractOrcidId(str)) + hash(GraphUtils.extractDoi(str)) + hash(GraphUtils.extractScopusAuthorId(str)) 
+					+ hash(GraphUtils.extractScopusPartnerId(str)) + hash(GraphUtils.extractScopusEID(str));
+		}
+		long time = System.nanoTime() - start;
+		
+		// prevent the JIT from removing the loop
+		if (hash == 42)
+			System.out.println();
+		
+		return time;
+	}
+	
+	private static int hash(String str) {
+		return null == str ? 0 : str.hashCode();
+	}
+}
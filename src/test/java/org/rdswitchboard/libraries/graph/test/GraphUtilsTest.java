@@ -5,6 +5,8 @@ package org.rdswitchboard.libraries.graph.test;
 
 import static org.junit.Assert.*;
 
+import java.util.Random;
+
 import org.junit.Test;
 import org.researchgraph.graph.GraphUtils;
 
@@ -94,6 +96,27 @@ public class GraphUtilsTest {
 	}
 
 	
+	@Test
+	public void identifierTest() {
+		assertEquals("Should recognize ORCID URI", GraphUtils.PROPERTY_ORCID_ID, 
+				GraphUtils.getIdentifierProperty("http://orcid.org/0000-0003-0846-3352"));
+		assertEquals("Should recognize ORCID ID", GraphUtils.PROPERTY_ORCID_ID, 
+				GraphUtils.getIdentifierProperty("0000-0002-1694-233X"));
+		assertEquals("Should recognize DOI URI", GraphUtils.PROPERTY_DOI, 
+				GraphUtils.getIdentifierProperty("https://doi.org/10.4225/08/5B0C8E2F1B6B0"));
+		assertEquals("Should recognize DOI", GraphUtils.PROPERTY_DOI, 
+				GraphUtils.getIdentifierProperty("10.4049/jimmunol.1101206"));
+		assertEquals("Should recognize PURL", GraphUtils.PROPERTY_PURL, 
+				GraphUtils.getIdentifierProperty("http://purl.org/au-research/grants/arc/DP0987282"));
+		assertNull("Should not recognize record key as an identifier", 
+				GraphUtils.getIdentifierProperty("http://researchgraph.org/ands/10.4225-08-5b0c8e2f1b6b0"));
+		
+		assertEquals("Should extract DOI from DOI URI", "10.4225/08/5B0C8E2F1B6B0", 
+				GraphUtils.extractIdentifier(GraphUtils.PROPERTY_DOI, "https://doi.org/10.4225/08/5B0C8E2F1B6B0"));
+		assertEquals("Should extract PURL in the form of the node property", "purl.org/au-research/grants/arc/DP0987282", 
+				GraphUtils.extractIdentifier(GraphUtils.PROPERTY_PURL, "http://purl.org/au-research/grants/arc/DP0987282/"));
+	}
+	
 	@Test
 	public void scopusTest() {
 			assertEquals("Should be able to extract Scopus Author Id", 
@@ -117,4 +140,34 @@ public class GraphUtilsTest {
 				GraphUtils.generateScopusUri("26538571500"));
 	}
 
+	@Test
+	public void scannerTest() {
+		final String alphabet = "0123456789X-./:=?& \n\r\u0085\u2028abdeiortnpIDA";
+		final String[] parts = { "0000-0003-0846-335", "10.1371/", "doi:", "dx.doi.org/", 
+				"authorID=", "authorId=", "partnerID=", "eid=", "2-s2.0-", "..", "\r\n" };
+		
+		Random random = new Random(42);
+		for (int i = 0; i < 100000; ++i) {
+			StringBuilder sb = new StringBuilder();
+			int length = random.nextInt(40);
+			for (int j = 0; j < length; ++j) {
+				if (random.nextInt(4) == 0)
+					sb.append(parts[random.nextInt(parts.length)]);
+				else
+					sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+			}
+			String str = sb.toString();
+			
+			assertEquals("Should extract the same ORCID ID as the regular expression: " + str, 
+					GraphUtilsBenchmark.extractOrcidId(str), GraphUtils.extractOrcidId(str));
+			assertEquals("Should extract the same DOI as the regular expression: " + str, 
+					GraphUtilsBenchmark.extractDoi(str), GraphUtils.extractDoi(str));
+			assertEquals("Should extract the same Scopus Author Id as the regular expression: " + str, 
+					GraphUtilsBenchmark.extractScopusAuthorId(str), GraphUtils.extractScopusAuthorId(str));
+			assertEquals("Should extract the same Scopus Partner Id as the regular expression: " + str, 
+					GraphUtilsBenchmark.extractScopusPartnerId(str), GraphUtils.extractScopusPartnerId(str));
+			assertEquals("Should extract the same Scopus EID as the regular expression: " + str, 
+					GraphUtilsBenchmark.extractScopusEID(str), GraphUtils.extractScopusEID(str));
+		}
+	}
 }
@@ -0,0 +1,144 @@
+/**
+ *
+ */
+package org.rdswitchboard.libraries.graph.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+import org.researchgraph.graph.Graph;
+import org.researchgraph.graph.GraphKey;
+import org.researchgraph.graph.GraphNode;
+import org.researchgraph.graph.GraphRelationship;
+import org.researchgraph.graph.GraphSchema;
+import org.researchgraph.graph.interfaces.GraphImporter;
+import org.researchgraph.neo4j.Neo4jBulkImporter;
+import org.researchgraph.neo4j.Neo4jDatabase;
+
+public class IndexUpdateTest {
+	private static final String DATASET = "http://researchgraph.org/dataset/1";
+
+	static File neo4jFolder() throws IOException {
+		File folder = Files.createTempDirectory("neo4j").toFile();
+		new File(folder, "conf").mkdirs();
+		new File(folder, "conf/neo4j.conf").createNewFile();
+		return folder;
+	}
+
+	private static Graph datasetGraph(String doi) {
+		Graph graph = new Graph();
+		graph.addSchema(new GraphSchema("ands", "key", true));
+		graph.addSchema(new GraphSchema("ands", "doi", false));
+		graph.addNode(GraphNode.builder()
+				.withKey("ands", DATASET)
+				.withLabel("dataset")
+				.withIndex("ands", "doi", doi)
+				.withProperty("title", "Dataset")
+				.build());
+		return graph;
+	}
+
+	private static Graph publicationGraph(int publication, String doi) {
+		Graph graph = new Graph();
+		graph.addNode(GraphNode.builder()
+				.withKey("ands", "http://researchgraph.org/publication/" + publication)
+				.withLabel("publication")
+				.build());
+		graph.addRelationship(GraphRelationship.builder()
+				.withRelationship("relatedTo")
+				.withStart("ands", "http://researchgraph.org/publication/" + publication)
+				.withEnd(new GraphKey("ands", "doi", doi))
+				.build());
+		return graph;
+	}
+
+	/**
+	 * Imports a dataset, what changes its DOI on the second import
+	 */
+	static void importDoiChange(GraphImporter importer, Runnable commit) {
+		importer.importGraph(datasetGraph("10.4225/a"));
+		commit.run();
+		// resolved through the old DOI
+		importer.importGraph(publicationGraph(0, "10.4225/a"));
+		// waits for the new DOI
+		importer.importGraph(publicationGraph(1, "10.4225/b"));
+		commit.run();
+
+		importer.importGraph(datasetGraph("10.4225/b"));
+		commit.run();
+		// the old DOI does not exist anymore
+		importer.importGraph(publicationGraph(2, "10.4225/a"));
+		commit.run();
+	}
+
+	static void checkDoiChange(GraphDatabaseService graphDb) {
+		try (Transaction tx = graphDb.beginTx()) {
+			try (Result result = graphDb.execute("MATCH (n:ands {key: {key}}) RETURN n.doi AS doi",
+					java.util.Collections.<String, Object>singletonMap("key", DATASET))) {
+				assertEquals("Should write the new DOI", "10.4225/b", result.next().get("doi"));
+			}
+
+			for (int publication = 0; publication < 3; ++publication)
+				try (Result result = graphDb.execute("MATCH (p:ands {key: {key}})-[r:relatedTo]->() RETURN count(r) AS n",
+						java.util.Collections.<String, Object>singletonMap("key", "http://researchgraph.org/publication/" + publication))) {
+					Map<String, Object> row = result.next();
+					assertEquals("Should resolve publication " + publication + " by the DOI of that time",
+							publication < 2 ? 1L : 0L, row.get("n"));
+				}
+		}
+	}
+
+	@Test
+	public void neo4jTest() throws Exception {
+		Neo4jDatabase neo4j = new Neo4jDatabase(neo4jFolder().getAbsolutePath());
+		try {
+			importDoiChange(neo4j, neo4j::commit);
+
+			checkDoiChange(neo4j.getGraphDatabaseService());
+			assertEquals("Should update the dataset", 1, neo4j.getNodesUpdated());
+		} finally {
+			neo4j.getGraphDatabaseService().shutdown();
+		}
+	}
+
+	@Test
+	public void cypherTest() throws Exception {
+		Neo4jDatabase neo4j = new Neo4jDatabase(neo4jFolder().getAbsolutePath());
+		try {
+			neo4j.setCypherBatchSize(100);
+			importDoiChange(neo4j, neo4j::commit);
+
+			checkDoiChange(neo4j.getGraphDatabaseService());
+			assertEquals("Should update the dataset", 1, neo4j.getNodesUpdated());
+		} finally {
+			neo4j.getGraphDatabaseService().shutdown();
+		}
+	}
+
+	@Test
+	public void bulkTest() throws Exception {
+		File folder = neo4jFolder();
+		Neo4jBulkImporter importer = new Neo4jBulkImporter(folder.getAbsolutePath(), 1000);
+		try {
+			importDoiChange(importer, () -> {});
+		} finally {
+			importer.close();
+		}
+		assertEquals("Should update the dataset", 1, importer.getNodesUpdated());
+
+		Neo4jDatabase neo4j = new Neo4jDatabase(folder.getAbsolutePath());
+		try {
+			checkDoiChange(neo4j.getGraphDatabaseService());
+		} finally {
+			neo4j.getGraphDatabaseService().shutdown();
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/**
+ *
+ */
+package org.rdswitchboard.libraries.graph.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+import org.researchgraph.graph.Graph;
+import org.researchgraph.graph.GraphKey;
+import org.researchgraph.graph.GraphNode;
+import org.researchgraph.graph.GraphSchema;
+import org.researchgraph.neo4j.Neo4jDatabase;
+import org.researchgraph.neo4j.NodeIdCache;
+
+public class NodeIdCacheTest {
+
+	private static GraphKey key(int n) {
+		return new GraphKey("ands", "http://purl.org/au-research/grants/arc/DP" + n);
+	}
+
+	@Test
+	public void cacheTest() {
+		NodeIdCache cache = new NodeIdCache(100);
+
+		for (int i = 0; i < 100; ++i)
+			cache.put(key(i), i);
+		cache.commit();
+
+		assertEquals("Should find a cached node id", 42, cache.get(key(42)));
+		assertEquals("Should not find an unknown key", -1, cache.get(key(100)));
+
+		// only the keys 0..9 are used since the cache was filled
+		for (int i = 0; i < 10; ++i)
+			cache.get(key(i));
+		for (int i = 100; i < 150; ++i)
+			cache.put(key(i), i);
+		cache.commit();
+
+		assertEquals("Should never exceed capacity", 100, cache.size());
+		assertEquals("Should keep recently used key", 5, cache.get(key(5)));
+		assertEquals("Should keep the newest key", 149, cache.get(key(149)));
+
+		for (int i = 0; i < 150; ++i) {
+			long nodeId = cache.get(key(i));
+			assertTrue("Should map key to it node id", nodeId == -1 || nodeId == i);
+		}
+
+		cache.put(key(1000), 1000);
+		cache.put(key(5), 5000);
+		cache.rollback();
+
+		assertEquals("Should remove keys added by rolled back transaction", -1, cache.get(key(1000)));
+		assertEquals("Should remove keys updated by rolled back transaction", -1, cache.get(key(5)));
+		assertEquals("Should keep committed keys", 149, cache.get(key(149)));
+	}
+
+	@Test
+	public void deletedNodeTest() throws Exception {
+		Neo4jDatabase neo4j = new Neo4jDatabase(IndexUpdateTest.neo4jFolder().getAbsolutePath());
+		GraphDatabaseService graphDb = neo4j.getGraphDatabaseService();
+		try {
+			Graph graph = new Graph();
+			graph.addSchema(new GraphSchema("ands", "key", true));
+			graph.addNode(GraphNode.builder()
+					.withKey(key(1))
+					.withLabel("grant")
+					.build());
+			neo4j.importGraph(graph);
+			assertTrue("Should cache the node", neo4j.getNodeCache().get(key(1)) >= 0);
+
+			// the node is deleted by other application, the cache still has its id
+			try (Transaction tx = graphDb.beginTx()) {
+				graphDb.execute("MATCH (n:ands) DETACH DELETE n").close();
+				tx.success();
+			}
+
+			neo4j.importGraph(graph);
+			assertEquals("Should create the node again", 2, neo4j.getNodesCreated());
+			try (Transaction tx = graphDb.beginTx()) {
+				try (Result result = graphDb.execute("MATCH (n:ands) RETURN count(n) AS n")) {
+					assertEquals("Should find the new node", 1L, result.next().get("n"));
+				}
+			}
+		} finally {
+			graphDb.shutdown();
+		}
+	}
+}
@@ -0,0 +1,53 @@
+/**
+ *
+ */
+package org.rdswitchboard.libraries.graph.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.researchgraph.graph.GraphKey;
+import org.researchgraph.neo4j.NodeKeyFilter;
+
+public class NodeKeyFilterTest {
+
+	private static GraphKey key(int n) {
+		return new GraphKey("ands", "http://purl.org/au-research/grants/arc/DP" + n);
+	}
+
+	@Test
+	public void filterTest() {
+		NodeKeyFilter filter = new NodeKeyFilter(1000, 0.01);
+
+		for (int i = 0; i < 10000; ++i)
+			filter.add(key(i));
+
+		assertEquals("Should count all keys", 10000, filter.size());
+
+		for (int i = 0; i < 10000; ++i)
+			assertTrue("Should never reject an added key", filter.mightContain(key(i)));
+
+		int falsePositives = 0;
+		for (int i = 10000; i < 20000; ++i)
+			if (filter.mightContain(key(i)))
+				++falsePositives;
+
+		assertTrue("Should keep false positive rate below twice the rate of the first filter: " + falsePositives,
+				falsePositives < 200);
+		assertTrue("Should estimate false positive rate",
+				filter.getExpectedFalsePositiveProbability() < 0.02);
+	}
+
+	@Test
+	public void firstStageTest() {
+		NodeKeyFilter filter = new NodeKeyFilter(10000, 0.01);
+
+		for (int i = 0; i < 10000; ++i)
+			filter.add(key(i));
+
+		// the first filter is sized for the given probability, not for a half of it
+		double probability = filter.getExpectedFalsePositiveProbability();
+		assertTrue("Should size the first filter for the given probability: " + probability,
+				probability > 0.007 && probability < 0.012);
+	}
+}
@@ -0,0 +1,111 @@
+/**
+ *
+ */
+package org.rdswitchboard.libraries.graph.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.Test;
+import org.researchgraph.graph.Graph;
+import org.researchgraph.graph.GraphKey;
+import org.researchgraph.graph.GraphNode;
+import org.researchgraph.graph.GraphSchema;
+import org.researchgraph.graph.interfaces.GraphImportSession;
+import org.researchgraph.neo4j.Neo4jDatabase;
+import org.researchgraph.neo4j.NodeKeyIndex;
+
+public class NodeKeyIndexTest {
+	private static final long STORE_ID = 42;
+	private static final long CREATION_TIME = 1000;
+
+	private static GraphKey key(int n) {
+		return new GraphKey("ands", "http://researchgraph.org/dataset/" + n);
+	}
+
+	@Test
+	public void formatTest() throws Exception {
+		File file = new File(Files.createTempDirectory("index").toFile(), "keys.idx");
+
+		// more keys than the minimal capacity can hold, so the index will grow
+		try (NodeKeyIndex index = new NodeKeyIndex(file, STORE_ID, CREATION_TIME, 5)) {
+			assertFalse("Should not reset a new index", index.isReset());
+			for (int i = 0; i < 50000; ++i)
+				index.put(key(i), i);
+			index.commit(6);
+
+			index.put(key(50000), 50000);
+			index.rollback();
+			index.committed(7);
+		}
+
+		try (NodeKeyIndex index = new NodeKeyIndex(file, STORE_ID, CREATION_TIME, 7)) {
+			assertFalse("Should keep index of the same store", index.isReset());
+			assertEquals("Should keep committed keys", 50000, index.size());
+			assertEquals("Should find key after the reopen", 42, index.get(key(42)));
+			assertEquals("Should find key written after the grow", 49999, index.get(key(49999)));
+			assertEquals("Should not keep rolled back key", -1, index.get(key(50000)));
+		}
+
+		try (NodeKeyIndex index = new NodeKeyIndex(file, STORE_ID, CREATION_TIME, 8)) {
+			assertTrue("Should reset index, if the store has been changed", index.isReset());
+			assertEquals("Should discard keys of the reset index", 0, index.size());
+			assertEquals("Should not find discarded key", -1, index.get(key(42)));
+
+			index.put(key(1), 1);
+			index.commit(9);
+		}
+
+		try (NodeKeyIndex index = new NodeKeyIndex(file, STORE_ID + 1, CREATION_TIME, 9)) {
+			assertTrue("Should reset index of a different store", index.isReset());
+		}
+
+		// the index is left open, as if the application has been terminated
+		NodeKeyIndex dirty = new NodeKeyIndex(file, STORE_ID, CREATION_TIME, 9);
+		dirty.put(key(1), 1);
+		dirty.commit(10);
+		try (NodeKeyIndex index = new NodeKeyIndex(file, STORE_ID, CREATION_TIME, 10)) {
+			assertTrue("Should reset index, what has not been closed", index.isReset());
+		}
+	}
+
+	@Test
+	public void sessionTest() throws Exception {
+		File folder = IndexUpdateTest.neo4jFolder();
+
+		Neo4jDatabase neo4j = new Neo4jDatabase(folder.getAbsolutePath());
+		try {
+			neo4j.openKeyIndex();
+
+			Graph graph = new Graph();
+			graph.addSchema(new GraphSchema("ands", "key", true));
+			graph.addNode(GraphNode.builder()
+					.withKey(key(1))
+					.withLabel("dataset")
+					.build());
+			neo4j.importGraph(graph);
+			neo4j.commit();
+
+			// transactions of the session are committed without the key index
+			try (GraphImportSession session = neo4j.openSession(10)) {
+				session.importNode(GraphNode.builder()
+						.withKey(key(2))
+						.withLabel("dataset")
+						.build());
+			}
+		} finally {
+			neo4j.shutdown();
+		}
+
+		neo4j = new Neo4jDatabase(folder.getAbsolutePath());
+		try {
+			NodeKeyIndex index = neo4j.openKeyIndex();
+			assertFalse("Should keep index, what has been closed after the session", index.isReset());
+			assertTrue("Should find node imported by the Core API", index.get(key(1)) >= 0);
+		} finally {
+			neo4j.shutdown();
+		}
+	}
+}
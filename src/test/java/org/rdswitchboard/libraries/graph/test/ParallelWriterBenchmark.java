@@ -0,0 +1,107 @@
+/**
+ *
+ */
+package org.rdswitchboard.libraries.graph.test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.researchgraph.graph.Graph;
+import org.researchgraph.graph.GraphKey;
+import org.researchgraph.graph.GraphNode;
+import org.researchgraph.graph.GraphRelationship;
+import org.researchgraph.graph.GraphSchema;
+import org.researchgraph.neo4j.Neo4jDatabase;
+
+/**
+ * Measures scaling of the parallel writer with the number of writer threads.
+ *
+ * Every run imports the same generated graphs into a new Neo4j instance,
+ * created in a temporary folder. A part of the relationships ends in a few
+ * hub nodes, so the writers compete for the same node locks.
+ *
+ * Usage: ParallelWriterBenchmark [nodes per graph] [batch size]
+ */
+public class ParallelWriterBenchmark {
+	private static final String SOURCE = "ands";
+	private static final String[] TYPES = { "dataset", "grant", "publication", "researcher" };
+	private static final int RELATIONSHIPS_PER_NODE = 2;
+	private static final int HUBS = 10;
+	private static final int[] WRITERS = { 1, 2, 4, 8 };
+
+	private static Graph generateGraph(int first, int count, long seed) {
+		Random random = new Random(seed);
+		Graph graph = new Graph();
+		graph.addSchema(new GraphSchema(SOURCE, "key", true));
+		graph.addSchema(new GraphSchema("doi", "doi", false));
+
+		for (int i = first; i < first + count; ++i) {
+			String type = TYPES[i % TYPES.length];
+			graph.addNode(GraphNode.builder()
+					.withKey(new GraphKey(SOURCE, "http://researchgraph.org/" + type + "/" + i))
+					.withLabel(SOURCE)
+					.withLabel(type)
+					.withIndex("doi", "doi", "10.4225/" + i)
+					.withProperty("title", "Title of " + type + " " + i)
+					.withProperty("year", 1990 + i % 30)
+					.build());
+
+			for (int j = 0; j < RELATIONSHIPS_PER_NODE; ++j) {
+				int other = 0 == j ? random.nextInt(HUBS) : random.nextInt(first + count);
+				graph.addRelationship(GraphRelationship.builder()
+						.withRelationship("relatedTo")
+						.withStart(SOURCE, "http://researchgraph.org/" + type + "/" + i)
+						.withEnd(SOURCE, "http://researchgraph.org/" + TYPES[other % TYPES.length] + "/" + other)
+						.build());
+			}
+		}
+
+		return graph;
+	}
+
+	private static long run(int writers, int nodes, int batchSize) throws Exception {
+		File folder = Files.createTempDirectory("neo4j-benchmark").toFile();
+		new File(folder, "conf").mkdirs();
+		new File(folder, "conf/neo4j.conf").createNewFile();
+
+		Neo4jDatabase neo4j = new Neo4jDatabase(folder.getAbsolutePath());
+		neo4j.setCypherBatchSize(batchSize);
+		neo4j.setParallelWriters(writers, batchSize);
+
+		Graph created = generateGraph(0, nodes, 1);
+		Graph updated = generateGraph(nodes / 2, nodes, 2);
+
+		long markTime = System.currentTimeMillis();
+		neo4j.importGraph(created);
+		long createTime = System.currentTimeMillis() - markTime;
+
+		markTime = System.currentTimeMillis();
+		neo4j.importGraph(updated);
+		long updateTime = System.currentTimeMillis() - markTime;
+
+		System.out.println(writers + " writers: create " + createTime + " ms, update " + updateTime + " ms");
+		neo4j.printStatistics(System.out);
+		neo4j.setParallelWriters(0, batchSize);
+
+		return createTime + updateTime;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+		// warm up
+		run(WRITERS[WRITERS.length - 1], nodes / 10, batchSize);
+
+		long[] times = new long[WRITERS.length];
+		for (int i = 0; i < WRITERS.length; ++i)
+			times[i] = run(WRITERS[i], nodes, batchSize);
+
+		for (int i = 0; i < WRITERS.length; ++i)
+			System.out.println(String.format("%d writers: %d ms, speed up %.2f",
+					WRITERS[i], times[i], (double) times[0] / times[i]));
+
+		System.exit(0);
+	}
+}
@@ -0,0 +1,111 @@
+/**
+ *
+ */
+package org.rdswitchboard.libraries.graph.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+import org.researchgraph.graph.Graph;
+import org.researchgraph.graph.GraphKey;
+import org.researchgraph.graph.GraphNode;
+import org.researchgraph.graph.GraphRelationship;
+import org.researchgraph.graph.GraphSchema;
+import org.researchgraph.neo4j.Neo4jDatabase;
+import org.researchgraph.neo4j.PersistentPendingRelationships;
+
+public class ParallelWriterTest {
+	private static final int NODES = 300;
+	private static final int HUBS = 5;
+	private static final int UNKNOWN = 20;
+
+	private static GraphKey key(int n) {
+		return new GraphKey("ands", "http://researchgraph.org/dataset/" + n);
+	}
+
+	/**
+	 * Graph of the nodes from first to first + count, relationships end in a random node,
+	 * in a hub and every tenth node waits for a node, what is not imported
+	 */
+	private static Graph graph(int first, int count, long seed) {
+		Random random = new Random(seed);
+		Graph graph = new Graph();
+		graph.addSchema(new GraphSchema("ands", "key", true));
+
+		for (int n = first; n < first + count; ++n) {
+			graph.addNode(GraphNode.builder()
+					.withKey(key(n))
+					.withLabel("dataset")
+					.withProperty("title", "Dataset " + n)
+					.build());
+			graph.addRelationship(GraphRelationship.builder()
+					.withRelationship("relatedTo")
+					.withStart(key(n))
+					.withEnd(key(random.nextInt(first + count)))
+					.build());
+			graph.addRelationship(GraphRelationship.builder()
+					.withRelationship("hasHub")
+					.withStart(key(n))
+					.withEnd(key(random.nextInt(HUBS)))
+					.build());
+			if (0 == n % 10)
+				graph.addRelationship(GraphRelationship.builder()
+						.withRelationship("relatedTo")
+						.withStart(key(n))
+						.withEnd(key(NODES * 2 + n / 10 % UNKNOWN))
+						.build());
+		}
+
+		return graph;
+	}
+
+	private static long count(GraphDatabaseService graphDb, String cypher) {
+		try (Transaction tx = graphDb.beginTx(); Result result = graphDb.execute(cypher)) {
+			return (Long) result.next().get("n");
+		}
+	}
+
+	/**
+	 * Function to import the graphs and to return the counts of nodes, relationships and pending keys
+	 */
+	private static long[] run(int writers) throws Exception {
+		Neo4jDatabase neo4j = new Neo4jDatabase(IndexUpdateTest.neo4jFolder().getAbsolutePath());
+		try {
+			PersistentPendingRelationships pending = neo4j.openPendingStore();
+			neo4j.setParallelWriters(writers, 20);
+
+			neo4j.importGraph(graph(0, NODES, 1));
+			// the second graph updates a half of the nodes and releases nothing
+			neo4j.importGraph(graph(NODES / 2, NODES, 2));
+
+			GraphDatabaseService graphDb = neo4j.getGraphDatabaseService();
+			return new long[] {
+					count(graphDb, "MATCH (n:ands) RETURN count(n) AS n"),
+					count(graphDb, "MATCH ()-[r]->() RETURN count(r) AS n"),
+					pending.size(),
+					pending.getRelationshipsCount()
+			};
+		} finally {
+			neo4j.shutdown();
+		}
+	}
+
+	@Test
+	public void writersTest() throws Exception {
+		long[] single = run(1);
+		long[] parallel = run(4);
+
+		assertEquals("Should import every node", NODES * 3 / 2, single[0]);
+		assertEquals("Should import the same nodes", single[0], parallel[0]);
+		assertEquals("Should import the same relationships", single[1], parallel[1]);
+		assertEquals("Should store the unknown keys", UNKNOWN, single[2]);
+		assertEquals("Should store the same unknown keys", single[2], parallel[2]);
+		assertEquals("Should store the same pending relationships", single[3], parallel[3]);
+		assertTrue("Should store the pending relationships", parallel[3] > 0);
+	}
+}
@@ -0,0 +1,75 @@
+/**
+ *
+ */
+package org.rdswitchboard.libraries.graph.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+import org.researchgraph.graph.GraphKey;
+import org.researchgraph.graph.GraphRelationship;
+import org.researchgraph.neo4j.PendingRelationships;
+
+public class PendingRelationshipsTest {
+
+	private static GraphKey key(int n) {
+		return new GraphKey("ands", "http://researchgraph.org/dataset/" + n);
+	}
+
+	private static GraphRelationship relationship(GraphKey start, GraphKey end) {
+		return GraphRelationship.builder()
+				.withRelationship("relatedTo")
+				.withStart(start)
+				.withEnd(end)
+				.build();
+	}
+
+	@Test
+	public void otherKeysTest() {
+		PendingRelationships pending = new PendingRelationships();
+
+		GraphKey grant = new GraphKey("arc", "grant", 42);
+		pending.add(grant, relationship(key(1), grant));
+		pending.add(key(2), relationship(key(2), key(3)));
+		// the String key waits for a relationship with a number key too
+		pending.add(key(2), relationship(grant, key(2)));
+		assertEquals("Should count keys of both kinds", 2, pending.size());
+		assertEquals("Should list keys of both kinds", new HashSet<GraphKey>(Arrays.asList(grant, key(2))),
+				new HashSet<GraphKey>(pending.keys()));
+
+		List<GraphRelationship> list = pending.remove(grant);
+		assertEquals("Should return relationship of the number key", 1, list.size());
+		assertEquals("Should keep the number key", grant, list.get(0).getEnd());
+
+		list = pending.remove(key(2));
+		assertEquals("Should return relationships of both kinds", 2, list.size());
+		assertEquals("Should be empty", 0, pending.size());
+		assertNull("Should not find removed key", pending.remove(key(2)));
+	}
+
+	@Test
+	public void rollbackTest() {
+		PendingRelationships pending = new PendingRelationships();
+
+		GraphKey grant = new GraphKey("arc", "grant", 42);
+		pending.add(grant, relationship(key(1), grant));
+		pending.add(key(2), relationship(key(1), key(2)));
+		pending.add(key(2), relationship(key(3), key(2)));
+
+		assertNotNull("Should remove the number key", pending.remove(grant));
+		assertNotNull("Should remove the String key", pending.remove(key(2)));
+		pending.rollback();
+		assertEquals("Should restore both keys", 2, pending.size());
+
+		List<GraphRelationship> list = pending.remove(key(2));
+		assertEquals("Should restore all relationships", 2, list.size());
+		assertEquals("Should restore the order", key(3), list.get(0).getStart());
+		pending.commit();
+		pending.rollback();
+		assertNull("Should not restore committed removal", pending.remove(key(2)));
+	}
+}
@@ -0,0 +1,213 @@
+/**
+ *
+ */
+package org.rdswitchboard.libraries.graph.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Test;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+import org.researchgraph.graph.Graph;
+import org.researchgraph.graph.GraphKey;
+import org.researchgraph.graph.GraphNode;
+import org.researchgraph.graph.GraphRelationship;
+import org.researchgraph.neo4j.Neo4jDatabase;
+import org.researchgraph.neo4j.PersistentPendingRelationships;
+
+public class PersistentPendingRelationshipsTest {
+	private static final long STORE_ID = 42;
+	private static final long CREATION_TIME = 1000;
+
+	private static GraphKey key(int n) {
+		return new GraphKey("ands", "http://researchgraph.org/dataset/" + n);
+	}
+
+	private static GraphRelationship relationship(GraphKey start, GraphKey end) {
+		return GraphRelationship.builder()
+				.withRelationship("relatedTo")
+				.withStart(start)
+				.withEnd(end)
+				.build();
+	}
+
+	private static PersistentPendingRelationships open(File folder, long storeId) throws Exception {
+		return new PersistentPendingRelationships(new File(folder, "pending.idx"), new File(folder, "pending.log"),
+				storeId, CREATION_TIME);
+	}
+
+	@Test
+	public void collisionTest() throws Exception {
+		File folder = Files.createTempDirectory("pending").toFile();
+
+		// the values are hashed as String, so both keys have the same hash
+		GraphKey number = new GraphKey("ands", "grant", 42);
+		GraphKey string = new GraphKey("ands", "grant", "42");
+		try (PersistentPendingRelationships store = open(folder, STORE_ID)) {
+			store.add(number, relationship(key(1), number));
+			store.add(string, relationship(key(2), string));
+			store.add(number, relationship(key(3), number));
+			assertEquals("Should count both keys in a single slot", 1, store.size());
+
+			List<GraphRelationship> list = store.remove(number);
+			assertEquals("Should return relationships of the key only", 2, list.size());
+			assertEquals("Should return the last relationship first", key(3), list.get(0).getStart());
+			assertEquals("Should keep the other key after the rewrite", 1, store.size());
+			assertEquals("Should keep relationship of the other key", 1, store.getRelationshipsCount());
+
+			assertNull("Should not find removed key", store.remove(number));
+			list = store.remove(string);
+			assertEquals("Should find rewritten relationship", 1, list.size());
+			assertEquals("Should find rewritten relationship by its key", key(2), list.get(0).getStart());
+			assertEquals("Should be empty", 0, store.size());
+		}
+	}
+
+	@Test
+	public void compactTest() throws Exception {
+		File folder = Files.createTempDirectory("pending").toFile();
+		File log = new File(folder, "pending.log");
+
+		try (PersistentPendingRelationships store = open(folder, STORE_ID)) {
+			for (int i = 0; i < 1000; ++i)
+				store.add(key(i), relationship(key(1000 + i), key(i)));
+			// the key 0 waits for two relationships, the second one points back to it
+			store.add(key(0), relationship(key(0), key(2000)));
+			for (int i = 1; i < 1000; ++i)
+				assertNotNull("Should find pending key " + i, store.remove(key(i)));
+			store.commit();
+		}
+		assertTrue("Should compact the log, if most of its records have been resolved", log.length() < 1000);
+
+		try (PersistentPendingRelationships store = open(folder, STORE_ID)) {
+			assertFalse("Should keep store, what has been closed", store.isReset());
+			assertEquals("Should keep pending key", 1, store.size());
+			assertEquals("Should keep pending relationships", 2, store.getRelationshipsCount());
+			assertEquals("Should list pending key", key(0), store.keys().get(0));
+
+			List<GraphRelationship> list = store.remove(key(0));
+			assertEquals("Should keep the links between compacted records", 2, list.size());
+			assertEquals("Should return the last compacted relationship first", key(2000), list.get(0).getEnd());
+			assertEquals("Should return the first compacted relationship last", key(1000), list.get(1).getStart());
+			store.commit();
+		}
+		assertEquals("Should truncate the log, once all the relationships have been resolved", 0, log.length());
+	}
+
+	@Test
+	public void recoveryTest() throws Exception {
+		File folder = Files.createTempDirectory("pending").toFile();
+
+		try (PersistentPendingRelationships store = open(folder, STORE_ID)) {
+			store.add(key(1), relationship(key(2), key(1)));
+		}
+
+		try (PersistentPendingRelationships store = open(folder, STORE_ID + 1)) {
+			assertTrue("Should reset store of a different Neo4j store", store.isReset());
+			assertEquals("Should discard relationships of the reset store", 0, store.getRelationshipsCount());
+			store.add(key(1), relationship(key(2), key(1)));
+		}
+
+		// the store is left open, as if the application has been terminated
+		PersistentPendingRelationships dirty = open(folder, STORE_ID + 1);
+		assertFalse("Should keep store, what has been closed", dirty.isReset());
+		dirty.add(key(3), relationship(key(4), key(3)));
+		dirty.add(key(5), relationship(key(6), key(5)));
+		assertNotNull("Should find pending key", dirty.remove(key(5)));
+		// the commit writes the log, the next removal is not committed
+		dirty.commit();
+		assertNotNull("Should find pending key", dirty.remove(key(1)));
+
+		try (PersistentPendingRelationships store = open(folder, STORE_ID + 1)) {
+			assertFalse("Should not reset store, what has not been closed", store.isReset());
+			assertTrue("Should recover store, what has not been closed", store.isRecovered());
+			assertEquals("Should recover the pending keys", 2, store.size());
+			assertEquals("Should recover the pending relationships", 2, store.getRelationshipsCount());
+			assertNotNull("Should restore not committed removal", store.remove(key(1)));
+			assertNotNull("Should recover relationship added after the last close", store.remove(key(3)));
+			assertNull("Should keep committed removal", store.remove(key(5)));
+			store.commit();
+		}
+
+		try (PersistentPendingRelationships store = open(folder, STORE_ID + 1)) {
+			assertFalse("Should open store, what has been closed", store.isRecovered());
+			assertEquals("Should be empty", 0, store.size());
+		}
+	}
+
+	@Test
+	public void rollbackTest() throws Exception {
+		File folder = Files.createTempDirectory("pending").toFile();
+
+		// the values are hashed as String, so both keys have the same hash
+		GraphKey number = new GraphKey("ands", "grant", 42);
+		GraphKey string = new GraphKey("ands", "grant", "42");
+		try (PersistentPendingRelationships store = open(folder, STORE_ID)) {
+			store.add(number, relationship(key(1), number));
+			store.add(string, relationship(key(2), string));
+			store.add(key(3), relationship(key(4), key(3)));
+
+			assertEquals("Should remove relationship of the key", 1, store.remove(number).size());
+			assertEquals("Should remove relationship of the key", 1, store.remove(key(3)).size());
+			assertEquals("Should count the other key", 1, store.size());
+			store.rollback();
+			assertEquals("Should restore the keys", 2, store.size());
+			assertEquals("Should restore the relationships", 3, store.getRelationshipsCount());
+
+			assertEquals("Should find restored relationship", 1, store.remove(number).size());
+			store.commit();
+			assertNull("Should not find committed removal", store.remove(number));
+			assertEquals("Should keep the other key", 1, store.remove(string).size());
+			// the removals are not committed, so they will be restored on closing
+			assertEquals("Should find restored relationship", 1, store.remove(key(3)).size());
+		}
+
+		try (PersistentPendingRelationships store = open(folder, STORE_ID)) {
+			assertEquals("Should keep not committed removals", 2, store.size());
+			assertNull("Should not find committed removal", store.remove(number));
+			assertNotNull("Should find not committed removal", store.remove(string));
+			assertNotNull("Should find not committed removal", store.remove(key(3)));
+		}
+	}
+
+	private static Graph nodeGraph(GraphKey... keys) {
+		Graph graph = new Graph();
+		for (GraphKey key : keys)
+			graph.addNode(GraphNode.builder().withKey(key).build());
+		return graph;
+	}
+
+	@Test
+	public void databaseTest() throws Exception {
+		Neo4jDatabase neo4j = new Neo4jDatabase(IndexUpdateTest.neo4jFolder().getAbsolutePath());
+		try {
+			PersistentPendingRelationships store = neo4j.openPendingStore();
+
+			Graph graph = nodeGraph(key(1));
+			graph.addRelationship(relationship(key(1), key(2)));
+			neo4j.importGraph(graph);
+			assertEquals("Should store the relationship", 1, store.getRelationshipsCount());
+
+			// the second node has no label, so the transaction releasing the relationship is rolled back
+			try {
+				neo4j.importGraph(nodeGraph(key(2), new GraphKey("", "http://researchgraph.org/dataset/3")));
+				fail("Should reject a node key without label");
+			} catch (IllegalArgumentException e) {
+				assertEquals("Should keep the released relationship", 1, store.getRelationshipsCount());
+			}
+
+			neo4j.importGraph(nodeGraph(key(2)));
+			assertEquals("Should release the relationship", 0, store.getRelationshipsCount());
+			try (Transaction tx = neo4j.getGraphDatabaseService().beginTx();
+					Result result = neo4j.getGraphDatabaseService().execute("MATCH ()-[r]->() RETURN count(r) AS n")) {
+				assertEquals("Should create the relationship", 1L, result.next().get("n"));
+			}
+		} finally {
+			neo4j.shutdown();
+		}
+	}
+}
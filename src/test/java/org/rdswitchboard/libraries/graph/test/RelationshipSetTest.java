@@ -0,0 +1,33 @@
+/**
+ *
+ */
+package org.rdswitchboard.libraries.graph.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.researchgraph.neo4j.RelationshipSet;
+
+public class RelationshipSetTest {
+
+	@Test
+	public void setTest() {
+		RelationshipSet set = new RelationshipSet(10000);
+
+		for (long i = 0; i < 10000; ++i)
+			assertTrue("Should add a new relationship", set.add(i, i + 1, "relatedTo"));
+
+		assertFalse("Should not add existing relationship", set.add(5, 6, "relatedTo"));
+		assertTrue("Should find a relationship", set.contains(9999, 10000, "relatedTo"));
+		assertFalse("Should distinguish relationship direction", set.contains(6, 5, "relatedTo"));
+		assertFalse("Should distinguish relationship type", set.contains(5, 6, "hasFunder"));
+
+		assertTrue("Should be full", set.isFull());
+		assertFalse("Should ignore relationships when full", set.add(0, 2, "relatedTo"));
+		assertFalse("Should not find ignored relationship", set.contains(0, 2, "relatedTo"));
+		assertEquals("Should count ignored relationships", 1, set.getIgnored());
+
+		set.clear();
+		assertFalse("Should forget relationships after clear", set.contains(5, 6, "relatedTo"));
+	}
+}
@@ -0,0 +1,125 @@
+/**
+ *
+ */
+package org.rdswitchboard.libraries.graph.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+import org.researchgraph.graph.GraphKey;
+import org.researchgraph.graph.GraphRelationship;
+import org.researchgraph.neo4j.RelationshipSpool;
+
+public class RelationshipSpoolTest {
+
+	/**
+	 * Array properties are kept as sets, so the order of elements is not defined
+	 */
+	private static Set<Object> set(Object array) {
+		return new HashSet<Object>(Arrays.asList((Object[]) array));
+	}
+
+	@Test
+	public void spoolTest() throws Exception {
+		File folder = Files.createTempDirectory("spool").toFile();
+		Random random = new Random(42);
+
+		try (RelationshipSpool spool = new RelationshipSpool(folder, 1000)) {
+			for (int i = 0; i < 10500; ++i)
+				spool.add(GraphRelationship.builder()
+						.withRelationship("relatedTo")
+						.withStart("ands", "http://researchgraph.org/" + random.nextInt(5000))
+						.withEnd("ands", "http://researchgraph.org/" + i)
+						.build());
+
+			spool.add(GraphRelationship.builder()
+					.withRelationship("hasFunder")
+					.withStart(new GraphKey("ands", "grant", 42))
+					.withEnd("ands", "http://researchgraph.org/funder")
+					.withProperty("role", new String[] { "lead", "partner" })
+					.withProperty("weight", 0.5)
+					.build());
+
+			assertEquals("Should count spooled relationships", 10501, spool.size());
+			assertEquals("Should write full runs to the disk", 10, spool.getRunsCount());
+
+			int count = 0;
+			GraphRelationship previous = null;
+			GraphRelationship funder = null;
+			for (Iterator<GraphRelationship> it = spool.sorted(); it.hasNext(); ++count) {
+				GraphRelationship relationship = it.next();
+				if (null != previous)
+					assertTrue("Should be sorted by the start key",
+							RelationshipSpool.START_KEY_ORDER.compare(previous, relationship) <= 0);
+				if ("hasFunder".equals(relationship.getRelationship()))
+					funder = relationship;
+				previous = relationship;
+			}
+
+			assertEquals("Should read all spooled relationships", 10501, count);
+			assertNotNull("Should read relationship with properties", funder);
+			assertEquals("Should keep key value type", new GraphKey("ands", "grant", 42), funder.getStart());
+			assertEquals("Should keep array property", new HashSet<String>(Arrays.asList("lead", "partner")),
+					new HashSet<String>(Arrays.asList((String[]) funder.getProperties().get("role"))));
+			assertEquals("Should keep double property", 0.5, funder.getProperties().get("weight"));
+
+			spool.clear();
+			assertTrue("Should be empty after clear", spool.isEmpty());
+			assertEquals("Should delete run files", 0, folder.listFiles().length);
+		}
+	}
+
+	@Test
+	public void arrayTest() throws Exception {
+		File folder = Files.createTempDirectory("spool").toFile();
+
+		try (RelationshipSpool spool = new RelationshipSpool(folder, 1)) {
+			spool.add(GraphRelationship.builder()
+					.withRelationship("relatedTo")
+					.withStart("ands", "http://researchgraph.org/1")
+					.withEnd("ands", "http://researchgraph.org/2")
+					.withProperty("years", new Integer[] { 2014, 2015 })
+					.withProperty("ids", new Long[] { 1L, 2L })
+					.withProperty("scores", new Float[] { 0.5f, 1.5f })
+					.withProperty("flags", new Boolean[] { true, false })
+					.withProperty("codes", new Short[] { (short) 7, (short) 8 })
+					.withProperty("initial", 'A')
+					.build());
+			// a second relationship makes the first one to be written into a run
+			spool.add(GraphRelationship.builder()
+					.withRelationship("relatedTo")
+					.withStart("ands", "http://researchgraph.org/3")
+					.withEnd("ands", "http://researchgraph.org/4")
+					.build());
+			assertEquals("Should write the arrays to the disk", 2, spool.getRunsCount());
+
+			Map<String, Object> properties = spool.sorted().next().getProperties();
+			assertEquals("Should keep integer array", set(new Integer[] { 2014, 2015 }), set(properties.get("years")));
+			assertEquals("Should keep long array", set(new Long[] { 1L, 2L }), set(properties.get("ids")));
+			assertEquals("Should keep float array", set(new Float[] { 0.5f, 1.5f }), set(properties.get("scores")));
+			assertEquals("Should keep boolean array", set(new Boolean[] { true, false }), set(properties.get("flags")));
+			assertEquals("Should keep short array", set(new Short[] { (short) 7, (short) 8 }), set(properties.get("codes")));
+			assertEquals("Should keep character property", 'A', properties.get("initial"));
+
+			spool.add(GraphRelationship.builder()
+					.withRelationship("relatedTo")
+					.withStart("ands", "http://researchgraph.org/5")
+					.withEnd("ands", "http://researchgraph.org/6")
+					.withProperty("updated", new Date(0))
+					.build());
+			fail("Should reject unsupported value type");
+		} catch (IllegalArgumentException e) {
+			assertTrue("Should name the value type", e.getMessage().contains("java.util.Date"));
+		}
+	}
+}
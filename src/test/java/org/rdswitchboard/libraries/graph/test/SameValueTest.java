@@ -0,0 +1,39 @@
+/**
+ *
+ */
+package org.rdswitchboard.libraries.graph.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.researchgraph.graph.PropertyValues;
+
+public class SameValueTest {
+
+	@Test
+	public void scalarTest() {
+		assertTrue("Should match equal strings", PropertyValues.isSameValue("10.4225/1", "10.4225/1"));
+		assertFalse("Should not match different strings", PropertyValues.isSameValue("10.4225/1", "10.4225/2"));
+		assertFalse("Should not match missing value", PropertyValues.isSameValue(null, "10.4225/1"));
+		assertFalse("Should not match missing import", PropertyValues.isSameValue("10.4225/1", null));
+
+		// the value type is stored too, so a different boxed type has to be written
+		assertFalse("Should not match Integer and Long", PropertyValues.isSameValue(1, 1L));
+		assertFalse("Should not match Integer and String", PropertyValues.isSameValue(1, "1"));
+		assertFalse("Should not match scalar and array", PropertyValues.isSameValue("physics", new String[] { "physics" }));
+	}
+
+	@Test
+	public void arrayTest() {
+		assertTrue("Should match arrays in a different order", PropertyValues.isSameValue(
+				new String[] { "physics", "chemistry" }, new String[] { "chemistry", "physics" }));
+		assertTrue("Should match stored primitive array with boxed one",
+				PropertyValues.isSameValue(new int[] { 1, 2, 3 }, new Integer[] { 3, 1, 2 }));
+		assertFalse("Should not match arrays of different length", PropertyValues.isSameValue(
+				new String[] { "physics", "chemistry" }, new String[] { "physics", "chemistry", "biology" }));
+		assertFalse("Should not match arrays with a different element", PropertyValues.isSameValue(
+				new String[] { "physics", "chemistry" }, new String[] { "physics", "biology" }));
+		assertFalse("Should not match arrays of different boxed types",
+				PropertyValues.isSameValue(new long[] { 1, 2 }, new Integer[] { 1, 2 }));
+	}
+}
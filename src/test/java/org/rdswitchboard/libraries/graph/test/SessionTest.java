@@ -0,0 +1,92 @@
+/**
+ *
+ */
+package org.rdswitchboard.libraries.graph.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Result;
+import org.neo4j.graphdb.Transaction;
+import org.researchgraph.graph.GraphKey;
+import org.researchgraph.graph.GraphNode;
+import org.researchgraph.graph.GraphRelationship;
+import org.researchgraph.graph.GraphSchema;
+import org.researchgraph.neo4j.Neo4jDatabase;
+import org.researchgraph.neo4j.Neo4jSession;
+import org.researchgraph.neo4j.PersistentPendingRelationships;
+
+public class SessionTest {
+	private static final int THREADS = 4;
+	private static final int NODES = 400;
+	private static final int HUBS = 5;
+
+	private static GraphKey key(int n) {
+		return new GraphKey("ands", "http://researchgraph.org/dataset/" + n);
+	}
+
+	private static GraphRelationship relationship(String type, int start, int end) {
+		return GraphRelationship.builder()
+				.withRelationship(type)
+				.withStart(key(start))
+				.withEnd(key(end))
+				.build();
+	}
+
+	private static long count(GraphDatabaseService graphDb, String cypher) {
+		try (Transaction tx = graphDb.beginTx(); Result result = graphDb.execute(cypher)) {
+			return (Long) result.next().get("n");
+		}
+	}
+
+	@Test
+	public void concurrentTest() throws Exception {
+		Neo4jDatabase neo4j = new Neo4jDatabase(IndexUpdateTest.neo4jFolder().getAbsolutePath());
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			PersistentPendingRelationships pending = neo4j.openPendingStore();
+
+			// every thread imports its own nodes, relationships end in the nodes of the other threads and in a few hubs
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int thread = 0; thread < THREADS; ++thread) {
+				int first = thread;
+				futures.add(executor.submit(() -> {
+					try (Neo4jSession session = neo4j.openSession(10)) {
+						session.importSchema(new GraphSchema("ands", "key", true));
+						for (int n = first; n < NODES; n += THREADS) {
+							session.importNode(GraphNode.builder()
+									.withKey(key(n))
+									.withLabel("dataset")
+									.build());
+							session.importRelationship(relationship("relatedTo", n, (n + 1) % NODES));
+							session.importRelationship(relationship("hasHub", n, NODES - 1 - n % HUBS));
+						}
+					}
+					return null;
+				}));
+			}
+			for (Future<?> future : futures)
+				future.get();
+
+			GraphDatabaseService graphDb = neo4j.getGraphDatabaseService();
+			assertEquals("Should create every node once", NODES, count(graphDb, "MATCH (n:ands) RETURN count(n) AS n"));
+			assertEquals("Should create every relationship once", 2 * NODES,
+					count(graphDb, "MATCH ()-[r]->() RETURN count(r) AS n"));
+			assertEquals("Should link every node to the next one", NODES,
+					count(graphDb, "MATCH (:ands)-[r:relatedTo]->(:ands) RETURN count(r) AS n"));
+			assertEquals("Should not leave any key pending", 0, pending.size());
+			assertEquals("Should not leave any relationship pending", 0, pending.getRelationshipsCount());
+			assertEquals("Should count created relationships", 2 * NODES, neo4j.getRelationshipsCreated());
+		} finally {
+			executor.shutdown();
+			neo4j.shutdown();
+		}
+	}
+}
@@ -0,0 +1,67 @@
+/**
+ *
+ */
+package org.rdswitchboard.libraries.graph.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.researchgraph.neo4j.TransactionSizer;
+
+public class TransactionSizerTest {
+
+	@Test
+	public void fixedTest() {
+		TransactionSizer sizer = new TransactionSizer(5000);
+		assertFalse("Should not be adaptive", sizer.isAdaptive());
+
+		sizer.committed(10);
+		sizer.committed(5000);
+		assertEquals("Should keep the fixed size", 5000, sizer.getSize());
+		assertEquals("Should count commits", 2, sizer.getCommits());
+		assertEquals("Should average the latency", 2505, sizer.getAverageLatency());
+		assertEquals("Should keep the maximal latency", 5000, sizer.getMaxLatency());
+	}
+
+	@Test
+	public void adaptiveTest() {
+		// no heap reserve, so only the latency changes the size
+		TransactionSizer sizer = new TransactionSizer(1000, 100, 2000, 500, 0);
+		assertTrue("Should be adaptive", sizer.isAdaptive());
+
+		sizer.committed(100);
+		assertEquals("Should grow by a half after a fast commit", 1500, sizer.getSize());
+		sizer.committed(100);
+		assertEquals("Should not grow above the maximal size", 2000, sizer.getSize());
+
+		sizer.committed(800);
+		assertEquals("Should keep the size after a commit close to the target", 2000, sizer.getSize());
+		sizer.committed(1500);
+		assertEquals("Should shrink by a quarter after a slow commit", 1500, sizer.getSize());
+
+		for (int i = 0; i < 20; ++i)
+			sizer.committed(1500);
+		assertEquals("Should not shrink below the minimal size", 100, sizer.getSize());
+	}
+
+	@Test
+	public void heapTest() {
+		// the whole heap is reserved, so every commit is seen as too big
+		TransactionSizer sizer = new TransactionSizer(1000, 100, 2000, 500, 1);
+
+		sizer.committed(10);
+		assertEquals("Should halve the size, even after a fast commit", 500, sizer.getSize());
+	}
+
+	@Test
+	public void rangeTest() {
+		assertEquals("Should limit the initial size", 2000, new TransactionSizer(5000, 100, 2000, 500, 0).getSize());
+
+		try {
+			new TransactionSizer(1000, 2000, 100, 500, 0);
+			fail("Should reject an invalid range");
+		} catch (IllegalArgumentException e) {
+			assertTrue("Should name the range", e.getMessage().contains("[2000, 100]"));
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ *
+ */
+package org.rdswitchboard.libraries.graph.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+import org.researchgraph.graph.Graph;
+import org.researchgraph.graph.GraphIndex;
+import org.researchgraph.graph.GraphKey;
+import org.researchgraph.graph.GraphNode;
+import org.researchgraph.graph.GraphRelationship;
+import org.researchgraph.neo4j.RelationshipSpool;
+import org.researchgraph.neo4j.WriteBehindBuffer;
+
+public class WriteBehindBufferTest {
+
+	private static Graph datasetGraph(int dataset) {
+		Graph graph = new Graph();
+		graph.addNode(GraphNode.builder()
+				.withKey("ands", "http://researchgraph.org/dataset/" + dataset)
+				.withLabel("dataset")
+				.build());
+		graph.addNode(GraphNode.builder()
+				.withKey("ands", "http://researchgraph.org/grant/1")
+				.withLabel("grant")
+				.withLabel(0 == dataset ? "ands" : "arc")
+				.withIndex("doi", "doi", "10.4225/" + dataset)
+				.withProperty("title", "Grant title " + dataset)
+				.build());
+		graph.addRelationship(GraphRelationship.builder()
+				.withRelationship("relatedTo")
+				.withStart("ands", "http://researchgraph.org/dataset/" + dataset)
+				.withEnd("ands", "http://researchgraph.org/grant/1")
+				.build());
+		graph.addRelationship(GraphRelationship.builder()
+				.withRelationship("isFundedBy")
+				.withStart("ands", "http://researchgraph.org/grant/1")
+				.withEnd("ands", "http://researchgraph.org/funder")
+				.withProperty("weight", dataset)
+				.build());
+		return graph;
+	}
+
+	@Test
+	public void coalesceTest() {
+		WriteBehindBuffer buffer = new WriteBehindBuffer(1000, 0);
+
+		for (int dataset = 5; dataset >= 0; --dataset)
+			buffer.add(datasetGraph(dataset));
+
+		GraphNode deleted = GraphNode.builder()
+				.withKey("ands", "http://researchgraph.org/deleted")
+				.withDeleted(true)
+				.build();
+		buffer.addNode(deleted);
+
+		assertEquals("Should buffer every node and relationship once", 7 + 7, buffer.size());
+		assertEquals("Should merge repeated grant", 5, buffer.getNodesCoalesced());
+		assertEquals("Should merge repeated funder relationship", 5, buffer.getRelationshipsCoalesced());
+		assertEquals("Should drop deleted node", 1, buffer.getNodesDropped());
+		assertFalse("Should not flush below the size", buffer.isFlushRequired());
+
+		Graph graph = buffer.drain();
+		assertTrue("Should be empty after drain", buffer.isEmpty());
+
+		List<GraphNode> nodes = new ArrayList<GraphNode>(graph.getNodes());
+		assertEquals("Should drain all nodes", 7, nodes.size());
+		for (int i = 1; i < nodes.size(); ++i)
+			assertTrue("Should be sorted by the key",
+					RelationshipSpool.KEY_ORDER.compare(nodes.get(i - 1).getKey(), nodes.get(i).getKey()) < 0);
+
+		GraphNode grant = null;
+		for (GraphNode node : nodes)
+			if (node.getKey().getValue().equals("http://researchgraph.org/grant/1"))
+				grant = node;
+
+		assertNotNull("Should drain the grant", grant);
+		assertEquals("Should add labels of all occurrences", new HashSet<String>(Arrays.asList("grant", "ands", "arc")),
+				grant.getLabels());
+		assertEquals("Should replace index value with the last occurrence", "10.4225/0",
+				grant.getIndexes().get(GraphIndex.valueOf("doi", "doi")));
+		assertEquals("Should replace property with the last occurrence", "Grant title 0", grant.getProperty("title"));
+
+		List<GraphRelationship> relationships = new ArrayList<GraphRelationship>(graph.getRelationships());
+		assertEquals("Should drain distinct relationships", 7, relationships.size());
+		for (GraphRelationship relationship : relationships)
+			if ("isFundedBy".equals(relationship.getRelationship()))
+				assertEquals("Should replace relationship property", 0, relationship.getProperty("weight"));
+	}
+
+	@Test
+	public void limitTest() throws Exception {
+		WriteBehindBuffer buffer = new WriteBehindBuffer(3, 0);
+		buffer.add(datasetGraph(0));
+		assertTrue("Should flush at the size", buffer.isFlushRequired());
+
+		buffer = new WriteBehindBuffer(1000, 1);
+		assertFalse("Should not flush empty buffer", buffer.isFlushRequired());
+		buffer.addNode(GraphNode.builder().withKey(new GraphKey("ands", "key", "node")).build());
+		Thread.sleep(5);
+		assertTrue("Should flush at the age", buffer.isFlushRequired());
+	}
+}